@@ -0,0 +1,177 @@
+package com.meshnetwork.app.services;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.AdvertiseCallback;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+import android.os.Build;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.meshnetwork.mesh.schedule.TimingWheel;
+import com.meshnetwork.mesh.transport.AdvertQueue;
+
+import java.util.UUID;
+
+/**
+ * Connectionless bearer: small frames go out as service data in a
+ * non-connectable advertisement, and neighbours pick them up from their
+ * scan results without opening a GATT connection.
+ *
+ * Uses extended advertising where the controller supports it (one
+ * secondary-channel PDU, so up to about 240 bytes) and legacy advertising
+ * otherwise. Frames take turns on air as {@link AdvertQueue} decides; each
+ * change of payload restarts the advertiser. Confined to the mesh worker,
+ * whose timing wheel retires each frame when its hold is over.
+ *
+ * Refuses frames until {@link #start} and again after {@link #stop}, so a
+ * late send cannot put the advertiser back on air.
+ */
+public class AdvertisingBearer {
+    
+    private static final String TAG = "AdvertisingBearer";
+    
+    /** 16-bit service data UUID that marks a mesh frame in an advertisement */
+    public static final UUID BEARER_UUID = UUID.fromString("0000FF3A-0000-1000-8000-00805F9B34FB");
+    
+    /** Frames waiting their turn on air */
+    private static final int QUEUE_CAPACITY = 8;
+    
+    /** About five advertising events at the 100 ms low latency interval */
+    private static final long HOLD_MS = 500;
+    
+    /** Advertising data that fits one AUX_ADV_IND after its extended header, without chaining */
+    private static final int SINGLE_PDU_DATA_LENGTH = 245;
+    
+    private final BluetoothLeAdvertiser advertiser;
+    private final TimingWheel timers;
+    private final boolean extended;
+    private final AdvertQueue queue;
+    private AdvertisingSetCallback advertisingSetCallback;
+    
+    private boolean started;
+    private byte[] onAir;
+    
+    public AdvertisingBearer(BluetoothAdapter adapter, TimingWheel timers) {
+        this.advertiser = adapter.getBluetoothLeAdvertiser();
+        this.timers = timers;
+        this.extended = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && adapter.isLeExtendedAdvertisingSupported();
+        int maxFrameSize = extended
+                ? AdvertQueue.maxFrameSize(Math.min(adapter.getLeMaximumAdvertisingDataLength(), SINGLE_PDU_DATA_LENGTH))
+                : AdvertQueue.LEGACY_MAX_FRAME_SIZE;
+        this.queue = new AdvertQueue(QUEUE_CAPACITY, HOLD_MS, maxFrameSize);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            advertisingSetCallback = new AdvertisingSetCallback() {
+                @Override
+                public void onAdvertisingSetStarted(AdvertisingSet advertisingSet, int txPower, int status) {
+                    if (status != ADVERTISE_SUCCESS) {
+                        Log.e(TAG, "Frame advertising set failed: " + status);
+                    }
+                }
+            };
+        }
+        Log.d(TAG, (extended ? "Extended" : "Legacy") + " advertising, frames up to " + maxFrameSize + " bytes");
+    }
+    
+    /**
+     * Advertise a frame if it fits the bearer and there is room.
+     * Returns false if it should go over connections instead.
+     */
+    public boolean send(byte[] frame) {
+        if (!started || advertiser == null || !queue.offer(frame)) return false;
+        
+        update();
+        return true;
+    }
+    
+    public void start() {
+        started = true;
+    }
+    
+    public void stop() {
+        started = false;
+        timers.cancel(updateTimeout);
+        queue.clear();
+        if (onAir != null) {
+            stopAdvertiser();
+            onAir = null;
+        }
+    }
+    
+    public AdvertQueue getQueue() {
+        return queue;
+    }
+    
+    /**
+     * Put the frame that is due on air, and come back when its hold is over
+     */
+    private void update() {
+        if (!started) return;
+        long now = SystemClock.elapsedRealtime();
+        byte[] next = queue.poll(now);
+        
+        if (next != onAir) {
+            if (onAir != null) {
+                stopAdvertiser();
+            }
+            onAir = next;
+            if (next != null) {
+                startAdvertiser(next);
+            }
+        }
+        
+        if (next != null) {
+            timers.schedule(updateTimeout, queue.getNextChangeAt() - now);
+        } else {
+            timers.cancel(updateTimeout);
+        }
+    }
+    
+    private final TimingWheel.Timeout updateTimeout = new TimingWheel.Timeout(this::update);
+    
+    private void startAdvertiser(byte[] frame) {
+        AdvertiseData data = new AdvertiseData.Builder()
+                .setIncludeDeviceName(false)
+                .setIncludeTxPowerLevel(false)
+                .addServiceData(new ParcelUuid(BEARER_UUID), frame)
+                .build();
+        
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            AdvertisingSetParameters parameters = new AdvertisingSetParameters.Builder()
+                    .setLegacyMode(!extended)
+                    .setConnectable(false)
+                    .setScannable(false)
+                    .setInterval(AdvertisingSetParameters.INTERVAL_LOW)
+                    .setTxPowerLevel(AdvertisingSetParameters.TX_POWER_HIGH)
+                    .build();
+            advertiser.startAdvertisingSet(parameters, data, null, null, null, advertisingSetCallback);
+        } else {
+            AdvertiseSettings settings = new AdvertiseSettings.Builder()
+                    .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY)
+                    .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_HIGH)
+                    .setConnectable(false)
+                    .build();
+            advertiser.startAdvertising(settings, data, advertiseCallback);
+        }
+    }
+    
+    private void stopAdvertiser() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            advertiser.stopAdvertisingSet(advertisingSetCallback);
+        } else {
+            advertiser.stopAdvertising(advertiseCallback);
+        }
+    }
+    
+    private final AdvertiseCallback advertiseCallback = new AdvertiseCallback() {
+        @Override
+        public void onStartFailure(int errorCode) {
+            Log.e(TAG, "Frame advertising failed: " + errorCode);
+        }
+    };
+}
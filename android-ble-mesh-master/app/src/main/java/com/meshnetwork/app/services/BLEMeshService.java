@@ -12,97 +12,197 @@
 import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertiseSettings;
 import android.bluetooth.le.BluetoothLeAdvertiser;
-import android.bluetooth.le.BluetoothLeScanner;
-import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanResult;
-import android.bluetooth.le.ScanSettings;
 import android.os.ParcelUuid;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.meshnetwork.app.ui.AdminActivitySimple;
 import com.meshnetwork.app.ui.UserActivity;
+import com.meshnetwork.mesh.MeshClock;
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.dedup.SeenMessageCache;
+import com.meshnetwork.mesh.dispatch.FrameDispatcher;
+import com.meshnetwork.mesh.dispatch.FramePool;
+import com.meshnetwork.mesh.dispatch.ReceivePath;
+import com.meshnetwork.mesh.event.MeshEvent;
+import com.meshnetwork.mesh.event.MeshEventBus;
+import com.meshnetwork.mesh.location.GeofenceFilter;
+import com.meshnetwork.mesh.location.LocationStore;
+import com.meshnetwork.mesh.location.LocationUpdateEncoder;
+import com.meshnetwork.mesh.neighbor.ConnectedPeers;
+import com.meshnetwork.mesh.radio.RadioPolicy;
+import com.meshnetwork.mesh.reliable.HopReliability;
+import com.meshnetwork.mesh.reliable.PendingReceipts;
+import com.meshnetwork.mesh.reliable.ReversePathTable;
+import com.meshnetwork.mesh.routing.EtxStrategy;
+import com.meshnetwork.mesh.routing.LinkQualityTable;
+import com.meshnetwork.mesh.routing.RoutingEngine;
+import com.meshnetwork.mesh.routing.RoutingStrategy;
+import com.meshnetwork.mesh.schedule.Priority;
+import com.meshnetwork.mesh.schedule.TimingWheel;
+import com.meshnetwork.mesh.store.CarryForwardStore;
+import com.meshnetwork.mesh.sync.AntiEntropySync;
+import com.meshnetwork.mesh.transport.MeshTransport;
 
+import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
+import java.security.SecureRandom;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BLE Mesh Service for real Bluetooth Low Energy communication
  * Handles advertising, scanning, and GATT communication
+ *
+ * The engine is owned by {@link MeshForegroundService} and confined to the
+ * looper it is given: transport, scan and battery callbacks are posted
+ * there, and results reach the UI through {@link #getEvents()}.
+ *
+ * Threading: fields without a note are only touched on the worker. The
+ * public send methods may be called from any thread; they only use
+ * thread-safe parts (atomic sequence, synchronized radio policy, volatile
+ * geofence position) before handing the frame to the worker. Readers on
+ * other threads get immutable snapshots or concurrent structures.
  */
 public class BLEMeshService {
     
     private static final String TAG = "BLEMeshService";
     
-    // BLE UUIDs for our mesh network
-    private static final String MESH_SERVICE_UUID = "12345678-1234-1234-1234-123456789ABC";
-    private static final String MESSAGE_CHARACTERISTIC_UUID = "12345678-1234-1234-1234-123456789ABD";
-    private static final String LOCATION_CHARACTERISTIC_UUID = "12345678-1234-1234-1234-123456789ABE";
-    
-    private static BLEMeshService instance;
     private Context context;
     
     // BLE Components
     private BluetoothAdapter bluetoothAdapter;
     private BluetoothLeAdvertiser bluetoothLeAdvertiser;
-    private BluetoothLeScanner bluetoothLeScanner;
-    private BluetoothGatt bluetoothGatt;
+    private MeshScanner meshScanner;
+    private GattMeshTransport transport;
+    
+    // Connectionless bearer for frames small enough to advertise; null if the chipset has one advertiser only
+    private AdvertisingBearer advertBearer;
     
-    // Device Management
-    private Map<String, BluetoothDevice> connectedDevices;
-    private Map<String, String> deviceMessages;
+    // Device Management: written on the worker, read from any thread as a snapshot
+    private final ConnectedPeers connectedPeers = new ConnectedPeers();
     private String deviceName;
     private boolean isAdmin = false;
     
-    // Callbacks
-    private MeshMessageCallback messageCallback;
-    private LocationCallback locationCallback;
+    // Mesh identity: random node id and per-node frame sequence
+    private final int nodeId;
+    private final AtomicInteger nextSequence = new AtomicInteger();
     
-    // Handler for UI updates
-    private Handler mainHandler;
+    // Mesh worker thread: every engine callback and timer runs here
+    private Handler meshHandler;
     
-    public interface MeshMessageCallback {
-        void onMessageReceived(String deviceAddress, String message);
-        void onSOSReceived(String deviceAddress, double latitude, double longitude);
-        void onAlertReceived(String alertMessage);
-    }
+    // Results for the UI, delivered on the main thread
+    private final MeshEventBus events;
     
-    public interface LocationCallback {
-        void onLocationReceived(String deviceAddress, double latitude, double longitude);
-    }
+    // Receive path: frames are decoded into pooled objects and dispatched on the worker
+    private static final int FRAME_POOL_SIZE = 64;
+    private final FrameDispatcher frameDispatcher = new FrameDispatcher(new FramePool(FRAME_POOL_SIZE));
+    
+    // Duplicate suppression for flooding: every frame is processed and relayed at most once
+    private static final int SEEN_CACHE_ENTRIES = 8192;
+    private static final long SEEN_CACHE_EXPIRY_MS = 10 * 60 * 1000;
+    private final SeenMessageCache seenMessages = new SeenMessageCache(SEEN_CACHE_ENTRIES, SEEN_CACHE_EXPIRY_MS);
+    
+    // Location sharing: skip small moves, send deltas between periodic keyframes
+    private static final double LOCATION_MIN_MOVEMENT_METERS = 10.0;
+    private static final int LOCATION_KEYFRAME_INTERVAL = 10;
+    private static final long LOCATION_KEYFRAME_MAX_AGE_MS = 5 * 60 * 1000;
+    private final LocationUpdateEncoder locationEncoder = new LocationUpdateEncoder(
+            LOCATION_MIN_MOVEMENT_METERS, LOCATION_KEYFRAME_INTERVAL, LOCATION_KEYFRAME_MAX_AGE_MS);
+    
+    // Latest position heard per origin node, for the admin view
+    private static final int MAX_TRACKED_USERS = 50_000;
+    private static final double LOCATION_CELL_DEGREES = 0.01;
+    private final LocationStore userLocations = new LocationStore(MAX_TRACKED_USERS, LOCATION_CELL_DEGREES);
+    
+    // Geofenced alerts: relay and deliver based on our own last known position
+    private final GeofenceFilter geofence = new GeofenceFilter(GeofenceFilter.DEFAULT_HOP_RANGE_METERS);
+    
+    // Forwarding decisions: relay sooner over weak links, skip relays a neighbourhood already covered
+    private final LinkQualityTable linkQuality = new LinkQualityTable();
+    private final RoutingEngine routing = new RoutingEngine(new EtxStrategy(linkQuality));
+    
+    // Decode, dedup, relay and dispatch of received frames, shared with the simulator and benchmarks
+    private final ReceivePath receivePath;
+    
+    // Store-carry-forward: frames outlive partitions on disk and go to neighbours met later
+    private static final String CARRY_STORE_DIR = "mesh-store";
+    private static final long CARRY_STORE_BUDGET_BYTES = 4 * 1024 * 1024;
+    private static final long CARRY_STORE_SEGMENT_BYTES = 256 * 1024;
+    private static final long CARRY_EMERGENCY_TTL_MS = 24 * 60 * 60 * 1000L;
+    private static final long CARRY_MESSAGE_TTL_MS = 6 * 60 * 60 * 1000L;
+    private volatile CarryForwardStore carryStore;
+    
+    // Anti-entropy on contact: neighbours compare stored keys and pull only what they miss
+    private AntiEntropySync sync;
+    
+    // Worker timers on a hashed wheel: one handler callback per occupied slot, not per timer.
+    // The tick is fine enough to keep relay delays (up to 200 ms) in order; one turn is about 5 s.
+    private static final long TIMER_TICK_MS = 10;
+    private static final int TIMER_SLOTS = 512;
+    private final TimingWheel timers;
     
-    private BLEMeshService(Context context) {
+    // Reliable emergencies: hop-by-hop ACKs with retries on the wheel, and
+    // end-to-end receipts that retrace the path of the SOS they confirm
+    private static final int REVERSE_PATH_ENTRIES = 1024;
+    private static final int PENDING_RECEIPT_ENTRIES = 64;
+    private HopReliability hopReliability;
+    private final ReversePathTable reversePaths = new ReversePathTable(REVERSE_PATH_ENTRIES);
+    private final PendingReceipts pendingReceipts = new PendingReceipts(PENDING_RECEIPT_ENTRIES);
+    
+    // Small frames share writes; an idle link waits this long for more to fill one.
+    // The linger timer is set from binder threads too, so it runs on the handler rather than the wheel.
+    private static final long BATCH_LINGER_MS = 5;
+    
+    // Adaptive duty cycle: scan and advertise harder only while the mesh is busy
+    private final RadioPolicy radioPolicy = new RadioPolicy(MeshClock.SYSTEM, mode -> meshHandler.post(this::applyRadioMode));
+    private boolean running;
+    // Mode the advertiser was last started in, or -1 while it is off
+    private int advertisingMode = -1;
+    
+    BLEMeshService(Context context, Looper meshLooper) {
         this.context = context;
-        this.connectedDevices = new HashMap<>();
-        this.deviceMessages = new HashMap<>();
-        this.mainHandler = new Handler(Looper.getMainLooper());
+        this.meshHandler = new Handler(meshLooper);
+        this.events = new MeshEventBus(new Handler(Looper.getMainLooper())::post);
+        this.receivePath = new ReceivePath(SystemClock::elapsedRealtime, frameDispatcher, seenMessages, routing,
+                geofence, frameHandler, receiveHost);
+        this.timers = new TimingWheel(SystemClock::elapsedRealtime, TIMER_TICK_MS, TIMER_SLOTS, delay -> {
+            meshHandler.removeCallbacks(timerTick);
+            meshHandler.postDelayed(timerTick, delay);
+        });
         
         BluetoothManager bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
         if (bluetoothManager != null) {
             bluetoothAdapter = bluetoothManager.getAdapter();
+            transport = new GattMeshTransport(context, bluetoothManager);
+            transport.setBatching(BATCH_LINGER_MS, (delay, task) -> meshHandler.postDelayed(task, delay));
         }
         
         deviceName = "MeshDevice_" + System.currentTimeMillis();
-    }
-    
-    public static synchronized BLEMeshService getInstance(Context context) {
-        if (instance == null) {
-            instance = new BLEMeshService(context.getApplicationContext());
+        nodeId = new SecureRandom().nextInt();
+        if (transport != null) {
+            sync = new AntiEntropySync(nodeId, carriedFrames, transport, MeshClock.SYSTEM);
+            hopReliability = new HopReliability(SystemClock::elapsedRealtime, timers, transport);
         }
-        return instance;
     }
     
     /**
      * Start the BLE mesh service
      */
-    public void startService(boolean isAdmin, MeshMessageCallback messageCallback, LocationCallback locationCallback) {
+    void startService(boolean isAdmin) {
         this.isAdmin = isAdmin;
-        this.messageCallback = messageCallback;
-        this.locationCallback = locationCallback;
         
         Log.d(TAG, "Starting BLE Mesh Service - Admin: " + isAdmin);
         
@@ -112,36 +212,157 @@ public void startService(boolean isAdmin, MeshMessageCallback messageCallback, L
         }
         
         bluetoothLeAdvertiser = bluetoothAdapter.getBluetoothLeAdvertiser();
-        bluetoothLeScanner = bluetoothAdapter.getBluetoothLeScanner();
+        if (meshScanner == null) {
+            meshScanner = new MeshScanner(bluetoothAdapter, GattMeshTransport.MESH_SERVICE_UUID,
+                    AdvertisingBearer.BEARER_UUID, scanListener, meshHandler);
+        }
+        if (advertBearer == null && bluetoothLeAdvertiser != null && bluetoothAdapter.isMultipleAdvertisementSupported()) {
+            advertBearer = new AdvertisingBearer(bluetoothAdapter, timers);
+        }
+        if (advertBearer != null) {
+            advertBearer.start();
+        }
+        
+        openCarryStore();
+        
+        // Open the GATT server before advertising so peers can connect right away
+        transport.setLinkQuality(linkQuality);
+        transport.start(transportListener);
         
         // Start advertising our device
         startAdvertising();
         
         // Start scanning for other devices
         startScanning();
+        
+        running = true;
+        context.registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED), null, meshHandler);
+        scheduleRadioEvaluation();
     }
     
     /**
      * Stop the BLE mesh service
      */
-    public void stopService() {
+    void stopService() {
         Log.d(TAG, "Stopping BLE Mesh Service");
         
+        if (running) {
+            running = false;
+            context.unregisterReceiver(batteryReceiver);
+            timers.cancel(radioEvaluation);
+            Log.d(TAG, "Radio time by mode: " + radioPolicy.describeTimeInModes());
+        }
+        
+        if (hopReliability != null) {
+            Log.d(TAG, "Hop ACKs: " + hopReliability.getAckedCount() + " of " + hopReliability.getSentCount()
+                    + " frames acknowledged, " + hopReliability.getRetransmittedCount() + " retransmissions, "
+                    + hopReliability.getExpiredCount() + " given up");
+            hopReliability.clear();
+        }
+        
         if (bluetoothLeAdvertiser != null) {
             bluetoothLeAdvertiser.stopAdvertising(advertiseCallback);
+            advertisingMode = -1;
+        }
+        
+        if (meshScanner != null) {
+            meshScanner.stop();
         }
         
-        if (bluetoothLeScanner != null) {
-            bluetoothLeScanner.stopScan(scanCallback);
+        if (advertBearer != null) {
+            advertBearer.stop();
         }
         
-        if (bluetoothGatt != null) {
-            bluetoothGatt.close();
-            bluetoothGatt = null;
+        if (transport != null) {
+            transport.stop();
+        }
+        
+        closeCarryStore();
+        
+        // Nothing scheduled before the stop may fire after it, least of all a relay
+        int cancelled = timers.clear();
+        meshHandler.removeCallbacks(timerTick);
+        routing.clear();
+        Log.d(TAG, "Cancelled " + cancelled + " timers");
+        
+        // Link callbacks still queued on the worker see running == false and are dropped
+        connectedPeers.clear();
+    }
+    
+    private void openCarryStore() {
+        if (carryStore != null) return;
+        try {
+            carryStore = new CarryForwardStore(new File(context.getFilesDir(), CARRY_STORE_DIR),
+                    CARRY_STORE_BUDGET_BYTES, CARRY_STORE_SEGMENT_BYTES, System.currentTimeMillis());
+            Log.d(TAG, "Carrying " + carryStore.size() + " stored frames");
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to open carry-forward store", e);
+        }
+    }
+    
+    private void closeCarryStore() {
+        if (carryStore == null) return;
+        try {
+            carryStore.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Error closing carry-forward store", e);
         }
+        carryStore = null;
+    }
+    
+    /**
+     * Keep a frame on disk so neighbours met later still get it.
+     * Location updates are superseded too quickly to be worth carrying.
+     */
+    private void carryForward(MeshFrame frame, byte[] data) {
+        CarryForwardStore store = carryStore;
+        if (store == null || frame.type == FrameType.LOCATION || frame.type == FrameType.LOCATION_DELTA) return;
         
-        connectedDevices.clear();
-        deviceMessages.clear();
+        boolean emergency = Priority.of(frame.type) <= Priority.ALERT;
+        long expiresAt = System.currentTimeMillis() + (emergency ? CARRY_EMERGENCY_TTL_MS : CARRY_MESSAGE_TTL_MS);
+        try {
+            store.add(frame.originId, frame.sequence, data, expiresAt, emergency);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to store frame for carry-forward", e);
+        }
+    }
+    
+    /**
+     * Carried frames as seen by the sync protocol
+     */
+    private final AntiEntropySync.FrameSource carriedFrames = new AntiEntropySync.FrameSource() {
+        @Override
+        public long[] keys() {
+            CarryForwardStore store = carryStore;
+            return store != null ? store.keys(System.currentTimeMillis()) : new long[0];
+        }
+        
+        @Override
+        public byte[] frame(long key) {
+            CarryForwardStore store = carryStore;
+            if (store == null) return null;
+            try {
+                return store.get((int) (key >>> 32), (int) key);
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to read carried frame", e);
+                return null;
+            }
+        }
+    };
+    
+    /**
+     * Start an anti-entropy round with a neighbour that just connected
+     */
+    private void syncWith(String peerAddress) {
+        CarryForwardStore store = carryStore;
+        if (store == null || sync == null) return;
+        
+        try {
+            store.expire(System.currentTimeMillis());
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to expire carried frames", e);
+        }
+        sync.onContact(peerAddress);
     }
     
     /**
@@ -150,139 +371,355 @@ public void stopService() {
     private void startAdvertising() {
         if (bluetoothLeAdvertiser == null) return;
         
+        int mode = radioPolicy.getMode();
         AdvertiseSettings settings = new AdvertiseSettings.Builder()
-                .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_BALANCED)
+                .setAdvertiseMode(mode)
                 .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM)
                 .setConnectable(true)
                 .build();
         
         AdvertiseData data = new AdvertiseData.Builder()
                 .setIncludeDeviceName(true)
-                .addServiceUuid(new ParcelUuid(UUID.fromString(MESH_SERVICE_UUID)))
+                .addServiceUuid(new ParcelUuid(GattMeshTransport.MESH_SERVICE_UUID))
                 .build();
         
         bluetoothLeAdvertiser.startAdvertising(settings, data, advertiseCallback);
-        Log.d(TAG, "Started BLE advertising");
+        advertisingMode = mode;
+        Log.d(TAG, "Started BLE advertising in " + RadioPolicy.modeName(mode));
     }
     
     /**
      * Start BLE scanning
      */
     private void startScanning() {
-        if (bluetoothLeScanner == null) return;
+        if (meshScanner == null) return;
         
-        ScanSettings settings = new ScanSettings.Builder()
-                .setScanMode(ScanSettings.SCAN_MODE_BALANCED)
-                .build();
+        meshScanner.start(radioPolicy.getMode());
+    }
+    
+    /**
+     * Restart scanning and advertising with the settings for the current
+     * radio mode. The scanner skips and rate-limits restarts itself;
+     * advertising restarts only if its mode differs.
+     */
+    private void applyRadioMode() {
+        if (!running) return;
         
-        bluetoothLeScanner.startScan(null, settings, scanCallback);
-        Log.d(TAG, "Started BLE scanning");
+        startScanning();
+        if (bluetoothLeAdvertiser != null && advertisingMode != radioPolicy.getMode()) {
+            bluetoothLeAdvertiser.stopAdvertising(advertiseCallback);
+            startAdvertising();
+        }
+        scheduleRadioEvaluation();
     }
     
+    /**
+     * Re-evaluate the radio mode when the next activity hold runs out
+     */
+    private void scheduleRadioEvaluation() {
+        long next = radioPolicy.getNextChangeAt();
+        if (next > 0) {
+            timers.schedule(radioEvaluation, next - MeshClock.SYSTEM.nowMillis());
+        } else {
+            timers.cancel(radioEvaluation);
+        }
+    }
+    
+    private void evaluateRadio() {
+        radioPolicy.evaluate();
+        scheduleRadioEvaluation();
+    }
+    
+    private final TimingWheel.Timeout radioEvaluation = new TimingWheel.Timeout(this::evaluateRadio);
+    
+    private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            int plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+            if (level < 0 || scale <= 0) return;
+            radioPolicy.setBattery(level * 100 / scale, plugged != 0);
+        }
+    };
+    
     /**
      * Send SOS message with location
      */
     public void sendSOSMessage(double latitude, double longitude) {
-        String message = "SOS|" + latitude + "|" + longitude;
-        broadcastMessage(message);
-        Log.d(TAG, "Sending SOS message: " + message);
+        geofence.setPosition(latitude, longitude);
+        MeshFrame frame = newFrame(FrameType.SOS).setLocation(latitude, longitude);
+        radioPolicy.onEmergency();
+        broadcastFrame(frame);
+        Log.d(TAG, "Sending SOS message: " + frame);
     }
     
     /**
      * Send location update
+     * @return false if the position barely changed since the last update and nothing was sent
      */
-    public void sendLocationUpdate(double latitude, double longitude) {
-        String message = "LOCATION|" + latitude + "|" + longitude;
-        broadcastMessage(message);
-        Log.d(TAG, "Sending location update: " + message);
+    public boolean sendLocationUpdate(double latitude, double longitude) {
+        geofence.setPosition(latitude, longitude);
+        long now = SystemClock.elapsedRealtime();
+        MeshFrame frame;
+        // The encoder keeps keyframe state, so concurrent callers take turns
+        synchronized (locationEncoder) {
+            if (!locationEncoder.shouldSend(latitude, longitude, now)) {
+                Log.d(TAG, "Skipping location update, moved less than " + LOCATION_MIN_MOVEMENT_METERS + " m");
+                return false;
+            }
+            frame = newFrame(FrameType.LOCATION);
+            locationEncoder.encode(latitude, longitude, now, frame);
+        }
+        radioPolicy.onTraffic();
+        broadcastFrame(frame);
+        Log.d(TAG, "Sending location update: " + frame);
+        return true;
     }
     
     /**
      * Broadcast emergency alert
      */
     public void broadcastEmergencyAlert(String alertMessage) {
-        String message = "ALERT|" + alertMessage;
-        broadcastMessage(message);
-        Log.d(TAG, "Broadcasting emergency alert: " + message);
+        MeshFrame frame = newFrame(FrameType.ALERT).setBody(alertMessage);
+        radioPolicy.onEmergency();
+        broadcastFrame(frame);
+        Log.d(TAG, "Broadcasting emergency alert: " + frame);
+    }
+    
+    /**
+     * Broadcast an emergency alert to devices within radiusMeters of a point.
+     * Relays far from the area stop forwarding it and devices outside it
+     * never show it.
+     */
+    public void broadcastEmergencyAlert(String alertMessage, double latitude, double longitude, int radiusMeters) {
+        MeshFrame frame = newFrame(FrameType.GEO_ALERT).setLocation(latitude, longitude).setBody(alertMessage);
+        frame.radiusMeters = radiusMeters;
+        radioPolicy.onEmergency();
+        broadcastFrame(frame);
+        Log.d(TAG, "Broadcasting geofenced alert: " + frame);
     }
     
     /**
      * Broadcast general message
      */
     public void broadcastMessage(String message) {
-        // In a real implementation, this would send to all connected devices
-        // For now, we'll simulate the message being sent
-        Log.d(TAG, "Broadcasting message: " + message);
+        MeshFrame frame = newFrame(FrameType.TEXT).setBody(message);
+        radioPolicy.onTraffic();
+        broadcastFrame(frame);
+        Log.d(TAG, "Broadcasting message: " + frame);
+    }
+    
+    private MeshFrame newFrame(int type) {
+        return new MeshFrame(type, nodeId, nextSequence.getAndIncrement());
+    }
+    
+    /**
+     * Encode a frame and send it to all connected devices from the worker thread
+     */
+    private void broadcastFrame(MeshFrame frame) {
+        meshHandler.post(() -> {
+            // Remember our own frames so echoes from neighbours are not re-flooded
+            long now = SystemClock.elapsedRealtime();
+            seenMessages.markSeen(frame.originId, frame.sequence, now);
+            if (frame.type == FrameType.SOS) {
+                pendingReceipts.onSent(frame.sequence, now);
+            }
+            byte[] data = FrameCodec.encode(frame);
+            carryForward(frame, data);
+            transmit(frame.originId, frame.sequence, data, null);
+        });
+    }
+    
+    /**
+     * Send encoded frame bytes to every neighbour: queued for all connected
+     * devices except the one it came from, and advertised as well if the
+     * frame is small enough and the bearer has room. The advert reaches
+     * neighbours we have no link to; linked ones drop the second copy as
+     * seen. An advert is on air for only a few events and a low power scan
+     * can miss all of them, so advertising alone would skip linked peers.
+     *
+     * Emergency frames to connected devices are retransmitted until each
+     * neighbour acknowledges its copy.
+     */
+    private void transmit(int originId, int sequence, byte[] data, String exceptPeer) {
+        boolean reliable = hopReliability != null && HopReliability.isReliable(FrameCodec.peekType(data));
+        if (advertBearer != null && advertBearer.send(data)) {
+            Log.d(TAG, "Advertising " + data.length + " byte frame");
+        }
+        if (transport == null) return;
         
-        // Simulate message processing
-        processReceivedMessage("SIMULATED_DEVICE", message);
+        if (reliable) {
+            int sent = hopReliability.broadcast(connectedPeers.snapshot().getAddresses(), exceptPeer,
+                    originId, sequence, data);
+            Log.d(TAG, "Sent " + data.length + " byte frame to " + sent + " devices, awaiting ACKs");
+            return;
+        }
+        int queued = transport.broadcast(data, exceptPeer);
+        Log.d(TAG, "Queued " + data.length + " byte frame for " + queued + " devices");
     }
     
     /**
-     * Process received messages
+     * Send a receipt one hop back along the path of the frame it confirms.
+     * Returns false if that neighbour is unknown or no longer linked, and
+     * the receipt has to flood instead.
      */
-    private void processReceivedMessage(String deviceAddress, String message) {
-        String[] parts = message.split("\\|");
-        if (parts.length < 2) return;
-        
-        String messageType = parts[0];
-        
-        switch (messageType) {
-            case "SOS":
-                if (parts.length >= 3) {
-                    try {
-                        double latitude = Double.parseDouble(parts[1]);
-                        double longitude = Double.parseDouble(parts[2]);
-                        
-                        mainHandler.post(() -> {
-                            if (messageCallback != null) {
-                                messageCallback.onSOSReceived(deviceAddress, latitude, longitude);
-                            }
-                        });
-                    } catch (NumberFormatException e) {
-                        Log.e(TAG, "Invalid SOS coordinates", e);
-                    }
+    private boolean sendToPreviousHop(MeshFrame receipt, byte[] data) {
+        String previousHop = reversePaths.previousHop(receipt.ackedOrigin, receipt.ackedSequence);
+        if (previousHop == null || hopReliability == null) return false;
+        return hopReliability.send(previousHop, receipt.originId, receipt.sequence, data);
+    }
+    
+    /**
+     * Confirm an SOS to its sender, as a responder
+     */
+    private void sendReceipt(MeshFrame sos) {
+        MeshFrame receipt = newFrame(FrameType.RECEIPT);
+        receipt.ackedOrigin = sos.originId;
+        receipt.ackedSequence = sos.sequence;
+        seenMessages.markSeen(receipt.originId, receipt.sequence, SystemClock.elapsedRealtime());
+        byte[] data = FrameCodec.encode(receipt);
+        if (!sendToPreviousHop(receipt, data)) {
+            transmit(receipt.originId, receipt.sequence, data, null);
+        }
+        Log.d(TAG, "Sending receipt: " + receipt);
+    }
+    
+    private void advanceTimers() {
+        timers.advance();
+    }
+    
+    private final Runnable timerTick = this::advanceTimers;
+    
+    /**
+     * Process received frames
+     */
+    private void processReceivedMessage(String deviceAddress, byte[] data) {
+        if (!running) return;
+        
+        // The received array is ours, so a relay may decrement its hop count in place
+        if (receivePath.receive(deviceAddress, data) == ReceivePath.MALFORMED) {
+            Log.e(TAG, "Dropping malformed frame from " + deviceAddress);
+        }
+    }
+    
+    private final ReceivePath.Host receiveHost = new ReceivePath.Host() {
+        @Override
+        public void onSyncFrame(String fromPeer, MeshFrame frame) {
+            if (sync != null) {
+                sync.onSyncFrame(fromPeer, frame);
+            }
+        }
+        
+        @Override
+        public void onAck(String fromPeer, MeshFrame frame) {
+            if (hopReliability != null) {
+                hopReliability.onAck(fromPeer, frame.originId, frame.sequence);
+            }
+        }
+        
+        @Override
+        public void acknowledge(String fromPeer, MeshFrame frame) {
+            if (hopReliability != null) {
+                hopReliability.acknowledge(fromPeer, frame);
+            }
+        }
+        
+        @Override
+        public void onFirstCopy(String fromPeer, MeshFrame frame) {
+            if (frame.type == FrameType.SOS) {
+                if (fromPeer != null) {
+                    reversePaths.record(frame.originId, frame.sequence, fromPeer);
                 }
-                break;
-                
-            case "LOCATION":
-                if (parts.length >= 3) {
-                    try {
-                        double latitude = Double.parseDouble(parts[1]);
-                        double longitude = Double.parseDouble(parts[2]);
-                        
-                        mainHandler.post(() -> {
-                            if (locationCallback != null) {
-                                locationCallback.onLocationReceived(deviceAddress, latitude, longitude);
-                            }
-                        });
-                    } catch (NumberFormatException e) {
-                        Log.e(TAG, "Invalid location coordinates", e);
-                    }
+            } else if (frame.type == FrameType.RECEIPT && hopReliability != null) {
+                // The SOS reached a responder; neighbours still missing it need no more retries
+                hopReliability.cancel(frame.ackedOrigin, frame.ackedSequence);
+            }
+            if (transport != null && fromPeer != null) {
+                transport.getConnectionPool().onFirstCopy(fromPeer, SystemClock.elapsedRealtime());
+            }
+            if (Priority.of(frame.type) <= Priority.ALERT) {
+                radioPolicy.onEmergency();
+            } else {
+                radioPolicy.onTraffic();
+            }
+        }
+        
+        @Override
+        public void relay(MeshFrame frame, String fromPeer, byte[] data, long delayMillis) {
+            // Receipts stop at the sender of their SOS and otherwise retrace its path
+            if (frame.type == FrameType.RECEIPT && (frame.ackedOrigin == nodeId || sendToPreviousHop(frame, data))) {
+                if (delayMillis > 0) {
+                    // Settle the delayed relay the routing engine is holding for it
+                    routing.onRelayDue(frame.originId, frame.sequence);
                 }
-                break;
-                
-            case "ALERT":
-                String alertMessage = parts.length > 1 ? parts[1] : "Emergency Alert";
-                
-                mainHandler.post(() -> {
-                    if (messageCallback != null) {
-                        messageCallback.onAlertReceived(alertMessage);
-                    }
-                });
-                break;
-                
-            default:
-                // General message
-                mainHandler.post(() -> {
-                    if (messageCallback != null) {
-                        messageCallback.onMessageReceived(deviceAddress, message);
-                    }
-                });
-                break;
+                return;
+            }
+            carryForward(frame, data);
+            scheduleRelay(frame, fromPeer, data, delayMillis);
         }
+    };
+    
+    /**
+     * Relay a newly received frame now, later or not at all, as the routing strategy decided
+     */
+    private void scheduleRelay(MeshFrame frame, String deviceAddress, byte[] data, long delay) {
+        if (delay == RoutingStrategy.DROP) return;
+        
+        if (delay == 0) {
+            transmit(frame.originId, frame.sequence, data, deviceAddress);
+            return;
+        }
+        
+        int originId = frame.originId;
+        int sequence = frame.sequence;
+        timers.schedule(() -> {
+            if (!running) return;
+            if (routing.onRelayDue(originId, sequence)) {
+                transmit(originId, sequence, data, deviceAddress);
+            }
+        }, delay);
     }
     
+    private final FrameDispatcher.FrameHandler frameHandler = new FrameDispatcher.FrameHandler() {
+        @Override
+        public void onSOS(MeshFrame frame) {
+            userLocations.update(frame.originId, frame.latitudeE7, frame.longitudeE7, SystemClock.elapsedRealtime());
+            events.publish(MeshEvent.sos(frame.sourceAddress, frame.originId, frame.getLatitude(), frame.getLongitude()));
+            if (isAdmin) {
+                sendReceipt(frame);
+            }
+        }
+        
+        @Override
+        public void onLocation(MeshFrame frame) {
+            userLocations.update(frame.originId, frame.latitudeE7, frame.longitudeE7, SystemClock.elapsedRealtime());
+            events.publish(MeshEvent.location(frame.sourceAddress, frame.originId, frame.getLatitude(), frame.getLongitude()));
+        }
+        
+        @Override
+        public void onAlert(MeshFrame frame) {
+            String alertMessage = frame.getBodyLength() > 0 ? frame.getBody() : "Emergency Alert";
+            events.publish(MeshEvent.alert(frame.sourceAddress, frame.originId, alertMessage));
+        }
+        
+        @Override
+        public void onText(MeshFrame frame) {
+            events.publish(MeshEvent.message(frame.sourceAddress, frame.originId, frame.getBody()));
+        }
+        
+        @Override
+        public void onReceipt(MeshFrame frame) {
+            if (frame.ackedOrigin != nodeId) return;
+            
+            long latency = pendingReceipts.onReceipt(frame.ackedSequence, SystemClock.elapsedRealtime());
+            if (latency < 0) return;
+            Log.d(TAG, "SOS " + frame.ackedSequence + " confirmed by " + Integer.toHexString(frame.originId)
+                    + " after " + latency + " ms");
+            events.publish(MeshEvent.receipt(frame.sourceAddress, frame.originId, latency));
+        }
+    };
+    
     /**
      * Check if BLE is available and enabled
      */
@@ -290,11 +727,78 @@ public boolean isBluetoothAvailable() {
         return bluetoothAdapter != null && bluetoothAdapter.isEnabled();
     }
     
+    /**
+     * Run a task on the mesh worker thread
+     */
+    void post(Runnable task) {
+        meshHandler.post(task);
+    }
+    
+    /**
+     * Received messages, alerts and positions, delivered on the main thread
+     */
+    public MeshEventBus getEvents() {
+        return events;
+    }
+    
+    /**
+     * Latest known position of every node heard from; query in place rather than copying
+     */
+    public LocationStore getUserLocations() {
+        return userLocations;
+    }
+    
     /**
      * Get connected devices count
      */
     public int getConnectedDevicesCount() {
-        return connectedDevices.size();
+        return connectedPeers.size();
+    }
+    
+    /**
+     * Addresses of the neighbours with an open link, as one consistent snapshot
+     */
+    public List<String> getConnectedPeers() {
+        return connectedPeers.snapshot().getAddresses();
+    }
+    
+    // Transport callbacks arrive on binder threads; hop to the worker before touching state
+    private final MeshTransport.Listener transportListener = new MeshTransport.Listener() {
+        @Override
+        public void onPeerConnected(String peerAddress) {
+            meshHandler.post(() -> onLinkUp(peerAddress));
+        }
+        
+        @Override
+        public void onPeerDisconnected(String peerAddress) {
+            meshHandler.post(() -> onLinkDown(peerAddress));
+        }
+        
+        @Override
+        public void onFrameReceived(String peerAddress, byte[] data) {
+            meshHandler.post(() -> processReceivedMessage(peerAddress, data));
+        }
+    };
+    
+    private void onLinkUp(String peerAddress) {
+        if (!running) return;
+        Log.d(TAG, "Mesh link up: " + peerAddress);
+        connectedPeers.add(peerAddress, SystemClock.elapsedRealtime());
+        radioPolicy.onNeighborChange();
+        syncWith(peerAddress);
+    }
+    
+    private void onLinkDown(String peerAddress) {
+        Log.d(TAG, "Mesh link down: " + peerAddress);
+        connectedPeers.remove(peerAddress);
+        linkQuality.remove(peerAddress);
+        if (hopReliability != null) {
+            hopReliability.onPeerDown(peerAddress);
+        }
+        if (sync != null) {
+            sync.onDisconnected(peerAddress);
+        }
+        radioPolicy.onNeighborChange();
     }
     
     // BLE Callbacks
@@ -310,41 +814,33 @@ public void onStartFailure(int errorCode) {
         }
     };
     
-    private ScanCallback scanCallback = new ScanCallback() {
+    // The scanner already runs on the mesh thread
+    private final MeshScanner.Listener scanListener = new MeshScanner.Listener() {
         @Override
-        public void onScanResult(int callbackType, ScanResult result) {
-            BluetoothDevice device = result.getDevice();
-            String deviceAddress = device.getAddress();
-            
-            if (!connectedDevices.containsKey(deviceAddress) && !deviceAddress.equals(bluetoothAdapter.getAddress())) {
-                Log.d(TAG, "Found mesh device: " + deviceAddress);
-                connectedDevices.put(deviceAddress, device);
-                
-                // In a real implementation, we would connect to the device
-                // For now, we'll simulate receiving messages
-                simulateDeviceCommunication(deviceAddress);
-            }
+        public void onMeshDeviceFound(ScanResult result) {
+            BLEMeshService.this.onMeshDeviceFound(result);
         }
         
         @Override
-        public void onScanFailed(int errorCode) {
-            Log.e(TAG, "BLE scan failed: " + errorCode);
+        public void onAdvertisedFrame(String address, byte[] frame) {
+            // Same path as frames from a connection; the seen cache drops repeats of the advert.
+            // The advertiser's random address names no neighbour we could ACK or route back to.
+            processReceivedMessage(null, frame);
         }
     };
     
     /**
-     * Simulate device communication for testing
+     * Called for every mesh node the filtered scan reports, batched or not
      */
-    private void simulateDeviceCommunication(String deviceAddress) {
-        // Simulate receiving a message after 2 seconds
-        mainHandler.postDelayed(() -> {
-            if (isAdmin) {
-                // Simulate user sending location
-                processReceivedMessage(deviceAddress, "LOCATION|40.7128|-74.0060");
-            } else {
-                // Simulate admin sending alert
-                processReceivedMessage(deviceAddress, "ALERT|Test alert from admin");
-            }
-        }, 2000);
+    private void onMeshDeviceFound(ScanResult result) {
+        if (!running) return;
+        
+        String deviceAddress = result.getDevice().getAddress();
+        linkQuality.recordRssi(deviceAddress, result.getRssi());
+        
+        if (!deviceAddress.equals(bluetoothAdapter.getAddress())) {
+            // The connection pool decides; repeats for pooled peers count as hits
+            transport.connect(deviceAddress);
+        }
     }
 }
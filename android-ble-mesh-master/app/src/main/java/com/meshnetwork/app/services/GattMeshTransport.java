@@ -0,0 +1,396 @@
+package com.meshnetwork.app.services;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattServer;
+import android.bluetooth.BluetoothGattServerCallback;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.fragment.FrameBatch;
+import com.meshnetwork.mesh.neighbor.ConnectionPool;
+import com.meshnetwork.mesh.routing.LinkQualityTable;
+import com.meshnetwork.mesh.transport.AbstractMeshTransport;
+import com.meshnetwork.mesh.transport.PeerWriteQueue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * GATT transport: one GATT server receives frames written by neighbours,
+ * and a pool of client connections writes our frames to theirs.
+ *
+ * Which neighbours hold one of the client links is up to the
+ * {@link ConnectionPool}: links stay up across many frames, the best
+ * neighbours displace idle or weak ones, and failed peers back off.
+ *
+ * Every client link gets its own {@link PeerWriteQueue} so only one GATT
+ * operation is outstanding per connection. Writes use write-without-response,
+ * which completes as soon as the controller buffers the packet.
+ *
+ * A client link only carries writes from its client, so each client
+ * subscribes to the server's reply characteristic. The server answers
+ * over it with notifications, queued per subscriber, and a node can ACK
+ * frames from neighbours it holds no client link to.
+ */
+public class GattMeshTransport extends AbstractMeshTransport {
+    
+    private static final String TAG = "GattMeshTransport";
+    
+    public static final UUID MESH_SERVICE_UUID = UUID.fromString("12345678-1234-1234-1234-123456789ABC");
+    public static final UUID MESSAGE_CHARACTERISTIC_UUID = UUID.fromString("12345678-1234-1234-1234-123456789ABD");
+    public static final UUID LOCATION_CHARACTERISTIC_UUID = UUID.fromString("12345678-1234-1234-1234-123456789ABE");
+    public static final UUID REPLY_CHARACTERISTIC_UUID = UUID.fromString("12345678-1234-1234-1234-123456789ABF");
+    private static final UUID CLIENT_CONFIG_DESCRIPTOR_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+    
+    // Android phones only hold a handful of concurrent GATT links
+    private static final int MAX_CLIENT_CONNECTIONS = 7;
+    
+    // Largest ATT MTU Android supports; the peer answers with what it can do.
+    // Every write carries a 3 byte ATT header.
+    private static final int REQUESTED_MTU = 517;
+    private static final int DEFAULT_MTU = 23;
+    private static final int ATT_HEADER_SIZE = 3;
+    
+    private final Context context;
+    private final BluetoothManager bluetoothManager;
+    private final BluetoothAdapter bluetoothAdapter;
+    private BluetoothGattServer gattServer;
+    
+    // Client links by peer address, including ones still connecting
+    private final Map<String, BluetoothGatt> clientConnections = new ConcurrentHashMap<>();
+    private final Map<String, Integer> negotiatedMtus = new ConcurrentHashMap<>();
+    // MTUs our server negotiated with the clients linked to it
+    private final Map<String, Integer> serverMtus = new ConcurrentHashMap<>();
+    private final ConnectionPool pool = new ConnectionPool(MAX_CLIENT_CONNECTIONS);
+    
+    public GattMeshTransport(Context context, BluetoothManager bluetoothManager) {
+        super(DEFAULT_QUEUE_CAPACITY);
+        this.context = context;
+        this.bluetoothManager = bluetoothManager;
+        this.bluetoothAdapter = bluetoothManager.getAdapter();
+    }
+    
+    @Override
+    public void start(Listener listener) {
+        super.start(listener);
+        
+        gattServer = bluetoothManager.openGattServer(context, serverCallback);
+        if (gattServer == null) {
+            Log.e(TAG, "Unable to open GATT server");
+            return;
+        }
+        
+        BluetoothGattService service = new BluetoothGattService(MESH_SERVICE_UUID,
+                BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        service.addCharacteristic(newWritableCharacteristic(MESSAGE_CHARACTERISTIC_UUID));
+        service.addCharacteristic(newWritableCharacteristic(LOCATION_CHARACTERISTIC_UUID));
+        service.addCharacteristic(newReplyCharacteristic());
+        gattServer.addService(service);
+        Log.d(TAG, "GATT server started");
+    }
+    
+    @Override
+    public void stop() {
+        for (BluetoothGatt gatt : clientConnections.values()) {
+            gatt.disconnect();
+            gatt.close();
+        }
+        clientConnections.clear();
+        serverMtus.clear();
+        Log.d(TAG, "Connection pool: " + pool.describe());
+        pool.clear();
+        
+        if (gattServer != null) {
+            gattServer.close();
+            gattServer = null;
+        }
+        super.stop();
+    }
+    
+    @Override
+    public void setLinkQuality(LinkQualityTable linkQuality) {
+        super.setLinkQuality(linkQuality);
+        pool.setLinkQuality(linkQuality);
+    }
+    
+    /**
+     * Connect to a neighbour if the pool has room for it or it displaces a
+     * worse link. Cheap to call on every scan result.
+     */
+    @Override
+    public void connect(String peerAddress) {
+        long now = SystemClock.elapsedRealtime();
+        ConnectionPool.Offer offer = pool.offer(peerAddress, now);
+        switch (offer.answer) {
+            case ConnectionPool.CONNECT:
+                break;
+            case ConnectionPool.EVICT:
+                String victim = offer.victim;
+                Log.d(TAG, "Closing link to " + victim + " for " + peerAddress);
+                BluetoothGatt evicted = clientConnections.get(victim);
+                if (evicted != null) {
+                    evicted.disconnect();
+                }
+                closeClient(victim);
+                break;
+            default:
+                return;
+        }
+        
+        BluetoothDevice device = bluetoothAdapter.getRemoteDevice(peerAddress);
+        BluetoothGatt gatt = device.connectGatt(context, false, clientCallback, BluetoothDevice.TRANSPORT_LE);
+        if (gatt != null) {
+            clientConnections.put(peerAddress, gatt);
+            Log.d(TAG, "Connecting to " + peerAddress);
+        } else {
+            pool.onDisconnected(peerAddress, now);
+        }
+    }
+    
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+    
+    @Override
+    protected PeerWriteQueue.LinkWriter createWriter(String peerAddress) {
+        return data -> {
+            BluetoothGatt gatt = clientConnections.get(peerAddress);
+            if (gatt == null) return false;
+            
+            BluetoothGattService service = gatt.getService(MESH_SERVICE_UUID);
+            if (service == null) return false;
+            
+            UUID uuid = carriesOnlyLocationUpdates(data)
+                    ? LOCATION_CHARACTERISTIC_UUID
+                    : MESSAGE_CHARACTERISTIC_UUID;
+            BluetoothGattCharacteristic characteristic = service.getCharacteristic(uuid);
+            if (characteristic == null) return false;
+            
+            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+            characteristic.setValue(data);
+            if (!gatt.writeCharacteristic(characteristic)) return false;
+            
+            pool.onUsed(peerAddress, SystemClock.elapsedRealtime());
+            return true;
+        };
+    }
+    
+    @Override
+    protected PeerWriteQueue.LinkWriter createReplyWriter(String peerAddress) {
+        return data -> {
+            BluetoothGattServer server = gattServer;
+            if (server == null) return false;
+            BluetoothGattService service = server.getService(MESH_SERVICE_UUID);
+            if (service == null) return false;
+            BluetoothGattCharacteristic characteristic = service.getCharacteristic(REPLY_CHARACTERISTIC_UUID);
+            if (characteristic == null) return false;
+            
+            characteristic.setValue(data);
+            return server.notifyCharacteristicChanged(bluetoothAdapter.getRemoteDevice(peerAddress),
+                    characteristic, false);
+        };
+    }
+    
+    /**
+     * Which characteristic a write goes to: a write that carries nothing but
+     * location updates (LOCATION or LOCATION_DELTA frames, alone or batched)
+     * goes to the location characteristic, every other write, including
+     * mixed batches and fragments, to the message one. The server treats
+     * both alike, so the split only labels the traffic.
+     */
+    private static boolean carriesOnlyLocationUpdates(byte[] data) {
+        int type = FrameCodec.peekType(data);
+        if (type == FrameType.BATCH) {
+            return FrameBatch.allTypesMatch(data, FrameType::isLocationUpdate);
+        }
+        return FrameType.isLocationUpdate(type);
+    }
+    
+    private static BluetoothGattCharacteristic newWritableCharacteristic(UUID uuid) {
+        return new BluetoothGattCharacteristic(uuid,
+                BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE,
+                BluetoothGattCharacteristic.PERMISSION_WRITE);
+    }
+    
+    private static BluetoothGattCharacteristic newReplyCharacteristic() {
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(REPLY_CHARACTERISTIC_UUID,
+                BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0);
+        characteristic.addDescriptor(new BluetoothGattDescriptor(CLIENT_CONFIG_DESCRIPTOR_UUID,
+                BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE));
+        return characteristic;
+    }
+    
+    /**
+     * Subscribe to the peer's replies; the link comes up once the
+     * subscription is written. Returns false if it cannot be asked for.
+     */
+    private static boolean subscribeToReplies(BluetoothGatt gatt) {
+        BluetoothGattCharacteristic characteristic =
+                gatt.getService(MESH_SERVICE_UUID).getCharacteristic(REPLY_CHARACTERISTIC_UUID);
+        if (characteristic == null || !gatt.setCharacteristicNotification(characteristic, true)) return false;
+        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CLIENT_CONFIG_DESCRIPTOR_UUID);
+        if (descriptor == null) return false;
+        descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        return gatt.writeDescriptor(descriptor);
+    }
+    
+    private void onClientLinkReady(BluetoothGatt gatt) {
+        String address = gatt.getDevice().getAddress();
+        if (getQueue(address) != null) return;
+        Integer mtu = negotiatedMtus.get(address);
+        pool.onConnected(address, SystemClock.elapsedRealtime());
+        onLinkUp(address, (mtu != null ? mtu : DEFAULT_MTU) - ATT_HEADER_SIZE);
+    }
+    
+    private void closeClient(String peerAddress) {
+        BluetoothGatt gatt = clientConnections.remove(peerAddress);
+        negotiatedMtus.remove(peerAddress);
+        if (gatt != null) {
+            gatt.close();
+        }
+        pool.onDisconnected(peerAddress, SystemClock.elapsedRealtime());
+        onLinkDown(peerAddress);
+    }
+    
+    private final BluetoothGattCallback clientCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            String address = gatt.getDevice().getAddress();
+            if (status == BluetoothGatt.GATT_SUCCESS && newState == BluetoothProfile.STATE_CONNECTED) {
+                // Negotiate the MTU first; service discovery follows in onMtuChanged
+                Log.d(TAG, "Connected to " + address + ", requesting MTU " + REQUESTED_MTU);
+                if (!gatt.requestMtu(REQUESTED_MTU)) {
+                    gatt.discoverServices();
+                }
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED || status != BluetoothGatt.GATT_SUCCESS) {
+                Log.d(TAG, "Disconnected from " + address + " (status " + status + ")");
+                closeClient(address);
+            }
+        }
+        
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            String address = gatt.getDevice().getAddress();
+            if (status == BluetoothGatt.GATT_SUCCESS && gatt.getService(MESH_SERVICE_UUID) != null) {
+                if (!subscribeToReplies(gatt)) {
+                    // An older node without replies still takes our writes
+                    onClientLinkReady(gatt);
+                }
+            } else {
+                // Not a mesh node, free the slot for another peer
+                Log.d(TAG, address + " has no mesh service");
+                gatt.disconnect();
+                closeClient(address);
+            }
+        }
+        
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            String address = gatt.getDevice().getAddress();
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                Log.d(TAG, "MTU for " + address + " is " + mtu);
+                negotiatedMtus.put(address, mtu);
+                
+                // MTU can also change on a live link
+                PeerWriteQueue queue = getQueue(address);
+                if (queue != null) {
+                    queue.setWriteSize(mtu - ATT_HEADER_SIZE);
+                }
+            }
+            if (getQueue(address) == null) {
+                gatt.discoverServices();
+            }
+        }
+        
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.d(TAG, "No replies from " + gatt.getDevice().getAddress() + " (status " + status + ")");
+            }
+            onClientLinkReady(gatt);
+        }
+        
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            onWriteComplete(gatt.getDevice().getAddress(), status == BluetoothGatt.GATT_SUCCESS);
+        }
+        
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            byte[] value = characteristic.getValue();
+            if (REPLY_CHARACTERISTIC_UUID.equals(characteristic.getUuid()) && value != null && value.length > 0) {
+                onDataReceived(gatt.getDevice().getAddress(), value);
+            }
+        }
+    };
+    
+    private final BluetoothGattServerCallback serverCallback = new BluetoothGattServerCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothDevice device, int status, int newState) {
+            if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                serverMtus.remove(device.getAddress());
+                onInboundLinkDown(device.getAddress());
+            }
+        }
+        
+        @Override
+        public void onMtuChanged(BluetoothDevice device, int mtu) {
+            serverMtus.put(device.getAddress(), mtu);
+            PeerWriteQueue queue = getReplyQueue(device.getAddress());
+            if (queue != null) {
+                queue.setWriteSize(mtu - ATT_HEADER_SIZE);
+            }
+        }
+        
+        @Override
+        public void onDescriptorWriteRequest(BluetoothDevice device, int requestId,
+                                             BluetoothGattDescriptor descriptor, boolean preparedWrite,
+                                             boolean responseNeeded, int offset, byte[] value) {
+            BluetoothGattServer server = gattServer;
+            if (responseNeeded && server != null) {
+                server.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, value);
+            }
+            if (!CLIENT_CONFIG_DESCRIPTOR_UUID.equals(descriptor.getUuid())) return;
+            
+            String address = device.getAddress();
+            if (Arrays.equals(value, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE)) {
+                Integer mtu = serverMtus.get(address);
+                onInboundLinkUp(address, (mtu != null ? mtu : DEFAULT_MTU) - ATT_HEADER_SIZE);
+            } else {
+                onInboundLinkDown(address);
+            }
+        }
+        
+        @Override
+        public void onNotificationSent(BluetoothDevice device, int status) {
+            onReplyComplete(device.getAddress(), status == BluetoothGatt.GATT_SUCCESS);
+        }
+        
+        @Override
+        public void onCharacteristicWriteRequest(BluetoothDevice device, int requestId,
+                                                 BluetoothGattCharacteristic characteristic,
+                                                 boolean preparedWrite, boolean responseNeeded,
+                                                 int offset, byte[] value) {
+            BluetoothGattServer server = gattServer;
+            if (responseNeeded && server != null) {
+                server.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, value);
+            }
+            if (value != null && value.length > 0) {
+                onDataReceived(device.getAddress(), value);
+            }
+        }
+    };
+}
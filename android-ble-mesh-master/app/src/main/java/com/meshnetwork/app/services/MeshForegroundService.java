@@ -0,0 +1,191 @@
+package com.meshnetwork.app.services;
+
+import android.Manifest;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.Build;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import com.meshnetwork.app.R;
+import com.meshnetwork.app.ui.MainActivity;
+
+/**
+ * Foreground service that keeps the mesh running while no activity is
+ * visible or the screen is off.
+ *
+ * It owns the {@link BLEMeshService} engine and the worker thread the
+ * engine runs on, so relaying never waits for UI frames. Activities start
+ * it with {@link #start}, bind to it for the engine and subscribe to its
+ * event bus; {@link #stop} shuts the mesh down. Starting it again in the
+ * other role restarts the mesh in that role.
+ *
+ * On API 33+ the status notification only shows once the activity has
+ * been granted POST_NOTIFICATIONS; the service runs either way. On API 31+
+ * it is not started without the Bluetooth runtime permissions, which the
+ * connected-device foreground type requires from API 34.
+ */
+public class MeshForegroundService extends Service {
+    
+    private static final String TAG = "MeshForegroundService";
+    
+    public static final String EXTRA_ADMIN = "com.meshnetwork.app.extra.ADMIN";
+    
+    private static final String CHANNEL_ID = "mesh";
+    private static final int NOTIFICATION_ID = 1;
+    
+    /**
+     * Binder handed to activities in the same process
+     */
+    public class LocalBinder extends Binder {
+        public BLEMeshService getMesh() {
+            return mesh;
+        }
+    }
+    
+    private final IBinder binder = new LocalBinder();
+    private HandlerThread meshThread;
+    private BLEMeshService mesh;
+    private boolean meshStarted;
+    private boolean meshAdmin;
+    private int lastStartId;
+    
+    /**
+     * Start the service in the foreground and the mesh in the given role.
+     * Returns false without starting if a Bluetooth permission is missing.
+     */
+    public static boolean start(Context context, boolean isAdmin) {
+        if (!hasBluetoothPermissions(context)) {
+            Log.w(TAG, "Bluetooth permissions not granted, mesh not started");
+            return false;
+        }
+        Intent intent = new Intent(context, MeshForegroundService.class);
+        intent.putExtra(EXTRA_ADMIN, isAdmin);
+        ContextCompat.startForegroundService(context, intent);
+        return true;
+    }
+    
+    /**
+     * Runtime permissions scanning, advertising and GATT need; none below API 31
+     */
+    public static String[] requiredBluetoothPermissions() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S) return new String[0];
+        return new String[] {
+                Manifest.permission.BLUETOOTH_SCAN,
+                Manifest.permission.BLUETOOTH_CONNECT,
+                Manifest.permission.BLUETOOTH_ADVERTISE
+        };
+    }
+    
+    public static boolean hasBluetoothPermissions(Context context) {
+        for (String permission : requiredBluetoothPermissions()) {
+            if (ContextCompat.checkSelfPermission(context, permission) != PackageManager.PERMISSION_GRANTED) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Stop the mesh. The service goes away once no activity is bound to it.
+     */
+    public static void stop(Context context) {
+        context.stopService(new Intent(context, MeshForegroundService.class));
+    }
+    
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        meshThread = new HandlerThread("mesh-worker", Process.THREAD_PRIORITY_FOREGROUND);
+        meshThread.start();
+        mesh = new BLEMeshService(getApplicationContext(), meshThread.getLooper());
+    }
+    
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // A redelivered start after the permissions were revoked would fail in startForeground
+        if (!hasBluetoothPermissions(this)) {
+            Log.w(TAG, "Bluetooth permissions revoked, not starting");
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        startInForeground();
+        
+        boolean isAdmin = intent != null && intent.hasExtra(EXTRA_ADMIN)
+                ? intent.getBooleanExtra(EXTRA_ADMIN, false) : meshAdmin;
+        if (!meshStarted) {
+            meshStarted = true;
+            meshAdmin = isAdmin;
+            mesh.post(() -> mesh.startService(isAdmin));
+        } else if (isAdmin != meshAdmin) {
+            Log.d(TAG, "Restarting mesh as " + (isAdmin ? "admin" : "user"));
+            meshAdmin = isAdmin;
+            mesh.post(mesh::stopService);
+            mesh.post(() -> mesh.startService(isAdmin));
+        }
+        
+        // Only the latest intent carries the current role. Marking the earlier
+        // start as handled keeps it from being redelivered after a restart by
+        // the system; the service keeps running since a newer start exists.
+        if (lastStartId != 0) {
+            stopSelfResult(lastStartId);
+        }
+        lastStartId = startId;
+        return START_REDELIVER_INTENT;
+    }
+    
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+    
+    @Override
+    public void onDestroy() {
+        Log.d(TAG, "Shutting down mesh");
+        if (meshStarted) {
+            meshStarted = false;
+            mesh.post(mesh::stopService);
+        }
+        // Runs the stop above before the thread exits
+        meshThread.quitSafely();
+        super.onDestroy();
+    }
+    
+    private void startInForeground() {
+        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && manager != null) {
+            manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID, "Mesh network",
+                    NotificationManager.IMPORTANCE_LOW));
+        }
+        
+        Intent open = new Intent(this, MainActivity.class);
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, open, PendingIntent.FLAG_IMMUTABLE);
+        Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setContentTitle("Mesh network active")
+                .setContentText("Relaying messages for nearby devices")
+                .setSmallIcon(R.drawable.ic_launcher)
+                .setOngoing(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .setContentIntent(contentIntent)
+                .build();
+        
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+    }
+}
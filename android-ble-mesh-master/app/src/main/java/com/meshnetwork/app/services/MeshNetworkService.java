@@ -8,9 +8,17 @@
 
 import com.meshnetwork.app.ui.AdminActivitySimple;
 import com.meshnetwork.app.ui.UserActivity;
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.location.GeoMath;
+import com.meshnetwork.mesh.location.LocationStore;
+import com.meshnetwork.mesh.schedule.SendPipeline;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Mesh Network Service for handling BLE communication between admin and users
@@ -31,8 +39,42 @@ public class MeshNetworkService {
     public static final String MESSAGE_TYPE_LOCATION = "LOCATION";
     public static final String MESSAGE_TYPE_BROADCAST = "BROADCAST";
     
-    // User locations storage
-    private Map<String, UserLocation> userLocations;
+    // Latest location per user, bounded and spatially indexed for the admin view
+    private static final int MAX_TRACKED_USERS = 50_000;
+    private static final double LOCATION_CELL_DEGREES = 0.01;
+    private final LocationStore userLocations = new LocationStore(MAX_TRACKED_USERS, LOCATION_CELL_DEGREES);
+    
+    // Stable for the lifetime of the service so repeated updates replace each other
+    private final int localUserId = new SecureRandom().nextInt();
+    private final String localUserName = "USER_" + Integer.toHexString(localUserId);
+    
+    // Skip updates that barely moved. This service sends no frames, so it
+    // keeps only the last position rather than an encoder's keyframe state.
+    private static final double LOCATION_MIN_MOVEMENT_METERS = 10.0;
+    private final Object lastSentLock = new Object();
+    private boolean hasLastSent;
+    private int lastSentLatE7;
+    private int lastSentLonE7;
+    
+    // Sends run in batches on threads that exit when idle; each pipeline
+    // keeps at most one task in its executor queue. SOS has a lane of its
+    // own so a slow location or broadcast batch never holds it back.
+    private static final int SEND_THREADS = 2;
+    private static final long SEND_THREAD_KEEP_ALIVE_MS = 30_000;
+    private static final int MAX_SEND_BATCH = 32;
+    
+    // Created on first use and shut down by stopService; guarded by this
+    private ThreadPoolExecutor sosExecutor;
+    private ThreadPoolExecutor sendExecutor;
+    
+    // SOS and admin messages are refused rather than silently lost when the
+    // queue is full; for locations only the newest matter, so the oldest go
+    private final SendPipeline<MeshMessage> sosPipeline = new SendPipeline<>(task -> execute(true, task),
+            256, MAX_SEND_BATCH, SendPipeline.POLICY_REJECT, 0, this::simulateMessageTransmission);
+    private final SendPipeline<UserLocation> locationPipeline = new SendPipeline<>(task -> execute(false, task),
+            64, MAX_SEND_BATCH, SendPipeline.POLICY_DROP_OLDEST, 0, this::simulateLocationUpdate);
+    private final SendPipeline<MeshMessage> broadcastPipeline = new SendPipeline<>(task -> execute(false, task),
+            256, MAX_SEND_BATCH, SendPipeline.POLICY_REJECT, 0, this::simulateBroadcast);
     
     public static class UserLocation {
         public String userId;
@@ -66,7 +108,6 @@ public MeshMessage(String type, String content, String senderId) {
     
     private MeshNetworkService(Context context) {
         this.context = context;
-        this.userLocations = new HashMap<>();
         
         bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
         if (bluetoothManager != null) {
@@ -85,8 +126,7 @@ public static synchronized MeshNetworkService getInstance(Context context) {
      * Send SOS message with location from user to admin
      */
     public void sendSOSMessage(double latitude, double longitude) {
-        String userId = "USER_" + System.currentTimeMillis();
-        MeshMessage sosMessage = new MeshMessage(MESSAGE_TYPE_SOS, "Emergency SOS", userId);
+        MeshMessage sosMessage = new MeshMessage(MESSAGE_TYPE_SOS, "Emergency SOS", localUserName);
         sosMessage.latitude = latitude;
         sosMessage.longitude = longitude;
         
@@ -94,21 +134,35 @@ public void sendSOSMessage(double latitude, double longitude) {
         
         // TODO: Implement actual BLE transmission
         // For now, simulate the message being sent
-        simulateMessageTransmission(sosMessage);
+        if (!sosPipeline.offer(sosMessage)) {
+            Log.e(TAG, "Send queue full, SOS not queued");
+        }
     }
     
     /**
      * Send location update from user to admin
      */
     public void sendLocationUpdate(double latitude, double longitude) {
-        String userId = "USER_" + System.currentTimeMillis();
-        UserLocation location = new UserLocation(userId, latitude, longitude);
-        userLocations.put(userId, location);
+        int latE7 = FrameCodec.toFixed(latitude);
+        int lonE7 = FrameCodec.toFixed(longitude);
+        synchronized (lastSentLock) {
+            if (hasLastSent && GeoMath.distanceMeters(lastSentLatE7, lastSentLonE7, latE7, lonE7)
+                    < LOCATION_MIN_MOVEMENT_METERS) {
+                Log.d(TAG, "Location barely changed, not sending update");
+                return;
+            }
+            hasLastSent = true;
+            lastSentLatE7 = latE7;
+            lastSentLonE7 = lonE7;
+        }
+        
+        UserLocation location = new UserLocation(localUserName, latitude, longitude);
+        userLocations.update(localUserId, latE7, lonE7, location.timestamp);
         
         Log.d(TAG, "Location update from user: " + latitude + ", " + longitude);
         
         // TODO: Implement actual BLE transmission
-        simulateLocationUpdate(location);
+        locationPipeline.offer(location);
     }
     
     /**
@@ -120,7 +174,9 @@ public void broadcastEmergencyAlert(String alertMessage) {
         Log.d(TAG, "Broadcasting emergency alert: " + alertMessage);
         
         // TODO: Implement actual BLE broadcast
-        simulateBroadcast(alert);
+        if (!broadcastPipeline.offer(alert)) {
+            Log.e(TAG, "Send queue full, alert not queued");
+        }
     }
     
     /**
@@ -132,54 +188,58 @@ public void broadcastMessage(String message) {
         Log.d(TAG, "Broadcasting message: " + message);
         
         // TODO: Implement actual BLE broadcast
-        simulateBroadcast(broadcast);
+        if (!broadcastPipeline.offer(broadcast)) {
+            Log.e(TAG, "Send queue full, message not queued");
+        }
     }
     
     /**
-     * Get all user locations for admin map display
+     * User locations for admin map display; query in place rather than copying
      */
-    public Map<String, UserLocation> getUserLocations() {
-        return new HashMap<>(userLocations);
-    }
-    
-    private void simulateMessageTransmission(MeshMessage message) {
-        // Simulate network delay
-        new Thread(() -> {
-            try {
-                Thread.sleep(1000); // Simulate 1 second delay
-                
-                // In a real implementation, this would be handled by BLE callbacks
-                // For now, we'll simulate the admin receiving the message
-                Log.d(TAG, "Message transmitted: " + message.type + " - " + message.content);
-                
-            } catch (InterruptedException e) {
-                Log.e(TAG, "Message transmission interrupted", e);
-            }
-        }).start();
+    public LocationStore getUserLocations() {
+        return userLocations;
     }
     
-    private void simulateLocationUpdate(UserLocation location) {
-        new Thread(() -> {
-            try {
-                Thread.sleep(500);
-                Log.d(TAG, "Location update transmitted for user: " + location.userId);
-                
-            } catch (InterruptedException e) {
-                Log.e(TAG, "Location update interrupted", e);
-            }
-        }).start();
+    /**
+     * Run a pipeline's drain on its lane. Holding the lock across execute
+     * means stopService cannot shut the lane down in between, which would
+     * refuse the drain and leave the pipeline waiting on it for good.
+     */
+    private synchronized void execute(boolean sos, Runnable task) {
+        if (sendExecutor == null) {
+            sosExecutor = newSendExecutor("mesh-sos-", 1);
+            sendExecutor = newSendExecutor("mesh-send-", SEND_THREADS);
+        }
+        (sos ? sosExecutor : sendExecutor).execute(task);
     }
     
-    private void simulateBroadcast(MeshMessage message) {
-        new Thread(() -> {
-            try {
-                Thread.sleep(500);
-                Log.d(TAG, "Broadcast transmitted: " + message.content);
-                
-            } catch (InterruptedException e) {
-                Log.e(TAG, "Broadcast interrupted", e);
-            }
-        }).start();
+    private static ThreadPoolExecutor newSendExecutor(String namePrefix, int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                SEND_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                r -> new Thread(r, namePrefix + threadCount.incrementAndGet()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+    
+    // The sinks only log until the BLE transport is wired in; they must not
+    // block, since a batch holds its lane until it returns
+    private void simulateMessageTransmission(List<MeshMessage> batch) {
+        for (MeshMessage message : batch) {
+            Log.d(TAG, "Message transmitted: " + message.type + " - " + message.content);
+        }
+    }
+    
+    private void simulateLocationUpdate(List<UserLocation> batch) {
+        for (UserLocation location : batch) {
+            Log.d(TAG, "Location update transmitted for user: " + location.userId);
+        }
+    }
+    
+    private void simulateBroadcast(List<MeshMessage> batch) {
+        for (MeshMessage message : batch) {
+            Log.d(TAG, "Broadcast transmitted: " + message.content);
+        }
     }
     
     /**
@@ -216,6 +276,17 @@ public void stopService() {
         // TODO: Stop BLE advertising and scanning
         // TODO: Disconnect GATT connections
         
+        // Batches already queued still go out; the threads then exit. A later
+        // send starts new lanes.
+        synchronized (this) {
+            if (sendExecutor != null) {
+                sosExecutor.shutdown();
+                sendExecutor.shutdown();
+                sosExecutor = null;
+                sendExecutor = null;
+            }
+        }
+        
         Log.d(TAG, "Mesh Network Service stopped");
     }
 }
@@ -0,0 +1,259 @@
+package com.meshnetwork.app.services;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
+import android.os.Handler;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.meshnetwork.mesh.radio.RadioPolicy;
+import com.meshnetwork.mesh.radio.ScanStartLimiter;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Scans only for mesh nodes and lets the controller batch results.
+ *
+ * A ScanFilter on the mesh service UUID keeps unrelated beacons from waking
+ * the app; on chipsets with filter offload they never leave the controller.
+ * Where batching is offloaded, results are delivered in bulk through
+ * onBatchScanResults after a report delay that shrinks as the radio mode
+ * gets more urgent, so an SOS is never held back. Chipsets that reject
+ * batching fall back to immediate per-result callbacks.
+ *
+ * A second scan, never batched, looks only for frames carried by the
+ * {@link AdvertisingBearer}, so an advertised SOS reaches the mesh within
+ * an advertising interval whatever the discovery report delay. It accepts
+ * extended advertisements where the controller supports them.
+ *
+ * Android allows an app only a few scan starts per 30 seconds, and each
+ * start here starts both scans. Restarts in the mode already running are
+ * skipped, and one that would exceed the budget, counted across every
+ * scanner in the app, keeps the current scan until it fits.
+ *
+ * The scanner belongs to the thread of the handler it is given: every
+ * method must be called there, and results and failures from the binder
+ * thread are posted to it before they touch any state or the listener.
+ */
+public class MeshScanner {
+    
+    private static final String TAG = "MeshScanner";
+    
+    public interface Listener {
+        void onMeshDeviceFound(ScanResult result);
+        
+        /** A frame from advertising service data; the array is the listener's to keep */
+        void onAdvertisedFrame(String address, byte[] frame);
+    }
+    
+    // Report delay per radio mode; low latency always reports immediately
+    private static final long LOW_POWER_REPORT_DELAY_MS = 5000;
+    private static final long BALANCED_REPORT_DELAY_MS = 2000;
+    
+    // Discovery and bearer scans
+    private static final int SCANS_PER_START = 2;
+    // The budget is per app, whichever component scans
+    private static final ScanStartLimiter START_LIMITER = new ScanStartLimiter();
+    
+    private final BluetoothAdapter bluetoothAdapter;
+    private final List<ScanFilter> filters;
+    private final List<ScanFilter> bearerFilters;
+    private final ParcelUuid bearerUuid;
+    private final Listener listener;
+    private final Handler handler;
+    
+    // Handler thread only
+    private BluetoothLeScanner scanner;
+    private boolean batchingSupported;
+    private boolean scanning;
+    private int scanMode;
+    private int deferredMode;
+    private long resultCount;
+    private long callbackCount;
+    
+    public MeshScanner(BluetoothAdapter bluetoothAdapter, UUID serviceUuid, UUID bearerUuid, Listener listener,
+                       Handler handler) {
+        this.bluetoothAdapter = bluetoothAdapter;
+        this.listener = listener;
+        this.handler = handler;
+        this.filters = Collections.singletonList(new ScanFilter.Builder()
+                .setServiceUuid(new ParcelUuid(serviceUuid))
+                .build());
+        this.bearerUuid = new ParcelUuid(bearerUuid);
+        // Empty data matches any advertisement carrying service data for the UUID
+        this.bearerFilters = Collections.singletonList(new ScanFilter.Builder()
+                .setServiceData(this.bearerUuid, new byte[0])
+                .build());
+        this.batchingSupported = bluetoothAdapter.isOffloadedScanBatchingSupported();
+        
+        Log.d(TAG, "Filter offload: " + bluetoothAdapter.isOffloadedFilteringSupported()
+                + ", batching offload: " + batchingSupported);
+    }
+    
+    /**
+     * Start scanning, or restart with new settings if already scanning in
+     * another mode. A restart past the start budget happens later.
+     */
+    public void start(int scanMode) {
+        handler.removeCallbacks(deferredStart);
+        if (scanning && scanMode == this.scanMode) return;
+        
+        long wait = START_LIMITER.tryStart(SCANS_PER_START, SystemClock.elapsedRealtime());
+        if (wait > 0) {
+            deferredMode = scanMode;
+            handler.postDelayed(deferredStart, wait);
+            Log.d(TAG, "Scan in " + RadioPolicy.modeName(scanMode) + " deferred " + wait + " ms by the start budget");
+            return;
+        }
+        if (scanning) stop();
+        
+        scanner = bluetoothAdapter.getBluetoothLeScanner();
+        if (scanner == null) return;
+        
+        this.scanMode = scanMode;
+        long reportDelay = reportDelayFor(scanMode);
+        ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(scanMode)
+                .setReportDelay(reportDelay)
+                .build();
+        
+        scanner.startScan(filters, settings, scanCallback);
+        scanner.startScan(bearerFilters, bearerSettings(scanMode), bearerCallback);
+        scanning = true;
+        Log.d(TAG, "Started filtered scan in " + RadioPolicy.modeName(scanMode) + ", report delay " + reportDelay + " ms");
+    }
+    
+    public void stop() {
+        handler.removeCallbacks(deferredStart);
+        if (!scanning) return;
+        scanning = false;
+        if (scanner != null) {
+            scanner.stopScan(scanCallback);
+            scanner.stopScan(bearerCallback);
+        }
+        Log.d(TAG, "Stopped scan: " + resultCount + " results in " + callbackCount
+                + " callbacks, " + getCallbacksSaved() + " wakeups saved by batching");
+    }
+    
+    public boolean isScanning() {
+        return scanning;
+    }
+    
+    public boolean isBatching() {
+        return batchingSupported && reportDelayFor(scanMode) > 0;
+    }
+    
+    public long getResultCount() {
+        return resultCount;
+    }
+    
+    public long getCallbackCount() {
+        return callbackCount;
+    }
+    
+    /**
+     * Callbacks (and so app processor wakeups) avoided by receiving results
+     * in batches rather than one at a time
+     */
+    public long getCallbacksSaved() {
+        return resultCount - callbackCount;
+    }
+    
+    private ScanSettings bearerSettings(int scanMode) {
+        ScanSettings.Builder builder = new ScanSettings.Builder().setScanMode(scanMode);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && bluetoothAdapter.isLeExtendedAdvertisingSupported()) {
+            builder.setLegacy(false).setPhy(ScanSettings.PHY_LE_ALL_SUPPORTED);
+        }
+        return builder.build();
+    }
+    
+    /**
+     * Hand a result to the listener, as a frame if it carries one
+     */
+    private void deliver(ScanResult result) {
+        ScanRecord record = result.getScanRecord();
+        byte[] frame = record != null ? record.getServiceData(bearerUuid) : null;
+        if (frame != null) {
+            listener.onAdvertisedFrame(result.getDevice().getAddress(), frame.clone());
+        } else {
+            listener.onMeshDeviceFound(result);
+        }
+    }
+    
+    private void onResults(List<ScanResult> results) {
+        // Late results from a scan already stopped are dropped
+        if (!scanning) return;
+        callbackCount++;
+        resultCount += results.size();
+        for (int i = 0; i < results.size(); i++) {
+            deliver(results.get(i));
+        }
+    }
+    
+    private void onScanFailed(int errorCode, boolean bearer) {
+        Log.e(TAG, (bearer ? "Advertised frame scan" : "BLE scan") + " failed: " + errorCode);
+        if (bearer || !scanning) return;
+        // The bearer scan may still be registered; stop both so a restart can register them again
+        stop();
+        
+        if (errorCode == ScanCallback.SCAN_FAILED_FEATURE_UNSUPPORTED && batchingSupported) {
+            // Controller claimed batching but rejected it; scan without it
+            Log.w(TAG, "Batched scan unsupported, falling back to immediate results");
+            batchingSupported = false;
+            start(scanMode);
+        }
+    }
+    
+    private final Runnable deferredStart = () -> start(deferredMode);
+    
+    private long reportDelayFor(int mode) {
+        if (!batchingSupported) return 0;
+        switch (mode) {
+            case RadioPolicy.MODE_LOW_POWER:
+                return LOW_POWER_REPORT_DELAY_MS;
+            case RadioPolicy.MODE_BALANCED:
+                return BALANCED_REPORT_DELAY_MS;
+            default:
+                return 0;
+        }
+    }
+    
+    // Called on a binder thread; everything is posted to the handler
+    private final ScanCallback scanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            handler.post(() -> onResults(Collections.singletonList(result)));
+        }
+        
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            handler.post(() -> onResults(results));
+        }
+        
+        @Override
+        public void onScanFailed(int errorCode) {
+            handler.post(() -> MeshScanner.this.onScanFailed(errorCode, false));
+        }
+    };
+    
+    private final ScanCallback bearerCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            handler.post(() -> onResults(Collections.singletonList(result)));
+        }
+        
+        @Override
+        public void onScanFailed(int errorCode) {
+            handler.post(() -> MeshScanner.this.onScanFailed(errorCode, true));
+        }
+    };
+}
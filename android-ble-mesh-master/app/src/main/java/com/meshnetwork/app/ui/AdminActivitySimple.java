@@ -1,10 +1,15 @@
 package com.meshnetwork.app.ui;
 
 import android.Manifest;
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.location.Location;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
@@ -21,6 +26,12 @@
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.meshnetwork.app.R;
 import com.meshnetwork.app.services.BLEMeshService;
+import com.meshnetwork.app.services.MeshForegroundService;
+import com.meshnetwork.mesh.event.MeshEvent;
+import com.meshnetwork.mesh.event.MeshEventBus;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class AdminActivitySimple extends AppCompatActivity {
     
@@ -30,11 +41,13 @@ public class AdminActivitySimple extends AppCompatActivity {
     private Button broadcastMessageButton;
     private TextView locationTextView;
     private BLEMeshService bleMeshService;
+    private boolean meshBound;
     
-    private static final int LOCATION_PERMISSION_REQUEST_CODE = 1001;
+    private static final int PERMISSION_REQUEST_CODE = 1001;
+    private static final int ALERT_RADIUS_METERS = 5000;
     private double currentLatitude = 0.0;
     private double currentLongitude = 0.0;
-
+    
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -44,10 +57,12 @@ protected void onCreate(Bundle savedInstanceState) {
         setupClickListeners();
         
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
-        checkLocationPermissions();
+        checkPermissions();
         
-        // Start BLE mesh service
-        startBLEMeshService();
+        // Start BLE mesh service now if it may run, otherwise once the request is answered
+        if (MeshForegroundService.hasBluetoothPermissions(this)) {
+            startBLEMeshService();
+        }
     }
     
     private void initializeViews() {
@@ -64,27 +79,55 @@ private void setupClickListeners() {
         broadcastMessageButton.setOnClickListener(v -> broadcastMessage());
     }
     
-    private void checkLocationPermissions() {
+    private void checkPermissions() {
+        List<String> missing = new ArrayList<>();
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
                 != PackageManager.PERMISSION_GRANTED) {
-            ActivityCompat.requestPermissions(this,
-                    new String[]{Manifest.permission.ACCESS_FINE_LOCATION},
-                    LOCATION_PERMISSION_REQUEST_CODE);
+            missing.add(Manifest.permission.ACCESS_FINE_LOCATION);
         } else {
             getCurrentLocation();
         }
+        // The mesh's foreground notification needs a runtime grant from API 33
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                != PackageManager.PERMISSION_GRANTED) {
+            missing.add(Manifest.permission.POST_NOTIFICATIONS);
+        }
+        // The mesh cannot scan, advertise or connect without these from API 31
+        for (String permission : MeshForegroundService.requiredBluetoothPermissions()) {
+            if (ContextCompat.checkSelfPermission(this, permission) != PackageManager.PERMISSION_GRANTED) {
+                missing.add(permission);
+            }
+        }
+        // One request for all, since a second request while the first is showing is dropped
+        if (!missing.isEmpty()) {
+            ActivityCompat.requestPermissions(this, missing.toArray(new String[0]), PERMISSION_REQUEST_CODE);
+        }
     }
     
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
-        if (requestCode == LOCATION_PERMISSION_REQUEST_CODE) {
-            if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                getCurrentLocation();
-            } else {
-                Toast.makeText(this, "Location permission is required for this app", Toast.LENGTH_LONG).show();
+        if (requestCode != PERMISSION_REQUEST_CODE) return;
+        for (int i = 0; i < permissions.length && i < grantResults.length; i++) {
+            boolean granted = grantResults[i] == PackageManager.PERMISSION_GRANTED;
+            if (Manifest.permission.ACCESS_FINE_LOCATION.equals(permissions[i])) {
+                if (granted) {
+                    getCurrentLocation();
+                } else {
+                    Toast.makeText(this, "Location permission is required for this app", Toast.LENGTH_LONG).show();
+                }
+            } else if (Manifest.permission.POST_NOTIFICATIONS.equals(permissions[i]) && !granted) {
+                Toast.makeText(this, "The mesh keeps running, but without its status notification",
+                        Toast.LENGTH_LONG).show();
             }
         }
+        if (meshBound) return;
+        if (MeshForegroundService.hasBluetoothPermissions(this)) {
+            startBLEMeshService();
+        } else {
+            Toast.makeText(this, "Bluetooth permissions are required to join the mesh", Toast.LENGTH_LONG).show();
+        }
     }
     
     private void getCurrentLocation() {
@@ -113,11 +156,23 @@ private void updateLocationDisplay() {
     }
     
     private void sendEmergencyAlert() {
-        // Broadcast emergency alert through BLE mesh network
+        String alert = "EMERGENCY ALERT: Immediate attention required!";
+        boolean hasLocation = currentLatitude != 0.0 && currentLongitude != 0.0;
+        
+        // Broadcast emergency alert through BLE mesh network, limited to the
+        // area around the admin once we know where that is
         if (bleMeshService != null) {
-            bleMeshService.broadcastEmergencyAlert("EMERGENCY ALERT: Immediate attention required!");
+            if (hasLocation) {
+                bleMeshService.broadcastEmergencyAlert(alert, currentLatitude, currentLongitude, ALERT_RADIUS_METERS);
+            } else {
+                bleMeshService.broadcastEmergencyAlert(alert);
+            }
+        }
+        if (hasLocation) {
+            Toast.makeText(this, "Emergency alert sent to users within " + ALERT_RADIUS_METERS / 1000 + " km via BLE mesh!", Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(this, "Emergency alert sent to all users via BLE mesh!", Toast.LENGTH_SHORT).show();
         }
-        Toast.makeText(this, "Emergency alert sent to all users via BLE mesh!", Toast.LENGTH_SHORT).show();
     }
     
     private void broadcastMessage() {
@@ -136,54 +191,67 @@ private void broadcastMessage() {
     }
     
     private void startBLEMeshService() {
-        bleMeshService = BLEMeshService.getInstance(this);
-        
-        if (!bleMeshService.isBluetoothAvailable()) {
-            Toast.makeText(this, "Bluetooth is not available or disabled", Toast.LENGTH_LONG).show();
-            return;
-        }
-        
-        // Start BLE mesh service for admin mode
-        bleMeshService.startService(true, new BLEMeshService.MeshMessageCallback() {
-            @Override
-            public void onMessageReceived(String deviceAddress, String message) {
-                // Admin received message - display in UI
-                runOnUiThread(() -> {
-                    Toast.makeText(AdminActivitySimple.this, "Message from " + deviceAddress + ": " + message, Toast.LENGTH_SHORT).show();
-                });
-            }
-            
-            @Override
-            public void onSOSReceived(String deviceAddress, double latitude, double longitude) {
-                // Admin received SOS - handle emergency
-                runOnUiThread(() -> {
-                    Toast.makeText(AdminActivitySimple.this, "SOS RECEIVED from " + deviceAddress + " at " + latitude + ", " + longitude, Toast.LENGTH_LONG).show();
-                    locationTextView.setText("Emergency Location: " + latitude + ", " + longitude);
-                });
-            }
+        // The service keeps the mesh running after this activity is gone;
+        // binding gives us the engine and its events while we are here
+        if (!MeshForegroundService.start(this, true)) return;
+        meshBound = bindService(new Intent(this, MeshForegroundService.class), meshConnection, Context.BIND_AUTO_CREATE);
+    }
+    
+    private final ServiceConnection meshConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            bleMeshService = ((MeshForegroundService.LocalBinder) binder).getMesh();
             
-            @Override
-            public void onAlertReceived(String alertMessage) {
-                // Admin received alert - shouldn't happen in admin mode
-            }
-        }, new BLEMeshService.LocationCallback() {
-            @Override
-            public void onLocationReceived(String deviceAddress, double latitude, double longitude) {
-                // Admin received location update
-                runOnUiThread(() -> {
-                    Toast.makeText(AdminActivitySimple.this, "Location update from " + deviceAddress, Toast.LENGTH_SHORT).show();
-                });
+            if (!bleMeshService.isBluetoothAvailable()) {
+                Toast.makeText(AdminActivitySimple.this, "Bluetooth is not available or disabled", Toast.LENGTH_LONG).show();
+                return;
             }
-        });
+            bleMeshService.getEvents().subscribe(meshEvents);
+            Toast.makeText(AdminActivitySimple.this, "BLE Mesh Network started (Admin Mode)", Toast.LENGTH_SHORT).show();
+        }
         
-        Toast.makeText(this, "BLE Mesh Network started (Admin Mode)", Toast.LENGTH_SHORT).show();
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            bleMeshService = null;
+        }
+    };
+    
+    // Delivered on the main thread
+    private final MeshEventBus.Subscriber meshEvents = event -> {
+        switch (event.type) {
+            case MeshEvent.MESSAGE:
+                Toast.makeText(this, "Message from " + event.sourceAddress + ": " + event.text, Toast.LENGTH_SHORT).show();
+                break;
+            case MeshEvent.SOS:
+                // Admin received SOS - handle emergency
+                Toast.makeText(this, "SOS RECEIVED from " + event.sourceAddress + " at " + event.latitude + ", " + event.longitude, Toast.LENGTH_LONG).show();
+                locationTextView.setText("Emergency Location: " + event.latitude + ", " + event.longitude);
+                break;
+            case MeshEvent.LOCATION:
+                Toast.makeText(this, "Location update from " + event.sourceAddress, Toast.LENGTH_SHORT).show();
+                break;
+            default:
+                // Alerts come from the admin
+                break;
+        }
+    };
+    
+    @Override
+    protected void onDestroy() {
+        if (bleMeshService != null) {
+            bleMeshService.getEvents().unsubscribe(meshEvents);
+            bleMeshService = null;
+        }
+        if (meshBound) {
+            meshBound = false;
+            unbindService(meshConnection);
+        }
+        super.onDestroy();
     }
     
     public void logout(View view) {
         // Stop BLE mesh service
-        if (bleMeshService != null) {
-            bleMeshService.stopService();
-        }
+        MeshForegroundService.stop(this);
         
         // Return to main activity
         Intent intent = new Intent(this, MainActivity.class);
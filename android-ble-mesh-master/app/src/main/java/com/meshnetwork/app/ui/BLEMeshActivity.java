@@ -13,16 +13,16 @@
 import android.bluetooth.le.AdvertiseData;
 import android.bluetooth.le.AdvertiseSettings;
 import android.bluetooth.le.BluetoothLeAdvertiser;
-import android.bluetooth.le.BluetoothLeScanner;
-import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanResult;
-import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
+import android.os.BatteryManager;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.os.ParcelUuid;
 import android.util.Log;
 import android.view.View;
@@ -40,6 +40,11 @@
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.meshnetwork.app.R;
+import com.meshnetwork.app.services.AdvertisingBearer;
+import com.meshnetwork.app.services.MeshScanner;
+import com.meshnetwork.mesh.MeshClock;
+import com.meshnetwork.mesh.neighbor.NeighborTable;
+import com.meshnetwork.mesh.radio.RadioPolicy;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -57,6 +62,11 @@ public class BLEMeshActivity extends AppCompatActivity {
     private static final String TAG = "BLEMeshActivity";
     private static final int PERMISSION_REQUEST_CODE = 1001;
     
+    // Neighbour list: drop devices unheard for 30 s, redraw at most twice a second
+    private static final long NEIGHBOR_EXPIRY_MS = 30_000;
+    private static final long NEIGHBOR_SWEEP_INTERVAL_MS = 5_000;
+    private static final long LIST_REFRESH_INTERVAL_MS = 500;
+    
     // BLE UUIDs
     private static final String MESH_SERVICE_UUID = "12345678-1234-1234-1234-123456789ABC";
     private static final String MESSAGE_CHARACTERISTIC_UUID = "12345678-1234-1234-1234-123456789ABD";
@@ -75,34 +85,41 @@ public class BLEMeshActivity extends AppCompatActivity {
     // BLE Components
     private BluetoothAdapter bluetoothAdapter;
     private BluetoothLeAdvertiser bluetoothLeAdvertiser;
-    private BluetoothLeScanner bluetoothLeScanner;
+    private MeshScanner meshScanner;
     private BluetoothGatt bluetoothGatt;
     
     // Device Management
     private Map<String, BluetoothDevice> connectedDevices;
-    private List<ScanResult> scanResults;
+    private final NeighborTable neighbors = new NeighborTable(NEIGHBOR_EXPIRY_MS);
     private ScanResultAdapter scanResultAdapter;
     private boolean isAdvertising = false;
+    // Mode the advertiser was last started in
+    private int advertisingMode = -1;
     private boolean isScanning = false;
+    private boolean listRefreshPending = false;
+    private long lastListRefresh;
     private String deviceId;
     
     // Handler for UI updates
     private Handler mainHandler;
     
+    // Scan and advertise harder only while devices are appearing or messages are flowing
+    private final RadioPolicy radioPolicy = new RadioPolicy(MeshClock.SYSTEM, mode -> mainHandler.post(this::applyRadioMode));
+    
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_init);
         
+        mainHandler = new Handler(Looper.getMainLooper());
+        
         initializeViews();
         setupClickListeners();
         setupBLE();
         setupRecyclerView();
         
-        mainHandler = new Handler(Looper.getMainLooper());
         deviceId = "Device_" + System.currentTimeMillis();
         connectedDevices = new HashMap<>();
-        scanResults = new ArrayList<>();
         
         updateUI();
     }
@@ -143,14 +160,15 @@ private void setupBLE() {
         
         if (bluetoothAdapter != null) {
             bluetoothLeAdvertiser = bluetoothAdapter.getBluetoothLeAdvertiser();
-            bluetoothLeScanner = bluetoothAdapter.getBluetoothLeScanner();
+            meshScanner = new MeshScanner(bluetoothAdapter, UUID.fromString(MESH_SERVICE_UUID),
+                    AdvertisingBearer.BEARER_UUID, scanListener, mainHandler);
         }
         
         checkPermissions();
     }
     
     private void setupRecyclerView() {
-        scanResultAdapter = new ScanResultAdapter(scanResults, this::onDeviceSelected);
+        scanResultAdapter = new ScanResultAdapter(this::onDeviceSelected);
         recyScanResults.setLayoutManager(new LinearLayoutManager(this));
         recyScanResults.setAdapter(scanResultAdapter);
     }
@@ -220,23 +238,32 @@ private void startServices() {
         }
         
         // Start scanning
-        if (bluetoothLeScanner != null) {
+        if (meshScanner != null) {
             startScanning();
         }
         
+        updateBatteryState();
+        scheduleRadioEvaluation();
+        
         updateUI();
         updateDebugger("BLE services started. Advertising: " + canIBeServerSwitch.isChecked() + ", Scanning: true");
     }
     
     private void stopServices() {
+        mainHandler.removeCallbacks(radioEvaluation);
+        mainHandler.removeCallbacks(neighborSweep);
+        
         if (bluetoothLeAdvertiser != null && isAdvertising) {
             bluetoothLeAdvertiser.stopAdvertising(advertiseCallback);
             isAdvertising = false;
         }
         
-        if (bluetoothLeScanner != null && isScanning) {
-            bluetoothLeScanner.stopScan(scanCallback);
+        if (meshScanner != null && isScanning) {
+            meshScanner.stop();
             isScanning = false;
+            updateDebugger("Scan results: " + meshScanner.getResultCount() + " in "
+                    + meshScanner.getCallbackCount() + " callbacks, "
+                    + meshScanner.getCallbacksSaved() + " wakeups saved by batching");
         }
         
         if (bluetoothGatt != null) {
@@ -245,14 +272,15 @@ private void stopServices() {
         }
         
         updateUI();
-        updateDebugger("BLE services stopped");
+        updateDebugger("BLE services stopped. Radio time by mode: " + radioPolicy.describeTimeInModes());
     }
     
     private void startAdvertising() {
         if (bluetoothLeAdvertiser == null) return;
         
+        advertisingMode = radioPolicy.getMode();
         AdvertiseSettings settings = new AdvertiseSettings.Builder()
-                .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_BALANCED)
+                .setAdvertiseMode(advertisingMode)
                 .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM)
                 .setConnectable(true)
                 .build();
@@ -266,14 +294,56 @@ private void startAdvertising() {
     }
     
     private void startScanning() {
-        if (bluetoothLeScanner == null) return;
+        if (meshScanner == null) return;
         
-        ScanSettings settings = new ScanSettings.Builder()
-                .setScanMode(ScanSettings.SCAN_MODE_BALANCED)
-                .build();
-        
-        bluetoothLeScanner.startScan(null, settings, scanCallback);
+        // Only mesh nodes, batched by the controller where it can
+        meshScanner.start(radioPolicy.getMode());
         isScanning = true;
+        
+        mainHandler.removeCallbacks(neighborSweep);
+        mainHandler.postDelayed(neighborSweep, NEIGHBOR_SWEEP_INTERVAL_MS);
+    }
+    
+    /**
+     * Restart whatever is running with the settings for the current radio
+     * mode; the scanner skips and rate-limits restarts itself
+     */
+    private void applyRadioMode() {
+        if (isScanning) {
+            startScanning();
+        }
+        if (isAdvertising && advertisingMode != radioPolicy.getMode()) {
+            bluetoothLeAdvertiser.stopAdvertising(advertiseCallback);
+            startAdvertising();
+        }
+        if (isScanning || isAdvertising) {
+            updateDebugger("Radio mode: " + RadioPolicy.modeName(radioPolicy.getMode()));
+            scheduleRadioEvaluation();
+        }
+    }
+    
+    private void scheduleRadioEvaluation() {
+        mainHandler.removeCallbacks(radioEvaluation);
+        long next = radioPolicy.getNextChangeAt();
+        if (next > 0) {
+            mainHandler.postDelayed(radioEvaluation, next - MeshClock.SYSTEM.nowMillis());
+        }
+    }
+    
+    private final Runnable radioEvaluation = () -> {
+        radioPolicy.evaluate();
+        scheduleRadioEvaluation();
+    };
+    
+    private void updateBatteryState() {
+        // Sticky broadcast: returns the last battery state without registering a receiver
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) return;
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level >= 0 && scale > 0) {
+            radioPolicy.setBattery(level * 100 / scale, battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0);
+        }
     }
     
     private void sendTweetMessage() {
@@ -303,6 +373,7 @@ private void broadcastMessage(String message) {
         // In a real implementation, this would send to all connected devices
         // For now, we'll simulate the message being sent
         Log.d(TAG, "Broadcasting message: " + message);
+        radioPolicy.onTraffic();
         
         // Simulate receiving the message back
         mainHandler.postDelayed(() -> {
@@ -310,9 +381,9 @@ private void broadcastMessage(String message) {
         }, 1000);
     }
     
-    private void onDeviceSelected(ScanResult scanResult) {
-        BluetoothDevice device = scanResult.getDevice();
-        String deviceAddress = device.getAddress();
+    private void onDeviceSelected(NeighborTable.Neighbor neighbor) {
+        BluetoothDevice device = bluetoothAdapter.getRemoteDevice(neighbor.address);
+        String deviceAddress = neighbor.address;
         
         if (!connectedDevices.containsKey(deviceAddress)) {
             connectedDevices.put(deviceAddress, device);
@@ -373,35 +444,63 @@ public void onStartFailure(int errorCode) {
         }
     };
     
-    private ScanCallback scanCallback = new ScanCallback() {
+    private final MeshScanner.Listener scanListener = new MeshScanner.Listener() {
         @Override
-        public void onScanResult(int callbackType, ScanResult result) {
-            BluetoothDevice device = result.getDevice();
-            String deviceAddress = device.getAddress();
-            
-            // Add to scan results if not already present
-            boolean found = false;
-            for (ScanResult existing : scanResults) {
-                if (existing.getDevice().getAddress().equals(deviceAddress)) {
-                    found = true;
-                    break;
-                }
-            }
-            
-            if (!found && !deviceAddress.equals(bluetoothAdapter.getAddress())) {
-                scanResults.add(result);
-                runOnUiThread(() -> {
-                    scanResultAdapter.notifyDataSetChanged();
-                    updateDebugger("Found device: " + deviceAddress);
-                });
-            }
+        public void onMeshDeviceFound(ScanResult result) {
+            BLEMeshActivity.this.onMeshDeviceFound(result);
         }
         
         @Override
-        public void onScanFailed(int errorCode) {
-            updateDebugger("BLE scan failed: " + errorCode);
-            isScanning = false;
-            updateUI();
+        public void onAdvertisedFrame(String address, byte[] frame) {
+            updateDebugger("Advertised " + frame.length + " byte frame from " + address);
+        }
+    };
+    
+    /**
+     * Scan results arrive on the main thread, one at a time or in batches
+     */
+    private void onMeshDeviceFound(ScanResult result) {
+        String deviceAddress = result.getDevice().getAddress();
+        if (deviceAddress.equals(bluetoothAdapter.getAddress())) return;
+        
+        String name = result.getScanRecord() != null ? result.getScanRecord().getDeviceName() : null;
+        if (neighbors.update(deviceAddress, name, result.getRssi(), SystemClock.elapsedRealtime())) {
+            radioPolicy.onNeighborChange();
+            updateDebugger("Found device: " + deviceAddress);
+        }
+        scheduleListRefresh();
+    }
+    
+    /**
+     * Coalesce neighbour changes into at most one list update per refresh interval
+     */
+    private void scheduleListRefresh() {
+        if (listRefreshPending) return;
+        listRefreshPending = true;
+        long delay = lastListRefresh + LIST_REFRESH_INTERVAL_MS - SystemClock.elapsedRealtime();
+        mainHandler.postDelayed(publishNeighbors, Math.max(0, delay));
+    }
+    
+    private final Runnable publishNeighbors = () -> {
+        listRefreshPending = false;
+        lastListRefresh = SystemClock.elapsedRealtime();
+        
+        int expired = neighbors.expire(lastListRefresh);
+        if (expired > 0) {
+            radioPolicy.onNeighborChange();
+            updateDebugger("Lost " + expired + " device(s)");
+        }
+        if (neighbors.hasChanges()) {
+            scanResultAdapter.submitList(neighbors.snapshot());
+        }
+    };
+    
+    private final Runnable neighborSweep = new Runnable() {
+        @Override
+        public void run() {
+            // Expire silent neighbours even when no new results arrive
+            scheduleListRefresh();
+            mainHandler.postDelayed(this, NEIGHBOR_SWEEP_INTERVAL_MS);
         }
     };
     
@@ -1,32 +1,44 @@
 package com.meshnetwork.app.ui;
 
-import android.bluetooth.le.ScanResult;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.meshnetwork.app.R;
-
-import java.util.List;
+import com.meshnetwork.mesh.neighbor.NeighborTable.Neighbor;
 
 /**
- * Adapter for displaying BLE scan results
+ * Adapter for displaying nearby mesh devices. Snapshots of the neighbour
+ * table are diffed off the main thread, so only rows that changed rebind.
  */
-public class ScanResultAdapter extends RecyclerView.Adapter<ScanResultAdapter.ScanResultViewHolder> {
+public class ScanResultAdapter extends ListAdapter<Neighbor, ScanResultAdapter.ScanResultViewHolder> {
     
-    private List<ScanResult> scanResults;
     private OnDeviceClickListener onDeviceClickListener;
     
     public interface OnDeviceClickListener {
-        void onDeviceClick(ScanResult scanResult);
+        void onDeviceClick(Neighbor neighbor);
     }
     
-    public ScanResultAdapter(List<ScanResult> scanResults, OnDeviceClickListener listener) {
-        this.scanResults = scanResults;
+    private static final DiffUtil.ItemCallback<Neighbor> DIFF_CALLBACK = new DiffUtil.ItemCallback<Neighbor>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Neighbor oldItem, @NonNull Neighbor newItem) {
+            return oldItem.address.equals(newItem.address);
+        }
+        
+        @Override
+        public boolean areContentsTheSame(@NonNull Neighbor oldItem, @NonNull Neighbor newItem) {
+            return oldItem.sameContents(newItem);
+        }
+    };
+    
+    public ScanResultAdapter(OnDeviceClickListener listener) {
+        super(DIFF_CALLBACK);
         this.onDeviceClickListener = listener;
     }
     
@@ -40,13 +52,7 @@ public ScanResultViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int vi
     
     @Override
     public void onBindViewHolder(@NonNull ScanResultViewHolder holder, int position) {
-        ScanResult scanResult = scanResults.get(position);
-        holder.bind(scanResult, onDeviceClickListener);
-    }
-    
-    @Override
-    public int getItemCount() {
-        return scanResults.size();
+        holder.bind(getItem(position), onDeviceClickListener);
     }
     
     static class ScanResultViewHolder extends RecyclerView.ViewHolder {
@@ -69,22 +75,22 @@ public ScanResultViewHolder(@NonNull View itemView) {
             messageToSend = itemView.findViewById(R.id.message_to_send);
         }
         
-        public void bind(ScanResult scanResult, OnDeviceClickListener listener) {
-            String deviceAddress = scanResult.getDevice().getAddress();
-            String deviceName = scanResult.getDevice().getName();
+        public void bind(Neighbor neighbor, OnDeviceClickListener listener) {
+            String deviceAddress = neighbor.address;
+            String deviceName = neighbor.name;
             
             if (deviceName == null || deviceName.isEmpty()) {
                 deviceName = "Unknown Device";
             }
             
             deviceId.setText(deviceName + " (" + deviceAddress + ")");
-            inputText.setText("RSSI: " + scanResult.getRssi() + " dBm");
+            inputText.setText("RSSI: " + neighbor.rssi + " dBm");
             outputText.setText("Ready for communication");
             messageToSend.setText("");
             
             itemView.setOnClickListener(v -> {
                 if (listener != null) {
-                    listener.onDeviceClick(scanResult);
+                    listener.onDeviceClick(neighbor);
                 }
             });
         }
@@ -1,10 +1,15 @@
 package com.meshnetwork.app.ui;
 
 import android.Manifest;
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.location.Location;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.view.View;
 import android.widget.Button;
 import android.widget.TextView;
@@ -20,6 +25,12 @@
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.meshnetwork.app.R;
 import com.meshnetwork.app.services.BLEMeshService;
+import com.meshnetwork.app.services.MeshForegroundService;
+import com.meshnetwork.mesh.event.MeshEvent;
+import com.meshnetwork.mesh.event.MeshEventBus;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class UserActivity extends AppCompatActivity {
     
@@ -30,11 +41,12 @@ public class UserActivity extends AppCompatActivity {
     private TextView locationTextView;
     private TextView messageTextView;
     
-    private static final int LOCATION_PERMISSION_REQUEST_CODE = 1001;
+    private static final int PERMISSION_REQUEST_CODE = 1001;
     private double currentLatitude = 0.0;
     private double currentLongitude = 0.0;
     private BLEMeshService bleMeshService;
-
+    private boolean meshBound;
+    
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -44,10 +56,12 @@ protected void onCreate(Bundle savedInstanceState) {
         setupClickListeners();
         
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
-        checkLocationPermissions();
+        checkPermissions();
         
-        // Start BLE mesh service
-        startBLEMeshService();
+        // Start BLE mesh service now if it may run, otherwise once the request is answered
+        if (MeshForegroundService.hasBluetoothPermissions(this)) {
+            startBLEMeshService();
+        }
     }
     
     private void initializeViews() {
@@ -66,27 +80,55 @@ private void setupClickListeners() {
         shareLocationButton.setOnClickListener(v -> shareCurrentLocation());
     }
     
-    private void checkLocationPermissions() {
+    private void checkPermissions() {
+        List<String> missing = new ArrayList<>();
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
                 != PackageManager.PERMISSION_GRANTED) {
-            ActivityCompat.requestPermissions(this,
-                    new String[]{Manifest.permission.ACCESS_FINE_LOCATION},
-                    LOCATION_PERMISSION_REQUEST_CODE);
+            missing.add(Manifest.permission.ACCESS_FINE_LOCATION);
         } else {
             getCurrentLocation();
         }
+        // The mesh's foreground notification needs a runtime grant from API 33
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                != PackageManager.PERMISSION_GRANTED) {
+            missing.add(Manifest.permission.POST_NOTIFICATIONS);
+        }
+        // The mesh cannot scan, advertise or connect without these from API 31
+        for (String permission : MeshForegroundService.requiredBluetoothPermissions()) {
+            if (ContextCompat.checkSelfPermission(this, permission) != PackageManager.PERMISSION_GRANTED) {
+                missing.add(permission);
+            }
+        }
+        // One request for all, since a second request while the first is showing is dropped
+        if (!missing.isEmpty()) {
+            ActivityCompat.requestPermissions(this, missing.toArray(new String[0]), PERMISSION_REQUEST_CODE);
+        }
     }
     
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
-        if (requestCode == LOCATION_PERMISSION_REQUEST_CODE) {
-            if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                getCurrentLocation();
-            } else {
-                Toast.makeText(this, "Location permission is required for SOS functionality", Toast.LENGTH_LONG).show();
+        if (requestCode != PERMISSION_REQUEST_CODE) return;
+        for (int i = 0; i < permissions.length && i < grantResults.length; i++) {
+            boolean granted = grantResults[i] == PackageManager.PERMISSION_GRANTED;
+            if (Manifest.permission.ACCESS_FINE_LOCATION.equals(permissions[i])) {
+                if (granted) {
+                    getCurrentLocation();
+                } else {
+                    Toast.makeText(this, "Location permission is required for SOS functionality", Toast.LENGTH_LONG).show();
+                }
+            } else if (Manifest.permission.POST_NOTIFICATIONS.equals(permissions[i]) && !granted) {
+                Toast.makeText(this, "The mesh keeps running, but without its status notification",
+                        Toast.LENGTH_LONG).show();
             }
         }
+        if (meshBound) return;
+        if (MeshForegroundService.hasBluetoothPermissions(this)) {
+            startBLEMeshService();
+        } else {
+            Toast.makeText(this, "Bluetooth permissions are required to join the mesh", Toast.LENGTH_LONG).show();
+        }
     }
     
     private void getCurrentLocation() {
@@ -126,13 +168,8 @@ private void sendSOS() {
             bleMeshService.sendSOSMessage(currentLatitude, currentLongitude);
         }
         
-        statusTextView.setText("Status: SOS Sent!");
+        statusTextView.setText("Status: SOS sent, waiting for a responder...");
         Toast.makeText(this, "SOS sent with location data via BLE mesh!", Toast.LENGTH_LONG).show();
-        
-        // Reset status after 3 seconds
-        sosButton.postDelayed(() -> {
-            statusTextView.setText("Status: Ready");
-        }, 3000);
     }
     
     private void shareCurrentLocation() {
@@ -143,8 +180,9 @@ private void shareCurrentLocation() {
         }
         
         // Share location through BLE mesh network
-        if (bleMeshService != null) {
-            bleMeshService.sendLocationUpdate(currentLatitude, currentLongitude);
+        if (bleMeshService != null && !bleMeshService.sendLocationUpdate(currentLatitude, currentLongitude)) {
+            Toast.makeText(this, "Location unchanged since last share", Toast.LENGTH_SHORT).show();
+            return;
         }
         Toast.makeText(this, "Location shared with admin via BLE mesh", Toast.LENGTH_SHORT).show();
     }
@@ -153,50 +191,76 @@ public void displayMessage(String message) {
         messageTextView.setText("Admin Message: " + message);
     }
     
+    public void displayReceipt(long latencyMillis) {
+        statusTextView.setText(String.format("Status: SOS delivered to responder (%.1f s)", latencyMillis / 1000.0));
+        Toast.makeText(this, "SOS delivered to responder", Toast.LENGTH_LONG).show();
+    }
+    
     public void displayAlert(String alert) {
         messageTextView.setText("ALERT: " + alert);
         Toast.makeText(this, "Emergency Alert: " + alert, Toast.LENGTH_LONG).show();
     }
     
     private void startBLEMeshService() {
-        bleMeshService = BLEMeshService.getInstance(this);
-        
-        if (!bleMeshService.isBluetoothAvailable()) {
-            Toast.makeText(this, "Bluetooth is not available or disabled", Toast.LENGTH_LONG).show();
-            return;
-        }
-        
-        // Start BLE mesh service for user mode
-        bleMeshService.startService(false, new BLEMeshService.MeshMessageCallback() {
-            @Override
-            public void onMessageReceived(String deviceAddress, String message) {
-                displayMessage(message);
-            }
-            
-            @Override
-            public void onSOSReceived(String deviceAddress, double latitude, double longitude) {
-                // User received SOS - shouldn't happen in user mode
-            }
+        // The service keeps the mesh running after this activity is gone;
+        // binding gives us the engine and its events while we are here
+        if (!MeshForegroundService.start(this, false)) return;
+        meshBound = bindService(new Intent(this, MeshForegroundService.class), meshConnection, Context.BIND_AUTO_CREATE);
+    }
+    
+    private final ServiceConnection meshConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            bleMeshService = ((MeshForegroundService.LocalBinder) binder).getMesh();
             
-            @Override
-            public void onAlertReceived(String alertMessage) {
-                displayAlert(alertMessage);
-            }
-        }, new BLEMeshService.LocationCallback() {
-            @Override
-            public void onLocationReceived(String deviceAddress, double latitude, double longitude) {
-                // User received location - shouldn't happen in user mode
+            if (!bleMeshService.isBluetoothAvailable()) {
+                Toast.makeText(UserActivity.this, "Bluetooth is not available or disabled", Toast.LENGTH_LONG).show();
+                return;
             }
-        });
+            bleMeshService.getEvents().subscribe(meshEvents);
+            Toast.makeText(UserActivity.this, "BLE Mesh Network started", Toast.LENGTH_SHORT).show();
+        }
         
-        Toast.makeText(this, "BLE Mesh Network started", Toast.LENGTH_SHORT).show();
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            bleMeshService = null;
+        }
+    };
+    
+    // Delivered on the main thread
+    private final MeshEventBus.Subscriber meshEvents = event -> {
+        switch (event.type) {
+            case MeshEvent.MESSAGE:
+                displayMessage(event.text);
+                break;
+            case MeshEvent.ALERT:
+                displayAlert(event.text);
+                break;
+            case MeshEvent.RECEIPT:
+                displayReceipt(event.latencyMillis);
+                break;
+            default:
+                // SOS and location updates are for the admin
+                break;
+        }
+    };
+    
+    @Override
+    protected void onDestroy() {
+        if (bleMeshService != null) {
+            bleMeshService.getEvents().unsubscribe(meshEvents);
+            bleMeshService = null;
+        }
+        if (meshBound) {
+            meshBound = false;
+            unbindService(meshConnection);
+        }
+        super.onDestroy();
     }
     
     public void goBack(View view) {
         // Stop BLE mesh service
-        if (bleMeshService != null) {
-            bleMeshService.stopService();
-        }
+        MeshForegroundService.stop(this);
         
         // Return to main activity
         Intent intent = new Intent(this, MainActivity.class);
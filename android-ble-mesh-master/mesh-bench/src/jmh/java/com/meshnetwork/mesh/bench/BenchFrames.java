@@ -0,0 +1,60 @@
+package com.meshnetwork.mesh.bench;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+
+/**
+ * Encoded frames for the benchmarks whose sequence number can be rewritten
+ * in place, so every operation can present a frame that is new to the
+ * receiver without allocating or re-encoding it.
+ *
+ * The origin id always takes 3 varint bytes and the sequence 4, which fixes
+ * the sequence at {@link #SEQUENCE_OFFSET} for every frame built here.
+ */
+final class BenchFrames {
+    
+    static final int ORIGIN_ID = 0x12345;
+    static final int FIRST_SEQUENCE = 1 << 21;
+    static final int LAST_SEQUENCE = (1 << 28) - 1;
+    static final int SEQUENCE_OFFSET = 2 + 3;
+    
+    /** About a short chat message */
+    static final String TEXT_BODY = "benchmark message body of typical length";
+    
+    private BenchFrames() {
+    }
+    
+    static MeshFrame text(int sequence) {
+        return new MeshFrame(FrameType.TEXT, ORIGIN_ID, sequence).setBody(TEXT_BODY);
+    }
+    
+    static MeshFrame sos(int sequence) {
+        return new MeshFrame(FrameType.SOS, ORIGIN_ID, sequence).setLocation(52.520008, 13.404954);
+    }
+    
+    static MeshFrame location(int sequence) {
+        return new MeshFrame(FrameType.LOCATION, ORIGIN_ID, sequence).setLocation(52.520008, 13.404954);
+    }
+    
+    static byte[] encode(MeshFrame frame) {
+        if (frame.originId != ORIGIN_ID || frame.sequence < FIRST_SEQUENCE || frame.sequence > LAST_SEQUENCE) {
+            throw new IllegalArgumentException("Sequence would not be rewritable: " + frame);
+        }
+        return FrameCodec.encode(frame);
+    }
+    
+    /**
+     * Overwrite the 4-byte sequence varint of a frame built here
+     */
+    static void setSequence(byte[] data, int sequence) {
+        data[SEQUENCE_OFFSET] = (byte) (sequence | 0x80);
+        data[SEQUENCE_OFFSET + 1] = (byte) ((sequence >>> 7) | 0x80);
+        data[SEQUENCE_OFFSET + 2] = (byte) ((sequence >>> 14) | 0x80);
+        data[SEQUENCE_OFFSET + 3] = (byte) ((sequence >>> 21) & 0x7F);
+    }
+    
+    static int nextSequence(int sequence) {
+        return sequence == LAST_SEQUENCE ? FIRST_SEQUENCE : sequence + 1;
+    }
+}
@@ -0,0 +1,70 @@
+package com.meshnetwork.mesh.bench;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.MeshFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wire format cost per frame: encoding into a reused buffer (the relay and
+ * write-queue path), encoding into a fresh array (the send path) and
+ * decoding into a reused frame (the receive path).
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CodecBenchmark {
+    
+    private MeshFrame sos;
+    private MeshFrame text;
+    private byte[] sosBytes;
+    private byte[] textBytes;
+    private final ByteBuffer buffer = ByteBuffer.allocate(512);
+    private final MeshFrame scratch = new MeshFrame();
+    
+    @Setup
+    public void setUp() {
+        sos = BenchFrames.sos(BenchFrames.FIRST_SEQUENCE);
+        text = BenchFrames.text(BenchFrames.FIRST_SEQUENCE);
+        sosBytes = BenchFrames.encode(sos);
+        textBytes = BenchFrames.encode(text);
+    }
+    
+    @Benchmark
+    public int encodeSosIntoBuffer() {
+        buffer.clear();
+        FrameCodec.encode(sos, buffer);
+        return buffer.position();
+    }
+    
+    @Benchmark
+    public int encodeTextIntoBuffer() {
+        buffer.clear();
+        FrameCodec.encode(text, buffer);
+        return buffer.position();
+    }
+    
+    @Benchmark
+    public byte[] encodeTextToArray() {
+        return FrameCodec.encode(text);
+    }
+    
+    @Benchmark
+    public int decodeSos() {
+        return FrameCodec.decode(sosBytes, 0, sosBytes.length, scratch);
+    }
+    
+    @Benchmark
+    public int decodeText() {
+        return FrameCodec.decode(textBytes, 0, textBytes.length, scratch);
+    }
+}
@@ -0,0 +1,57 @@
+package com.meshnetwork.mesh.bench;
+
+import com.meshnetwork.mesh.dedup.SeenMessageCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Duplicate suppression: recording keys never seen before, which includes
+ * the periodic forced rotation once a generation fills, and looking up keys
+ * that are already held.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DedupBenchmark {
+    
+    /** Expiry long enough that only capacity forces rotations */
+    private static final long EXPIRY_MS = 10 * 60 * 1000;
+    
+    @Param({"8192", "65536"})
+    public int entries;
+    
+    private SeenMessageCache cache;
+    private int nextSequence;
+    private int duplicateIndex;
+    
+    @Setup
+    public void setUp() {
+        cache = new SeenMessageCache(entries, EXPIRY_MS);
+        // Half a generation of keys, all of them hits for the duplicate benchmark
+        for (int i = 0; i < entries / 2; i++) {
+            cache.markSeen(BenchFrames.ORIGIN_ID, i, 0);
+        }
+        nextSequence = entries;
+    }
+    
+    @Benchmark
+    public boolean markNew() {
+        return cache.markSeen(BenchFrames.ORIGIN_ID, nextSequence++, 0);
+    }
+    
+    @Benchmark
+    public boolean markDuplicate() {
+        int sequence = duplicateIndex;
+        duplicateIndex = sequence + 1 == entries / 2 ? 0 : sequence + 1;
+        return cache.markSeen(BenchFrames.ORIGIN_ID, sequence, 0);
+    }
+}
@@ -0,0 +1,104 @@
+package com.meshnetwork.mesh.bench;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.location.GeoMath;
+import com.meshnetwork.mesh.location.LocationStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admin-view queries over the location store: 50k users spread over a
+ * 20 km square with the app's 0.01 degree grid, queried by radius and by a
+ * bounding box of the same size at random centres inside the area, plus
+ * position updates that move users between cells.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LocationStoreBenchmark {
+    
+    private static final int USERS = 50_000;
+    private static final double CELL_DEGREES = 0.01;
+    private static final double CENTER_LAT = 47.37;
+    private static final double CENTER_LON = 8.54;
+    // About 20 km on a side at this latitude
+    private static final double SPAN_LAT = 0.18;
+    private static final double SPAN_LON = 0.27;
+    private static final int QUERIES = 1024;
+    
+    @Param({"500", "2000"})
+    public double radiusMeters;
+    
+    private LocationStore store;
+    private final double[] queryLat = new double[QUERIES];
+    private final double[] queryLon = new double[QUERIES];
+    private final int[] updateLatE7 = new int[QUERIES];
+    private final int[] updateLonE7 = new int[QUERIES];
+    private int next;
+    private long now;
+    private int found;
+    
+    private final LocationStore.Visitor counter = position -> found++;
+    
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        store = new LocationStore(USERS, CELL_DEGREES);
+        for (int userId = 0; userId < USERS; userId++) {
+            store.update(userId, randomLatE7(random), randomLonE7(random), now++);
+        }
+        for (int i = 0; i < QUERIES; i++) {
+            queryLat[i] = CENTER_LAT + (random.nextDouble() - 0.5) * SPAN_LAT;
+            queryLon[i] = CENTER_LON + (random.nextDouble() - 0.5) * SPAN_LON;
+            updateLatE7[i] = randomLatE7(random);
+            updateLonE7[i] = randomLonE7(random);
+        }
+    }
+    
+    private static int randomLatE7(Random random) {
+        return FrameCodec.toFixed(CENTER_LAT + (random.nextDouble() - 0.5) * SPAN_LAT);
+    }
+    
+    private static int randomLonE7(Random random) {
+        return FrameCodec.toFixed(CENTER_LON + (random.nextDouble() - 0.5) * SPAN_LON);
+    }
+    
+    private int nextIndex() {
+        int i = next;
+        next = i + 1 == QUERIES ? 0 : i + 1;
+        return i;
+    }
+    
+    @Benchmark
+    public int queryRadius() {
+        int i = nextIndex();
+        return store.queryRadius(queryLat[i], queryLon[i], radiusMeters, counter);
+    }
+    
+    @Benchmark
+    public int queryBox() {
+        int i = nextIndex();
+        // The box around the same circle
+        int dLat = FrameCodec.toFixed(Math.toDegrees(radiusMeters / GeoMath.EARTH_RADIUS_METERS));
+        int dLon = (int) (dLat / Math.cos(Math.toRadians(queryLat[i])));
+        int latE7 = FrameCodec.toFixed(queryLat[i]);
+        int lonE7 = FrameCodec.toFixed(queryLon[i]);
+        return store.queryBox(latE7 - dLat, lonE7 - dLon, latE7 + dLat, lonE7 + dLon, counter);
+    }
+    
+    @Benchmark
+    public void update() {
+        int i = nextIndex();
+        store.update(i * (USERS / QUERIES), updateLatE7[i], updateLonE7[i], now++);
+    }
+}
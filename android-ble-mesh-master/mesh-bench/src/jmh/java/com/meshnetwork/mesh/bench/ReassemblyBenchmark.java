@@ -0,0 +1,132 @@
+package com.meshnetwork.mesh.bench;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.fragment.Fragmenter;
+import com.meshnetwork.mesh.fragment.Reassembler;
+import com.meshnetwork.mesh.transport.AbstractMeshTransport;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fragmentation and reassembly with the transport's shared pool of
+ * {@link AbstractMeshTransport#REASSEMBLY_SLOTS} slots of
+ * {@link AbstractMeshTransport#MAX_FRAME_SIZE} bytes, at the write size of
+ * a typical negotiated MTU of 185.
+ *
+ * {@code reassembleInterleaved} feeds one fragment per operation from
+ * {@code peers} senders taking turns, each streaming frames of
+ * {@code frameSize} bytes, so that many partial messages are open at once.
+ * Up to the slot count every message completes; beyond it the oldest
+ * partial message is evicted for each new one. The completed and evicted
+ * counters show which regime a run is in. The pool's memory is fixed at
+ * slots times the largest frame however many messages are open, so the
+ * only allocation per operation is the completed frame itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReassemblyBenchmark {
+    
+    /** MTU 185 minus the 3-byte ATT header */
+    private static final int WRITE_SIZE = 182;
+    
+    @Param({"1", "16", "64"})
+    public int peers;
+    
+    @Param({"512", "4096"})
+    public int frameSize;
+    
+    /** Completed and evicted messages, reported next to the fragment rate */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcomes {
+        public long completed;
+        public long evicted;
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            completed = 0;
+            evicted = 0;
+        }
+    }
+    
+    private Reassembler reassembler;
+    private String[] addresses;
+    private byte[][] fragments;
+    private byte[] frame;
+    
+    // Per sender: next fragment index and current message id
+    private int[] nextIndex;
+    private int[] messageId;
+    private int peer;
+    private long now;
+    private long evictedBefore;
+    
+    @Setup
+    public void setUp() {
+        reassembler = new Reassembler(AbstractMeshTransport.REASSEMBLY_SLOTS,
+                AbstractMeshTransport.MAX_FRAME_SIZE, AbstractMeshTransport.REASSEMBLY_TIMEOUT_MS);
+        
+        MeshFrame alert = new MeshFrame(FrameType.ALERT, BenchFrames.ORIGIN_ID, BenchFrames.FIRST_SEQUENCE);
+        StringBuilder body = new StringBuilder();
+        while (body.length() < frameSize - 16) {
+            body.append(BenchFrames.TEXT_BODY).append(' ');
+        }
+        alert.setBody(body.substring(0, frameSize - 16));
+        frame = FrameCodec.encode(alert);
+        // Every sender streams the same frame; only the message id in the header differs
+        fragments = Fragmenter.split(frame, WRITE_SIZE, 0);
+        
+        addresses = new String[peers];
+        for (int i = 0; i < peers; i++) {
+            addresses[i] = String.format("AA:00:00:00:%02X:%02X", i >>> 8, i & 0xFF);
+        }
+        nextIndex = new int[peers];
+        messageId = new int[peers];
+        peer = 0;
+        now = 0;
+        evictedBefore = 0;
+    }
+    
+    @Benchmark
+    public byte[] reassembleInterleaved(Outcomes outcomes) {
+        int p = peer;
+        peer = p + 1 == peers ? 0 : p + 1;
+        
+        byte[] fragment = fragments[nextIndex[p]];
+        fragment[1] = (byte) (messageId[p] >>> 8);
+        fragment[2] = (byte) messageId[p];
+        if (++nextIndex[p] == fragments.length) {
+            nextIndex[p] = 0;
+            messageId[p] = (messageId[p] + 1) & 0xFFFF;
+        }
+        
+        // A millisecond per fragment keeps slot ages apart for eviction, well inside the timeout
+        byte[] complete = reassembler.accept(addresses[p], fragment, now++);
+        if (complete != null) {
+            outcomes.completed++;
+        }
+        long evicted = reassembler.getEvictedCount();
+        outcomes.evicted += evicted - evictedBefore;
+        evictedBefore = evicted;
+        return complete;
+    }
+    
+    @Benchmark
+    public byte[][] split() {
+        return Fragmenter.split(frame, WRITE_SIZE, messageId[0]);
+    }
+}
@@ -0,0 +1,134 @@
+package com.meshnetwork.mesh.bench;
+
+import com.meshnetwork.mesh.MeshClock;
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.dedup.SeenMessageCache;
+import com.meshnetwork.mesh.dispatch.FrameDispatcher;
+import com.meshnetwork.mesh.dispatch.FramePool;
+import com.meshnetwork.mesh.dispatch.ReceivePath;
+import com.meshnetwork.mesh.location.GeofenceFilter;
+import com.meshnetwork.mesh.routing.FloodingStrategy;
+import com.meshnetwork.mesh.routing.RoutingEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole receive path as the mesh worker runs it: decode into a pooled
+ * frame, dedup, relay decision and dispatch to the handler, with the same
+ * pool and cache sizes as the app. Host and handler only count, so the
+ * score is the protocol core alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReceivePathBenchmark {
+    
+    private static final String PEER = "AA:00:00:00:00:01";
+    
+    /** Time stands still, so only capacity rotates the seen cache */
+    private static final MeshClock FIXED_CLOCK = () -> 0L;
+    
+    private ReceivePath path;
+    private long relayed;
+    private long delivered;
+    
+    private byte[] text;
+    private byte[] location;
+    private byte[] duplicate;
+    private int textSequence = BenchFrames.FIRST_SEQUENCE;
+    private int locationSequence = BenchFrames.FIRST_SEQUENCE;
+    
+    @Setup
+    public void setUp() {
+        FrameDispatcher dispatcher = new FrameDispatcher(new FramePool(64));
+        SeenMessageCache seen = new SeenMessageCache(8192, 10 * 60 * 1000);
+        RoutingEngine routing = new RoutingEngine(new FloodingStrategy());
+        GeofenceFilter geofence = new GeofenceFilter(GeofenceFilter.DEFAULT_HOP_RANGE_METERS);
+        path = new ReceivePath(FIXED_CLOCK, dispatcher, seen, routing, geofence, handler, host);
+        
+        text = BenchFrames.encode(BenchFrames.text(textSequence));
+        location = BenchFrames.encode(BenchFrames.location(locationSequence));
+        duplicate = BenchFrames.encode(BenchFrames.text(BenchFrames.LAST_SEQUENCE));
+        path.receive(PEER, duplicate.clone());
+    }
+    
+    @Benchmark
+    public int newText() {
+        textSequence = BenchFrames.nextSequence(textSequence);
+        BenchFrames.setSequence(text, textSequence);
+        text[FrameCodec.TTL_OFFSET] = (byte) MeshFrame.DEFAULT_TTL;
+        return path.receive(PEER, text);
+    }
+    
+    @Benchmark
+    public int newLocation() {
+        locationSequence = BenchFrames.nextSequence(locationSequence);
+        BenchFrames.setSequence(location, locationSequence);
+        location[FrameCodec.TTL_OFFSET] = (byte) MeshFrame.DEFAULT_TTL;
+        return path.receive(PEER, location);
+    }
+    
+    @Benchmark
+    public int duplicate() {
+        return path.receive(PEER, duplicate);
+    }
+    
+    private final ReceivePath.Host host = new ReceivePath.Host() {
+        @Override
+        public void onSyncFrame(String fromPeer, MeshFrame frame) {
+        }
+        
+        @Override
+        public void onAck(String fromPeer, MeshFrame frame) {
+        }
+        
+        @Override
+        public void acknowledge(String fromPeer, MeshFrame frame) {
+        }
+        
+        @Override
+        public void onFirstCopy(String fromPeer, MeshFrame frame) {
+        }
+        
+        @Override
+        public void relay(MeshFrame frame, String fromPeer, byte[] data, long delayMillis) {
+            relayed += data.length + delayMillis;
+        }
+    };
+    
+    private final FrameDispatcher.FrameHandler handler = new FrameDispatcher.FrameHandler() {
+        @Override
+        public void onSOS(MeshFrame frame) {
+            delivered += frame.latitudeE7;
+        }
+        
+        @Override
+        public void onLocation(MeshFrame frame) {
+            delivered += frame.latitudeE7;
+        }
+        
+        @Override
+        public void onAlert(MeshFrame frame) {
+            delivered += frame.getBodyLength();
+        }
+        
+        @Override
+        public void onText(MeshFrame frame) {
+            delivered += frame.getBodyLength();
+        }
+        
+        @Override
+        public void onReceipt(MeshFrame frame) {
+            delivered += frame.ackedSequence;
+        }
+    };
+}
@@ -0,0 +1,78 @@
+package com.meshnetwork.mesh.bench;
+
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.routing.EtxStrategy;
+import com.meshnetwork.mesh.routing.FloodingStrategy;
+import com.meshnetwork.mesh.routing.GossipStrategy;
+import com.meshnetwork.mesh.routing.LinkQualityTable;
+import com.meshnetwork.mesh.routing.RoutingEngine;
+import com.meshnetwork.mesh.routing.RoutingStrategy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forwarding decision for one frame's life in the routing engine: the
+ * first copy, two later copies heard while the relay waits, and the relay
+ * timer firing. Strategies that relay at once skip the waiting part.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoutingBenchmark {
+    
+    private static final String[] PEERS = {"AA:00:00:00:00:01", "AA:00:00:00:00:02", "AA:00:00:00:00:03"};
+    
+    @Param({"flooding", "gossip", "etx"})
+    public String strategy;
+    
+    private RoutingEngine engine;
+    private final MeshFrame frame = BenchFrames.text(BenchFrames.FIRST_SEQUENCE);
+    private int peerIndex;
+    
+    @Setup
+    public void setUp() {
+        LinkQualityTable links = new LinkQualityTable();
+        links.recordRssi(PEERS[0], -60);
+        links.recordRssi(PEERS[1], -85);
+        links.recordRssi(PEERS[2], -95);
+        engine = new RoutingEngine(newStrategy(strategy, links));
+    }
+    
+    @Benchmark
+    public boolean frameLifecycle() {
+        frame.sequence = BenchFrames.nextSequence(frame.sequence);
+        String peer = PEERS[peerIndex];
+        peerIndex = peerIndex == PEERS.length - 1 ? 0 : peerIndex + 1;
+        
+        long delay = engine.onFirstCopy(frame, peer);
+        if (delay == RoutingStrategy.DROP) return false;
+        if (delay == 0) return true;
+        
+        engine.onDuplicate(frame.originId, frame.sequence);
+        engine.onDuplicate(frame.originId, frame.sequence);
+        return engine.onRelayDue(frame.originId, frame.sequence);
+    }
+    
+    private static RoutingStrategy newStrategy(String name, LinkQualityTable links) {
+        switch (name) {
+            case "flooding":
+                return new FloodingStrategy();
+            case "gossip":
+                return new GossipStrategy(0.65, 2, MeshFrame.DEFAULT_TTL, new Random(1));
+            case "etx":
+                return new EtxStrategy(links);
+            default:
+                throw new IllegalArgumentException("Unknown strategy: " + name);
+        }
+    }
+}
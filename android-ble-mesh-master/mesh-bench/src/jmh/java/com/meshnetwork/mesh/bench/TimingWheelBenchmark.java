@@ -0,0 +1,159 @@
+package com.meshnetwork.mesh.bench;
+
+import com.meshnetwork.mesh.schedule.TimingWheel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worker timers with {@code pending} others already waiting: re-arming a
+ * pending timer (a retransmission timeout pushed back), scheduling and
+ * cancelling a fresh one (a relay delay settled early), and one tick of
+ * time passing, whose fired timers re-arm themselves.
+ *
+ * Each is measured on the {@link TimingWheel} and on a binary heap with
+ * removal by identity, which is how a delay queue cancels; the looper's
+ * own message queue is a sorted list, slower still for inserts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimingWheelBenchmark {
+    
+    // As configured on the mesh worker
+    private static final long TICK_MS = 10;
+    private static final int SLOTS = 512;
+    
+    /** Delays spread up to the longest retransmission timeout */
+    private static final int MAX_DELAY_MS = 10_000;
+    private static final int DELAY_COUNT = 4096;
+    
+    @Param({"1000", "100000"})
+    public int pending;
+    
+    private static final class HeapTimer implements Comparable<HeapTimer> {
+        final Runnable task;
+        long deadline;
+        long order;
+        
+        HeapTimer(Runnable task) {
+            this.task = task;
+        }
+        
+        @Override
+        public int compareTo(HeapTimer other) {
+            if (deadline != other.deadline) return deadline < other.deadline ? -1 : 1;
+            return Long.compare(order, other.order);
+        }
+    }
+    
+    private long now;
+    private final long[] delays = new long[DELAY_COUNT];
+    private int delayIndex;
+    private final Runnable noop = () -> { };
+    
+    private TimingWheel wheel;
+    private TimingWheel.Timeout[] timeouts;
+    
+    private PriorityQueue<HeapTimer> heap;
+    private HeapTimer[] heapTimers;
+    private long heapOrder;
+    
+    private int next;
+    
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < DELAY_COUNT; i++) {
+            delays[i] = 1 + random.nextInt(MAX_DELAY_MS);
+        }
+        now = 0;
+        
+        wheel = new TimingWheel(() -> now, TICK_MS, SLOTS, delay -> { });
+        timeouts = new TimingWheel.Timeout[pending];
+        for (int i = 0; i < pending; i++) {
+            TimingWheel.Timeout[] self = new TimingWheel.Timeout[1];
+            self[0] = new TimingWheel.Timeout(() -> wheel.schedule(self[0], nextDelay()));
+            timeouts[i] = self[0];
+            wheel.schedule(timeouts[i], nextDelay());
+        }
+        
+        heap = new PriorityQueue<>(pending + 1);
+        heapTimers = new HeapTimer[pending];
+        for (int i = 0; i < pending; i++) {
+            HeapTimer[] self = new HeapTimer[1];
+            self[0] = new HeapTimer(() -> heapSchedule(self[0], nextDelay()));
+            heapTimers[i] = self[0];
+            heapSchedule(heapTimers[i], nextDelay());
+        }
+    }
+    
+    @Benchmark
+    public void wheelReschedule() {
+        wheel.schedule(timeouts[nextIndex()], nextDelay());
+    }
+    
+    @Benchmark
+    public boolean wheelScheduleCancel() {
+        return wheel.cancel(wheel.schedule(noop, nextDelay()));
+    }
+    
+    @Benchmark
+    public int wheelTick() {
+        now += TICK_MS;
+        return wheel.advance();
+    }
+    
+    @Benchmark
+    public void heapReschedule() {
+        HeapTimer timer = heapTimers[nextIndex()];
+        heap.remove(timer);
+        heapSchedule(timer, nextDelay());
+    }
+    
+    @Benchmark
+    public boolean heapScheduleCancel() {
+        HeapTimer timer = new HeapTimer(noop);
+        heapSchedule(timer, nextDelay());
+        return heap.remove(timer);
+    }
+    
+    @Benchmark
+    public int heapTick() {
+        now += TICK_MS;
+        int fired = 0;
+        while (!heap.isEmpty() && heap.peek().deadline <= now) {
+            heap.poll().task.run();
+            fired++;
+        }
+        return fired;
+    }
+    
+    private void heapSchedule(HeapTimer timer, long delay) {
+        timer.deadline = now + delay;
+        timer.order = heapOrder++;
+        heap.add(timer);
+    }
+    
+    private long nextDelay() {
+        long delay = delays[delayIndex];
+        delayIndex = (delayIndex + 1) & (DELAY_COUNT - 1);
+        return delay;
+    }
+    
+    private int nextIndex() {
+        int index = next;
+        next = index + 1 == pending ? 0 : index + 1;
+        return index;
+    }
+}
@@ -0,0 +1,12 @@
+package com.meshnetwork.mesh;
+
+/**
+ * Millisecond time source for the mesh core. Production code uses the
+ * monotonic {@link #SYSTEM} clock; simulations supply their own.
+ */
+public interface MeshClock {
+    
+    MeshClock SYSTEM = () -> System.nanoTime() / 1_000_000;
+    
+    long nowMillis();
+}
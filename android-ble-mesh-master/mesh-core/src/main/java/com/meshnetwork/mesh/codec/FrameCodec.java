@@ -0,0 +1,304 @@
+package com.meshnetwork.mesh.codec;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary wire format for mesh frames.
+ *
+ * <pre>
+ * header   1 byte   version (high nibble) | type (low nibble)
+ * ttl      1 byte   remaining hop count
+ * origin   varint   originating node id
+ * sequence varint   per-origin sequence number
+ * payload           SOS/LOCATION: int32 latitudeE7, int32 longitudeE7
+ *                   LOCATION_DELTA: varint base sequence,
+ *                                 zigzag varint latitude and longitude offsets
+ *                   TEXT/ALERT:   varint length, UTF-8 bytes
+ *                   GEO_ALERT:    int32 latitudeE7, int32 longitudeE7,
+ *                                 varint radius in metres, varint length, UTF-8 bytes
+ *                   RECEIPT:      varint acked origin, varint acked sequence
+ *                   ACK:          none; origin and sequence name the acked frame
+ * </pre>
+ *
+ * An SOS or LOCATION frame is at most {@link #MAX_COORDINATE_FRAME_SIZE}
+ * bytes, so it always fits in a single write at the default ATT MTU.
+ */
+public final class FrameCodec {
+    
+    public static final int VERSION = 1;
+    
+    /** Offset of the ttl byte, so relays can decrement it in place */
+    public static final int TTL_OFFSET = 1;
+    
+    /** Usable payload of one write at the default ATT MTU of 23 */
+    public static final int DEFAULT_WRITE_SIZE = 20;
+    
+    /** Header, ttl, two 5-byte varints and the coordinate pair */
+    public static final int MAX_COORDINATE_FRAME_SIZE = 1 + 1 + 5 + 5 + 8;
+    
+    private static final double FIXED_SCALE = 1e7;
+    
+    private FrameCodec() {
+    }
+    
+    /**
+     * Encode a frame at the buffer's position
+     * @throws BufferOverflowException if the frame does not fit
+     */
+    public static void encode(MeshFrame frame, ByteBuffer out) {
+        out.put((byte) ((VERSION << 4) | (frame.type & FrameType.MAX)));
+        out.put((byte) frame.ttl);
+        writeVarint(out, frame.originId);
+        writeVarint(out, frame.sequence);
+        
+        if (FrameType.hasCoordinates(frame.type)) {
+            out.putInt(frame.latitudeE7);
+            out.putInt(frame.longitudeE7);
+        } else if (frame.type == FrameType.LOCATION_DELTA) {
+            writeVarint(out, frame.baseSequence);
+            writeVarint(out, zigzag(frame.latitudeE7));
+            writeVarint(out, zigzag(frame.longitudeE7));
+        }
+        if (frame.type == FrameType.GEO_ALERT) {
+            writeVarint(out, frame.radiusMeters);
+        }
+        if (frame.type == FrameType.RECEIPT) {
+            writeVarint(out, frame.ackedOrigin);
+            writeVarint(out, frame.ackedSequence);
+        }
+        if (FrameType.hasBody(frame.type)) {
+            writeVarint(out, frame.getBodyLength());
+            out.put(frame.getBodyBytes(), 0, frame.getBodyLength());
+        }
+    }
+    
+    /**
+     * Encode a frame into a new array sized to fit it exactly
+     */
+    public static byte[] encode(MeshFrame frame) {
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize(frame));
+        encode(frame, buffer);
+        return buffer.array();
+    }
+    
+    /**
+     * Decode one frame from the buffer's position into {@code frame}.
+     * Returns false, leaving the buffer position unspecified, if the bytes
+     * are truncated, carry an unknown version or an invalid length.
+     */
+    public static boolean decode(ByteBuffer in, MeshFrame frame) {
+        if (in.hasArray()) {
+            int start = in.arrayOffset() + in.position();
+            int end = decode(in.array(), start, in.remaining(), frame);
+            if (end < 0) return false;
+            in.position(in.position() + (end - start));
+            return true;
+        }
+        
+        byte[] copy = new byte[in.remaining()];
+        in.get(copy);
+        return decode(copy, 0, copy.length, frame) >= 0;
+    }
+    
+    /**
+     * Decode one frame straight from a received array without allocating.
+     * Returns the offset just past the frame, or -1 if it is malformed.
+     */
+    public static int decode(byte[] data, int offset, int length, MeshFrame frame) {
+        int pos = offset;
+        int limit = offset + length;
+        if (length < 2) return -1;
+        
+        int header = data[pos++] & 0xFF;
+        if ((header >>> 4) != VERSION) return -1;
+        
+        frame.type = header & FrameType.MAX;
+        frame.ttl = data[pos++] & 0xFF;
+        
+        int end = varintEnd(data, pos, limit);
+        if (end < 0) return -1;
+        frame.originId = varintValue(data, pos, end);
+        pos = end;
+        
+        end = varintEnd(data, pos, limit);
+        if (end < 0) return -1;
+        frame.sequence = varintValue(data, pos, end);
+        pos = end;
+        
+        if (FrameType.hasCoordinates(frame.type)) {
+            if (limit - pos < 8) return -1;
+            frame.latitudeE7 = readInt(data, pos);
+            frame.longitudeE7 = readInt(data, pos + 4);
+            pos += 8;
+        } else if (frame.type == FrameType.LOCATION_DELTA) {
+            end = varintEnd(data, pos, limit);
+            if (end < 0) return -1;
+            frame.baseSequence = varintValue(data, pos, end);
+            pos = end;
+            
+            end = varintEnd(data, pos, limit);
+            if (end < 0) return -1;
+            frame.latitudeE7 = unzigzag(varintValue(data, pos, end));
+            pos = end;
+            
+            end = varintEnd(data, pos, limit);
+            if (end < 0) return -1;
+            frame.longitudeE7 = unzigzag(varintValue(data, pos, end));
+            pos = end;
+        }
+        if (frame.type == FrameType.GEO_ALERT) {
+            end = varintEnd(data, pos, limit);
+            if (end < 0) return -1;
+            frame.radiusMeters = varintValue(data, pos, end);
+            pos = end;
+        }
+        if (frame.type == FrameType.RECEIPT) {
+            end = varintEnd(data, pos, limit);
+            if (end < 0) return -1;
+            frame.ackedOrigin = varintValue(data, pos, end);
+            pos = end;
+            
+            end = varintEnd(data, pos, limit);
+            if (end < 0) return -1;
+            frame.ackedSequence = varintValue(data, pos, end);
+            pos = end;
+        }
+        if (FrameType.hasBody(frame.type)) {
+            end = varintEnd(data, pos, limit);
+            if (end < 0) return -1;
+            int bodyLength = varintValue(data, pos, end);
+            pos = end;
+            if (bodyLength < 0 || bodyLength > limit - pos) return -1;
+            frame.setBody(data, pos, bodyLength);
+            pos += bodyLength;
+        }
+        return pos;
+    }
+    
+    /**
+     * Frame type of encoded bytes without decoding them, or -1 if the bytes
+     * are not a frame of this version
+     */
+    public static int peekType(byte[] data) {
+        if (data.length < 2 || ((data[0] & 0xFF) >>> 4) != VERSION) return -1;
+        return data[0] & FrameType.MAX;
+    }
+    
+    /**
+     * Origin id of encoded bytes without decoding them. Only meaningful for
+     * bytes {@link #peekType} accepted; a truncated origin reads as 0.
+     */
+    public static int peekOrigin(byte[] data) {
+        int end = varintEnd(data, 2, data.length);
+        return end < 0 ? 0 : varintValue(data, 2, end);
+    }
+    
+    public static int encodedSize(MeshFrame frame) {
+        int size = 2 + varintSize(frame.originId) + varintSize(frame.sequence);
+        if (FrameType.hasCoordinates(frame.type)) {
+            size += 8;
+        } else if (frame.type == FrameType.LOCATION_DELTA) {
+            size += varintSize(frame.baseSequence)
+                    + varintSize(zigzag(frame.latitudeE7))
+                    + varintSize(zigzag(frame.longitudeE7));
+        }
+        if (frame.type == FrameType.GEO_ALERT) {
+            size += varintSize(frame.radiusMeters);
+        }
+        if (frame.type == FrameType.RECEIPT) {
+            size += varintSize(frame.ackedOrigin) + varintSize(frame.ackedSequence);
+        }
+        if (FrameType.hasBody(frame.type)) {
+            size += varintSize(frame.getBodyLength()) + frame.getBodyLength();
+        }
+        return size;
+    }
+    
+    /**
+     * Write an int as an unsigned LEB128 varint (1-5 bytes)
+     */
+    public static void writeVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+    
+    /**
+     * Read an unsigned varint written by {@link #writeVarint}.
+     * Returns -1 if the buffer ends early or the varint exceeds 32 bits.
+     */
+    public static long readVarint(ByteBuffer in) {
+        long result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!in.hasRemaining()) return -1;
+            int b = in.get() & 0xFF;
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result > 0xFFFFFFFFL ? -1 : result;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Map signed values to unsigned so small offsets of either sign stay short
+     */
+    public static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+    
+    public static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    public static int varintSize(int value) {
+        if ((value & ~0x7F) == 0) return 1;
+        if ((value & ~0x3FFF) == 0) return 2;
+        if ((value & ~0x1FFFFF) == 0) return 3;
+        if ((value & ~0xFFFFFFF) == 0) return 4;
+        return 5;
+    }
+    
+    /**
+     * Convert degrees to fixed-point 1e-7 degree units (about 1 cm)
+     */
+    public static int toFixed(double degrees) {
+        return (int) Math.round(degrees * FIXED_SCALE);
+    }
+    
+    public static double fromFixed(int fixed) {
+        return fixed / FIXED_SCALE;
+    }
+    
+    /**
+     * Position just past the varint starting at {@code pos}, or -1 if it is
+     * truncated or longer than 5 bytes
+     */
+    private static int varintEnd(byte[] data, int pos, int limit) {
+        for (int i = 0; i < 5; i++) {
+            if (pos + i >= limit) return -1;
+            int b = data[pos + i];
+            if (i == 4 && (b & 0xF0) != 0) return -1;
+            if ((b & 0x80) == 0) return pos + i + 1;
+        }
+        return -1;
+    }
+    
+    private static int varintValue(byte[] data, int pos, int end) {
+        int result = 0;
+        for (int shift = 0; pos < end; pos++, shift += 7) {
+            result |= (data[pos] & 0x7F) << shift;
+        }
+        return result;
+    }
+    
+    private static int readInt(byte[] data, int pos) {
+        return (data[pos] & 0xFF) << 24
+                | (data[pos + 1] & 0xFF) << 16
+                | (data[pos + 2] & 0xFF) << 8
+                | (data[pos + 3] & 0xFF);
+    }
+}
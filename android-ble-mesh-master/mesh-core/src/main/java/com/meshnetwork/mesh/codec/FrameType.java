@@ -0,0 +1,89 @@
+package com.meshnetwork.mesh.codec;
+
+/**
+ * Frame types carried in the low nibble of the frame header byte
+ */
+public final class FrameType {
+    
+    public static final int TEXT = 0;
+    public static final int SOS = 1;
+    public static final int LOCATION = 2;
+    public static final int ALERT = 3;
+    
+    /** Location as an offset from an earlier LOCATION keyframe of the same origin */
+    public static final int LOCATION_DELTA = 4;
+    
+    /** Alert for nodes inside a circle; relays outside it may drop it */
+    public static final int GEO_ALERT = 5;
+    
+    /** Link-local anti-entropy exchange; the body is a sync message, never relayed */
+    public static final int SYNC = 6;
+    
+    /** Link-local acknowledgement of the frame with the same origin and sequence, never relayed */
+    public static final int ACK = 7;
+    
+    /** End-to-end delivery receipt from a responder for the frame at ackedOrigin, ackedSequence */
+    public static final int RECEIPT = 8;
+    
+    /** Link-level container of several small frames in one write, unpacked before decoding */
+    public static final int BATCH = 0x0E;
+    
+    /** Link-level fragment of a larger frame, reassembled before decoding */
+    public static final int FRAGMENT = 0x0F;
+    
+    /** Highest type value that fits in the header nibble */
+    public static final int MAX = 0x0F;
+    
+    private FrameType() {
+    }
+    
+    /**
+     * Whether the frame type carries a fixed-point coordinate pair
+     */
+    public static boolean hasCoordinates(int type) {
+        return type == SOS || type == LOCATION || type == GEO_ALERT;
+    }
+    
+    /**
+     * Whether the frame type carries a length-prefixed UTF-8 body
+     */
+    public static boolean hasBody(int type) {
+        return type == TEXT || type == ALERT || type == GEO_ALERT || type == SYNC;
+    }
+    
+    /**
+     * Whether the frame type is a position report, absolute or delta
+     */
+    public static boolean isLocationUpdate(int type) {
+        return type == LOCATION || type == LOCATION_DELTA;
+    }
+    
+    public static String name(int type) {
+        switch (type) {
+            case TEXT:
+                return "TEXT";
+            case SOS:
+                return "SOS";
+            case LOCATION:
+                return "LOCATION";
+            case ALERT:
+                return "ALERT";
+            case LOCATION_DELTA:
+                return "LOCATION_DELTA";
+            case GEO_ALERT:
+                return "GEO_ALERT";
+            case SYNC:
+                return "SYNC";
+            case ACK:
+                return "ACK";
+            case RECEIPT:
+                return "RECEIPT";
+            case BATCH:
+                return "BATCH";
+            case FRAGMENT:
+                return "FRAGMENT";
+            default:
+                return "TYPE_" + type;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.meshnetwork.mesh.codec;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decoded mesh frame. Instances are mutable so a decoder can fill a
+ * caller-owned or pooled frame instead of allocating one per message.
+ */
+public class MeshFrame {
+    
+    /** Default hop limit for frames originated by this node */
+    public static final int DEFAULT_TTL = 7;
+    
+    public int type;
+    public int ttl;
+    public int originId;
+    public int sequence;
+    
+    // Coordinates in units of 1e-7 degrees (SOS, LOCATION). For
+    // LOCATION_DELTA they are offsets from the keyframe at baseSequence.
+    public int latitudeE7;
+    public int longitudeE7;
+    public int baseSequence;
+    
+    // Target circle radius around the coordinates (GEO_ALERT)
+    public int radiusMeters;
+    
+    // Frame confirmed by a RECEIPT
+    public int ackedOrigin;
+    public int ackedSequence;
+    
+    // UTF-8 body (TEXT, ALERT), kept as bytes so decoding does not allocate.
+    // SYNC frames carry a binary sync message here instead.
+    private byte[] bodyBytes = new byte[0];
+    private int bodyLength;
+    
+    // Link-level address the frame was received from, if any
+    public String sourceAddress;
+    
+    public MeshFrame() {
+    }
+    
+    public MeshFrame(int type, int originId, int sequence) {
+        this.type = type;
+        this.ttl = DEFAULT_TTL;
+        this.originId = originId;
+        this.sequence = sequence;
+    }
+    
+    public double getLatitude() {
+        return FrameCodec.fromFixed(latitudeE7);
+    }
+    
+    public double getLongitude() {
+        return FrameCodec.fromFixed(longitudeE7);
+    }
+    
+    public MeshFrame setLocation(double latitude, double longitude) {
+        this.latitudeE7 = FrameCodec.toFixed(latitude);
+        this.longitudeE7 = FrameCodec.toFixed(longitude);
+        return this;
+    }
+    
+    public MeshFrame setBody(String body) {
+        byte[] bytes = body != null ? body.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        setBody(bytes, 0, bytes.length);
+        return this;
+    }
+    
+    /**
+     * Copy UTF-8 body bytes into this frame, growing the backing array only
+     * when a longer body than any seen before arrives
+     */
+    public void setBody(byte[] data, int offset, int length) {
+        if (bodyBytes.length < length) {
+            bodyBytes = new byte[length];
+        }
+        System.arraycopy(data, offset, bodyBytes, 0, length);
+        bodyLength = length;
+    }
+    
+    /**
+     * Decode the body to a String. Allocates, so call it only where the
+     * text is actually needed (e.g. when showing it in the UI).
+     */
+    public String getBody() {
+        return new String(bodyBytes, 0, bodyLength, StandardCharsets.UTF_8);
+    }
+    
+    public byte[] getBodyBytes() {
+        return bodyBytes;
+    }
+    
+    public int getBodyLength() {
+        return bodyLength;
+    }
+    
+    public void clear() {
+        type = 0;
+        ttl = 0;
+        originId = 0;
+        sequence = 0;
+        latitudeE7 = 0;
+        longitudeE7 = 0;
+        baseSequence = 0;
+        radiusMeters = 0;
+        ackedOrigin = 0;
+        ackedSequence = 0;
+        bodyLength = 0;
+        sourceAddress = null;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(FrameType.name(type))
+                .append(" origin=").append(Integer.toHexString(originId))
+                .append(" seq=").append(sequence)
+                .append(" ttl=").append(ttl);
+        if (FrameType.hasCoordinates(type)) {
+            sb.append(" at ").append(getLatitude()).append(',').append(getLongitude());
+            if (type == FrameType.GEO_ALERT) {
+                sb.append(" radius=").append(radiusMeters).append('m');
+            }
+        } else if (type == FrameType.LOCATION_DELTA) {
+            sb.append(" base=").append(baseSequence)
+                    .append(" delta=").append(latitudeE7).append(',').append(longitudeE7);
+        } else if (type == FrameType.RECEIPT) {
+            sb.append(" for=").append(Integer.toHexString(ackedOrigin)).append('/').append(ackedSequence);
+        }
+        if (type == FrameType.SYNC) {
+            sb.append(" body=").append(bodyLength).append(" bytes");
+        } else if (FrameType.hasBody(type)) {
+            sb.append(" body=").append(getBody());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,181 @@
+package com.meshnetwork.mesh.dedup;
+
+import java.util.Arrays;
+
+/**
+ * Bounded cache of frames already seen, keyed by (origin id, sequence).
+ *
+ * Keys live in two open-addressing tables of primitive longs: the current
+ * generation takes inserts and the previous one is only consulted. Tables
+ * rotate every {@code expiryMillis}, so a key is remembered for at least
+ * that long and at most twice that long. If the current table fills up
+ * before its time is over it rotates early, which keeps memory fixed.
+ *
+ * The dedup window is therefore: a key is remembered as long as it is
+ * younger than {@code expiryMillis} and fewer than {@code maxEntries} keys
+ * were recorded after it. Below {@code maxEntries / expiryMillis} keys per
+ * millisecond that is the full expiry; under overload it shrinks to the
+ * time the last {@code maxEntries} keys took to arrive, never less. Size
+ * {@code maxEntries} for the peak rate times the longest gap expected
+ * between copies of one frame.
+ *
+ * Keys are stored exactly, so there are no false positives: a frame is
+ * never suppressed unless it really was seen. The only error is forgetting
+ * a key after expiry or forced rotation.
+ */
+public class SeenMessageCache {
+    
+    private static final long EMPTY = 0L;
+    
+    private final int mask;
+    private final int maxEntries;
+    private final long expiryMillis;
+    
+    private long[] current;
+    private long[] previous;
+    // Key 0 (origin 0, sequence 0) cannot be stored in the table itself
+    private boolean currentHasZero;
+    private boolean previousHasZero;
+    private int currentSize;
+    private long generationStart = -1;
+    
+    private long duplicateCount;
+    private long forcedRotations;
+    
+    /**
+     * @param maxEntries keys held per generation before an early rotation;
+     *        the most recent this many keys are always remembered
+     * @param expiryMillis minimum time a key is remembered below the rate
+     *        the entries are sized for
+     */
+    public SeenMessageCache(int maxEntries, long expiryMillis) {
+        if (maxEntries <= 0 || maxEntries > (1 << 29)) {
+            throw new IllegalArgumentException("maxEntries out of range: " + maxEntries);
+        }
+        // Keep the load factor at or below 0.5 for short probe chains
+        int tableSize = Integer.highestOneBit(maxEntries * 2 - 1) << 1;
+        this.mask = tableSize - 1;
+        this.maxEntries = maxEntries;
+        this.expiryMillis = expiryMillis;
+        this.current = new long[tableSize];
+        this.previous = new long[tableSize];
+    }
+    
+    public static long key(int originId, int sequence) {
+        return ((long) originId << 32) | (sequence & 0xFFFFFFFFL);
+    }
+    
+    /**
+     * Record a frame as seen.
+     * Returns true the first time a key is seen and false for duplicates,
+     * which should be neither processed nor relayed.
+     */
+    public synchronized boolean markSeen(int originId, int sequence, long nowMillis) {
+        long key = key(originId, sequence);
+        maybeRotate(nowMillis);
+        
+        if (containsKey(key)) {
+            duplicateCount++;
+            return false;
+        }
+        
+        if (currentSize >= maxEntries) {
+            forcedRotations++;
+            rotate(nowMillis);
+        }
+        insert(key);
+        return true;
+    }
+    
+    public synchronized boolean contains(int originId, int sequence, long nowMillis) {
+        maybeRotate(nowMillis);
+        return containsKey(key(originId, sequence));
+    }
+    
+    public synchronized void clear() {
+        Arrays.fill(current, EMPTY);
+        Arrays.fill(previous, EMPTY);
+        currentHasZero = false;
+        previousHasZero = false;
+        currentSize = 0;
+        generationStart = -1;
+    }
+    
+    public synchronized long getDuplicateCount() {
+        return duplicateCount;
+    }
+    
+    public synchronized long getForcedRotations() {
+        return forcedRotations;
+    }
+    
+    /**
+     * Fixed memory held by the key tables, independent of traffic
+     */
+    public long getMemoryBytes() {
+        return 2L * (mask + 1) * Long.BYTES;
+    }
+    
+    private void maybeRotate(long nowMillis) {
+        if (generationStart < 0) {
+            generationStart = nowMillis;
+        } else if (nowMillis - generationStart >= 2 * expiryMillis) {
+            // Both generations are stale
+            clear();
+            generationStart = nowMillis;
+        } else if (nowMillis - generationStart >= expiryMillis) {
+            rotate(nowMillis);
+        }
+    }
+    
+    private void rotate(long nowMillis) {
+        long[] recycled = previous;
+        previous = current;
+        previousHasZero = currentHasZero;
+        Arrays.fill(recycled, EMPTY);
+        current = recycled;
+        currentHasZero = false;
+        currentSize = 0;
+        generationStart = nowMillis;
+    }
+    
+    private boolean containsKey(long key) {
+        if (key == EMPTY) {
+            return currentHasZero || previousHasZero;
+        }
+        return find(current, key) || find(previous, key);
+    }
+    
+    private boolean find(long[] table, long key) {
+        int index = mix(key) & mask;
+        while (true) {
+            long slot = table[index];
+            if (slot == key) return true;
+            if (slot == EMPTY) return false;
+            index = (index + 1) & mask;
+        }
+    }
+    
+    private void insert(long key) {
+        if (key == EMPTY) {
+            currentHasZero = true;
+        } else {
+            int index = mix(key) & mask;
+            while (current[index] != EMPTY) {
+                index = (index + 1) & mask;
+            }
+            current[index] = key;
+        }
+        currentSize++;
+    }
+    
+    private static int mix(long key) {
+        // MurmurHash3 finalizer: sequence numbers are dense, so spread them
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
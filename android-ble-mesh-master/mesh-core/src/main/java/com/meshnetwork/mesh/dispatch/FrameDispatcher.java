@@ -0,0 +1,113 @@
+package com.meshnetwork.mesh.dispatch;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.location.LocationBaseTable;
+
+/**
+ * Allocation-free decode and dispatch of received frames.
+ *
+ * {@link #receive} decodes straight from the received array into a pooled
+ * frame on the radio thread. The frame is then handed to the dispatch thread
+ * (e.g. inside a recycled android.os.Message) where {@link #dispatch} calls
+ * the handler and returns the frame to the pool. LOCATION_DELTA frames are
+ * resolved against the sender's last keyframe and reach the handler as
+ * absolute LOCATION frames.
+ */
+public class FrameDispatcher {
+    
+    public interface FrameHandler {
+        void onSOS(MeshFrame frame);
+        void onLocation(MeshFrame frame);
+        void onAlert(MeshFrame frame);
+        void onText(MeshFrame frame);
+        void onReceipt(MeshFrame frame);
+    }
+    
+    /** Origins whose last location keyframe is remembered */
+    public static final int LOCATION_BASE_ENTRIES = 4096;
+    
+    private final FramePool pool;
+    private final LocationBaseTable locationBases;
+    private long receivedCount;
+    private long malformedCount;
+    
+    public FrameDispatcher(FramePool pool) {
+        this(pool, LOCATION_BASE_ENTRIES);
+    }
+    
+    /**
+     * @param locationBaseEntries origins whose keyframe is remembered; small
+     *        values suit simulations that run thousands of dispatchers
+     */
+    public FrameDispatcher(FramePool pool, int locationBaseEntries) {
+        this.pool = pool;
+        this.locationBases = new LocationBaseTable(locationBaseEntries);
+    }
+    
+    /**
+     * Decode a received frame into a pooled frame.
+     * Returns null if the bytes are malformed; the caller owns the returned
+     * frame until it is passed to {@link #dispatch} or {@link #recycle}.
+     */
+    public MeshFrame receive(String sourceAddress, byte[] data, int offset, int length) {
+        MeshFrame frame = pool.acquire();
+        if (FrameCodec.decode(data, offset, length, frame) < 0) {
+            malformedCount++;
+            pool.release(frame);
+            return null;
+        }
+        receivedCount++;
+        frame.sourceAddress = sourceAddress;
+        return frame;
+    }
+    
+    /**
+     * Route the frame to the handler by type, then return it to the pool
+     */
+    public void dispatch(MeshFrame frame, FrameHandler handler) {
+        try {
+            switch (frame.type) {
+                case FrameType.SOS:
+                    handler.onSOS(frame);
+                    break;
+                case FrameType.LOCATION:
+                case FrameType.LOCATION_DELTA:
+                    // Deltas whose keyframe we never saw cannot be placed
+                    if (locationBases.resolve(frame)) {
+                        handler.onLocation(frame);
+                    }
+                    break;
+                case FrameType.ALERT:
+                case FrameType.GEO_ALERT:
+                    // Geofenced alerts outside our area never get this far
+                    handler.onAlert(frame);
+                    break;
+                case FrameType.TEXT:
+                    handler.onText(frame);
+                    break;
+                case FrameType.RECEIPT:
+                    handler.onReceipt(frame);
+                    break;
+                default:
+                    // Unknown types from newer peers are ignored
+                    break;
+            }
+        } finally {
+            pool.release(frame);
+        }
+    }
+    
+    public void recycle(MeshFrame frame) {
+        pool.release(frame);
+    }
+    
+    public long getReceivedCount() {
+        return receivedCount;
+    }
+    
+    public long getMalformedCount() {
+        return malformedCount;
+    }
+}
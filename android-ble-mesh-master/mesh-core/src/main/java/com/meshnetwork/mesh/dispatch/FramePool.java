@@ -0,0 +1,43 @@
+package com.meshnetwork.mesh.dispatch;
+
+import com.meshnetwork.mesh.codec.MeshFrame;
+
+/**
+ * Fixed-size pool of reusable frames for the receive path. Frames are
+ * acquired on the receiving thread and released on the dispatch thread,
+ * so access is synchronized. When the pool runs dry a fresh frame is
+ * handed out; it is kept on release only if there is room.
+ */
+public class FramePool {
+    
+    private final MeshFrame[] free;
+    private int size;
+    
+    public FramePool(int capacity) {
+        free = new MeshFrame[capacity];
+        for (int i = 0; i < capacity; i++) {
+            free[i] = new MeshFrame();
+        }
+        size = capacity;
+    }
+    
+    public synchronized MeshFrame acquire() {
+        if (size == 0) {
+            return new MeshFrame();
+        }
+        MeshFrame frame = free[--size];
+        free[size] = null;
+        return frame;
+    }
+    
+    public synchronized void release(MeshFrame frame) {
+        frame.clear();
+        if (size < free.length) {
+            free[size++] = frame;
+        }
+    }
+    
+    public synchronized int available() {
+        return size;
+    }
+}
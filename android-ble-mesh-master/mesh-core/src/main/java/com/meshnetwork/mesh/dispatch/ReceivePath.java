@@ -0,0 +1,159 @@
+package com.meshnetwork.mesh.dispatch;
+
+import com.meshnetwork.mesh.MeshClock;
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.dedup.SeenMessageCache;
+import com.meshnetwork.mesh.location.GeofenceFilter;
+import com.meshnetwork.mesh.reliable.HopReliability;
+import com.meshnetwork.mesh.routing.RoutingEngine;
+
+/**
+ * Everything that happens to a received frame between the radio and the UI:
+ * decode into a pooled frame, split off link-local SYNC frames, drop
+ * duplicates, decide on a relay and dispatch to the handler.
+ *
+ * The platform parts (timers, transport, disk, radio duty cycle) stay with
+ * the caller behind {@link Host}, so the same path runs in the app, the
+ * simulator and the benchmarks. Not thread-safe: call {@link #receive} from
+ * one thread, which is also where the host callbacks run.
+ *
+ * A frame with no sender came without a link, e.g. over the advertising
+ * bearer, whose random address names no neighbour: its link-local SYNC and
+ * ACK frames are ignored, nothing is acknowledged, and the host sees a null
+ * {@code fromPeer}.
+ */
+public class ReceivePath {
+    
+    public interface Host {
+        /** A link-local SYNC frame; it is recycled when this returns */
+        void onSyncFrame(String fromPeer, MeshFrame frame);
+        
+        /** A link-local ACK from a neighbour; it is recycled when this returns */
+        void onAck(String fromPeer, MeshFrame frame);
+        
+        /**
+         * Every copy of a frame that wants a hop acknowledgement, duplicates
+         * included, before deduplication
+         */
+        void acknowledge(String fromPeer, MeshFrame frame);
+        
+        /**
+         * First copy of a frame, before it is relayed or delivered;
+         * {@code fromPeer} is null if it came without a link
+         */
+        void onFirstCopy(String fromPeer, MeshFrame frame);
+        
+        /**
+         * Frame that should travel on. The hop count in {@code data} is
+         * already decremented; {@code delayMillis} is the routing decision,
+         * possibly {@link com.meshnetwork.mesh.routing.RoutingStrategy#DROP}.
+         */
+        void relay(MeshFrame frame, String fromPeer, byte[] data, long delayMillis);
+    }
+    
+    // What became of a received frame
+    public static final int MALFORMED = 0;
+    public static final int SYNC = 1;
+    public static final int DUPLICATE = 2;
+    public static final int OUT_OF_AREA = 3;
+    public static final int DELIVERED = 4;
+    public static final int ACK = 5;
+    
+    private final MeshClock clock;
+    private final FrameDispatcher dispatcher;
+    private final SeenMessageCache seen;
+    private final RoutingEngine routing;
+    private final GeofenceFilter geofence;
+    private final FrameDispatcher.FrameHandler handler;
+    private final Host host;
+    
+    private long deliveredCount;
+    private long outOfAreaCount;
+    
+    public ReceivePath(MeshClock clock, FrameDispatcher dispatcher, SeenMessageCache seen, RoutingEngine routing,
+                       GeofenceFilter geofence, FrameDispatcher.FrameHandler handler, Host host) {
+        this.clock = clock;
+        this.dispatcher = dispatcher;
+        this.seen = seen;
+        this.routing = routing;
+        this.geofence = geofence;
+        this.handler = handler;
+        this.host = host;
+    }
+    
+    /**
+     * Handle one received frame. {@code data} must belong to the caller
+     * alone: a relayed frame is forwarded as the same array with its hop
+     * count decremented in place. {@code fromPeer} is null for a frame that
+     * came without a link.
+     * Returns what became of the frame, e.g. {@link #DUPLICATE}.
+     */
+    public int receive(String fromPeer, byte[] data) {
+        MeshFrame frame = dispatcher.receive(fromPeer, data, 0, data.length);
+        if (frame == null) {
+            return MALFORMED;
+        }
+        
+        if (frame.type == FrameType.SYNC) {
+            // Link-local: answered by the host, never deduplicated, relayed or shown
+            try {
+                if (fromPeer != null) {
+                    host.onSyncFrame(fromPeer, frame);
+                }
+            } finally {
+                dispatcher.recycle(frame);
+            }
+            return SYNC;
+        }
+        
+        if (frame.type == FrameType.ACK) {
+            try {
+                if (fromPeer != null) {
+                    host.onAck(fromPeer, frame);
+                }
+            } finally {
+                dispatcher.recycle(frame);
+            }
+            return ACK;
+        }
+        
+        if (fromPeer != null && HopReliability.isReliable(frame.type)) {
+            host.acknowledge(fromPeer, frame);
+        }
+        
+        if (!seen.markSeen(frame.originId, frame.sequence, clock.nowMillis())) {
+            // Duplicate of a frame we already handled; it may cancel a relay still waiting
+            routing.onDuplicate(frame.originId, frame.sequence);
+            dispatcher.recycle(frame);
+            return DUPLICATE;
+        }
+        
+        host.onFirstCopy(fromPeer, frame);
+        
+        if (frame.ttl > 1 && geofence.shouldRelay(frame)) {
+            data[FrameCodec.TTL_OFFSET] = (byte) (frame.ttl - 1);
+            host.relay(frame, fromPeer, data, routing.onFirstCopy(frame, fromPeer));
+        }
+        
+        if (!geofence.shouldDeliver(frame)) {
+            // Alert for another area: drop it here rather than waking the UI
+            outOfAreaCount++;
+            dispatcher.recycle(frame);
+            return OUT_OF_AREA;
+        }
+        
+        deliveredCount++;
+        dispatcher.dispatch(frame, handler);
+        return DELIVERED;
+    }
+    
+    public long getDeliveredCount() {
+        return deliveredCount;
+    }
+    
+    public long getOutOfAreaCount() {
+        return outOfAreaCount;
+    }
+}
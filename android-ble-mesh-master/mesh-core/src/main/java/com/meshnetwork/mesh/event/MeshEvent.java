@@ -0,0 +1,84 @@
+package com.meshnetwork.mesh.event;
+
+/**
+ * Immutable notification from the mesh engine to the UI. Safe to hand
+ * across threads once published.
+ */
+public final class MeshEvent {
+    
+    public static final int MESSAGE = 0;
+    public static final int SOS = 1;
+    public static final int LOCATION = 2;
+    public static final int ALERT = 3;
+    
+    /** A responder confirmed it received our SOS */
+    public static final int RECEIPT = 4;
+    
+    public final int type;
+    
+    // Neighbour the frame arrived from; null for events not tied to a frame
+    public final String sourceAddress;
+    public final int originId;
+    public final String text;
+    public final double latitude;
+    public final double longitude;
+    
+    // Time from sending our frame to its receipt (RECEIPT)
+    public final long latencyMillis;
+    
+    private MeshEvent(int type, String sourceAddress, int originId, String text, double latitude, double longitude) {
+        this(type, sourceAddress, originId, text, latitude, longitude, 0);
+    }
+    
+    private MeshEvent(int type, String sourceAddress, int originId, String text, double latitude, double longitude,
+                      long latencyMillis) {
+        this.type = type;
+        this.sourceAddress = sourceAddress;
+        this.originId = originId;
+        this.text = text;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.latencyMillis = latencyMillis;
+    }
+    
+    public static MeshEvent message(String sourceAddress, int originId, String text) {
+        return new MeshEvent(MESSAGE, sourceAddress, originId, text, 0, 0);
+    }
+    
+    public static MeshEvent sos(String sourceAddress, int originId, double latitude, double longitude) {
+        return new MeshEvent(SOS, sourceAddress, originId, null, latitude, longitude);
+    }
+    
+    public static MeshEvent location(String sourceAddress, int originId, double latitude, double longitude) {
+        return new MeshEvent(LOCATION, sourceAddress, originId, null, latitude, longitude);
+    }
+    
+    public static MeshEvent alert(String sourceAddress, int originId, String text) {
+        return new MeshEvent(ALERT, sourceAddress, originId, text, 0, 0);
+    }
+    
+    /**
+     * @param originId the responder that sent the receipt
+     */
+    public static MeshEvent receipt(String sourceAddress, int originId, long latencyMillis) {
+        return new MeshEvent(RECEIPT, sourceAddress, originId, null, 0, 0, latencyMillis);
+    }
+    
+    @Override
+    public String toString() {
+        switch (type) {
+            case MESSAGE:
+                return "MESSAGE from " + sourceAddress + ": " + text;
+            case SOS:
+                return "SOS from " + sourceAddress + " at " + latitude + "," + longitude;
+            case LOCATION:
+                return "LOCATION from " + sourceAddress + " at " + latitude + "," + longitude;
+            case ALERT:
+                return "ALERT from " + sourceAddress + ": " + text;
+            case RECEIPT:
+                return "RECEIPT from " + Integer.toHexString(originId) + " after " + latencyMillis + " ms";
+            default:
+                return "EVENT_" + type;
+        }
+    }
+}
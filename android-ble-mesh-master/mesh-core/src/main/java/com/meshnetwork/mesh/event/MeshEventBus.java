@@ -0,0 +1,118 @@
+package com.meshnetwork.mesh.event;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands events from the mesh worker thread to subscribers on another
+ * thread (the UI) without either side taking a lock.
+ *
+ * Publishing appends to a lock-free queue and, only if no drain is pending,
+ * schedules one on the delivery executor. A burst of events therefore costs
+ * one hop to the UI thread, and the worker never waits for the UI. A drain
+ * delivers at most {@link #MAX_EVENTS_PER_DRAIN} and then yields, so a
+ * flood of events cannot hold the UI thread past a frame. Events
+ * beyond {@code capacity} waiting at once are dropped and counted, so a
+ * stalled UI cannot grow the queue without bound.
+ */
+public class MeshEventBus {
+    
+    public interface Subscriber {
+        void onEvent(MeshEvent event);
+    }
+    
+    public static final int DEFAULT_CAPACITY = 1024;
+    
+    public static final int MAX_EVENTS_PER_DRAIN = 64;
+    
+    private final Executor deliveryExecutor;
+    private final int capacity;
+    private final ConcurrentLinkedQueue<MeshEvent> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong drainCount = new AtomicLong();
+    
+    public MeshEventBus(Executor deliveryExecutor) {
+        this(deliveryExecutor, DEFAULT_CAPACITY);
+    }
+    
+    public MeshEventBus(Executor deliveryExecutor, int capacity) {
+        this.deliveryExecutor = deliveryExecutor;
+        this.capacity = capacity;
+    }
+    
+    public void subscribe(Subscriber subscriber) {
+        subscribers.addIfAbsent(subscriber);
+    }
+    
+    public void unsubscribe(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+    
+    /**
+     * Queue an event for delivery; callable from any thread.
+     * Returns false if the queue was full and the event was dropped.
+     */
+    public boolean publish(MeshEvent event) {
+        if (pendingCount.incrementAndGet() > capacity) {
+            pendingCount.decrementAndGet();
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        pending.offer(event);
+        publishedCount.incrementAndGet();
+        
+        if (drainScheduled.compareAndSet(false, true)) {
+            deliveryExecutor.execute(drain);
+        }
+        return true;
+    }
+    
+    private final Runnable drain = this::drainPending;
+    
+    private void drainPending() {
+        // Clear the flag first: an event published after this point schedules
+        // another drain, so none is left behind
+        drainScheduled.set(false);
+        drainCount.incrementAndGet();
+        
+        MeshEvent event;
+        for (int i = 0; i < MAX_EVENTS_PER_DRAIN && (event = pending.poll()) != null; i++) {
+            pendingCount.decrementAndGet();
+            for (Subscriber subscriber : subscribers) {
+                subscriber.onEvent(event);
+            }
+        }
+        
+        if (!pending.isEmpty() && drainScheduled.compareAndSet(false, true)) {
+            deliveryExecutor.execute(drain);
+        }
+    }
+    
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+    
+    public long getPublishedCount() {
+        return publishedCount.get();
+    }
+    
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+    
+    /**
+     * Hops to the delivery thread so far; far fewer than published events under load
+     */
+    public long getDrainCount() {
+        return drainCount.get();
+    }
+}
@@ -0,0 +1,91 @@
+package com.meshnetwork.mesh.fragment;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+
+/**
+ * Splits an encoded frame that is larger than one link write into
+ * sequenced fragments.
+ *
+ * <pre>
+ * header    1 byte   version | FrameType.FRAGMENT
+ * messageId 2 bytes  per-link message id, big endian
+ * index     1 byte   fragment index, 0-based
+ * count     1 byte   total number of fragments
+ * payload            next slice of the frame
+ * </pre>
+ *
+ * Fragments are written in order on a single link, which delivers them in
+ * order, so the receiver appends them without storing offsets.
+ */
+public final class Fragmenter {
+    
+    public static final int HEADER_SIZE = 5;
+    public static final int MAX_FRAGMENTS = 255;
+    
+    private Fragmenter() {
+    }
+    
+    public static boolean needsFragmenting(byte[] frame, int writeSize) {
+        return frame.length > writeSize;
+    }
+    
+    /**
+     * Number of fragments needed, or -1 if the frame is too large for this
+     * write size
+     */
+    public static int fragmentCount(int frameLength, int writeSize) {
+        int chunk = writeSize - HEADER_SIZE;
+        if (chunk <= 0) return -1;
+        int count = (frameLength + chunk - 1) / chunk;
+        return count <= MAX_FRAGMENTS ? count : -1;
+    }
+    
+    /**
+     * Largest frame that can be carried at a given write size
+     */
+    public static int maxFrameSize(int writeSize) {
+        return (writeSize - HEADER_SIZE) * MAX_FRAGMENTS;
+    }
+    
+    /**
+     * Split a frame into fragments of at most {@code writeSize} bytes
+     * @throws IllegalArgumentException if the frame needs more than
+     *         {@link #MAX_FRAGMENTS} fragments at this write size
+     */
+    public static byte[][] split(byte[] frame, int writeSize, int messageId) {
+        int count = fragmentCount(frame.length, writeSize);
+        if (count < 0) {
+            throw new IllegalArgumentException("Frame of " + frame.length
+                    + " bytes does not fit in " + MAX_FRAGMENTS + " writes of " + writeSize);
+        }
+        
+        int chunk = writeSize - HEADER_SIZE;
+        byte[][] fragments = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int offset = i * chunk;
+            int length = Math.min(chunk, frame.length - offset);
+            byte[] fragment = new byte[HEADER_SIZE + length];
+            fragment[0] = (byte) ((FrameCodec.VERSION << 4) | FrameType.FRAGMENT);
+            fragment[1] = (byte) (messageId >>> 8);
+            fragment[2] = (byte) messageId;
+            fragment[3] = (byte) i;
+            fragment[4] = (byte) count;
+            System.arraycopy(frame, offset, fragment, HEADER_SIZE, length);
+            fragments[i] = fragment;
+        }
+        return fragments;
+    }
+    
+    static int messageId(byte[] fragment) {
+        return (fragment[1] & 0xFF) << 8 | (fragment[2] & 0xFF);
+    }
+    
+    static int index(byte[] fragment) {
+        return fragment[3] & 0xFF;
+    }
+    
+    static int count(byte[] fragment) {
+        return fragment[4] & 0xFF;
+    }
+}
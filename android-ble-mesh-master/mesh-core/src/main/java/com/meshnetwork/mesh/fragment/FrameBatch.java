@@ -0,0 +1,98 @@
+package com.meshnetwork.mesh.fragment;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Packs several whole frames that are each smaller than one link write
+ * into a single write.
+ *
+ * <pre>
+ * header    1 byte   version | FrameType.BATCH
+ * then per frame:
+ * length    varint   frame length
+ * frame              the encoded frame (or a fragment)
+ * </pre>
+ *
+ * The frames keep the order they were packed in, so fragments stay in
+ * sequence for the reassembler. Batches never contain batches.
+ */
+public final class FrameBatch {
+    
+    public static final int HEADER_SIZE = 1;
+    
+    private FrameBatch() {
+    }
+    
+    /**
+     * Bytes a frame of this length takes inside a batch
+     */
+    public static int entrySize(int frameLength) {
+        return FrameCodec.varintSize(frameLength) + frameLength;
+    }
+    
+    /**
+     * Longest frame that still fits in {@code room} bytes of a batch, or a
+     * value below 1 if none does
+     */
+    public static int maxFrameLength(int room) {
+        return room <= 128 ? room - 1 : room - 2;
+    }
+    
+    /**
+     * Pack frames into one batch of {@code size} bytes, {@link #HEADER_SIZE}
+     * plus the {@link #entrySize} of each frame
+     */
+    public static byte[] pack(List<byte[]> frames, int size) {
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.put((byte) ((FrameCodec.VERSION << 4) | FrameType.BATCH));
+        for (byte[] frame : frames) {
+            FrameCodec.writeVarint(out, frame.length);
+            out.put(frame);
+        }
+        return out.array();
+    }
+    
+    /**
+     * The frames in a batch, each in an array of its own, or null if the
+     * batch is malformed
+     */
+    public static List<byte[]> unpack(byte[] batch) {
+        ByteBuffer in = ByteBuffer.wrap(batch, HEADER_SIZE, batch.length - HEADER_SIZE);
+        List<byte[]> frames = new ArrayList<>();
+        while (in.hasRemaining()) {
+            long length = FrameCodec.readVarint(in);
+            if (length <= 0 || length > in.remaining()) return null;
+            byte[] frame = new byte[(int) length];
+            in.get(frame);
+            // Batches do not nest
+            if (FrameCodec.peekType(frame) == FrameType.BATCH) return null;
+            frames.add(frame);
+        }
+        return frames;
+    }
+    
+    /**
+     * Whether every frame in a batch has a type {@code test} accepts,
+     * without copying the frames out. False if the batch is malformed.
+     */
+    public static boolean allTypesMatch(byte[] batch, IntPredicate test) {
+        ByteBuffer in = ByteBuffer.wrap(batch, HEADER_SIZE, batch.length - HEADER_SIZE);
+        if (!in.hasRemaining()) return false;
+        while (in.hasRemaining()) {
+            long length = FrameCodec.readVarint(in);
+            if (length <= 0 || length > in.remaining()) return false;
+            int at = in.position();
+            // The checks of FrameCodec.peekType, in place
+            if (length < 2 || ((batch[at] & 0xFF) >>> 4) != FrameCodec.VERSION) return false;
+            if (!test.test(batch[at] & FrameType.MAX)) return false;
+            in.position(at + (int) length);
+        }
+        return true;
+    }
+}
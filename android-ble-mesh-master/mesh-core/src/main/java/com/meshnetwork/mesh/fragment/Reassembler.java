@@ -0,0 +1,185 @@
+package com.meshnetwork.mesh.fragment;
+
+/**
+ * Reassembles fragmented frames in a fixed pool of buffers.
+ *
+ * Each slot holds one partial message keyed by (peer, message id) and owns
+ * a preallocated buffer of {@code maxMessageSize} bytes, so memory is
+ * bounded by {@code slots * maxMessageSize} however many partial messages
+ * are in the air. Partial messages are dropped when they time out, when
+ * a fragment arrives out of sequence, or when a new message needs a slot
+ * and the oldest partial message is evicted.
+ */
+public class Reassembler {
+    
+    private static class Slot {
+        final byte[] buffer;
+        String peer;
+        int messageId;
+        int count;
+        int nextIndex;
+        int length;
+        long lastUpdate;
+        
+        Slot(int size) {
+            buffer = new byte[size];
+        }
+        
+        boolean inUse() {
+            return peer != null;
+        }
+        
+        void release() {
+            peer = null;
+        }
+    }
+    
+    private final Slot[] slots;
+    private final int maxMessageSize;
+    private final long timeoutMillis;
+    
+    private long completedCount;
+    private long timedOutCount;
+    private long evictedCount;
+    private long droppedCount;
+    
+    public Reassembler(int slotCount, int maxMessageSize, long timeoutMillis) {
+        this.slots = new Slot[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            slots[i] = new Slot(maxMessageSize);
+        }
+        this.maxMessageSize = maxMessageSize;
+        this.timeoutMillis = timeoutMillis;
+    }
+    
+    /**
+     * Add a fragment received from {@code peer}.
+     * Returns the complete frame once its last fragment arrives, otherwise null.
+     */
+    public synchronized byte[] accept(String peer, byte[] fragment, long nowMillis) {
+        if (fragment.length <= Fragmenter.HEADER_SIZE) {
+            droppedCount++;
+            return null;
+        }
+        expire(nowMillis);
+        
+        int messageId = Fragmenter.messageId(fragment);
+        int index = Fragmenter.index(fragment);
+        int count = Fragmenter.count(fragment);
+        int payload = fragment.length - Fragmenter.HEADER_SIZE;
+        
+        Slot slot = find(peer, messageId);
+        if (slot == null) {
+            if (index != 0) {
+                // Start of this message was lost or already given up on
+                droppedCount++;
+                return null;
+            }
+            slot = allocate();
+            slot.peer = peer;
+            slot.messageId = messageId;
+            slot.count = count;
+            slot.nextIndex = 0;
+            slot.length = 0;
+        } else if (index == 0) {
+            // Message id reused by the peer: the old partial message is dead
+            droppedCount++;
+            slot.count = count;
+            slot.nextIndex = 0;
+            slot.length = 0;
+        }
+        
+        if (index != slot.nextIndex || count != slot.count || slot.length + payload > maxMessageSize) {
+            droppedCount++;
+            slot.release();
+            return null;
+        }
+        
+        System.arraycopy(fragment, Fragmenter.HEADER_SIZE, slot.buffer, slot.length, payload);
+        slot.length += payload;
+        slot.nextIndex++;
+        slot.lastUpdate = nowMillis;
+        
+        if (slot.nextIndex < slot.count) return null;
+        
+        byte[] frame = new byte[slot.length];
+        System.arraycopy(slot.buffer, 0, frame, 0, slot.length);
+        slot.release();
+        completedCount++;
+        return frame;
+    }
+    
+    /**
+     * Drop partial messages that have not progressed within the timeout
+     */
+    public synchronized void expire(long nowMillis) {
+        for (Slot slot : slots) {
+            if (slot.inUse() && nowMillis - slot.lastUpdate > timeoutMillis) {
+                slot.release();
+                timedOutCount++;
+            }
+        }
+    }
+    
+    /**
+     * Forget partial messages from a peer whose link went down
+     */
+    public synchronized void dropPeer(String peer) {
+        for (Slot slot : slots) {
+            if (slot.inUse() && slot.peer.equals(peer)) {
+                slot.release();
+                droppedCount++;
+            }
+        }
+    }
+    
+    public synchronized int getPendingCount() {
+        int pending = 0;
+        for (Slot slot : slots) {
+            if (slot.inUse()) pending++;
+        }
+        return pending;
+    }
+    
+    public long getMemoryBytes() {
+        return (long) slots.length * maxMessageSize;
+    }
+    
+    public synchronized long getCompletedCount() {
+        return completedCount;
+    }
+    
+    public synchronized long getTimedOutCount() {
+        return timedOutCount;
+    }
+    
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+    
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+    
+    private Slot find(String peer, int messageId) {
+        for (Slot slot : slots) {
+            if (slot.inUse() && slot.messageId == messageId && slot.peer.equals(peer)) {
+                return slot;
+            }
+        }
+        return null;
+    }
+    
+    private Slot allocate() {
+        Slot oldest = null;
+        for (Slot slot : slots) {
+            if (!slot.inUse()) return slot;
+            if (oldest == null || slot.lastUpdate < oldest.lastUpdate) {
+                oldest = slot;
+            }
+        }
+        evictedCount++;
+        oldest.release();
+        return oldest;
+    }
+}
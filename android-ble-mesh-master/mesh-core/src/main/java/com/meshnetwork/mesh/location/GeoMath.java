@@ -0,0 +1,26 @@
+package com.meshnetwork.mesh.location;
+
+/**
+ * Small-distance geometry on fixed-point (1e-7 degree) coordinates
+ */
+public final class GeoMath {
+    
+    public static final double EARTH_RADIUS_METERS = 6_371_000.0;
+    
+    // Metres per 1e-7 degree of latitude
+    private static final double METERS_PER_E7 = Math.toRadians(1e-7) * EARTH_RADIUS_METERS;
+    
+    private GeoMath() {
+    }
+    
+    /**
+     * Equirectangular distance in metres; accurate to well under 1% for the
+     * few-kilometre distances a BLE mesh cares about
+     */
+    public static double distanceMeters(int lat1E7, int lon1E7, int lat2E7, int lon2E7) {
+        double meanLat = Math.toRadians((lat1E7 + (double) lat2E7) / 2 * 1e-7);
+        double dx = (lon2E7 - (double) lon1E7) * Math.cos(meanLat);
+        double dy = lat2E7 - (double) lat1E7;
+        return Math.sqrt(dx * dx + dy * dy) * METERS_PER_E7;
+    }
+}
@@ -0,0 +1,107 @@
+package com.meshnetwork.mesh.location;
+
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+
+/**
+ * Relay and delivery decisions for GEO_ALERT frames based on this node's
+ * last known position.
+ *
+ * A node delivers the alert only if it is inside the target circle. It
+ * relays the alert while the circle is still within reach of the hops the
+ * frame has left, i.e. its distance to the circle edge is at most
+ * (ttl - 1) hops of {@code hopRangeMeters}. A node that does not know
+ * where it is both delivers and relays, so a missing fix never silences
+ * an alert. Frames of other types always pass.
+ *
+ * The position is published as a single volatile long, so it can be set
+ * from the UI thread and read on the radio thread without locking.
+ */
+public class GeofenceFilter {
+    
+    /** Generous BLE hop range used to bound how far a relayed copy can still travel */
+    public static final double DEFAULT_HOP_RANGE_METERS = 100.0;
+    
+    private static final long UNKNOWN = Long.MIN_VALUE;
+    
+    private final double hopRangeMeters;
+    private volatile long position = UNKNOWN;
+    
+    // Updated from the radio thread only
+    private long deliveredCount;
+    private long droppedCount;
+    private long suppressedRelayCount;
+    
+    public GeofenceFilter(double hopRangeMeters) {
+        this.hopRangeMeters = hopRangeMeters;
+    }
+    
+    public void setPosition(double latitude, double longitude) {
+        setPositionE7((int) Math.round(latitude * 1e7), (int) Math.round(longitude * 1e7));
+    }
+    
+    public void setPositionE7(int latitudeE7, int longitudeE7) {
+        // Latitude 0x80000000 is out of range, so UNKNOWN never collides with a real fix
+        position = ((long) latitudeE7 << 32) | (longitudeE7 & 0xFFFFFFFFL);
+    }
+    
+    public void clearPosition() {
+        position = UNKNOWN;
+    }
+    
+    public boolean hasPosition() {
+        return position != UNKNOWN;
+    }
+    
+    /**
+     * Whether the frame should be handed to the UI on this node
+     */
+    public boolean shouldDeliver(MeshFrame frame) {
+        if (frame.type != FrameType.GEO_ALERT) return true;
+        
+        double distance = distanceToCenter(frame);
+        if (distance < 0 || distance <= frame.radiusMeters) {
+            deliveredCount++;
+            return true;
+        }
+        droppedCount++;
+        return false;
+    }
+    
+    /**
+     * Whether this node should forward the frame; ttl is the received value
+     */
+    public boolean shouldRelay(MeshFrame frame) {
+        if (frame.type != FrameType.GEO_ALERT) return true;
+        
+        double distance = distanceToCenter(frame);
+        if (distance < 0) return true;
+        
+        double reach = frame.radiusMeters + Math.max(0, frame.ttl - 1) * hopRangeMeters;
+        if (distance <= reach) return true;
+        suppressedRelayCount++;
+        return false;
+    }
+    
+    /**
+     * Metres from this node to the target centre, or -1 if we have no position
+     */
+    private double distanceToCenter(MeshFrame frame) {
+        long current = position;
+        if (current == UNKNOWN) return -1;
+        return GeoMath.distanceMeters((int) (current >> 32), (int) current,
+                frame.latitudeE7, frame.longitudeE7);
+    }
+    
+    public long getDeliveredCount() {
+        return deliveredCount;
+    }
+    
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+    
+    public long getSuppressedRelayCount() {
+        return suppressedRelayCount;
+    }
+}
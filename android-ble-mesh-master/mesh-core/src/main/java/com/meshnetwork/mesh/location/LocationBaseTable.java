@@ -0,0 +1,101 @@
+package com.meshnetwork.mesh.location;
+
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+
+import java.util.Arrays;
+
+/**
+ * Last LOCATION keyframe per origin, used to turn received LOCATION_DELTA
+ * frames back into absolute positions.
+ *
+ * Open-addressing table on primitive int keys so lookups do not allocate.
+ * When it fills past its load limit it is simply cleared; origins recover
+ * with their next keyframe.
+ *
+ * Not thread-safe; used from the dispatch thread only.
+ */
+public class LocationBaseTable {
+    
+    private final int mask;
+    private final int maxEntries;
+    private final int[] origins;
+    private final int[] sequences;
+    private final int[] latitudes;
+    private final int[] longitudes;
+    private final boolean[] used;
+    private int size;
+    
+    public LocationBaseTable(int maxEntries) {
+        int tableSize = Integer.highestOneBit(Math.max(2, maxEntries * 2 - 1)) << 1;
+        this.mask = tableSize - 1;
+        this.maxEntries = maxEntries;
+        this.origins = new int[tableSize];
+        this.sequences = new int[tableSize];
+        this.latitudes = new int[tableSize];
+        this.longitudes = new int[tableSize];
+        this.used = new boolean[tableSize];
+    }
+    
+    /**
+     * Record keyframes and resolve deltas in place.
+     * A LOCATION_DELTA frame is rewritten as an absolute LOCATION frame;
+     * returns false if its keyframe is unknown and it cannot be shown.
+     */
+    public boolean resolve(MeshFrame frame) {
+        if (frame.type == FrameType.LOCATION) {
+            put(frame.originId, frame.sequence, frame.latitudeE7, frame.longitudeE7);
+            return true;
+        }
+        if (frame.type != FrameType.LOCATION_DELTA) return true;
+        
+        int slot = find(frame.originId);
+        if (slot < 0 || sequences[slot] != frame.baseSequence) return false;
+        
+        frame.type = FrameType.LOCATION;
+        frame.latitudeE7 = latitudes[slot] + frame.latitudeE7;
+        frame.longitudeE7 = longitudes[slot] + frame.longitudeE7;
+        return true;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    private void put(int origin, int sequence, int latE7, int lonE7) {
+        int slot = find(origin);
+        if (slot < 0) {
+            if (size >= maxEntries) {
+                Arrays.fill(used, false);
+                size = 0;
+            }
+            slot = mix(origin) & mask;
+            while (used[slot]) {
+                slot = (slot + 1) & mask;
+            }
+            used[slot] = true;
+            origins[slot] = origin;
+            size++;
+        } else if (sequence - sequences[slot] < 0) {
+            // Older keyframe arriving late over a longer path
+            return;
+        }
+        sequences[slot] = sequence;
+        latitudes[slot] = latE7;
+        longitudes[slot] = lonE7;
+    }
+    
+    private int find(int origin) {
+        int slot = mix(origin) & mask;
+        while (used[slot]) {
+            if (origins[slot] == origin) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+    
+    private static int mix(int key) {
+        key *= 0x9E3779B9;
+        return key ^ (key >>> 16);
+    }
+}
@@ -0,0 +1,249 @@
+package com.meshnetwork.mesh.location;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe, bounded store of the latest position per user with a grid
+ * index for radius and bounding-box queries.
+ *
+ * Writers serialize on the store; readers never lock and never copy. Like
+ * ConcurrentHashMap iteration, queries are weakly consistent: a user that
+ * moves between cells during a query may be missed or reported twice, but
+ * a user that is not moving is always reported exactly once.
+ *
+ * When full, the least recently updated user is evicted.
+ */
+public class LocationStore {
+    
+    /** Immutable position snapshot of one user */
+    public static final class Position {
+        public final int userId;
+        public final int latitudeE7;
+        public final int longitudeE7;
+        public final long timestamp;
+        
+        public Position(int userId, int latitudeE7, int longitudeE7, long timestamp) {
+            this.userId = userId;
+            this.latitudeE7 = latitudeE7;
+            this.longitudeE7 = longitudeE7;
+            this.timestamp = timestamp;
+        }
+    }
+    
+    public interface Visitor {
+        void visit(Position position);
+    }
+    
+    private static final int MAX_LAT_E7 = 900_000_000;
+    private static final int MAX_LON_E7 = 1_800_000_000;
+    
+    private final int maxUsers;
+    private final int cellSizeE7;
+    
+    private final ConcurrentHashMap<Integer, Position> positions = new ConcurrentHashMap<>();
+    // Each cell holds its users' positions, so queries read them without a second lookup
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<Integer, Position>> cells = new ConcurrentHashMap<>();
+    
+    // Update order for eviction; guarded by this
+    private final LinkedHashMap<Integer, Position> recency = new LinkedHashMap<>(16, 0.75f, true);
+    
+    private long evictedCount;
+    
+    /**
+     * @param maxUsers users kept before the least recently updated is evicted
+     * @param cellSizeDegrees grid cell edge; about the typical query radius works best
+     */
+    public LocationStore(int maxUsers, double cellSizeDegrees) {
+        this.maxUsers = maxUsers;
+        this.cellSizeE7 = (int) Math.round(cellSizeDegrees * 1e7);
+    }
+    
+    public synchronized void update(int userId, int latitudeE7, int longitudeE7, long timestamp) {
+        Integer key = userId;
+        Position previous = positions.get(key);
+        if (previous != null && previous.timestamp > timestamp) return;
+        
+        Position position = new Position(userId, latitudeE7, longitudeE7, timestamp);
+        long newCell = cellOf(latitudeE7, longitudeE7);
+        cell(newCell).put(key, position);
+        positions.put(key, position);
+        recency.put(key, position);
+        
+        if (previous != null) {
+            long oldCell = cellOf(previous.latitudeE7, previous.longitudeE7);
+            if (oldCell != newCell) {
+                removeFromCell(oldCell, key);
+            }
+        } else if (recency.size() > maxUsers) {
+            evictEldest();
+        }
+    }
+    
+    public synchronized boolean remove(int userId) {
+        Integer key = userId;
+        Position previous = positions.remove(key);
+        if (previous == null) return false;
+        recency.remove(key);
+        removeFromCell(cellOf(previous.latitudeE7, previous.longitudeE7), key);
+        return true;
+    }
+    
+    /**
+     * Evict users not heard from since {@code cutoff}; returns how many
+     */
+    public synchronized int evictOlderThan(long cutoff) {
+        int evicted = 0;
+        Iterator<Map.Entry<Integer, Position>> it = recency.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, Position> entry = it.next();
+            Position position = entry.getValue();
+            if (position.timestamp >= cutoff) continue;
+            it.remove();
+            positions.remove(entry.getKey());
+            removeFromCell(cellOf(position.latitudeE7, position.longitudeE7), entry.getKey());
+            evicted++;
+        }
+        evictedCount += evicted;
+        return evicted;
+    }
+    
+    public Position get(int userId) {
+        return positions.get(userId);
+    }
+    
+    public int size() {
+        return positions.size();
+    }
+    
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+    
+    /**
+     * Visit every stored position without copying the store
+     */
+    public void forEach(Visitor visitor) {
+        for (Position position : positions.values()) {
+            visitor.visit(position);
+        }
+    }
+    
+    /**
+     * Visit users inside a bounding box (fixed-point degrees, inclusive).
+     * Returns the number of users visited.
+     */
+    public int queryBox(int minLatE7, int minLonE7, int maxLatE7, int maxLonE7, Visitor visitor) {
+        int count = 0;
+        int minRow = floorDiv(minLatE7, cellSizeE7);
+        int maxRow = floorDiv(maxLatE7, cellSizeE7);
+        int minCol = floorDiv(minLonE7, cellSizeE7);
+        int maxCol = floorDiv(maxLonE7, cellSizeE7);
+        
+        long cellsInBox = (long) (maxRow - minRow + 1) * (maxCol - minCol + 1);
+        if (cellsInBox > cells.size()) {
+            // Huge box over a sparse grid: walk the occupied cells instead
+            for (Map.Entry<Long, ConcurrentHashMap<Integer, Position>> cell : cells.entrySet()) {
+                int row = (int) (cell.getKey() >> 32);
+                int col = (int) (long) cell.getKey();
+                if (row < minRow || row > maxRow || col < minCol || col > maxCol) continue;
+                count += visitCell(cell.getValue(), minLatE7, minLonE7, maxLatE7, maxLonE7, visitor);
+            }
+            return count;
+        }
+        
+        for (int row = minRow; row <= maxRow; row++) {
+            for (int col = minCol; col <= maxCol; col++) {
+                long cell = cellKey(row, col);
+                ConcurrentHashMap<Integer, Position> users = cells.get(cell);
+                if (users != null) {
+                    count += visitCell(users, minLatE7, minLonE7, maxLatE7, maxLonE7, visitor);
+                }
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Visit users within {@code radiusMeters} of a point.
+     * Returns the number of users visited.
+     */
+    public int queryRadius(double latitude, double longitude, double radiusMeters, Visitor visitor) {
+        int centerLatE7 = (int) Math.round(latitude * 1e7);
+        int centerLonE7 = (int) Math.round(longitude * 1e7);
+        double latDegrees = Math.toDegrees(radiusMeters / GeoMath.EARTH_RADIUS_METERS);
+        double lonDegrees = latDegrees / Math.max(0.01, Math.cos(Math.toRadians(latitude)));
+        long dLat = (long) Math.ceil(latDegrees * 1e7);
+        long dLon = (long) Math.ceil(lonDegrees * 1e7);
+        
+        int[] count = new int[1];
+        queryBox(clamp(centerLatE7 - dLat, MAX_LAT_E7), clamp(centerLonE7 - dLon, MAX_LON_E7),
+                clamp(centerLatE7 + dLat, MAX_LAT_E7), clamp(centerLonE7 + dLon, MAX_LON_E7), position -> {
+            if (GeoMath.distanceMeters(centerLatE7, centerLonE7, position.latitudeE7, position.longitudeE7) <= radiusMeters) {
+                count[0]++;
+                visitor.visit(position);
+            }
+        });
+        return count[0];
+    }
+    
+    private int visitCell(ConcurrentHashMap<Integer, Position> users, int minLatE7, int minLonE7,
+                          int maxLatE7, int maxLonE7, Visitor visitor) {
+        int count = 0;
+        for (Position position : users.values()) {
+            if (position.latitudeE7 < minLatE7 || position.latitudeE7 > maxLatE7
+                    || position.longitudeE7 < minLonE7 || position.longitudeE7 > maxLonE7) continue;
+            visitor.visit(position);
+            count++;
+        }
+        return count;
+    }
+    
+    private void evictEldest() {
+        Iterator<Map.Entry<Integer, Position>> it = recency.entrySet().iterator();
+        Map.Entry<Integer, Position> eldest = it.next();
+        it.remove();
+        Position position = eldest.getValue();
+        positions.remove(eldest.getKey());
+        removeFromCell(cellOf(position.latitudeE7, position.longitudeE7), eldest.getKey());
+        evictedCount++;
+    }
+    
+    private ConcurrentHashMap<Integer, Position> cell(long cell) {
+        ConcurrentHashMap<Integer, Position> users = cells.get(cell);
+        if (users == null) {
+            users = new ConcurrentHashMap<>();
+            cells.put(cell, users);
+        }
+        return users;
+    }
+    
+    private void removeFromCell(long cell, Integer userId) {
+        ConcurrentHashMap<Integer, Position> users = cells.get(cell);
+        if (users == null) return;
+        users.remove(userId);
+        if (users.isEmpty()) {
+            cells.remove(cell);
+        }
+    }
+    
+    private long cellOf(int latE7, int lonE7) {
+        return cellKey(floorDiv(latE7, cellSizeE7), floorDiv(lonE7, cellSizeE7));
+    }
+    
+    private static int clamp(long valueE7, int limitE7) {
+        return (int) Math.max(-limitE7, Math.min(limitE7, valueE7));
+    }
+    
+    // Math.floorDiv needs API 24
+    private static int floorDiv(int x, int y) {
+        int q = x / y;
+        return (x % y != 0 && (x ^ y) < 0) ? q - 1 : q;
+    }
+    
+    private static long cellKey(int row, int col) {
+        return ((long) row << 32) | (col & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,111 @@
+package com.meshnetwork.mesh.location;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+
+/**
+ * Decides whether and how this node's location is sent.
+ *
+ * Updates closer than {@code minMovementMeters} to the last sent position
+ * are skipped. Otherwise a full LOCATION keyframe is sent every
+ * {@code keyframeInterval} updates (or when the last keyframe is older than
+ * {@code keyframeMaxAgeMillis}), and LOCATION_DELTA frames in between carry
+ * only the offset from that keyframe. Deltas never chain, so a receiver
+ * that missed one delta still decodes the next. A stationary node still
+ * sends a keyframe once the maximum age passes, so admins know it is alive.
+ *
+ * Not thread-safe; callers send locations from one thread.
+ */
+public class LocationUpdateEncoder {
+    
+    // Offsets beyond this (about 11 km) are cheaper as a keyframe
+    private static final int MAX_DELTA_E7 = 1 << 20;
+    
+    private final double minMovementMeters;
+    private final int keyframeInterval;
+    private final long keyframeMaxAgeMillis;
+    
+    private boolean hasKeyframe;
+    private int keyframeSequence;
+    private int keyframeLatE7;
+    private int keyframeLonE7;
+    private long keyframeTime;
+    private int updatesSinceKeyframe;
+    
+    private int lastSentLatE7;
+    private int lastSentLonE7;
+    
+    private long skippedCount;
+    
+    public LocationUpdateEncoder(double minMovementMeters, int keyframeInterval, long keyframeMaxAgeMillis) {
+        this.minMovementMeters = minMovementMeters;
+        this.keyframeInterval = keyframeInterval;
+        this.keyframeMaxAgeMillis = keyframeMaxAgeMillis;
+    }
+    
+    /**
+     * Whether a new position is worth sending. Counts a skip when it is not.
+     */
+    public boolean shouldSend(double latitude, double longitude, long nowMillis) {
+        if (!hasKeyframe || keyframeDue(nowMillis)) return true;
+        
+        double moved = GeoMath.distanceMeters(lastSentLatE7, lastSentLonE7,
+                FrameCodec.toFixed(latitude), FrameCodec.toFixed(longitude));
+        if (moved < minMovementMeters) {
+            skippedCount++;
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Fill {@code frame}, which already carries origin and sequence, as a
+     * keyframe or a delta, and record it as sent
+     */
+    public void encode(double latitude, double longitude, long nowMillis, MeshFrame frame) {
+        int latE7 = FrameCodec.toFixed(latitude);
+        int lonE7 = FrameCodec.toFixed(longitude);
+        int dLat = latE7 - keyframeLatE7;
+        int dLon = lonE7 - keyframeLonE7;
+        
+        if (!hasKeyframe || keyframeDue(nowMillis)
+                || Math.abs(dLat) > MAX_DELTA_E7 || Math.abs(dLon) > MAX_DELTA_E7) {
+            frame.type = FrameType.LOCATION;
+            frame.latitudeE7 = latE7;
+            frame.longitudeE7 = lonE7;
+            
+            hasKeyframe = true;
+            keyframeSequence = frame.sequence;
+            keyframeLatE7 = latE7;
+            keyframeLonE7 = lonE7;
+            keyframeTime = nowMillis;
+            updatesSinceKeyframe = 0;
+        } else {
+            frame.type = FrameType.LOCATION_DELTA;
+            frame.baseSequence = keyframeSequence;
+            frame.latitudeE7 = dLat;
+            frame.longitudeE7 = dLon;
+            updatesSinceKeyframe++;
+        }
+        
+        lastSentLatE7 = latE7;
+        lastSentLonE7 = lonE7;
+    }
+    
+    /**
+     * Force the next update to be a keyframe, e.g. after new neighbours appear
+     */
+    public void reset() {
+        hasKeyframe = false;
+    }
+    
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+    
+    private boolean keyframeDue(long nowMillis) {
+        return updatesSinceKeyframe + 1 >= keyframeInterval
+                || nowMillis - keyframeTime >= keyframeMaxAgeMillis;
+    }
+}
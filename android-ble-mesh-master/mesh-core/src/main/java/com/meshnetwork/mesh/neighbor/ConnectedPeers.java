@@ -0,0 +1,104 @@
+package com.meshnetwork.mesh.neighbor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Neighbours with an open link, safe to update and read from any thread.
+ *
+ * The set is an immutable {@link Snapshot} behind an atomic reference.
+ * Writers copy it, apply their change and publish with compare-and-set,
+ * retrying if another writer got there first; readers never block and
+ * always see one consistent version. Copying is cheap because a node only
+ * holds a handful of links.
+ */
+public final class ConnectedPeers {
+    
+    /** One published version of the set */
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new LinkedHashMap<String, Long>(), 0);
+        
+        private final Map<String, Long> connectedAt;
+        private final List<String> addresses;
+        public final long version;
+        
+        Snapshot(LinkedHashMap<String, Long> connectedAt, long version) {
+            this.connectedAt = Collections.unmodifiableMap(connectedAt);
+            this.addresses = Collections.unmodifiableList(new ArrayList<>(connectedAt.keySet()));
+            this.version = version;
+        }
+        
+        public boolean contains(String address) {
+            return connectedAt.containsKey(address);
+        }
+        
+        public int size() {
+            return addresses.size();
+        }
+        
+        /** Addresses in connection order */
+        public List<String> getAddresses() {
+            return addresses;
+        }
+        
+        /** When the link came up, or -1 if it is not open */
+        public long getConnectedAt(String address) {
+            Long at = connectedAt.get(address);
+            return at != null ? at : -1;
+        }
+    }
+    
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(Snapshot.EMPTY);
+    
+    /**
+     * Returns false if the peer was already connected
+     */
+    public boolean add(String address, long now) {
+        while (true) {
+            Snapshot old = current.get();
+            if (old.contains(address)) return false;
+            
+            LinkedHashMap<String, Long> next = new LinkedHashMap<>(old.connectedAt);
+            next.put(address, now);
+            if (current.compareAndSet(old, new Snapshot(next, old.version + 1))) return true;
+        }
+    }
+    
+    /**
+     * Returns false if the peer was not connected
+     */
+    public boolean remove(String address) {
+        while (true) {
+            Snapshot old = current.get();
+            if (!old.contains(address)) return false;
+            
+            LinkedHashMap<String, Long> next = new LinkedHashMap<>(old.connectedAt);
+            next.remove(address);
+            if (current.compareAndSet(old, new Snapshot(next, old.version + 1))) return true;
+        }
+    }
+    
+    public void clear() {
+        while (true) {
+            Snapshot old = current.get();
+            if (old.size() == 0) return;
+            if (current.compareAndSet(old, new Snapshot(new LinkedHashMap<String, Long>(), old.version + 1))) return;
+        }
+    }
+    
+    public boolean contains(String address) {
+        return current.get().contains(address);
+    }
+    
+    public int size() {
+        return current.get().size();
+    }
+    
+    public Snapshot snapshot() {
+        return current.get();
+    }
+}
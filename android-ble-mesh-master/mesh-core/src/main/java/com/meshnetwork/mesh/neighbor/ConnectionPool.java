@@ -0,0 +1,383 @@
+package com.meshnetwork.mesh.neighbor;
+
+import com.meshnetwork.mesh.routing.LinkQualityTable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decides which neighbours get one of the few client links a phone can
+ * hold open, so connection setup is paid once and then spread over every
+ * frame the link carries.
+ *
+ * A neighbour's score is its delivery probability from the
+ * {@link LinkQualityTable} weighted by its routing value: how many frames
+ * we first heard from it lately, decaying with a half-life. When the pool
+ * is full a candidate replaces the least recently used link that has been
+ * idle for {@link #IDLE_MS}, or failing that the lowest scoring link if it
+ * beats it by {@link #EVICT_MARGIN}. New links are kept at least
+ * {@link #MIN_HOLD_MS} so two neighbours cannot take turns evicting each
+ * other. Peers whose connection attempt failed back off exponentially.
+ *
+ * The pool only keeps the books; the transport opens and closes links as
+ * the {@link Offer} says and reports back what happened. Synchronized, as
+ * offers come from the scan thread and outcomes from Bluetooth callbacks.
+ */
+public class ConnectionPool {
+    
+    // Answers to offer()
+    public static final int HIT = 0;
+    public static final int CONNECT = 1;
+    public static final int EVICT = 2;
+    public static final int BACKOFF = 3;
+    public static final int REJECT = 4;
+    
+    /** A new link is kept at least this long before it can be evicted */
+    public static final long MIN_HOLD_MS = 30_000;
+    
+    /** A link that carried nothing for this long gives way to any candidate */
+    public static final long IDLE_MS = 60_000;
+    
+    /** How much better a candidate has to score to replace a busy link */
+    public static final double EVICT_MARGIN = 1.5;
+    
+    /** Retry delay after the first failed attempt, doubling per failure */
+    public static final long BACKOFF_BASE_MS = 2_000;
+    public static final long BACKOFF_MAX_MS = 5 * 60_000;
+    
+    private static final double UNKNOWN_DELIVERY = 0.5;
+    private static final double VALUE_HALF_LIFE_MS = 120_000;
+    
+    // Recent first copies at which routing value adds half again to the score
+    private static final double VALUE_SCALE = 10;
+    
+    private static final int LATENCY_SAMPLES = 128;
+    
+    // Peers kept for their backoff or routing value while not pooled
+    private static final int MAX_KNOWN_PEERS = 256;
+    
+    /** Answer to {@link #offer}, with the link to close for {@link #EVICT} */
+    public static final class Offer {
+        public final int answer;
+        public final String victim;
+        
+        Offer(int answer, String victim) {
+            this.answer = answer;
+            this.victim = victim;
+        }
+    }
+    
+    // Only evictions carry a peer, so the other answers are shared
+    private static final Offer HIT_OFFER = new Offer(HIT, null);
+    private static final Offer CONNECT_OFFER = new Offer(CONNECT, null);
+    private static final Offer BACKOFF_OFFER = new Offer(BACKOFF, null);
+    private static final Offer REJECT_OFFER = new Offer(REJECT, null);
+    
+    private static final int IDLE = 0;
+    private static final int CONNECTING = 1;
+    private static final int CONNECTED = 2;
+    
+    private static final class Peer {
+        final String address;
+        int state = IDLE;
+        long connectStartedAt;
+        long connectedAt;
+        long lastUsed;
+        int failures;
+        long retryAt;
+        double value;
+        long valueAt;
+        
+        Peer(String address) {
+            this.address = address;
+        }
+    }
+    
+    private final int capacity;
+    private final Map<String, Peer> peers = new LinkedHashMap<>();
+    private volatile LinkQualityTable linkQuality;
+    private int pooled;
+    
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private long latencyTotal;
+    
+    private long hitCount;
+    private long missCount;
+    private long connectCount;
+    private long evictionCount;
+    private long failureCount;
+    private long backoffCount;
+    private long rejectCount;
+    private long usedCount;
+    
+    public ConnectionPool(int capacity) {
+        this.capacity = capacity;
+    }
+    
+    public void setLinkQuality(LinkQualityTable linkQuality) {
+        this.linkQuality = linkQuality;
+    }
+    
+    /**
+     * A neighbour we would like a link to, typically from a scan result.
+     * Answers {@link #HIT} if it is already pooled, {@link #CONNECT} or
+     * {@link #EVICT} if the caller should connect now (after closing the
+     * offer's victim for EVICT), or {@link #BACKOFF} or {@link #REJECT} if
+     * it should not. The victim comes with the answer, so concurrent offers
+     * cannot swap it for another.
+     */
+    public synchronized Offer offer(String address, long nowMillis) {
+        Peer peer = peer(address);
+        if (peer.state != IDLE) {
+            hitCount++;
+            return HIT_OFFER;
+        }
+        missCount++;
+        
+        if (nowMillis < peer.retryAt) {
+            backoffCount++;
+            return BACKOFF_OFFER;
+        }
+        
+        if (pooled < capacity) {
+            start(peer, nowMillis);
+            return CONNECT_OFFER;
+        }
+        
+        Peer evicted = pickVictim(peer, nowMillis);
+        if (evicted == null) {
+            rejectCount++;
+            return REJECT_OFFER;
+        }
+        
+        // The evicted peer waits out a hold of its own before it may come back
+        evicted.state = IDLE;
+        evicted.retryAt = nowMillis + MIN_HOLD_MS;
+        pooled--;
+        evictionCount++;
+        start(peer, nowMillis);
+        return new Offer(EVICT, evicted.address);
+    }
+    
+    /**
+     * The link is ready for writes
+     */
+    public synchronized void onConnected(String address, long nowMillis) {
+        Peer peer = peers.get(address);
+        if (peer == null || peer.state != CONNECTING) return;
+        
+        peer.state = CONNECTED;
+        peer.connectedAt = nowMillis;
+        peer.lastUsed = nowMillis;
+        peer.failures = 0;
+        
+        long latency = nowMillis - peer.connectStartedAt;
+        latencies[latencyCount++ % LATENCY_SAMPLES] = latency;
+        latencyTotal += latency;
+    }
+    
+    /**
+     * The link closed or the attempt failed. Failed attempts back off
+     * exponentially; a link that was up may be retried after the base delay.
+     * Ignored for links the pool already evicted.
+     */
+    public synchronized void onDisconnected(String address, long nowMillis) {
+        Peer peer = peers.get(address);
+        if (peer == null || peer.state == IDLE) return;
+        
+        if (peer.state == CONNECTING) {
+            peer.failures++;
+            failureCount++;
+            peer.retryAt = nowMillis + backoff(peer.failures);
+        } else {
+            peer.retryAt = nowMillis + BACKOFF_BASE_MS;
+        }
+        peer.state = IDLE;
+        pooled--;
+    }
+    
+    /**
+     * A frame went out over the link
+     */
+    public synchronized void onUsed(String address, long nowMillis) {
+        Peer peer = peers.get(address);
+        if (peer == null || peer.state != CONNECTED) return;
+        
+        peer.lastUsed = nowMillis;
+        usedCount++;
+    }
+    
+    /**
+     * We heard a frame first from this neighbour, which makes a link to it worth more
+     */
+    public synchronized void onFirstCopy(String address, long nowMillis) {
+        Peer peer = peer(address);
+        peer.value = decayedValue(peer, nowMillis) + 1;
+        peer.valueAt = nowMillis;
+    }
+    
+    /**
+     * Delivery probability weighted by routing value; between one and two
+     * times the delivery probability
+     */
+    public synchronized double score(String address, long nowMillis) {
+        Peer peer = peers.get(address);
+        return score(peer != null ? peer : new Peer(address), nowMillis);
+    }
+    
+    public synchronized int size() {
+        return pooled;
+    }
+    
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    public synchronized void clear() {
+        peers.clear();
+        pooled = 0;
+    }
+    
+    /** Offers for a neighbour that already had a link */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+    
+    /** Offers for a neighbour without a link, whatever the answer */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+    
+    public synchronized long getConnectCount() {
+        return connectCount;
+    }
+    
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+    
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+    
+    public synchronized long getBackoffCount() {
+        return backoffCount;
+    }
+    
+    public synchronized long getRejectCount() {
+        return rejectCount;
+    }
+    
+    /**
+     * Frames written per connection attempt, i.e. how far setup cost is amortized
+     */
+    public synchronized double getFramesPerConnect() {
+        return connectCount == 0 ? 0 : usedCount / (double) connectCount;
+    }
+    
+    public synchronized long getMeanConnectLatency() {
+        return latencyCount == 0 ? 0 : latencyTotal / latencyCount;
+    }
+    
+    /**
+     * Connect latency percentile over the last {@value #LATENCY_SAMPLES} links, in ms
+     */
+    public synchronized long getConnectLatencyPercentile(double p) {
+        int n = Math.min(latencyCount, LATENCY_SAMPLES);
+        if (n == 0) return 0;
+        
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        return sorted[Math.min(n - 1, (int) (p * n))];
+    }
+    
+    public synchronized String describe() {
+        return "size " + pooled + "/" + capacity
+                + ", hits " + hitCount + ", misses " + missCount
+                + ", connects " + connectCount + ", failures " + failureCount
+                + ", evictions " + evictionCount + ", backoffs " + backoffCount + ", rejects " + rejectCount
+                + ", connect p50 " + getConnectLatencyPercentile(0.5) + " ms, p90 " + getConnectLatencyPercentile(0.9) + " ms"
+                + ", " + String.format(Locale.ROOT, "%.1f", getFramesPerConnect()) + " frames per connect";
+    }
+    
+    private void start(Peer peer, long nowMillis) {
+        peer.state = CONNECTING;
+        peer.connectStartedAt = nowMillis;
+        pooled++;
+        connectCount++;
+    }
+    
+    /**
+     * The idle link unused longest, else the lowest scoring one if the
+     * candidate beats it by the margin. Links inside their hold and ones
+     * still connecting are never evicted.
+     */
+    private Peer pickVictim(Peer candidate, long nowMillis) {
+        Peer leastRecent = null;
+        Peer lowest = null;
+        double lowestScore = 0;
+        for (Peer peer : peers.values()) {
+            if (peer.state != CONNECTED || nowMillis - peer.connectedAt < MIN_HOLD_MS) continue;
+            
+            if (nowMillis - peer.lastUsed >= IDLE_MS && (leastRecent == null || peer.lastUsed < leastRecent.lastUsed)) {
+                leastRecent = peer;
+            }
+            double score = score(peer, nowMillis);
+            if (lowest == null || score < lowestScore) {
+                lowest = peer;
+                lowestScore = score;
+            }
+        }
+        if (leastRecent != null) return leastRecent;
+        if (lowest != null && score(candidate, nowMillis) > EVICT_MARGIN * lowestScore) return lowest;
+        return null;
+    }
+    
+    private double score(Peer peer, long nowMillis) {
+        LinkQualityTable links = linkQuality;
+        double delivery = links != null ? links.deliveryProbability(peer.address) : -1;
+        if (delivery < 0) {
+            delivery = UNKNOWN_DELIVERY;
+        }
+        double value = decayedValue(peer, nowMillis);
+        return delivery * (1 + value / (value + VALUE_SCALE));
+    }
+    
+    private static double decayedValue(Peer peer, long nowMillis) {
+        if (peer.value == 0) return 0;
+        return peer.value * Math.pow(0.5, (nowMillis - peer.valueAt) / VALUE_HALF_LIFE_MS);
+    }
+    
+    private static long backoff(int failures) {
+        long delay = BACKOFF_BASE_MS << Math.min(failures - 1, 20);
+        return Math.min(delay, BACKOFF_MAX_MS);
+    }
+    
+    private Peer peer(String address) {
+        Peer peer = peers.get(address);
+        if (peer == null) {
+            if (peers.size() >= MAX_KNOWN_PEERS) {
+                forgetIdle();
+            }
+            peer = new Peer(address);
+            peers.put(address, peer);
+        }
+        return peer;
+    }
+    
+    /**
+     * Drop neighbours without a link, first met first, to bound the table
+     */
+    private void forgetIdle() {
+        Iterator<Peer> it = peers.values().iterator();
+        while (it.hasNext() && peers.size() >= MAX_KNOWN_PEERS / 2) {
+            if (it.next().state == IDLE) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.meshnetwork.mesh.neighbor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Devices heard recently, keyed by address for O(1) updates per scan result.
+ *
+ * RSSI is smoothed with an exponential moving average so one faded packet
+ * does not reorder or redraw the list. The table tracks whether anything a
+ * viewer would notice changed since the last {@link #snapshot}: a new or
+ * expired neighbour, a renamed one, or a smoothed RSSI that moved by at
+ * least {@link #RSSI_CHANGE_DB}. Iteration order is discovery order, so
+ * snapshots stay stable for list diffing.
+ *
+ * Not thread-safe; used from the thread that receives scan results.
+ */
+public class NeighborTable {
+    
+    /** Immutable view of one neighbour, safe to hand to the UI */
+    public static final class Neighbor {
+        public final String address;
+        public final String name;
+        public final int rssi;
+        public final long lastSeen;
+        
+        Neighbor(String address, String name, int rssi, long lastSeen) {
+            this.address = address;
+            this.name = name;
+            this.rssi = rssi;
+            this.lastSeen = lastSeen;
+        }
+        
+        /**
+         * Whether a list row for this neighbour would look the same
+         */
+        public boolean sameContents(Neighbor other) {
+            return rssi == other.rssi
+                    && (name == null ? other.name == null : name.equals(other.name));
+        }
+    }
+    
+    /** Weight of a new sample in the smoothed RSSI */
+    public static final double RSSI_ALPHA = 0.25;
+    
+    /** Smallest smoothed RSSI change worth redrawing */
+    public static final int RSSI_CHANGE_DB = 2;
+    
+    private static final class Entry {
+        final String address;
+        String name;
+        double smoothedRssi;
+        int publishedRssi;
+        long lastSeen;
+        
+        Entry(String address) {
+            this.address = address;
+        }
+    }
+    
+    private final long expiryMillis;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private boolean changed;
+    
+    /**
+     * @param expiryMillis neighbours not heard from for this long are dropped by {@link #expire}
+     */
+    public NeighborTable(long expiryMillis) {
+        this.expiryMillis = expiryMillis;
+    }
+    
+    /**
+     * Record one advertisement. Returns true if the device is new.
+     */
+    public boolean update(String address, String name, int rssi, long now) {
+        Entry entry = entries.get(address);
+        boolean isNew = entry == null;
+        if (isNew) {
+            entry = new Entry(address);
+            entry.smoothedRssi = rssi;
+            entry.publishedRssi = rssi;
+            entries.put(address, entry);
+            changed = true;
+        } else {
+            entry.smoothedRssi += RSSI_ALPHA * (rssi - entry.smoothedRssi);
+            if (Math.abs(Math.round(entry.smoothedRssi) - entry.publishedRssi) >= RSSI_CHANGE_DB) {
+                changed = true;
+            }
+        }
+        
+        if (name != null && !name.equals(entry.name)) {
+            entry.name = name;
+            changed = true;
+        }
+        entry.lastSeen = now;
+        return isNew;
+    }
+    
+    /**
+     * Drop neighbours not heard from within the expiry time; returns how many
+     */
+    public int expire(long now) {
+        int removed = 0;
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().lastSeen > expiryMillis) {
+                it.remove();
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            changed = true;
+        }
+        return removed;
+    }
+    
+    public boolean remove(String address) {
+        if (entries.remove(address) == null) return false;
+        changed = true;
+        return true;
+    }
+    
+    public boolean contains(String address) {
+        return entries.containsKey(address);
+    }
+    
+    /**
+     * Smoothed RSSI of a neighbour, or {@code Integer.MIN_VALUE} if unknown
+     */
+    public int getRssi(String address) {
+        Entry entry = entries.get(address);
+        return entry == null ? Integer.MIN_VALUE : (int) Math.round(entry.smoothedRssi);
+    }
+    
+    public int size() {
+        return entries.size();
+    }
+    
+    /**
+     * Whether anything visible changed since the last snapshot
+     */
+    public boolean hasChanges() {
+        return changed;
+    }
+    
+    /**
+     * Immutable copy of the table in discovery order; resets {@link #hasChanges}
+     */
+    public List<Neighbor> snapshot() {
+        List<Neighbor> list = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            entry.publishedRssi = (int) Math.round(entry.smoothedRssi);
+            list.add(new Neighbor(entry.address, entry.name, entry.publishedRssi, entry.lastSeen));
+        }
+        changed = false;
+        return list;
+    }
+}
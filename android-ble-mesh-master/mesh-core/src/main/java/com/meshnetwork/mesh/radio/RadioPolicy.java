@@ -0,0 +1,194 @@
+package com.meshnetwork.mesh.radio;
+
+import com.meshnetwork.mesh.MeshClock;
+
+/**
+ * Chooses how aggressively to scan and advertise from recent mesh activity
+ * and battery state, independently of the Android radio APIs.
+ *
+ * Activity events hold the radio at a minimum mode for a while: an SOS or
+ * alert keeps it at {@link #MODE_LOW_LATENCY}, neighbour changes and
+ * ordinary traffic at {@link #MODE_BALANCED}. With nothing recent it drops
+ * to {@link #MODE_LOW_POWER}. A low battery caps the mode at balanced and
+ * a critical one at low power, except that emergencies always get one
+ * level above the cap. Charging lifts the cap.
+ *
+ * Mode values match ScanSettings.SCAN_MODE_* and
+ * AdvertiseSettings.ADVERTISE_MODE_*, so they can be passed straight to
+ * the settings builders. The owner calls {@link #evaluate} at
+ * {@link #getNextChangeAt} to let holds expire.
+ */
+public class RadioPolicy {
+    
+    public interface Listener {
+        void onModeChanged(int mode);
+    }
+    
+    public static final int MODE_LOW_POWER = 0;
+    public static final int MODE_BALANCED = 1;
+    public static final int MODE_LOW_LATENCY = 2;
+    public static final int MODE_COUNT = 3;
+    
+    public static final long EMERGENCY_HOLD_MS = 60_000;
+    public static final long NEIGHBOR_HOLD_MS = 30_000;
+    public static final long TRAFFIC_HOLD_MS = 10_000;
+    
+    public static final int LOW_BATTERY_PERCENT = 20;
+    public static final int CRITICAL_BATTERY_PERCENT = 5;
+    
+    private final MeshClock clock;
+    private final Listener listener;
+    
+    private long emergencyUntil;
+    private long neighborUntil;
+    private long trafficUntil;
+    private int batteryPercent = 100;
+    private boolean charging;
+    
+    private int mode;
+    private long modeSince;
+    private final long[] timeInMode = new long[MODE_COUNT];
+    private long transitionCount;
+    
+    public RadioPolicy(MeshClock clock, Listener listener) {
+        this.clock = clock;
+        this.listener = listener;
+        this.mode = MODE_LOW_POWER;
+        this.modeSince = clock.nowMillis();
+    }
+    
+    /** An SOS or alert was sent, received or relayed */
+    public void onEmergency() {
+        synchronized (this) {
+            emergencyUntil = clock.nowMillis() + EMERGENCY_HOLD_MS;
+        }
+        evaluate();
+    }
+    
+    /** A neighbour appeared or went away */
+    public void onNeighborChange() {
+        synchronized (this) {
+            neighborUntil = clock.nowMillis() + NEIGHBOR_HOLD_MS;
+        }
+        evaluate();
+    }
+    
+    /** Any other frame was sent or received */
+    public void onTraffic() {
+        synchronized (this) {
+            trafficUntil = clock.nowMillis() + TRAFFIC_HOLD_MS;
+        }
+        evaluate();
+    }
+    
+    public void setBattery(int percent, boolean charging) {
+        synchronized (this) {
+            this.batteryPercent = percent;
+            this.charging = charging;
+        }
+        evaluate();
+    }
+    
+    /**
+     * Recompute the mode, notifying the listener if it changed
+     */
+    public int evaluate() {
+        int newMode;
+        synchronized (this) {
+            long now = clock.nowMillis();
+            newMode = targetMode(now);
+            if (newMode == mode) return mode;
+            
+            timeInMode[mode] += now - modeSince;
+            mode = newMode;
+            modeSince = now;
+            transitionCount++;
+        }
+        if (listener != null) {
+            listener.onModeChanged(newMode);
+        }
+        return newMode;
+    }
+    
+    private int targetMode(long now) {
+        boolean emergency = now < emergencyUntil;
+        int demand = MODE_LOW_POWER;
+        if (emergency) {
+            demand = MODE_LOW_LATENCY;
+        } else if (now < neighborUntil || now < trafficUntil) {
+            demand = MODE_BALANCED;
+        }
+        
+        if (charging) return demand;
+        int cap = MODE_LOW_LATENCY;
+        if (batteryPercent <= CRITICAL_BATTERY_PERCENT) {
+            cap = MODE_LOW_POWER;
+        } else if (batteryPercent <= LOW_BATTERY_PERCENT) {
+            cap = MODE_BALANCED;
+        }
+        if (emergency) {
+            cap = Math.min(MODE_LOW_LATENCY, cap + 1);
+        }
+        return Math.min(demand, cap);
+    }
+    
+    /**
+     * Time at which the next hold expires and the mode may drop, or -1 if
+     * nothing is pending
+     */
+    public synchronized long getNextChangeAt() {
+        long now = clock.nowMillis();
+        long next = earliestAfter(now, -1, emergencyUntil);
+        next = earliestAfter(now, next, neighborUntil);
+        return earliestAfter(now, next, trafficUntil);
+    }
+    
+    private static long earliestAfter(long now, long current, long until) {
+        if (until <= now) return current;
+        return current < 0 ? until : Math.min(current, until);
+    }
+    
+    public synchronized int getMode() {
+        return mode;
+    }
+    
+    /**
+     * Total milliseconds spent in a mode, including the current stretch
+     */
+    public synchronized long getTimeInMode(int queryMode) {
+        long total = timeInMode[queryMode];
+        if (queryMode == mode) {
+            total += clock.nowMillis() - modeSince;
+        }
+        return total;
+    }
+    
+    public synchronized long getTransitionCount() {
+        return transitionCount;
+    }
+    
+    public static String modeName(int mode) {
+        switch (mode) {
+            case MODE_LOW_POWER:
+                return "LOW_POWER";
+            case MODE_BALANCED:
+                return "BALANCED";
+            case MODE_LOW_LATENCY:
+                return "LOW_LATENCY";
+            default:
+                return "MODE_" + mode;
+        }
+    }
+    
+    /**
+     * One-line summary of time spent per mode, for logs
+     */
+    public synchronized String describeTimeInModes() {
+        StringBuilder sb = new StringBuilder();
+        for (int m = 0; m < MODE_COUNT; m++) {
+            if (m > 0) sb.append(", ");
+            sb.append(modeName(m)).append('=').append(getTimeInMode(m) / 1000).append('s');
+        }
+        return sb.toString();
+    }
+}
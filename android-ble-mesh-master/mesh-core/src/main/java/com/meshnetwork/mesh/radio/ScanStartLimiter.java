@@ -0,0 +1,64 @@
+package com.meshnetwork.mesh.radio;
+
+/**
+ * Keeps BLE scan starts within Android's budget of {@link #MAX_STARTS}
+ * per {@link #WINDOW_MS} for the whole app. Past it the system accepts
+ * the scan but silently delivers no results, so a start that would go
+ * over has to wait for the oldest start to leave the window instead.
+ *
+ * Thread-safe; one instance is shared by every scanner in the process.
+ */
+public class ScanStartLimiter {
+    
+    public static final int MAX_STARTS = 5;
+    public static final long WINDOW_MS = 30_000;
+    
+    private final int maxStarts;
+    private final long windowMillis;
+    // Times of the last maxStarts starts, as a ring
+    private final long[] startedAt;
+    private int next;
+    private int count;
+    private long deferredCount;
+    
+    public ScanStartLimiter() {
+        this(MAX_STARTS, WINDOW_MS);
+    }
+    
+    public ScanStartLimiter(int maxStarts, long windowMillis) {
+        this.maxStarts = maxStarts;
+        this.windowMillis = windowMillis;
+        this.startedAt = new long[maxStarts];
+    }
+    
+    /**
+     * Record {@code starts} scan starts at {@code now} if they fit the
+     * budget and return 0; otherwise record nothing and return how many
+     * milliseconds to wait before trying again
+     */
+    public synchronized long tryStart(int starts, long now) {
+        if (starts < 1 || starts > maxStarts) {
+            throw new IllegalArgumentException("starts " + starts);
+        }
+        int over = count + starts - maxStarts;
+        if (over > 0) {
+            // The over-th oldest start has to leave the window, and all before it with it
+            long leavesAt = startedAt[(next - count + over - 1 + maxStarts) % maxStarts] + windowMillis;
+            if (leavesAt > now) {
+                deferredCount++;
+                return leavesAt - now;
+            }
+        }
+        for (int i = 0; i < starts; i++) {
+            startedAt[next] = now;
+            next = (next + 1) % maxStarts;
+        }
+        count = Math.min(maxStarts, count + starts);
+        return 0;
+    }
+    
+    /** Starts that had to wait */
+    public synchronized long getDeferredCount() {
+        return deferredCount;
+    }
+}
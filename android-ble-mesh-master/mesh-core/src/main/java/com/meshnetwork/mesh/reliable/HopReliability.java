@@ -0,0 +1,289 @@
+package com.meshnetwork.mesh.reliable;
+
+import com.meshnetwork.mesh.MeshClock;
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.dedup.SeenMessageCache;
+import com.meshnetwork.mesh.schedule.TimingWheel;
+import com.meshnetwork.mesh.transport.MeshTransport;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hop-by-hop acknowledgement and retransmission for emergency frames.
+ *
+ * Every SOS, ALERT, GEO_ALERT or RECEIPT written to a neighbour waits for
+ * an {@link FrameType#ACK} from that neighbour. If none comes within the
+ * link's retransmission timeout, the frame goes again to that neighbour
+ * only, with the timeout doubled, up to {@link #MAX_ATTEMPTS} sends in
+ * all. Timeouts come from an {@link RttEstimator} per neighbour and wait
+ * on a {@link TimingWheel}, so thousands of frames in flight cost a list
+ * node each rather than a platform timer.
+ *
+ * The receiving side acknowledges every copy, duplicates included, since
+ * the copy it already acknowledged may be the one whose ACK was lost. A
+ * copy that arrives from a neighbour also counts as its acknowledgement:
+ * a relay echoing the frame back plainly has it. The ACK goes back over
+ * {@link MeshTransport#send}, which answers over the link the frame came
+ * in on when we hold none of our own to the sender.
+ *
+ * Not thread-safe; used from the mesh worker, which also runs the wheel.
+ */
+public class HopReliability {
+    
+    /** First send plus retransmissions before a neighbour is given up on */
+    public static final int MAX_ATTEMPTS = 5;
+    
+    private final class Pending implements Runnable {
+        final String peer;
+        final long key;
+        final byte[] data;
+        final TimingWheel.Timeout timeout = new TimingWheel.Timeout(this);
+        int attempts;
+        long sentAt;
+        long rto;
+        
+        Pending(String peer, long key, byte[] data) {
+            this.peer = peer;
+            this.key = key;
+            this.data = data;
+        }
+        
+        @Override
+        public void run() {
+            onTimeout(this);
+        }
+    }
+    
+    private final MeshClock clock;
+    private final TimingWheel wheel;
+    private final MeshTransport transport;
+    private final Map<String, Map<Long, Pending>> pendingByPeer = new HashMap<>();
+    private final Map<String, RttEstimator> rtts = new HashMap<>();
+    private final MeshFrame ackFrame = new MeshFrame();
+    
+    private long sentCount;
+    private long ackedCount;
+    private long retransmittedCount;
+    private long expiredCount;
+    private long ackSentCount;
+    private long implicitAckCount;
+    private long cancelledCount;
+    
+    public HopReliability(MeshClock clock, TimingWheel wheel, MeshTransport transport) {
+        this.clock = clock;
+        this.wheel = wheel;
+        this.transport = transport;
+    }
+    
+    /**
+     * Whether frames of this type are acknowledged hop by hop
+     */
+    public static boolean isReliable(int type) {
+        return type == FrameType.SOS || type == FrameType.ALERT || type == FrameType.GEO_ALERT
+                || type == FrameType.RECEIPT;
+    }
+    
+    /**
+     * Send a frame to one neighbour and retransmit until it acknowledges.
+     * Returns false if the link would not take it.
+     */
+    public boolean send(String peer, int originId, int sequence, byte[] data) {
+        long key = SeenMessageCache.key(originId, sequence);
+        Map<Long, Pending> frames = pendingByPeer.get(peer);
+        if (frames != null && frames.containsKey(key)) {
+            // Already in flight to this neighbour
+            return true;
+        }
+        if (!transport.send(peer, data)) return false;
+        
+        if (frames == null) {
+            frames = new HashMap<>();
+            pendingByPeer.put(peer, frames);
+        }
+        Pending pending = new Pending(peer, key, data);
+        pending.attempts = 1;
+        pending.sentAt = clock.nowMillis();
+        pending.rto = rtt(peer).getRto();
+        frames.put(key, pending);
+        wheel.schedule(pending.timeout, pending.rto);
+        sentCount++;
+        return true;
+    }
+    
+    /**
+     * Send to each of {@code peers} except {@code exceptPeer}; returns how many took it
+     */
+    public int broadcast(Iterable<String> peers, String exceptPeer, int originId, int sequence, byte[] data) {
+        int sent = 0;
+        for (String peer : peers) {
+            if (peer.equals(exceptPeer)) continue;
+            if (send(peer, originId, sequence, data)) {
+                sent++;
+            }
+        }
+        return sent;
+    }
+    
+    /**
+     * An ACK frame arrived from a neighbour. Returns false if nothing was
+     * waiting for it, e.g. a late ACK for a frame already retransmitted
+     * and acknowledged.
+     */
+    public boolean onAck(String fromPeer, int originId, int sequence) {
+        Map<Long, Pending> frames = pendingByPeer.get(fromPeer);
+        if (frames == null) return false;
+        Pending pending = frames.remove(SeenMessageCache.key(originId, sequence));
+        if (pending == null) return false;
+        
+        wheel.cancel(pending.timeout);
+        if (pending.attempts == 1) {
+            rtt(fromPeer).sample(clock.nowMillis() - pending.sentAt);
+        }
+        ackedCount++;
+        return true;
+    }
+    
+    /**
+     * Acknowledge a received reliable frame to the neighbour it came from,
+     * and stop sending it to that neighbour if we were
+     */
+    public void acknowledge(String fromPeer, MeshFrame frame) {
+        Map<Long, Pending> frames = pendingByPeer.get(fromPeer);
+        if (frames != null) {
+            Pending pending = frames.remove(SeenMessageCache.key(frame.originId, frame.sequence));
+            if (pending != null) {
+                // No RTT sample: the copy was not sent in reply to ours
+                wheel.cancel(pending.timeout);
+                implicitAckCount++;
+            }
+        }
+        
+        ackFrame.type = FrameType.ACK;
+        ackFrame.ttl = 0;
+        ackFrame.originId = frame.originId;
+        ackFrame.sequence = frame.sequence;
+        if (transport.send(fromPeer, FrameCodec.encode(ackFrame))) {
+            ackSentCount++;
+        }
+    }
+    
+    /**
+     * Stop retransmitting a frame to every neighbour, e.g. once a receipt
+     * shows it reached its destination. Returns how many sends were pending.
+     */
+    public int cancel(int originId, int sequence) {
+        long key = SeenMessageCache.key(originId, sequence);
+        int cancelled = 0;
+        for (Map<Long, Pending> frames : pendingByPeer.values()) {
+            Pending pending = frames.remove(key);
+            if (pending != null) {
+                wheel.cancel(pending.timeout);
+                cancelled++;
+            }
+        }
+        cancelledCount += cancelled;
+        return cancelled;
+    }
+    
+    /**
+     * The link to a neighbour closed; nothing more can reach it over this link
+     */
+    public void onPeerDown(String peer) {
+        Map<Long, Pending> frames = pendingByPeer.remove(peer);
+        if (frames != null) {
+            for (Pending pending : frames.values()) {
+                wheel.cancel(pending.timeout);
+            }
+        }
+        rtts.remove(peer);
+    }
+    
+    public void clear() {
+        for (Map<Long, Pending> frames : pendingByPeer.values()) {
+            for (Pending pending : frames.values()) {
+                wheel.cancel(pending.timeout);
+            }
+        }
+        pendingByPeer.clear();
+        rtts.clear();
+    }
+    
+    /**
+     * Current retransmission timeout towards a neighbour
+     */
+    public long getRto(String peer) {
+        RttEstimator rtt = rtts.get(peer);
+        return rtt != null ? rtt.getRto() : RttEstimator.INITIAL_RTO_MS;
+    }
+    
+    public int getPendingCount() {
+        int count = 0;
+        for (Map<Long, Pending> frames : pendingByPeer.values()) {
+            count += frames.size();
+        }
+        return count;
+    }
+    
+    /** Frames handed to a neighbour for the first time */
+    public long getSentCount() {
+        return sentCount;
+    }
+    
+    public long getAckedCount() {
+        return ackedCount;
+    }
+    
+    public long getRetransmittedCount() {
+        return retransmittedCount;
+    }
+    
+    /** Sends given up after {@link #MAX_ATTEMPTS} without an ACK */
+    public long getExpiredCount() {
+        return expiredCount;
+    }
+    
+    public long getAckSentCount() {
+        return ackSentCount;
+    }
+    
+    /** Sends settled by a copy of the frame from the neighbour rather than an ACK */
+    public long getImplicitAckCount() {
+        return implicitAckCount;
+    }
+    
+    /** Sends stopped by {@link #cancel} before an ACK came */
+    public long getCancelledCount() {
+        return cancelledCount;
+    }
+    
+    private void onTimeout(Pending pending) {
+        if (pending.attempts >= MAX_ATTEMPTS) {
+            Map<Long, Pending> frames = pendingByPeer.get(pending.peer);
+            if (frames != null) {
+                frames.remove(pending.key);
+            }
+            expiredCount++;
+            return;
+        }
+        
+        // A full queue counts as an attempt too; the longer wait gives it time to drain
+        transport.send(pending.peer, pending.data);
+        pending.attempts++;
+        pending.sentAt = clock.nowMillis();
+        pending.rto = Math.min(pending.rto * 2, RttEstimator.MAX_RTO_MS);
+        wheel.schedule(pending.timeout, pending.rto);
+        retransmittedCount++;
+    }
+    
+    private RttEstimator rtt(String peer) {
+        RttEstimator rtt = rtts.get(peer);
+        if (rtt == null) {
+            rtt = new RttEstimator();
+            rtts.put(peer, rtt);
+        }
+        return rtt;
+    }
+}
@@ -0,0 +1,50 @@
+package com.meshnetwork.mesh.reliable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Frames this node originated that still wait for an end-to-end receipt.
+ * Several responders may answer the same SOS; only the first receipt
+ * counts. The oldest frames are forgotten beyond the capacity.
+ *
+ * Not thread-safe; used from the mesh worker.
+ */
+public class PendingReceipts {
+    
+    private final Map<Integer, Long> sentAt;
+    
+    private long confirmedCount;
+    
+    public PendingReceipts(final int capacity) {
+        this.sentAt = new LinkedHashMap<Integer, Long>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+    
+    public void onSent(int sequence, long nowMillis) {
+        sentAt.put(sequence, nowMillis);
+    }
+    
+    /**
+     * A receipt for one of our frames arrived. Returns the time since the
+     * frame was sent, or -1 if it was already confirmed or is unknown.
+     */
+    public long onReceipt(int sequence, long nowMillis) {
+        Long sent = sentAt.remove(sequence);
+        if (sent == null) return -1;
+        confirmedCount++;
+        return nowMillis - sent;
+    }
+    
+    public int size() {
+        return sentAt.size();
+    }
+    
+    public long getConfirmedCount() {
+        return confirmedCount;
+    }
+}
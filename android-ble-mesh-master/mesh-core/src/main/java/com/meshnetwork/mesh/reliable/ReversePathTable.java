@@ -0,0 +1,47 @@
+package com.meshnetwork.mesh.reliable;
+
+import com.meshnetwork.mesh.dedup.SeenMessageCache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The neighbour each recent SOS first arrived from, so a receipt for it
+ * can retrace the frame's path hop by hop instead of flooding the mesh.
+ * The first copy usually came over the quickest path, which makes it a
+ * good way back. Oldest entries are forgotten beyond the capacity.
+ *
+ * Not thread-safe; used from the mesh worker.
+ */
+public class ReversePathTable {
+    
+    private final Map<Long, String> previousHops;
+    
+    public ReversePathTable(final int capacity) {
+        this.previousHops = new LinkedHashMap<Long, String>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+    
+    public void record(int originId, int sequence, String fromPeer) {
+        previousHops.put(SeenMessageCache.key(originId, sequence), fromPeer);
+    }
+    
+    /**
+     * The neighbour the frame came from, or null if it is unknown or forgotten
+     */
+    public String previousHop(int originId, int sequence) {
+        return previousHops.get(SeenMessageCache.key(originId, sequence));
+    }
+    
+    public int size() {
+        return previousHops.size();
+    }
+    
+    public void clear() {
+        previousHops.clear();
+    }
+}
@@ -0,0 +1,55 @@
+package com.meshnetwork.mesh.reliable;
+
+/**
+ * Retransmission timeout for one link from measured round trips, as in
+ * RFC 6298: a smoothed RTT and its mean deviation, with the timeout at
+ * SRTT + 4 * RTTVAR clamped to [{@link #MIN_RTO_MS}, {@link #MAX_RTO_MS}].
+ *
+ * Only round trips of frames sent once should be sampled (Karn's rule);
+ * an acknowledgement for a retransmitted frame cannot be matched to a
+ * particular send.
+ */
+public class RttEstimator {
+    
+    /** Timeout before the first sample */
+    public static final long INITIAL_RTO_MS = 1_000;
+    
+    /** A few connection intervals plus queueing in the controller */
+    public static final long MIN_RTO_MS = 200;
+    public static final long MAX_RTO_MS = 10_000;
+    
+    private static final double ALPHA = 0.125;
+    private static final double BETA = 0.25;
+    
+    private double srtt;
+    private double rttvar;
+    private long rto = INITIAL_RTO_MS;
+    private int samples;
+    
+    public void sample(long rttMillis) {
+        if (rttMillis < 0) return;
+        
+        if (samples == 0) {
+            srtt = rttMillis;
+            rttvar = rttMillis / 2.0;
+        } else {
+            rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rttMillis);
+            srtt = (1 - ALPHA) * srtt + ALPHA * rttMillis;
+        }
+        samples++;
+        rto = Math.max(MIN_RTO_MS, Math.min(MAX_RTO_MS, Math.round(srtt + 4 * rttvar)));
+    }
+    
+    public long getRto() {
+        return rto;
+    }
+    
+    /** Smoothed round trip, or -1 before the first sample */
+    public long getSrtt() {
+        return samples == 0 ? -1 : Math.round(srtt);
+    }
+    
+    public int getSampleCount() {
+        return samples;
+    }
+}
@@ -0,0 +1,52 @@
+package com.meshnetwork.mesh.routing;
+
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.schedule.Priority;
+
+/**
+ * Link-quality-aware flooding.
+ *
+ * A node that heard a frame over a poor link (high ETX) is probably near
+ * the edge of the sender's range, so its relay reaches the most new nodes;
+ * it relays after a short delay. Nodes on strong links wait longer, and
+ * cancel their relay if they overhear enough copies in the meantime
+ * because their neighbourhood is then already covered. SOS and alerts are
+ * relayed at once.
+ */
+public class EtxStrategy implements RoutingStrategy {
+    
+    public static final long DEFAULT_MAX_DELAY_MS = 200;
+    public static final int DEFAULT_SUPPRESS_COPIES = 3;
+    
+    private final LinkQualityTable links;
+    private final long maxDelayMillis;
+    private final int suppressCopies;
+    
+    public EtxStrategy(LinkQualityTable links) {
+        this(links, DEFAULT_MAX_DELAY_MS, DEFAULT_SUPPRESS_COPIES);
+    }
+    
+    public EtxStrategy(LinkQualityTable links, long maxDelayMillis, int suppressCopies) {
+        this.links = links;
+        this.maxDelayMillis = maxDelayMillis;
+        this.suppressCopies = suppressCopies;
+    }
+    
+    @Override
+    public long relayDelay(MeshFrame frame, String fromPeer) {
+        if (Priority.of(frame.type) <= Priority.ALERT) return 0;
+        
+        // ETX 1 (perfect link) waits the full delay, ETX 10 a tenth of it
+        return Math.max(1, Math.round(maxDelayMillis / links.etx(fromPeer)));
+    }
+    
+    @Override
+    public boolean shouldStillRelay(int copiesHeard) {
+        return copiesHeard < suppressCopies;
+    }
+    
+    @Override
+    public String getName() {
+        return "etx(max=" + maxDelayMillis + "ms,suppress=" + suppressCopies + ")";
+    }
+}
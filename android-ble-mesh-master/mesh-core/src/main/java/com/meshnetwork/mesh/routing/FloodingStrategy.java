@@ -0,0 +1,25 @@
+package com.meshnetwork.mesh.routing;
+
+import com.meshnetwork.mesh.codec.MeshFrame;
+
+/**
+ * Controlled flooding: every node relays every new frame once, immediately,
+ * until its TTL runs out
+ */
+public class FloodingStrategy implements RoutingStrategy {
+    
+    @Override
+    public long relayDelay(MeshFrame frame, String fromPeer) {
+        return 0;
+    }
+    
+    @Override
+    public boolean shouldStillRelay(int copiesHeard) {
+        return true;
+    }
+    
+    @Override
+    public String getName() {
+        return "flooding";
+    }
+}
@@ -0,0 +1,48 @@
+package com.meshnetwork.mesh.routing;
+
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.schedule.Priority;
+
+import java.util.Random;
+
+/**
+ * Probabilistic flooding (GOSSIP1(p, k)): relay with probability p, except
+ * within the first k hops from the origin where every node relays so the
+ * frame cannot die out next to its source. SOS and alerts are always relayed.
+ */
+public class GossipStrategy implements RoutingStrategy {
+    
+    private final double probability;
+    private final int alwaysRelayHops;
+    private final int initialTtl;
+    private final Random random;
+    
+    /**
+     * @param initialTtl TTL frames start with, to tell how far one has travelled
+     */
+    public GossipStrategy(double probability, int alwaysRelayHops, int initialTtl, Random random) {
+        this.probability = probability;
+        this.alwaysRelayHops = alwaysRelayHops;
+        this.initialTtl = initialTtl;
+        this.random = random;
+    }
+    
+    @Override
+    public long relayDelay(MeshFrame frame, String fromPeer) {
+        if (Priority.of(frame.type) <= Priority.ALERT) return 0;
+        
+        int hops = initialTtl - frame.ttl + 1;
+        if (hops <= alwaysRelayHops) return 0;
+        return random.nextDouble() < probability ? 0 : DROP;
+    }
+    
+    @Override
+    public boolean shouldStillRelay(int copiesHeard) {
+        return true;
+    }
+    
+    @Override
+    public String getName() {
+        return "gossip(p=" + probability + ",k=" + alwaysRelayHops + ")";
+    }
+}
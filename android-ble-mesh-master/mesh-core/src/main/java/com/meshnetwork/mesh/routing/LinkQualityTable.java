@@ -0,0 +1,95 @@
+package com.meshnetwork.mesh.routing;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ETX-like link metric per neighbour.
+ *
+ * Delivery probability starts from a prior derived from smoothed RSSI and
+ * shifts towards the observed write success rate as outcomes accumulate.
+ * Links are assumed symmetric, so ETX = 1 / p^2 (forward and reverse
+ * delivery both have to succeed).
+ */
+public class LinkQualityTable {
+    
+    /** RSSI at which the prior puts delivery at 50%, and its spread */
+    public static final double RSSI_MIDPOINT_DBM = -88.0;
+    public static final double RSSI_SLOPE_DB = 4.0;
+    
+    /** ETX reported for neighbours we know nothing about */
+    public static final double UNKNOWN_ETX = 2.0;
+    
+    private static final double MIN_DELIVERY = 0.05;
+    private static final double RSSI_ALPHA = 0.25;
+    private static final double DELIVERY_ALPHA = 0.1;
+    
+    // Outcomes after which observed delivery fully replaces the RSSI prior
+    private static final int TRUSTED_SAMPLES = 10;
+    
+    private static final class Link {
+        double rssi;
+        boolean hasRssi;
+        double delivery;
+        int samples;
+    }
+    
+    private final Map<String, Link> links = new HashMap<>();
+    
+    public synchronized void recordRssi(String peer, int rssi) {
+        Link link = link(peer);
+        if (link.hasRssi) {
+            link.rssi += RSSI_ALPHA * (rssi - link.rssi);
+        } else {
+            link.rssi = rssi;
+            link.hasRssi = true;
+        }
+    }
+    
+    public synchronized void recordDelivery(String peer, boolean success) {
+        Link link = link(peer);
+        double outcome = success ? 1.0 : 0.0;
+        link.delivery = link.samples == 0 ? outcome : link.delivery + DELIVERY_ALPHA * (outcome - link.delivery);
+        link.samples++;
+    }
+    
+    /**
+     * Estimated one-way delivery probability, or -1 if the peer is unknown
+     */
+    public synchronized double deliveryProbability(String peer) {
+        Link link = links.get(peer);
+        if (link == null || (!link.hasRssi && link.samples == 0)) return -1;
+        
+        double p;
+        if (!link.hasRssi) {
+            p = link.delivery;
+        } else {
+            double prior = 1.0 / (1.0 + Math.exp((RSSI_MIDPOINT_DBM - link.rssi) / RSSI_SLOPE_DB));
+            double weight = Math.min(1.0, link.samples / (double) TRUSTED_SAMPLES);
+            p = weight * link.delivery + (1 - weight) * prior;
+        }
+        return Math.max(MIN_DELIVERY, p);
+    }
+    
+    public double etx(String peer) {
+        double p = deliveryProbability(peer);
+        return p < 0 ? UNKNOWN_ETX : 1.0 / (p * p);
+    }
+    
+    public synchronized void remove(String peer) {
+        links.remove(peer);
+    }
+    
+    public synchronized int size() {
+        return links.size();
+    }
+    
+    private Link link(String peer) {
+        Link link = links.get(peer);
+        if (link == null) {
+            link = new Link();
+            links.put(peer, link);
+        }
+        return link;
+    }
+}
@@ -0,0 +1,167 @@
+package com.meshnetwork.mesh.routing;
+
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.dedup.SeenMessageCache;
+
+import java.util.Arrays;
+
+/**
+ * Applies a {@link RoutingStrategy} to received frames and tracks relays
+ * that are waiting for their delay to pass.
+ *
+ * The caller deduplicates frames first, reports the first copy through
+ * {@link #onFirstCopy} and later copies through {@link #onDuplicate}. For a
+ * positive delay it schedules a timer and asks {@link #onRelayDue} whether
+ * to send when the timer fires.
+ *
+ * Waiting relays live in an open-addressing table of primitive keys, so
+ * neither new frames nor duplicates allocate on the receive path.
+ */
+public class RoutingEngine {
+    
+    /** Relays waiting at once; beyond this new frames are relayed immediately */
+    public static final int MAX_PENDING = 256;
+    
+    // Load factor of at most 0.5 at MAX_PENDING
+    private static final int TABLE_SIZE = MAX_PENDING * 2;
+    private static final int MASK = TABLE_SIZE - 1;
+    
+    private final RoutingStrategy strategy;
+    private final long[] pendingKeys = new long[TABLE_SIZE];
+    private final int[] copiesHeard = new int[TABLE_SIZE];
+    private final boolean[] used = new boolean[TABLE_SIZE];
+    private int pendingCount;
+    
+    private long relayedCount;
+    private long droppedCount;
+    private long suppressedCount;
+    
+    public RoutingEngine(RoutingStrategy strategy) {
+        this.strategy = strategy;
+    }
+    
+    /**
+     * Decide what to do with a frame heard for the first time.
+     * Returns the relay delay in milliseconds (0 means relay now) or
+     * {@link RoutingStrategy#DROP}.
+     */
+    public synchronized long onFirstCopy(MeshFrame frame, String fromPeer) {
+        if (frame.ttl <= 1) {
+            droppedCount++;
+            return RoutingStrategy.DROP;
+        }
+        
+        long delay = strategy.relayDelay(frame, fromPeer);
+        if (delay == RoutingStrategy.DROP) {
+            droppedCount++;
+            return delay;
+        }
+        if (delay == 0 || pendingCount >= MAX_PENDING) {
+            relayedCount++;
+            return 0;
+        }
+        long key = SeenMessageCache.key(frame.originId, frame.sequence);
+        int slot = find(key);
+        if (slot < 0) {
+            slot = mix(key) & MASK;
+            while (used[slot]) {
+                slot = (slot + 1) & MASK;
+            }
+            used[slot] = true;
+            pendingKeys[slot] = key;
+            pendingCount++;
+        }
+        copiesHeard[slot] = 0;
+        return delay;
+    }
+    
+    /**
+     * Another copy of a frame already seen was received
+     */
+    public synchronized void onDuplicate(int originId, int sequence) {
+        int slot = find(SeenMessageCache.key(originId, sequence));
+        if (slot >= 0) {
+            copiesHeard[slot]++;
+        }
+    }
+    
+    /**
+     * A delayed relay is due; returns whether to send it
+     */
+    public synchronized boolean onRelayDue(int originId, int sequence) {
+        int slot = find(SeenMessageCache.key(originId, sequence));
+        if (slot < 0) return false;
+        
+        int copies = copiesHeard[slot];
+        remove(slot);
+        if (strategy.shouldStillRelay(copies)) {
+            relayedCount++;
+            return true;
+        }
+        suppressedCount++;
+        return false;
+    }
+    
+    /**
+     * Forget every waiting relay, for when their timers were cancelled
+     */
+    public synchronized void clear() {
+        Arrays.fill(used, false);
+        pendingCount = 0;
+    }
+    
+    public RoutingStrategy getStrategy() {
+        return strategy;
+    }
+    
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+    
+    public synchronized long getRelayedCount() {
+        return relayedCount;
+    }
+    
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+    
+    public synchronized long getSuppressedCount() {
+        return suppressedCount;
+    }
+    
+    private int find(long key) {
+        int slot = mix(key) & MASK;
+        while (used[slot]) {
+            if (pendingKeys[slot] == key) return slot;
+            slot = (slot + 1) & MASK;
+        }
+        return -1;
+    }
+    
+    /**
+     * Empty a slot and shift later entries of its probe chain back into
+     * the gap, so lookups never need tombstones
+     */
+    private void remove(int slot) {
+        int gap = slot;
+        int next = (gap + 1) & MASK;
+        while (used[next]) {
+            int home = mix(pendingKeys[next]) & MASK;
+            // Move the entry unless its home lies cyclically in (gap, next]
+            if (((next - home) & MASK) >= ((next - gap) & MASK)) {
+                pendingKeys[gap] = pendingKeys[next];
+                copiesHeard[gap] = copiesHeard[next];
+                gap = next;
+            }
+            next = (next + 1) & MASK;
+        }
+        used[gap] = false;
+        pendingCount--;
+    }
+    
+    private static int mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+}
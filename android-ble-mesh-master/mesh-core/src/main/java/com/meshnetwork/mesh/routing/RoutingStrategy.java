@@ -0,0 +1,31 @@
+package com.meshnetwork.mesh.routing;
+
+import com.meshnetwork.mesh.codec.MeshFrame;
+
+/**
+ * Forwarding policy for frames heard for the first time.
+ *
+ * A strategy answers two questions: how long to wait before relaying a new
+ * frame (or not to relay it at all), and whether a relay still waiting
+ * should go ahead after more copies of the same frame were overheard.
+ * Duplicate suppression and the TTL check happen in {@link RoutingEngine}.
+ */
+public interface RoutingStrategy {
+    
+    long DROP = -1;
+    
+    /**
+     * Delay in milliseconds before relaying, 0 to relay at once, or
+     * {@link #DROP} to not relay
+     * @param fromPeer link-level address the frame arrived from
+     */
+    long relayDelay(MeshFrame frame, String fromPeer);
+    
+    /**
+     * Whether a delayed relay should still be sent once it is due
+     * @param copiesHeard duplicates received while it was waiting
+     */
+    boolean shouldStillRelay(int copiesHeard);
+    
+    String getName();
+}
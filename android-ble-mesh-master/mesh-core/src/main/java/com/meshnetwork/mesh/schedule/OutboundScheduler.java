@@ -0,0 +1,353 @@
+package com.meshnetwork.mesh.schedule;
+
+import java.util.ArrayDeque;
+
+/**
+ * Multi-level outbound queue that drains by priority
+ * (SOS > ALERT > LOCATION > CHAT).
+ *
+ * Each class has a token bucket rate limit and a maximum wait. The next
+ * packet is picked in three passes:
+ * <ol>
+ * <li>the highest class whose head has waited longer than its maximum wait
+ *     and that still has tokens (aging, so low priority is never starved);</li>
+ * <li>the highest class that has tokens;</li>
+ * <li>the highest class with anything queued.</li>
+ * </ol>
+ * The last pass keeps the scheduler work-conserving: rate limits only cap a
+ * class's share while other classes are waiting, so an otherwise idle link
+ * is never held back and no timer is needed to wake it up.
+ *
+ * Packets offered with a coalescing key replace a waiting packet with the
+ * same key in place, keeping its position, so only the newest location
+ * update per user is ever sent.
+ *
+ * Each class may fill only its own share of the queue, so a flood of one
+ * class cannot lock the others out. When the whole queue is full, a new
+ * packet displaces the newest packets of the lowest classes below it. If
+ * that cannot make room, the new one is dropped.
+ *
+ * Fragments of one frame are queued and displaced as a group, so a frame is
+ * either sent whole or not at all, and a frame whose first fragment has
+ * gone out is never displaced. Groups count against the class share and
+ * capacity like single packets; only an empty queue takes a group larger
+ * than those, so frames with more fragments than the queue holds still go out.
+ *
+ * Not thread-safe; {@link com.meshnetwork.mesh.transport.PeerWriteQueue}
+ * guards it.
+ */
+public class OutboundScheduler {
+    
+    private static final double UNLIMITED = Double.POSITIVE_INFINITY;
+    
+    /** Coalescing key meaning "never coalesce" */
+    public static final long NO_KEY = 0;
+    
+    private static class Entry {
+        byte[] data;
+        final long key;
+        final long enqueuedAt;
+        // Position in its group of fragments; single packets are index 0 of 1
+        final int index;
+        final int groupSize;
+        
+        Entry(byte[] data, long key, long enqueuedAt, int index, int groupSize) {
+            this.data = data;
+            this.key = key;
+            this.enqueuedAt = enqueuedAt;
+            this.index = index;
+            this.groupSize = groupSize;
+        }
+    }
+    
+    private static class TrafficClass {
+        final ArrayDeque<Entry> queue = new ArrayDeque<>();
+        double ratePerMilli = UNLIMITED;
+        double burst;
+        double tokens;
+        long lastRefill = -1;
+        long maxWaitMillis = Long.MAX_VALUE;
+        int queueLimit;
+        
+        long sentCount;
+        long droppedCount;
+        long coalescedCount;
+        
+        void refill(long nowMillis) {
+            if (ratePerMilli == UNLIMITED) return;
+            if (lastRefill >= 0 && nowMillis > lastRefill) {
+                tokens = Math.min(burst, tokens + (nowMillis - lastRefill) * ratePerMilli);
+            }
+            lastRefill = nowMillis;
+        }
+        
+        /** Packets that may be displaced: all but the rest of a frame already started */
+        int evictable() {
+            Entry head = queue.peek();
+            if (head == null) return 0;
+            return head.index > 0 ? queue.size() - (head.groupSize - head.index) : queue.size();
+        }
+        
+        boolean hasToken() {
+            return ratePerMilli == UNLIMITED || tokens >= 1;
+        }
+        
+        void consume() {
+            if (ratePerMilli != UNLIMITED) {
+                tokens = Math.max(0, tokens - 1);
+            }
+        }
+    }
+    
+    private final TrafficClass[] classes = new TrafficClass[Priority.COUNT];
+    private final int capacity;
+    private int size;
+    private int bytes;
+    
+    public OutboundScheduler(int capacity) {
+        this.capacity = capacity;
+        for (int i = 0; i < Priority.COUNT; i++) {
+            classes[i] = new TrafficClass();
+            classes[i].queueLimit = capacity;
+        }
+        // SOS is never rate limited and never waits behind anything
+        setRateLimit(Priority.ALERT, 50, 20);
+        setRateLimit(Priority.LOCATION, 20, 10);
+        setRateLimit(Priority.CHAT, 10, 10);
+        setMaxWait(Priority.ALERT, 1000);
+        setMaxWait(Priority.LOCATION, 2000);
+        setMaxWait(Priority.CHAT, 5000);
+        setQueueLimit(Priority.LOCATION, Math.max(1, capacity / 2));
+        setQueueLimit(Priority.CHAT, Math.max(1, capacity / 2));
+    }
+    
+    /**
+     * Limit a class to {@code packetsPerSecond} while other classes wait,
+     * allowing bursts of up to {@code burst} packets
+     */
+    public void setRateLimit(int priority, double packetsPerSecond, int burst) {
+        TrafficClass c = classes[priority];
+        c.ratePerMilli = packetsPerSecond > 0 ? packetsPerSecond / 1000.0 : UNLIMITED;
+        c.burst = burst;
+        c.tokens = burst;
+        c.lastRefill = -1;
+    }
+    
+    /**
+     * Age a class's head packet ahead of higher classes after this long
+     */
+    public void setMaxWait(int priority, long maxWaitMillis) {
+        classes[priority].maxWaitMillis = maxWaitMillis;
+    }
+    
+    /**
+     * Cap how many packets of one class may wait at once
+     */
+    public void setQueueLimit(int priority, int limit) {
+        classes[priority].queueLimit = limit;
+    }
+    
+    /**
+     * Queue a packet; returns false if it was dropped
+     */
+    public boolean offer(byte[] data, int priority, long nowMillis) {
+        return offer(data, priority, NO_KEY, nowMillis);
+    }
+    
+    /**
+     * Queue a packet, replacing a waiting packet of the same class with the
+     * same key if there is one. Returns false if it was dropped.
+     */
+    public boolean offer(byte[] data, int priority, long key, long nowMillis) {
+        if (key != NO_KEY) {
+            for (Entry entry : classes[priority].queue) {
+                if (entry.key == key) {
+                    bytes += data.length - entry.data.length;
+                    entry.data = data;
+                    classes[priority].coalescedCount++;
+                    return true;
+                }
+            }
+        }
+        
+        if (classes[priority].queue.size() >= classes[priority].queueLimit
+                || (size >= capacity && !evictBelow(priority, 1))) {
+            classes[priority].droppedCount++;
+            return false;
+        }
+        classes[priority].queue.add(new Entry(data, key, nowMillis, 0, 1));
+        size++;
+        bytes += data.length;
+        return true;
+    }
+    
+    /**
+     * Queue packets that must stay together (fragments of one frame), all
+     * or none of them. Returns false if they were dropped.
+     */
+    public boolean offerAll(byte[][] packets, int priority, long nowMillis) {
+        TrafficClass c = classes[priority];
+        int count = packets.length;
+        // An empty queue always takes the group so oversized frames can still go out
+        if (size > 0 && (c.queue.size() + count > c.queueLimit
+                || (size + count > capacity && !evictBelow(priority, count)))) {
+            c.droppedCount += count;
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            c.queue.add(new Entry(packets[i], NO_KEY, nowMillis, i, count));
+            bytes += packets[i].length;
+        }
+        size += packets.length;
+        return true;
+    }
+    
+    /**
+     * Remove and return the next packet to send, or null if empty
+     */
+    public byte[] poll(long nowMillis) {
+        return poll(nowMillis, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Remove and return the next packet if it is at most {@code maxLength}
+     * bytes, e.g. to top up a batch. Returns null if the queue is empty or
+     * the next packet is larger; it then stays next, so nothing behind it
+     * jumps the order.
+     */
+    public byte[] poll(long nowMillis, int maxLength) {
+        TrafficClass c = next(nowMillis);
+        if (c == null || c.queue.peek().data.length > maxLength) return null;
+        return take(c);
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    /** Total length of the packets waiting */
+    public int getQueuedBytes() {
+        return bytes;
+    }
+    
+    /**
+     * When the packet that has waited longest was queued, or -1 if empty
+     */
+    public long getOldestEnqueuedAt() {
+        long oldest = -1;
+        for (TrafficClass c : classes) {
+            Entry head = c.queue.peek();
+            if (head != null && (oldest < 0 || head.enqueuedAt < oldest)) {
+                oldest = head.enqueuedAt;
+            }
+        }
+        return oldest;
+    }
+    
+    public int size(int priority) {
+        return classes[priority].queue.size();
+    }
+    
+    public long getSentCount(int priority) {
+        return classes[priority].sentCount;
+    }
+    
+    public long getDroppedCount(int priority) {
+        return classes[priority].droppedCount;
+    }
+    
+    public long getCoalescedCount(int priority) {
+        return classes[priority].coalescedCount;
+    }
+    
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (TrafficClass c : classes) {
+            dropped += c.droppedCount;
+        }
+        return dropped;
+    }
+    
+    /**
+     * Drop everything queued; returns the number of packets dropped
+     */
+    public int clear() {
+        int dropped = size;
+        for (TrafficClass c : classes) {
+            c.droppedCount += c.queue.size();
+            c.queue.clear();
+        }
+        size = 0;
+        bytes = 0;
+        return dropped;
+    }
+    
+    /**
+     * The class to send from next, or null if empty
+     */
+    private TrafficClass next(long nowMillis) {
+        if (size == 0) return null;
+        
+        for (TrafficClass c : classes) {
+            c.refill(nowMillis);
+        }
+        
+        // Aged heads first, highest class wins among them
+        for (TrafficClass c : classes) {
+            Entry head = c.queue.peek();
+            if (head != null && c.hasToken() && nowMillis - head.enqueuedAt > c.maxWaitMillis) {
+                return c;
+            }
+        }
+        for (TrafficClass c : classes) {
+            if (!c.queue.isEmpty() && c.hasToken()) {
+                return c;
+            }
+        }
+        for (TrafficClass c : classes) {
+            if (!c.queue.isEmpty()) {
+                return c;
+            }
+        }
+        return null;
+    }
+    
+    private byte[] take(TrafficClass c) {
+        Entry entry = c.queue.poll();
+        c.consume();
+        c.sentCount++;
+        size--;
+        bytes -= entry.data.length;
+        return entry.data;
+    }
+    
+    /**
+     * Displace whole groups from the back of the classes below
+     * {@code priority}, lowest first, until {@code needed} packets fit.
+     * Displaces nothing if they cannot be made to fit.
+     */
+    private boolean evictBelow(int priority, int needed) {
+        int room = capacity - size;
+        for (int p = Priority.COUNT - 1; p > priority && room < needed; p--) {
+            room += classes[p].evictable();
+        }
+        if (room < needed) return false;
+        
+        for (int p = Priority.COUNT - 1; p > priority && capacity - size < needed; p--) {
+            TrafficClass c = classes[p];
+            while (capacity - size < needed && c.evictable() > 0) {
+                // The last group is whole whenever anything is evictable
+                for (int n = c.queue.peekLast().index + 1; n > 0; n--) {
+                    bytes -= c.queue.pollLast().data.length;
+                    c.droppedCount++;
+                    size--;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,50 @@
+package com.meshnetwork.mesh.schedule;
+
+import com.meshnetwork.mesh.codec.FrameType;
+
+/**
+ * Outbound priority classes, highest first
+ */
+public final class Priority {
+    
+    public static final int SOS = 0;
+    public static final int ALERT = 1;
+    public static final int LOCATION = 2;
+    public static final int CHAT = 3;
+    
+    public static final int COUNT = 4;
+    
+    private Priority() {
+    }
+    
+    public static int of(int frameType) {
+        switch (frameType) {
+            case FrameType.SOS:
+            case FrameType.ACK:
+            case FrameType.RECEIPT:
+                // Acknowledgements close the loop on emergencies and time retransmissions
+                return SOS;
+            case FrameType.ALERT:
+            case FrameType.GEO_ALERT:
+                return ALERT;
+            case FrameType.LOCATION:
+            case FrameType.LOCATION_DELTA:
+                return LOCATION;
+            default:
+                return CHAT;
+        }
+    }
+    
+    public static String name(int priority) {
+        switch (priority) {
+            case SOS:
+                return "SOS";
+            case ALERT:
+                return "ALERT";
+            case LOCATION:
+                return "LOCATION";
+            default:
+                return "CHAT";
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.meshnetwork.mesh.schedule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded send queue drained in batches on a shared executor.
+ *
+ * Producers never start threads: {@link #offer} appends to a fixed-size
+ * queue and, if no drain is pending, submits one to the executor. The
+ * drain hands the sink up to {@code maxBatch} items at a time until the
+ * queue is empty, so a burst of sends costs a few batches on the
+ * executor's threads instead of a thread per message. Several pipelines
+ * can share one small executor; each has at most one task in it.
+ *
+ * What happens when the queue is full is explicit:
+ * <ul>
+ * <li>{@link #POLICY_REJECT}: the new item is refused, {@code offer}
+ *     returns false and the caller decides;</li>
+ * <li>{@link #POLICY_DROP_OLDEST}: the oldest waiting item is dropped to
+ *     make room, for streams where only recent items matter;</li>
+ * <li>{@link #POLICY_BLOCK}: the caller waits up to a timeout for room,
+ *     pushing back on the producer, then is refused.</li>
+ * </ul>
+ */
+public class SendPipeline<T> {
+    
+    public interface Sink<T> {
+        /** Send one batch; runs on an executor thread, one batch at a time per pipeline */
+        void send(List<T> batch);
+    }
+    
+    public static final int POLICY_REJECT = 0;
+    public static final int POLICY_DROP_OLDEST = 1;
+    public static final int POLICY_BLOCK = 2;
+    
+    private final ArrayBlockingQueue<T> queue;
+    private final Executor executor;
+    private final Sink<T> sink;
+    private final int maxBatch;
+    private final int policy;
+    private final long blockTimeoutMillis;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    
+    private final AtomicLong acceptedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+    
+    /**
+     * @param blockTimeoutMillis how long {@link #POLICY_BLOCK} waits for room; ignored otherwise
+     */
+    public SendPipeline(Executor executor, int capacity, int maxBatch, int policy, long blockTimeoutMillis, Sink<T> sink) {
+        if (maxBatch <= 0 || policy < POLICY_REJECT || policy > POLICY_BLOCK) {
+            throw new IllegalArgumentException("maxBatch " + maxBatch + " / policy " + policy);
+        }
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.executor = executor;
+        this.maxBatch = maxBatch;
+        this.policy = policy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.sink = sink;
+    }
+    
+    /**
+     * Queue an item; callable from any thread.
+     * Returns false if the item was refused under the pipeline's policy.
+     */
+    public boolean offer(T item) {
+        boolean accepted;
+        switch (policy) {
+            case POLICY_DROP_OLDEST:
+                while (!queue.offer(item)) {
+                    if (queue.poll() != null) {
+                        droppedCount.incrementAndGet();
+                    }
+                }
+                accepted = true;
+                break;
+            case POLICY_BLOCK:
+                try {
+                    accepted = queue.offer(item, blockTimeoutMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    accepted = false;
+                }
+                break;
+            default:
+                accepted = queue.offer(item);
+                break;
+        }
+        
+        if (!accepted) {
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+        acceptedCount.incrementAndGet();
+        scheduleDrain();
+        return true;
+    }
+    
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            executor.execute(drain);
+        }
+    }
+    
+    private final Runnable drain = this::drainQueue;
+    
+    private void drainQueue() {
+        List<T> batch = new ArrayList<>(maxBatch);
+        while (true) {
+            batch.clear();
+            queue.drainTo(batch, maxBatch);
+            if (batch.isEmpty()) {
+                drainScheduled.set(false);
+                // An offer may have slipped in after drainTo but before the flag was cleared
+                if (queue.isEmpty() || !drainScheduled.compareAndSet(false, true)) return;
+                continue;
+            }
+            
+            try {
+                sink.send(batch);
+            } catch (RuntimeException e) {
+                // A failing sink must not leave the pipeline stuck with the flag set
+                drainScheduled.set(false);
+                if (!queue.isEmpty()) {
+                    scheduleDrain();
+                }
+                throw e;
+            }
+            batchCount.incrementAndGet();
+            sentCount.addAndGet(batch.size());
+        }
+    }
+    
+    public int size() {
+        return queue.size();
+    }
+    
+    public long getAcceptedCount() {
+        return acceptedCount.get();
+    }
+    
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+    
+    /** Items dropped to make room under {@link #POLICY_DROP_OLDEST} */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+    
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+    
+    public long getSentCount() {
+        return sentCount.get();
+    }
+}
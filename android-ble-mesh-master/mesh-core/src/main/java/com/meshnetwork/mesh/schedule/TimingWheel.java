@@ -0,0 +1,257 @@
+package com.meshnetwork.mesh.schedule;
+
+import com.meshnetwork.mesh.MeshClock;
+
+/**
+ * Hashed timing wheel for many short timers on one thread.
+ *
+ * Time is cut into ticks of {@code tickMillis}; a timer lives in the slot
+ * of the tick it is due in, modulo the number of slots, in an intrusive
+ * doubly linked list. Scheduling and cancelling are O(1) and allocate
+ * nothing when a {@link Timeout} is reused. {@link #advance} visits the
+ * slots of the ticks that passed and fires the timers that are due; timers
+ * more than one turn of the wheel away stay in their slot until their turn.
+ * A timer fires at most one tick late.
+ *
+ * The wheel does not own a thread. It asks its {@link Waker} to call
+ * {@link #advance} again when the earliest occupied slot comes up, so an
+ * empty wheel costs no wakeups. Not thread-safe; schedule, cancel and
+ * advance from the thread the waker runs on.
+ */
+public class TimingWheel {
+    
+    /** The owner's event loop: call {@link #advance} after the delay */
+    public interface Waker {
+        void wakeAfter(long delayMillis);
+    }
+    
+    // Timeout.slot when not in a slot: idle, or detached by advance() and about to fire
+    private static final int IDLE = -1;
+    private static final int DUE = -2;
+    
+    /** A task and its place on the wheel; reusable once fired or cancelled */
+    public static final class Timeout {
+        private final Runnable task;
+        long deadline;
+        Timeout prev;
+        Timeout next;
+        // Chain of timers detached by one advance()
+        Timeout nextDue;
+        // Slot index, or IDLE or DUE; doubles as the pending flag to keep the object small
+        int slot = IDLE;
+        
+        public Timeout(Runnable task) {
+            this.task = task;
+        }
+        
+        public boolean isPending() {
+            return slot != IDLE;
+        }
+        
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+    
+    private final MeshClock clock;
+    private final long tickMillis;
+    private final Timeout[] slots;
+    private final int mask;
+    private final Waker waker;
+    
+    // Last tick whose slot was visited
+    private long tick;
+    
+    // When the waker is due to call back, or Long.MAX_VALUE if it is not
+    private long wakeAt = Long.MAX_VALUE;
+    
+    private int size;
+    private long firedCount;
+    
+    /**
+     * @param slotCount power of two; one turn of the wheel is {@code slotCount * tickMillis}
+     */
+    public TimingWheel(MeshClock clock, long tickMillis, int slotCount, Waker waker) {
+        if (tickMillis <= 0 || slotCount <= 0 || (slotCount & (slotCount - 1)) != 0) {
+            throw new IllegalArgumentException("tick " + tickMillis + " ms, " + slotCount + " slots");
+        }
+        this.clock = clock;
+        this.tickMillis = tickMillis;
+        this.slots = new Timeout[slotCount];
+        this.mask = slotCount - 1;
+        this.waker = waker;
+        this.tick = clock.nowMillis() / tickMillis;
+    }
+    
+    /**
+     * Run {@code task} after {@code delayMillis}; returns the handle to cancel it
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task);
+        schedule(timeout, delayMillis);
+        return timeout;
+    }
+    
+    /**
+     * (Re)arm a timeout, moving it if it is already pending
+     */
+    public void schedule(Timeout timeout, long delayMillis) {
+        if (timeout.slot >= 0) {
+            unlink(timeout);
+        }
+        long now = clock.nowMillis();
+        timeout.deadline = now + Math.max(0, delayMillis);
+        
+        // Round up so the slot is never visited before the deadline; never behind the last visit
+        long due = Math.max((timeout.deadline + tickMillis - 1) / tickMillis, tick + 1);
+        int index = (int) (due & mask);
+        timeout.slot = index;
+        timeout.prev = null;
+        timeout.next = slots[index];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        slots[index] = timeout;
+        size++;
+        
+        long slotTime = due * tickMillis;
+        if (slotTime < wakeAt) {
+            wakeAt = slotTime;
+            waker.wakeAfter(slotTime - now);
+        }
+    }
+    
+    /**
+     * Returns false if the timeout was not pending
+     */
+    public boolean cancel(Timeout timeout) {
+        if (timeout == null || timeout.slot == IDLE) return false;
+        if (timeout.slot >= 0) {
+            unlink(timeout);
+        }
+        timeout.slot = IDLE;
+        return true;
+    }
+    
+    /**
+     * Fire every timer that is due; returns how many fired.
+     * Spurious calls are harmless.
+     */
+    public int advance() {
+        long now = clock.nowMillis();
+        long target = now / tickMillis;
+        wakeAt = Long.MAX_VALUE;
+        
+        // Detach everything due first, so tasks that reschedule land after this pass
+        Timeout due = null;
+        Timeout dueTail = null;
+        long from = Math.max(tick + 1, target - mask);
+        for (long t = from; t <= target; t++) {
+            // Slots are pushed at the head, so walk back from the tail to fire in scheduling order
+            Timeout timeout = slots[(int) (t & mask)];
+            while (timeout != null && timeout.next != null) {
+                timeout = timeout.next;
+            }
+            while (timeout != null) {
+                Timeout next = timeout.prev;
+                if (timeout.deadline <= now) {
+                    // Stays pending until it runs, so a task can still cancel it
+                    unlink(timeout);
+                    timeout.slot = DUE;
+                    if (dueTail == null) {
+                        due = timeout;
+                    } else {
+                        dueTail.nextDue = timeout;
+                    }
+                    dueTail = timeout;
+                }
+                timeout = next;
+            }
+        }
+        tick = Math.max(tick, target);
+        
+        int fired = 0;
+        while (due != null) {
+            Timeout next = due.nextDue;
+            due.nextDue = null;
+            // Skip timers cancelled or rescheduled by a task that ran before them
+            if (due.slot == DUE) {
+                due.slot = IDLE;
+                fired++;
+                firedCount++;
+                due.task.run();
+            }
+            due = next;
+        }
+        
+        requestWake(now);
+        return fired;
+    }
+    
+    /**
+     * Cancel every pending timer, as when the owner shuts down; returns how
+     * many were cancelled. Timers already detached by a running
+     * {@link #advance} still fire, so call it from outside one.
+     */
+    public int clear() {
+        int cleared = size;
+        for (int i = 0; i < slots.length; i++) {
+            Timeout timeout = slots[i];
+            slots[i] = null;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                timeout.prev = null;
+                timeout.next = null;
+                timeout.slot = IDLE;
+                timeout = next;
+            }
+        }
+        size = 0;
+        wakeAt = Long.MAX_VALUE;
+        return cleared;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public long getTickMillis() {
+        return tickMillis;
+    }
+    
+    public long getFiredCount() {
+        return firedCount;
+    }
+    
+    /**
+     * Ask to be woken for the next occupied slot, unless a task already asked for earlier
+     */
+    private void requestWake(long now) {
+        if (size == 0) return;
+        for (long t = tick + 1; t <= tick + slots.length; t++) {
+            if (slots[(int) (t & mask)] != null) {
+                long slotTime = t * tickMillis;
+                if (slotTime < wakeAt) {
+                    wakeAt = slotTime;
+                    waker.wakeAfter(Math.max(0, slotTime - now));
+                }
+                return;
+            }
+        }
+    }
+    
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.slot = IDLE;
+        size--;
+    }
+}
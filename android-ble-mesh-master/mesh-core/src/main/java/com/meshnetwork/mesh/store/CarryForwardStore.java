@@ -0,0 +1,493 @@
+package com.meshnetwork.mesh.store;
+
+import com.meshnetwork.mesh.dedup.SeenMessageCache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Durable store-carry-forward queue: frames are kept on disk until their
+ * expiry so they can be handed to neighbours met later.
+ *
+ * Frames are appended to segment files in a directory. Each record is
+ * self-describing and checksummed:
+ *
+ * <pre>
+ * length    int32   payload length
+ * crc       int32   CRC-32 of expiry, key and payload
+ * expiresAt int64   wall-clock expiry in milliseconds
+ * key       int64   (origin id &lt;&lt; 32) | sequence
+ * payload           encoded frame
+ * </pre>
+ *
+ * When a segment reaches its size limit it is sealed and a compact index
+ * (offset, length, expiry and key per record) is written next to it, so a
+ * restart reads the small index files and only scans the one open segment.
+ * A torn write at the end of the open segment is truncated away on open.
+ * A sealed segment whose index is missing or damaged is scanned instead and
+ * its index written again; indexes left without a segment are removed.
+ * Whole segments are deleted once all their frames expired, and the oldest
+ * segments are dropped early to stay within the disk budget.
+ */
+public class CarryForwardStore implements Closeable {
+    
+    public interface Visitor {
+        void visit(int originId, int sequence, byte[] frame);
+    }
+    
+    public static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 8;
+    
+    private static final String LOG_SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int INDEX_MAGIC = 0x4D534349;
+    private static final int INDEX_ENTRY_SIZE = 4 + 4 + 8 + 8;
+    
+    private static final class Segment {
+        final long id;
+        final File logFile;
+        final FileChannel channel;
+        long size;
+        int liveCount;
+        boolean sealed;
+        final List<Entry> entries = new ArrayList<>();
+        
+        Segment(long id, File logFile, FileChannel channel) {
+            this.id = id;
+            this.logFile = logFile;
+            this.channel = channel;
+        }
+    }
+    
+    private static final class Entry {
+        final long key;
+        final Segment segment;
+        final long offset;
+        final int length;
+        final long expiresAt;
+        // Cleared under the store lock, read without it by forEachLive
+        volatile boolean live = true;
+        
+        Entry(long key, Segment segment, long offset, int length, long expiresAt) {
+            this.key = key;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+    }
+    
+    private final File directory;
+    private final long diskBudgetBytes;
+    private final long segmentBytes;
+    
+    // Live entries in arrival order
+    private final LinkedHashMap<Long, Entry> index = new LinkedHashMap<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private long diskBytes;
+    private long droppedForBudget;
+    private boolean recoveredFromScan;
+    
+    /**
+     * Open or create a store. Expired frames are dropped as of {@code now}.
+     */
+    public CarryForwardStore(File directory, long diskBudgetBytes, long segmentBytes, long now) throws IOException {
+        if (segmentBytes <= RECORD_HEADER_SIZE || diskBudgetBytes < segmentBytes) {
+            throw new IllegalArgumentException("segment " + segmentBytes + " / budget " + diskBudgetBytes);
+        }
+        this.directory = directory;
+        this.diskBudgetBytes = diskBudgetBytes;
+        this.segmentBytes = segmentBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        load();
+        expire(now);
+    }
+    
+    /**
+     * Append a frame unless one with the same origin and sequence is stored.
+     * With {@code durable} the write is forced to storage before returning.
+     * Returns false for duplicates and frames too large for a segment.
+     */
+    public synchronized boolean add(int originId, int sequence, byte[] frame, long expiresAt, boolean durable) throws IOException {
+        long key = SeenMessageCache.key(originId, sequence);
+        int recordSize = RECORD_HEADER_SIZE + frame.length;
+        if (index.containsKey(key) || recordSize > segmentBytes) return false;
+        
+        Segment active = activeSegment();
+        if (active.size + recordSize > segmentBytes) {
+            seal(active);
+            active = newSegment(active.id + 1);
+        }
+        while (diskBytes + recordSize > diskBudgetBytes && segments.size() > 1) {
+            droppedForBudget += segments.get(0).liveCount;
+            deleteSegment(segments.get(0));
+        }
+        
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        record.putInt(frame.length);
+        record.putInt(checksum(expiresAt, key, frame, 0, frame.length));
+        record.putLong(expiresAt);
+        record.putLong(key);
+        record.put(frame);
+        record.flip();
+        
+        long offset = active.size;
+        while (record.hasRemaining()) {
+            active.channel.write(record, offset + record.position());
+        }
+        if (durable) {
+            active.channel.force(false);
+        }
+        active.size += recordSize;
+        diskBytes += recordSize;
+        addEntry(new Entry(key, active, offset, frame.length, expiresAt));
+        return true;
+    }
+    
+    public synchronized boolean contains(int originId, int sequence) {
+        return index.containsKey(SeenMessageCache.key(originId, sequence));
+    }
+    
+    /**
+     * Visit up to {@code max} unexpired frames, newest first. Returns the
+     * number visited.
+     */
+    public int forEachLive(long now, int max, Visitor visitor) throws IOException {
+        Entry[] entries;
+        synchronized (this) {
+            entries = index.values().toArray(new Entry[0]);
+        }
+        
+        int visited = 0;
+        for (int i = entries.length - 1; i >= 0 && visited < max; i--) {
+            Entry entry = entries[i];
+            if (entry.expiresAt <= now) continue;
+            byte[] frame = read(entry);
+            if (frame == null) continue;
+            visitor.visit((int) (entry.key >>> 32), (int) entry.key, frame);
+            visited++;
+        }
+        return visited;
+    }
+    
+    /**
+     * Keys ({@code (origin << 32) | sequence}) of all unexpired frames, in
+     * arrival order. Touches only the in-memory index.
+     */
+    public synchronized long[] keys(long now) {
+        long[] keys = new long[index.size()];
+        int count = 0;
+        for (Entry entry : index.values()) {
+            if (entry.expiresAt > now) {
+                keys[count++] = entry.key;
+            }
+        }
+        return count == keys.length ? keys : Arrays.copyOf(keys, count);
+    }
+    
+    /**
+     * Read one stored frame, or null if it was dropped meanwhile
+     */
+    public byte[] get(int originId, int sequence) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = index.get(SeenMessageCache.key(originId, sequence));
+        }
+        return entry == null ? null : read(entry);
+    }
+    
+    /**
+     * Drop expired frames and delete segments with nothing left in them.
+     * Returns the number of frames dropped.
+     */
+    public synchronized int expire(long now) throws IOException {
+        int expired = 0;
+        Iterator<Entry> it = index.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.expiresAt > now) continue;
+            it.remove();
+            entry.live = false;
+            entry.segment.liveCount--;
+            expired++;
+        }
+        
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment segment = segments.get(i);
+            if (segment.sealed && segment.liveCount == 0) {
+                deleteSegment(segment);
+            }
+        }
+        return expired;
+    }
+    
+    public synchronized int size() {
+        return index.size();
+    }
+    
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+    
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+    
+    public synchronized long getDroppedForBudgetCount() {
+        return droppedForBudget;
+    }
+    
+    /**
+     * Whether the last open had to scan a sealed segment because its index was missing or damaged
+     */
+    public synchronized boolean wasRecoveredFromScan() {
+        return recoveredFromScan;
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments) {
+            segment.channel.close();
+        }
+        segments.clear();
+        index.clear();
+    }
+    
+    private byte[] read(Entry entry) throws IOException {
+        if (!entry.live) return null;
+        ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+        long position = entry.offset + RECORD_HEADER_SIZE;
+        try {
+            while (buffer.hasRemaining()) {
+                if (entry.segment.channel.read(buffer, position + buffer.position()) < 0) return null;
+            }
+        } catch (ClosedChannelException e) {
+            // Segment deleted while we were reading it
+            return null;
+        }
+        return buffer.array();
+    }
+    
+    private void addEntry(Entry entry) {
+        index.put(entry.key, entry);
+        entry.segment.entries.add(entry);
+        entry.segment.liveCount++;
+    }
+    
+    private Segment activeSegment() throws IOException {
+        if (segments.isEmpty()) {
+            return newSegment(1);
+        }
+        return segments.get(segments.size() - 1);
+    }
+    
+    private Segment newSegment(long id) throws IOException {
+        File logFile = new File(directory, name(id) + LOG_SUFFIX);
+        Segment segment = new Segment(id, logFile, new RandomAccessFile(logFile, "rw").getChannel());
+        segment.size = segment.channel.size();
+        diskBytes += segment.size;
+        segments.add(segment);
+        return segment;
+    }
+    
+    /**
+     * Mark a full segment read-only and write its index, via a temporary
+     * file so a crash never leaves a half-written index behind
+     */
+    private void seal(Segment segment) throws IOException {
+        segment.channel.force(false);
+        segment.sealed = true;
+        
+        ByteBuffer buffer = ByteBuffer.allocate(8 + segment.entries.size() * INDEX_ENTRY_SIZE + 4);
+        buffer.putInt(INDEX_MAGIC);
+        buffer.putInt(segment.entries.size());
+        for (Entry entry : segment.entries) {
+            buffer.putInt((int) entry.offset);
+            buffer.putInt(entry.length);
+            buffer.putLong(entry.expiresAt);
+            buffer.putLong(entry.key);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        
+        File tmp = new File(directory, name(segment.id) + INDEX_SUFFIX + ".tmp");
+        try (FileChannel out = new RandomAccessFile(tmp, "rw").getChannel()) {
+            out.truncate(0);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(false);
+        }
+        if (!tmp.renameTo(new File(directory, name(segment.id) + INDEX_SUFFIX))) {
+            throw new IOException("Cannot write index for segment " + segment.id);
+        }
+    }
+    
+    private void deleteSegment(Segment segment) throws IOException {
+        for (Entry entry : segment.entries) {
+            if (entry.live) {
+                entry.live = false;
+                index.remove(entry.key);
+            }
+        }
+        segment.channel.close();
+        segments.remove(segment);
+        diskBytes -= segment.size;
+        
+        File indexFile = new File(directory, name(segment.id) + INDEX_SUFFIX);
+        if ((indexFile.exists() && !indexFile.delete()) || !segment.logFile.delete()) {
+            throw new IOException("Cannot delete segment " + segment.id);
+        }
+    }
+    
+    private void load() throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        
+        List<Long> ids = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(LOG_SUFFIX)) {
+                ids.add(Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length())));
+            } else if (name.endsWith(".tmp") && !file.delete()) {
+                throw new IOException("Cannot remove " + file);
+            }
+        }
+        for (File file : files) {
+            // An index whose segment is gone, e.g. after a crash while deleting it
+            String name = file.getName();
+            if (name.endsWith(INDEX_SUFFIX)
+                    && !new File(directory, name.substring(0, name.length() - INDEX_SUFFIX.length()) + LOG_SUFFIX).exists()
+                    && !file.delete()) {
+                throw new IOException("Cannot remove " + file);
+            }
+        }
+        long[] sorted = new long[ids.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = ids.get(i);
+        }
+        Arrays.sort(sorted);
+        
+        for (int i = 0; i < sorted.length; i++) {
+            Segment segment = newSegment(sorted[i]);
+            boolean last = i == sorted.length - 1;
+            if (last || !loadIndex(segment)) {
+                scan(segment);
+                if (!last) {
+                    recoveredFromScan = true;
+                    // So the next open reads the index rather than scanning again
+                    seal(segment);
+                }
+            }
+            segment.sealed = !last;
+        }
+    }
+    
+    /**
+     * Load a sealed segment's entries from its index file; false if the
+     * index is missing or damaged
+     */
+    private boolean loadIndex(Segment segment) throws IOException {
+        File indexFile = new File(directory, name(segment.id) + INDEX_SUFFIX);
+        if (!indexFile.exists()) return false;
+        
+        byte[] bytes;
+        try (FileChannel in = new RandomAccessFile(indexFile, "r").getChannel()) {
+            if (in.size() < 12 || in.size() > Integer.MAX_VALUE) return false;
+            ByteBuffer buffer = ByteBuffer.allocate((int) in.size());
+            while (buffer.hasRemaining()) {
+                if (in.read(buffer) < 0) return false;
+            }
+            bytes = buffer.array();
+        }
+        
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getInt() != INDEX_MAGIC) return false;
+        int count = buffer.getInt();
+        if (count < 0 || bytes.length != 8 + count * INDEX_ENTRY_SIZE + 4) return false;
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        if ((int) crc.getValue() != ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt()) return false;
+        
+        for (int i = 0; i < count; i++) {
+            int offset = buffer.getInt();
+            int length = buffer.getInt();
+            long expiresAt = buffer.getLong();
+            long key = buffer.getLong();
+            if (!index.containsKey(key)) {
+                addEntry(new Entry(key, segment, offset, length, expiresAt));
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Rebuild a segment's entries from its records, truncating the file at
+     * the first torn or corrupt record
+     */
+    private void scan(Segment segment) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        long offset = 0;
+        while (offset + RECORD_HEADER_SIZE <= segment.size) {
+            header.clear();
+            readFully(segment.channel, header, offset);
+            header.flip();
+            int length = header.getInt();
+            int crc = header.getInt();
+            long expiresAt = header.getLong();
+            long key = header.getLong();
+            if (length < 0 || offset + RECORD_HEADER_SIZE + length > segment.size) break;
+            
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(segment.channel, payload, offset + RECORD_HEADER_SIZE);
+            if (checksum(expiresAt, key, payload.array(), 0, length) != crc) break;
+            
+            if (!index.containsKey(key)) {
+                addEntry(new Entry(key, segment, offset, length, expiresAt));
+            }
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        
+        if (offset < segment.size) {
+            segment.channel.truncate(offset);
+            diskBytes -= segment.size - offset;
+            segment.size = offset;
+        }
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of segment");
+            }
+        }
+    }
+    
+    private static int checksum(long expiresAt, long key, byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer header = ByteBuffer.allocate(16);
+        header.putLong(expiresAt).putLong(key);
+        crc.update(header.array(), 0, 16);
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+    
+    private static String name(long id) {
+        return String.format(Locale.ROOT, "%012d", id);
+    }
+}
@@ -0,0 +1,297 @@
+package com.meshnetwork.mesh.sync;
+
+import com.meshnetwork.mesh.MeshClock;
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.transport.MeshTransport;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Anti-entropy exchange between two neighbours, so each one receives the
+ * stored frames it is missing and nothing else.
+ *
+ * When a link comes up the node sends an {@link InvertibleBloomFilter} of
+ * its stored keys in a SYNC frame. The neighbour subtracts a filter of its
+ * own keys and lists the difference: it requests the keys it lacks and
+ * pushes the frames the sender lacks, both as ordinary mesh frames. If the difference is too large to
+ * list, it asks for a filter twice the size, up to {@link #MAX_CELLS}; past
+ * that the sender falls back to pushing its newest frames. Bytes on the
+ * air are therefore proportional to the difference, not the store size.
+ * Filters larger than {@link #CELLS_PER_FRAME} are split over several
+ * frames and reassembled per peer.
+ *
+ * One decoded filter settles both directions, so when both ends start a
+ * round at the same contact only the node with the lower id answers; the
+ * other ignores the filter it receives within {@link #ROUND_INTERVAL_MS}
+ * of starting its own.
+ *
+ * A round starts over our own link to the neighbour. Every answer goes
+ * back through {@link MeshTransport#send}, which uses the link the peer
+ * opened to us when we hold none to it. So a node that only hears from the
+ * initiator can still request and push frames.
+ *
+ * <pre>
+ * FILTER   0x01  total cells varint, first cell varint, count varint, cells
+ * REQUEST  0x02  count varint, count x key int64
+ * RETRY    0x03  cells varint (0: give up, push newest frames)
+ * </pre>
+ */
+public class AntiEntropySync {
+    
+    /**
+     * Frames available for sync, keyed {@code (origin << 32) | sequence}
+     */
+    public interface FrameSource {
+        /** Keys in arrival order, oldest first */
+        long[] keys();
+        
+        /** Encoded frame, or null if it is gone */
+        byte[] frame(long key);
+    }
+    
+    public static final int MSG_FILTER = 1;
+    public static final int MSG_REQUEST = 2;
+    public static final int MSG_RETRY = 3;
+    
+    /** First filter size; lists differences of about 20 keys */
+    public static final int INITIAL_CELLS = 30;
+    
+    /** Largest filter; lists differences of about 4000 keys */
+    public static final int MAX_CELLS = 6144;
+    
+    /** Cells per FILTER frame, so each fits the fragmenter's limit at a 20-byte MTU */
+    public static final int CELLS_PER_FRAME = 160;
+    
+    /** Keys per REQUEST frame */
+    public static final int MAX_REQUEST_KEYS = 384;
+    
+    /** Frames pushed when the difference cannot be listed */
+    public static final int FALLBACK_FRAMES = 64;
+    
+    public static final long ROUND_INTERVAL_MS = 30_000;
+    
+    private final int nodeId;
+    private final FrameSource source;
+    private final MeshTransport transport;
+    private final MeshClock clock;
+    
+    private final Map<String, Long> lastRoundStarted = new HashMap<>();
+    
+    // Filters from each peer still missing some of their frames
+    private final Map<String, InvertibleBloomFilter> partialFilters = new HashMap<>();
+    private final Map<String, Integer> partialCells = new HashMap<>();
+    
+    private long controlBytesSent;
+    private long framesSent;
+    private long keysRequested;
+    private long retries;
+    private long fallbacks;
+    
+    public AntiEntropySync(int nodeId, FrameSource source, MeshTransport transport, MeshClock clock) {
+        this.nodeId = nodeId;
+        this.source = source;
+        this.transport = transport;
+        this.clock = clock;
+    }
+    
+    /**
+     * Start a round with a neighbour whose link just came up
+     */
+    public synchronized void onContact(String peer) {
+        lastRoundStarted.put(peer, clock.nowMillis());
+        sendFilter(peer, INITIAL_CELLS);
+    }
+    
+    public synchronized void onDisconnected(String peer) {
+        lastRoundStarted.remove(peer);
+        partialFilters.remove(peer);
+        partialCells.remove(peer);
+    }
+    
+    /**
+     * Handle a received SYNC frame
+     */
+    public synchronized void onSyncFrame(String peer, MeshFrame frame) {
+        if (frame.type != FrameType.SYNC || frame.getBodyLength() == 0) return;
+        
+        ByteBuffer in = ByteBuffer.wrap(frame.getBodyBytes(), 0, frame.getBodyLength());
+        switch (in.get()) {
+            case MSG_FILTER:
+                onFilter(peer, frame.originId, in);
+                break;
+            case MSG_REQUEST:
+                onRequest(peer, in);
+                break;
+            case MSG_RETRY:
+                onRetry(peer, in);
+                break;
+            default:
+                break;
+        }
+    }
+    
+    private void onFilter(String peer, int peerNodeId, ByteBuffer in) {
+        long total = FrameCodec.readVarint(in);
+        long from = FrameCodec.readVarint(in);
+        long count = FrameCodec.readVarint(in);
+        if (total <= 0 || total > MAX_CELLS || total % InvertibleBloomFilter.HASH_COUNT != 0
+                || from < 0 || count < 0) return;
+        
+        // Links deliver in order, so a filter starts at cell 0 and arrives contiguously
+        InvertibleBloomFilter remote = partialFilters.get(peer);
+        if (from == 0 || remote == null || remote.getCellCount() != total) {
+            remote = new InvertibleBloomFilter((int) total);
+            partialFilters.put(peer, remote);
+            partialCells.put(peer, 0);
+        }
+        if (from != partialCells.get(peer) || !remote.readCells(in, (int) from, (int) count)) {
+            partialFilters.remove(peer);
+            partialCells.remove(peer);
+            return;
+        }
+        if (from + count < total) {
+            partialCells.put(peer, (int) (from + count));
+            return;
+        }
+        partialFilters.remove(peer);
+        partialCells.remove(peer);
+        
+        Long started = lastRoundStarted.get(peer);
+        if (started != null && clock.nowMillis() - started < ROUND_INTERVAL_MS && nodeId > peerNodeId) {
+            // Our own round is open and the peer answers it for both directions
+            return;
+        }
+        
+        InvertibleBloomFilter local = build(remote.getCellCount());
+        local.subtract(remote);
+        InvertibleBloomFilter.KeyList onlyHere = new InvertibleBloomFilter.KeyList();
+        InvertibleBloomFilter.KeyList onlyThere = new InvertibleBloomFilter.KeyList();
+        boolean complete = local.decode(onlyHere, onlyThere);
+        
+        if (!complete && remote.getCellCount() < MAX_CELLS) {
+            retries++;
+            sendRetry(peer, Math.min(MAX_CELLS, remote.getCellCount() * 2));
+            return;
+        }
+        
+        request(peer, onlyThere);
+        for (int i = 0; i < onlyHere.size(); i++) {
+            sendFrame(peer, onlyHere.get(i));
+        }
+        if (!complete) {
+            // Exchange what could be listed and let the peer push its newest frames
+            sendRetry(peer, 0);
+        }
+    }
+    
+    private void onRequest(String peer, ByteBuffer in) {
+        long count = FrameCodec.readVarint(in);
+        if (count < 0 || count > in.remaining() / 8) return;
+        for (int i = 0; i < count; i++) {
+            sendFrame(peer, in.getLong());
+        }
+    }
+    
+    private void onRetry(String peer, ByteBuffer in) {
+        long cells = FrameCodec.readVarint(in);
+        if (cells < 0 || cells > MAX_CELLS) return;
+        if (cells > 0) {
+            sendFilter(peer, (int) cells);
+            return;
+        }
+        
+        fallbacks++;
+        long[] keys = source.keys();
+        for (int i = keys.length - 1; i >= 0 && i >= keys.length - FALLBACK_FRAMES; i--) {
+            sendFrame(peer, keys[i]);
+        }
+    }
+    
+    private InvertibleBloomFilter build(int cells) {
+        InvertibleBloomFilter filter = new InvertibleBloomFilter(cells);
+        for (long key : source.keys()) {
+            filter.add(key);
+        }
+        return filter;
+    }
+    
+    private void sendFilter(String peer, int cells) {
+        InvertibleBloomFilter filter = build(cells);
+        int total = filter.getCellCount();
+        for (int from = 0; from < total; from += CELLS_PER_FRAME) {
+            int count = Math.min(CELLS_PER_FRAME, total - from);
+            ByteBuffer out = ByteBuffer.allocate(1 + 3 * 5 + count * InvertibleBloomFilter.MAX_CELL_BYTES);
+            out.put((byte) MSG_FILTER);
+            FrameCodec.writeVarint(out, total);
+            FrameCodec.writeVarint(out, from);
+            FrameCodec.writeVarint(out, count);
+            filter.writeCells(out, from, count);
+            sendControl(peer, out);
+        }
+    }
+    
+    private void sendRetry(String peer, int cells) {
+        ByteBuffer out = ByteBuffer.allocate(1 + 5);
+        out.put((byte) MSG_RETRY);
+        FrameCodec.writeVarint(out, cells);
+        sendControl(peer, out);
+    }
+    
+    private void request(String peer, InvertibleBloomFilter.KeyList keys) {
+        for (int start = 0; start < keys.size(); start += MAX_REQUEST_KEYS) {
+            int count = Math.min(MAX_REQUEST_KEYS, keys.size() - start);
+            ByteBuffer out = ByteBuffer.allocate(1 + 5 + count * 8);
+            out.put((byte) MSG_REQUEST);
+            FrameCodec.writeVarint(out, count);
+            for (int i = 0; i < count; i++) {
+                out.putLong(keys.get(start + i));
+            }
+            sendControl(peer, out);
+            keysRequested += count;
+        }
+    }
+    
+    private void sendControl(String peer, ByteBuffer body) {
+        MeshFrame frame = new MeshFrame(FrameType.SYNC, nodeId, 0);
+        frame.ttl = 1;
+        frame.setBody(body.array(), 0, body.position());
+        byte[] data = FrameCodec.encode(frame);
+        if (transport.send(peer, data)) {
+            controlBytesSent += data.length;
+        }
+    }
+    
+    private void sendFrame(String peer, long key) {
+        byte[] data = source.frame(key);
+        if (data != null && transport.send(peer, data)) {
+            framesSent++;
+        }
+    }
+    
+    /**
+     * Bytes of SYNC frames sent, excluding the frames they transferred
+     */
+    public synchronized long getControlBytesSent() {
+        return controlBytesSent;
+    }
+    
+    public synchronized long getFramesSent() {
+        return framesSent;
+    }
+    
+    public synchronized long getKeysRequested() {
+        return keysRequested;
+    }
+    
+    public synchronized long getRetryCount() {
+        return retries;
+    }
+    
+    public synchronized long getFallbackCount() {
+        return fallbacks;
+    }
+}
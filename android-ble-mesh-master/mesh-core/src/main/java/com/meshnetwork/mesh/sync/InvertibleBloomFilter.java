@@ -0,0 +1,184 @@
+package com.meshnetwork.mesh.sync;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Invertible Bloom filter over 64-bit message keys.
+ *
+ * Two nodes each build a filter of the same size over their keys; after
+ * subtracting one from the other only the keys in the symmetric difference
+ * remain, and they can be listed as long as the difference is small
+ * compared with the number of cells (about cells / 1.5). The filter size
+ * therefore depends on how much the sets differ, not on how large they are.
+ *
+ * Cells are split into {@link #HASH_COUNT} partitions with one hash each, so
+ * a key never lands twice in the same cell.
+ */
+public class InvertibleBloomFilter {
+    
+    public static final int HASH_COUNT = 3;
+    
+    private static final long CHECK_SEED = 0x9E3779B97F4A7C15L;
+    
+    private final int cellsPerHash;
+    private final int[] counts;
+    private final long[] keySums;
+    private final int[] hashSums;
+    
+    /**
+     * @param cells total cells, rounded up to a multiple of {@link #HASH_COUNT}
+     */
+    public InvertibleBloomFilter(int cells) {
+        if (cells <= 0) {
+            throw new IllegalArgumentException("cells must be positive: " + cells);
+        }
+        this.cellsPerHash = (cells + HASH_COUNT - 1) / HASH_COUNT;
+        int total = cellsPerHash * HASH_COUNT;
+        this.counts = new int[total];
+        this.keySums = new long[total];
+        this.hashSums = new int[total];
+    }
+    
+    public int getCellCount() {
+        return counts.length;
+    }
+    
+    public void add(long key) {
+        update(key, 1);
+    }
+    
+    public void remove(long key) {
+        update(key, -1);
+    }
+    
+    /**
+     * Subtract another filter of the same size cell by cell
+     */
+    public void subtract(InvertibleBloomFilter other) {
+        if (other.counts.length != counts.length) {
+            throw new IllegalArgumentException("size mismatch: " + other.counts.length + " vs " + counts.length);
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] -= other.counts[i];
+            keySums[i] ^= other.keySums[i];
+            hashSums[i] ^= other.hashSums[i];
+        }
+    }
+    
+    /**
+     * List the keys left after {@link #subtract}: keys only this side had go
+     * to {@code onlyHere}, keys only the other side had to {@code onlyThere}.
+     * Destroys the filter. Returns false if the difference was too large to
+     * list completely; the keys found so far are still reported.
+     */
+    public boolean decode(KeyList onlyHere, KeyList onlyThere) {
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (int i = 0; i < counts.length; i++) {
+                int count = counts[i];
+                if ((count != 1 && count != -1) || hashSums[i] != checkHash(keySums[i])) continue;
+                
+                long key = keySums[i];
+                if (count == 1) {
+                    onlyHere.add(key);
+                } else {
+                    onlyThere.add(key);
+                }
+                update(key, -count);
+                progress = true;
+            }
+        }
+        
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0 || keySums[i] != 0 || hashSums[i] != 0) return false;
+        }
+        return true;
+    }
+    
+    /** Largest encoded size of one cell: count varint, key sum, hash sum */
+    public static final int MAX_CELL_BYTES = 5 + 8 + 4;
+    
+    /**
+     * Write {@code count} cells starting at {@code from}, so a large filter
+     * can be split across several frames
+     */
+    public void writeCells(ByteBuffer out, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            FrameCodec.writeVarint(out, FrameCodec.zigzag(counts[i]));
+            out.putLong(keySums[i]);
+            out.putInt(hashSums[i]);
+        }
+    }
+    
+    /**
+     * Read cells written by {@link #writeCells}. Returns false if the range
+     * is out of bounds or the bytes are truncated.
+     */
+    public boolean readCells(ByteBuffer in, int from, int count) {
+        if (from < 0 || count < 0 || from + count > counts.length) return false;
+        for (int i = from; i < from + count; i++) {
+            long value = FrameCodec.readVarint(in);
+            if (value < 0 || in.remaining() < 12) return false;
+            counts[i] = FrameCodec.unzigzag((int) value);
+            keySums[i] = in.getLong();
+            hashSums[i] = in.getInt();
+        }
+        return true;
+    }
+    
+    private void update(long key, int delta) {
+        int check = checkHash(key);
+        for (int h = 0; h < HASH_COUNT; h++) {
+            int cell = h * cellsPerHash + (int) ((mix(key + h * CHECK_SEED) >>> 1) % cellsPerHash);
+            counts[cell] += delta;
+            keySums[cell] ^= key;
+            hashSums[cell] ^= check;
+        }
+    }
+    
+    private static int checkHash(long key) {
+        return (int) mix(key ^ CHECK_SEED);
+    }
+    
+    // MurmurHash3 64-bit finalizer
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+    
+    /**
+     * Growable list of primitive keys
+     */
+    public static final class KeyList {
+        private long[] keys = new long[16];
+        private int size;
+        
+        public void add(long key) {
+            if (size == keys.length) {
+                long[] grown = new long[size * 2];
+                System.arraycopy(keys, 0, grown, 0, size);
+                keys = grown;
+            }
+            keys[size++] = key;
+        }
+        
+        public long get(int index) {
+            return keys[index];
+        }
+        
+        public int size() {
+            return size;
+        }
+        
+        public void clear() {
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.meshnetwork.mesh.transport;
+
+import com.meshnetwork.mesh.MeshClock;
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.fragment.FrameBatch;
+import com.meshnetwork.mesh.fragment.Fragmenter;
+import com.meshnetwork.mesh.fragment.Reassembler;
+import com.meshnetwork.mesh.routing.LinkQualityTable;
+import com.meshnetwork.mesh.schedule.OutboundScheduler;
+import com.meshnetwork.mesh.schedule.Priority;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared bookkeeping for transports: one {@link PeerWriteQueue} per open
+ * link, fan-out of broadcasts, fragmentation of frames larger than a
+ * link's write size with reassembly on the way in, and unpacking of
+ * {@link FrameBatch batched} writes. Subclasses open links,
+ * create the per-link writer and report link events back through the
+ * {@code onLink*} methods.
+ *
+ * Links are one-way: we write over the ones we opened. A link a peer
+ * opened to us gets a reply queue of its own, reported through the
+ * {@code onInboundLink*} methods, which {@link #send} falls back on so
+ * ACKs and other answers reach peers we hold no link to. Broadcasts and
+ * the connected peers count leave reply queues out.
+ */
+public abstract class AbstractMeshTransport implements MeshTransport {
+    
+    /** Packets queued per peer before new ones are dropped */
+    public static final int DEFAULT_QUEUE_CAPACITY = 128;
+    
+    /** Partial messages reassembled at once, and the largest frame accepted */
+    public static final int REASSEMBLY_SLOTS = 16;
+    public static final int MAX_FRAME_SIZE = 4096;
+    public static final long REASSEMBLY_TIMEOUT_MS = 10_000;
+    
+    private final Map<String, PeerWriteQueue> queues = new ConcurrentHashMap<>();
+    private final Map<String, PeerWriteQueue> replyQueues = new ConcurrentHashMap<>();
+    private final int queueCapacity;
+    private final MeshClock clock;
+    private final Reassembler reassembler = new Reassembler(REASSEMBLY_SLOTS, MAX_FRAME_SIZE, REASSEMBLY_TIMEOUT_MS);
+    private final AtomicInteger nextMessageId = new AtomicInteger();
+    private volatile Listener listener;
+    private volatile LinkQualityTable linkQuality;
+    private volatile long batchLingerMillis = PeerWriteQueue.NO_BATCHING;
+    private volatile PeerWriteQueue.Scheduler batchScheduler;
+    private final AtomicInteger malformedBatchCount = new AtomicInteger();
+    
+    protected AbstractMeshTransport(int queueCapacity) {
+        this(queueCapacity, MeshClock.SYSTEM);
+    }
+    
+    protected AbstractMeshTransport(int queueCapacity, MeshClock clock) {
+        this.queueCapacity = queueCapacity;
+        this.clock = clock;
+    }
+    
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+    }
+    
+    @Override
+    public void stop() {
+        for (PeerWriteQueue queue : queues.values()) {
+            queue.clear();
+        }
+        queues.clear();
+        for (PeerWriteQueue queue : replyQueues.values()) {
+            queue.clear();
+        }
+        replyQueues.clear();
+        listener = null;
+    }
+    
+    @Override
+    public boolean send(String peerAddress, byte[] frame) {
+        PeerWriteQueue queue = queues.get(peerAddress);
+        if (queue == null) {
+            queue = replyQueues.get(peerAddress);
+        }
+        return queue != null && enqueue(queue, frame);
+    }
+    
+    @Override
+    public int broadcast(byte[] frame, String exceptPeer) {
+        int queued = 0;
+        for (PeerWriteQueue queue : queues.values()) {
+            if (queue.getPeerAddress().equals(exceptPeer)) continue;
+            if (enqueue(queue, frame)) {
+                queued++;
+            }
+        }
+        return queued;
+    }
+    
+    /**
+     * Queue a frame whole if it fits one write on this link, otherwise as fragments
+     */
+    private boolean enqueue(PeerWriteQueue queue, byte[] frame) {
+        int type = FrameCodec.peekType(frame);
+        int priority = Priority.of(type);
+        int writeSize = queue.getWriteSize();
+        if (!Fragmenter.needsFragmenting(frame, writeSize)) {
+            return queue.enqueue(frame, priority, coalesceKey(type, frame));
+        }
+        if (frame.length > MAX_FRAME_SIZE || Fragmenter.fragmentCount(frame.length, writeSize) < 0) {
+            return false;
+        }
+        int messageId = nextMessageId.getAndIncrement() & 0xFFFF;
+        return queue.enqueueAll(Fragmenter.split(frame, writeSize, messageId), priority);
+    }
+    
+    /**
+     * Location updates from the same origin coalesce: only the newest one
+     * waiting for a link is sent. Keyframes and deltas use separate keys so
+     * a delta never replaces the keyframe it depends on.
+     */
+    private static long coalesceKey(int type, byte[] frame) {
+        if (type != FrameType.LOCATION && type != FrameType.LOCATION_DELTA) {
+            return OutboundScheduler.NO_KEY;
+        }
+        return (1L << 40) | ((long) type << 32) | (FrameCodec.peekOrigin(frame) & 0xFFFFFFFFL);
+    }
+    
+    @Override
+    public int getConnectedPeerCount() {
+        return queues.size();
+    }
+    
+    public boolean isConnected(String peerAddress) {
+        return queues.containsKey(peerAddress);
+    }
+    
+    /**
+     * Whether {@link #send} can reach the peer, over either link
+     */
+    public boolean canReach(String peerAddress) {
+        return queues.containsKey(peerAddress) || replyQueues.containsKey(peerAddress);
+    }
+    
+    protected PeerWriteQueue getQueue(String peerAddress) {
+        return queues.get(peerAddress);
+    }
+    
+    protected PeerWriteQueue getReplyQueue(String peerAddress) {
+        return replyQueues.get(peerAddress);
+    }
+    
+    /**
+     * Feed write outcomes per peer into a link quality table
+     */
+    public void setLinkQuality(LinkQualityTable linkQuality) {
+        this.linkQuality = linkQuality;
+    }
+    
+    /**
+     * Pack small frames into shared writes on links opened from now on;
+     * see {@link PeerWriteQueue#setBatching}. Peers must understand
+     * {@link FrameType#BATCH}.
+     */
+    public void setBatching(long lingerMillis, PeerWriteQueue.Scheduler scheduler) {
+        this.batchScheduler = scheduler;
+        this.batchLingerMillis = lingerMillis;
+    }
+    
+    public Reassembler getReassembler() {
+        return reassembler;
+    }
+    
+    public int getMalformedBatchCount() {
+        return malformedBatchCount.get();
+    }
+    
+    protected long nowMillis() {
+        return clock.nowMillis();
+    }
+    
+    /**
+     * Create the writer that starts one packet write on the peer's link
+     */
+    protected abstract PeerWriteQueue.LinkWriter createWriter(String peerAddress);
+    
+    /**
+     * Create the writer that starts one packet back over the link the peer opened to us
+     */
+    protected abstract PeerWriteQueue.LinkWriter createReplyWriter(String peerAddress);
+    
+    /**
+     * The link to a peer is ready for writes of up to {@code writeSize} bytes
+     */
+    protected void onLinkUp(String peerAddress, int writeSize) {
+        PeerWriteQueue queue = new PeerWriteQueue(peerAddress, createWriter(peerAddress), queueCapacity, writeSize, clock);
+        queue.setBatching(batchLingerMillis, batchScheduler);
+        if (queues.putIfAbsent(peerAddress, queue) != null) return;
+        
+        Listener l = listener;
+        if (l != null) {
+            l.onPeerConnected(peerAddress);
+        }
+    }
+    
+    protected void onLinkDown(String peerAddress) {
+        PeerWriteQueue queue = queues.remove(peerAddress);
+        if (queue == null) return;
+        queue.clear();
+        reassembler.dropPeer(peerAddress);
+        
+        Listener l = listener;
+        if (l != null) {
+            l.onPeerDisconnected(peerAddress);
+        }
+    }
+    
+    /**
+     * A peer opened a link to us that can carry packets of up to
+     * {@code writeSize} bytes back. A second call only updates the size.
+     */
+    protected void onInboundLinkUp(String peerAddress, int writeSize) {
+        PeerWriteQueue queue = replyQueues.get(peerAddress);
+        if (queue != null) {
+            queue.setWriteSize(writeSize);
+            return;
+        }
+        queue = new PeerWriteQueue(peerAddress, createReplyWriter(peerAddress), queueCapacity, writeSize, clock);
+        queue.setBatching(batchLingerMillis, batchScheduler);
+        replyQueues.putIfAbsent(peerAddress, queue);
+    }
+    
+    protected void onInboundLinkDown(String peerAddress) {
+        PeerWriteQueue queue = replyQueues.remove(peerAddress);
+        if (queue != null) {
+            queue.clear();
+        }
+    }
+    
+    protected void onReplyComplete(String peerAddress, boolean success) {
+        PeerWriteQueue queue = replyQueues.get(peerAddress);
+        if (queue != null) {
+            queue.onWriteComplete(success);
+        }
+    }
+    
+    protected void onWriteComplete(String peerAddress, boolean success) {
+        LinkQualityTable links = linkQuality;
+        if (links != null) {
+            links.recordDelivery(peerAddress, success);
+        }
+        PeerWriteQueue queue = queues.get(peerAddress);
+        if (queue != null) {
+            queue.onWriteComplete(success);
+        }
+    }
+    
+    protected void onDataReceived(String peerAddress, byte[] data) {
+        if (FrameCodec.peekType(data) == FrameType.BATCH) {
+            List<byte[]> frames = FrameBatch.unpack(data);
+            if (frames == null) {
+                malformedBatchCount.incrementAndGet();
+                return;
+            }
+            for (byte[] frame : frames) {
+                deliver(peerAddress, frame);
+            }
+            return;
+        }
+        deliver(peerAddress, data);
+    }
+    
+    private void deliver(String peerAddress, byte[] data) {
+        if (FrameCodec.peekType(data) == FrameType.FRAGMENT) {
+            data = reassembler.accept(peerAddress, data, nowMillis());
+            if (data == null) return;
+        }
+        
+        Listener l = listener;
+        if (l != null) {
+            l.onFrameReceived(peerAddress, data);
+        }
+    }
+}
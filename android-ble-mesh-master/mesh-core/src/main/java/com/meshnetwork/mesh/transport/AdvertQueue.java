@@ -0,0 +1,168 @@
+package com.meshnetwork.mesh.transport;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.schedule.Priority;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frames waiting for the advertising bearer, which carries small frames in
+ * advertising service data so neighbours get them without a connection.
+ *
+ * An advertiser holds one payload at a time, so frames take turns on air:
+ * each is advertised for {@code holdMillis} (several advertising events, so
+ * scanners with a duty cycle still catch it) and then retired. The next
+ * frame is the highest priority one waiting, oldest first. A location
+ * update replaces a waiting update from the same origin.
+ *
+ * {@link #offer} refuses frames that are too large or find the queue full;
+ * the caller then sends them over connections instead, which is what makes
+ * the choice of bearer automatic.
+ *
+ * Not thread-safe; used from the mesh worker only.
+ */
+public class AdvertQueue {
+    
+    /**
+     * Legacy advertising PDU payload, minus the flags and the service data
+     * header (length, type, 16-bit UUID)
+     */
+    public static final int LEGACY_MAX_FRAME_SIZE = 31 - 3 - 4;
+    
+    private static final class Entry {
+        final byte[] frame;
+        final int priority;
+        final long key;
+        
+        Entry(byte[] frame, int priority, long key) {
+            this.frame = frame;
+            this.priority = priority;
+            this.key = key;
+        }
+    }
+    
+    private final int capacity;
+    private final long holdMillis;
+    private final int maxFrameSize;
+    private final List<Entry> waiting = new ArrayList<>();
+    
+    private Entry onAir;
+    private long onAirUntil;
+    
+    private long advertisedCount;
+    private long refusedCount;
+    private long replacedCount;
+    
+    /**
+     * @param maxFrameSize largest frame the advertiser can carry, e.g.
+     *        {@link #LEGACY_MAX_FRAME_SIZE} or {@link #maxFrameSize(int)}
+     */
+    public AdvertQueue(int capacity, long holdMillis, int maxFrameSize) {
+        this.capacity = capacity;
+        this.holdMillis = holdMillis;
+        this.maxFrameSize = maxFrameSize;
+    }
+    
+    /**
+     * Largest frame that fits advertising data of {@code advertisingDataLength}
+     * bytes, as reported by the controller for extended advertising
+     */
+    public static int maxFrameSize(int advertisingDataLength) {
+        return advertisingDataLength - 3 - 4;
+    }
+    
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+    
+    /**
+     * Queue an encoded frame for advertising.
+     * Returns false if it is too large or the queue is full.
+     */
+    public boolean offer(byte[] frame) {
+        int type = FrameCodec.peekType(frame);
+        if (frame.length > maxFrameSize || type < 0) {
+            refusedCount++;
+            return false;
+        }
+        
+        long key = locationKey(type, frame);
+        if (key != 0) {
+            for (int i = 0; i < waiting.size(); i++) {
+                if (waiting.get(i).key == key) {
+                    waiting.set(i, new Entry(frame, waiting.get(i).priority, key));
+                    replacedCount++;
+                    return true;
+                }
+            }
+        }
+        
+        if (waiting.size() >= capacity) {
+            refusedCount++;
+            return false;
+        }
+        waiting.add(new Entry(frame, Priority.of(type), key));
+        return true;
+    }
+    
+    /**
+     * The frame that should be on air at {@code nowMillis}, or null when
+     * there is nothing left to advertise. Retires the current frame once its
+     * hold is over.
+     */
+    public byte[] poll(long nowMillis) {
+        if (onAir != null && nowMillis < onAirUntil) {
+            return onAir.frame;
+        }
+        
+        onAir = null;
+        int next = -1;
+        for (int i = 0; i < waiting.size(); i++) {
+            // Strictly better only, so equal priorities keep arrival order
+            if (next < 0 || waiting.get(i).priority < waiting.get(next).priority) {
+                next = i;
+            }
+        }
+        if (next < 0) return null;
+        
+        onAir = waiting.remove(next);
+        onAirUntil = nowMillis + holdMillis;
+        advertisedCount++;
+        return onAir.frame;
+    }
+    
+    /**
+     * When the frame on air is due to be retired, or 0 if nothing is on air
+     */
+    public long getNextChangeAt() {
+        return onAir != null ? onAirUntil : 0;
+    }
+    
+    public int size() {
+        return waiting.size() + (onAir != null ? 1 : 0);
+    }
+    
+    public void clear() {
+        waiting.clear();
+        onAir = null;
+    }
+    
+    public long getAdvertisedCount() {
+        return advertisedCount;
+    }
+    
+    public long getRefusedCount() {
+        return refusedCount;
+    }
+    
+    public long getReplacedCount() {
+        return replacedCount;
+    }
+    
+    private static long locationKey(int type, byte[] frame) {
+        if (type != FrameType.LOCATION && type != FrameType.LOCATION_DELTA) return 0;
+        return (1L << 40) | ((long) type << 32) | (FrameCodec.peekOrigin(frame) & 0xFFFFFFFFL);
+    }
+}
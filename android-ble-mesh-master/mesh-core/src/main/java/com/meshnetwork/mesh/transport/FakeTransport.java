@@ -0,0 +1,219 @@
+package com.meshnetwork.mesh.transport;
+
+import com.meshnetwork.mesh.MeshClock;
+import com.meshnetwork.mesh.codec.FrameCodec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory transport for running the queueing and mesh logic on a plain
+ * JVM. Fakes are linked pairwise with {@link #link}, or one way with
+ * {@link #linkOneWay} as when only one phone holds a client link; writes
+ * are recorded and stay in flight until {@link #completeWrite} (or all at
+ * once with {@link #completeAll}), at which point they are delivered to
+ * the linked peer. With auto-complete on, writes are delivered immediately.
+ */
+public class FakeTransport extends AbstractMeshTransport {
+    
+    private final String address;
+    private final Map<String, FakeTransport> links = new HashMap<>();
+    // Peers that opened a link to us, and replies in flight back over them
+    private final Map<String, FakeTransport> inboundLinks = new HashMap<>();
+    private final Map<String, byte[]> inFlight = new HashMap<>();
+    private final Map<String, byte[]> repliesInFlight = new HashMap<>();
+    private final List<byte[]> written = new ArrayList<>();
+    private boolean autoComplete;
+    private int writeSize = FrameCodec.DEFAULT_WRITE_SIZE;
+    
+    public FakeTransport(String address) {
+        this(address, DEFAULT_QUEUE_CAPACITY);
+    }
+    
+    public FakeTransport(String address, int queueCapacity) {
+        this(address, queueCapacity, MeshClock.SYSTEM);
+    }
+    
+    public FakeTransport(String address, int queueCapacity, MeshClock clock) {
+        super(queueCapacity, clock);
+        this.address = address;
+    }
+    
+    public String getAddress() {
+        return address;
+    }
+    
+    public void setAutoComplete(boolean autoComplete) {
+        this.autoComplete = autoComplete;
+    }
+    
+    /**
+     * Write size used for links made after this call
+     */
+    public void setWriteSize(int writeSize) {
+        this.writeSize = writeSize;
+    }
+    
+    /**
+     * Connect two fakes in both directions
+     */
+    public static void link(FakeTransport a, FakeTransport b) {
+        synchronized (a) {
+            a.links.put(b.address, b);
+        }
+        synchronized (b) {
+            b.links.put(a.address, a);
+        }
+        a.onLinkUp(b.address, a.writeSize);
+        b.onLinkUp(a.address, b.writeSize);
+    }
+    
+    /**
+     * Open a link from {@code from} to {@code to} only; {@code to} can
+     * answer over it but has no link of its own
+     */
+    public static void linkOneWay(FakeTransport from, FakeTransport to) {
+        synchronized (from) {
+            from.links.put(to.address, to);
+        }
+        synchronized (to) {
+            to.inboundLinks.put(from.address, from);
+        }
+        from.onLinkUp(to.address, from.writeSize);
+        to.onInboundLinkUp(from.address, to.writeSize);
+    }
+    
+    public static void unlinkOneWay(FakeTransport from, FakeTransport to) {
+        synchronized (from) {
+            from.links.remove(to.address);
+            from.inFlight.remove(to.address);
+        }
+        synchronized (to) {
+            to.inboundLinks.remove(from.address);
+            to.repliesInFlight.remove(from.address);
+        }
+        from.onLinkDown(to.address);
+        to.onInboundLinkDown(from.address);
+    }
+    
+    public static void unlink(FakeTransport a, FakeTransport b) {
+        synchronized (a) {
+            a.links.remove(b.address);
+            a.inFlight.remove(b.address);
+        }
+        synchronized (b) {
+            b.links.remove(a.address);
+            b.inFlight.remove(a.address);
+        }
+        a.onLinkDown(b.address);
+        b.onLinkDown(a.address);
+    }
+    
+    @Override
+    public void connect(String peerAddress) {
+        // Links are made explicitly with link()
+    }
+    
+    /**
+     * Finish the write in flight to a peer and deliver it, our own link's
+     * write first and then a reply.
+     * Returns false if nothing was in flight.
+     */
+    public boolean completeWrite(String peerAddress) {
+        byte[] data;
+        FakeTransport peer;
+        boolean reply = false;
+        synchronized (this) {
+            data = inFlight.remove(peerAddress);
+            peer = links.get(peerAddress);
+            if (data == null) {
+                data = repliesInFlight.remove(peerAddress);
+                peer = inboundLinks.get(peerAddress);
+                reply = true;
+            }
+        }
+        if (data == null) return false;
+        
+        if (reply) {
+            onReplyComplete(peerAddress, true);
+        } else {
+            onWriteComplete(peerAddress, true);
+        }
+        if (peer != null) {
+            peer.onDataReceived(address, data);
+        }
+        return true;
+    }
+    
+    /**
+     * Complete writes until every queue is drained.
+     * Returns the number of packets delivered.
+     */
+    public int completeAll() {
+        int delivered = 0;
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            List<String> peers;
+            synchronized (this) {
+                peers = new ArrayList<>(inFlight.keySet());
+                peers.addAll(repliesInFlight.keySet());
+            }
+            for (String peer : peers) {
+                if (completeWrite(peer)) {
+                    delivered++;
+                    progress = true;
+                }
+            }
+        }
+        return delivered;
+    }
+    
+    public synchronized int getInFlightCount() {
+        return inFlight.size() + repliesInFlight.size();
+    }
+    
+    /**
+     * Every packet handed to a link, in write order
+     */
+    public synchronized List<byte[]> getWritten() {
+        return new ArrayList<>(written);
+    }
+    
+    /**
+     * Inject a packet as if it arrived from a peer
+     */
+    public void receive(String fromAddress, byte[] data) {
+        onDataReceived(fromAddress, data);
+    }
+    
+    @Override
+    protected PeerWriteQueue.LinkWriter createWriter(String peerAddress) {
+        return writer(peerAddress, links, inFlight);
+    }
+    
+    @Override
+    protected PeerWriteQueue.LinkWriter createReplyWriter(String peerAddress) {
+        return writer(peerAddress, inboundLinks, repliesInFlight);
+    }
+    
+    private PeerWriteQueue.LinkWriter writer(String peerAddress, Map<String, FakeTransport> over,
+                                             Map<String, byte[]> pending) {
+        return data -> {
+            synchronized (FakeTransport.this) {
+                if (!over.containsKey(peerAddress)) return false;
+                if (pending.containsKey(peerAddress)) {
+                    throw new IllegalStateException("Second write in flight to " + peerAddress);
+                }
+                pending.put(peerAddress, data);
+                written.add(data);
+            }
+            if (autoComplete) {
+                completeWrite(peerAddress);
+            }
+            return true;
+        };
+    }
+}
@@ -0,0 +1,43 @@
+package com.meshnetwork.mesh.transport;
+
+/**
+ * Link layer that moves encoded frames between neighbouring nodes.
+ * Implementations: the GATT transport in the app and {@link FakeTransport}
+ * for running the mesh on a plain JVM.
+ */
+public interface MeshTransport {
+    
+    interface Listener {
+        void onPeerConnected(String peerAddress);
+        void onPeerDisconnected(String peerAddress);
+        void onFrameReceived(String peerAddress, byte[] data);
+    }
+    
+    void start(Listener listener);
+    
+    void stop();
+    
+    /**
+     * Open a link to a discovered peer. Does nothing if a link is already
+     * open or being opened.
+     */
+    void connect(String peerAddress);
+    
+    /**
+     * Queue a frame for one peer, over our own link to it or, without one,
+     * back over the link the peer opened to us. Links are not symmetric, so
+     * this is how a node answers a neighbour it only hears from.
+     * Returns false if neither link is open or the queue is full.
+     */
+    boolean send(String peerAddress, byte[] frame);
+    
+    /**
+     * Queue a frame for every connected peer except {@code exceptPeer}
+     * (the neighbour a relayed frame came from; may be null), over our own
+     * links only.
+     * Returns the number of peers the frame was queued for.
+     */
+    int broadcast(byte[] frame, String exceptPeer);
+    
+    int getConnectedPeerCount();
+}
@@ -0,0 +1,292 @@
+package com.meshnetwork.mesh.transport;
+
+import com.meshnetwork.mesh.MeshClock;
+import com.meshnetwork.mesh.fragment.FrameBatch;
+import com.meshnetwork.mesh.schedule.OutboundScheduler;
+import com.meshnetwork.mesh.schedule.Priority;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serialized outbound queue for one peer link.
+ *
+ * Android allows a single outstanding GATT operation per connection, so
+ * at most one write is in flight; the next one starts when the link reports
+ * completion. With write-without-response the completion arrives as soon
+ * as the local controller accepts the packet, so several writes go out per
+ * connection event and throughput is bounded by the connection interval
+ * rather than by ATT round trips.
+ *
+ * Waiting packets are ordered by an {@link OutboundScheduler}, so an SOS
+ * goes out ahead of queued location updates and chat.
+ *
+ * With batching on, a write carries as many waiting packets as fit in a
+ * {@link FrameBatch}, so a burst of small frames costs one connection
+ * event slot rather than one each. An idle link may also linger a few
+ * milliseconds before writing a batch that is not yet full, for more
+ * frames to join it; emergency classes never linger.
+ */
+public class PeerWriteQueue {
+    
+    public interface LinkWriter {
+        /**
+         * Start writing one packet. Returns false if the link refused it;
+         * otherwise {@link PeerWriteQueue#onWriteComplete} must follow.
+         */
+        boolean write(byte[] data);
+    }
+    
+    /** Runs a task after a delay; called from whichever thread pumps the queue */
+    public interface Scheduler {
+        void schedule(long delayMillis, Runnable task);
+    }
+    
+    /** Linger value for {@link #setBatching} that sends every packet in a write of its own */
+    public static final long NO_BATCHING = -1;
+    
+    // Room for the length prefix of any frame up to a write in size
+    private static final int MAX_LENGTH_PREFIX = 2;
+    
+    private final String peerAddress;
+    private final LinkWriter writer;
+    private final OutboundScheduler pending;
+    private final MeshClock clock;
+    
+    // Largest single write on this link, updated after MTU negotiation
+    private volatile int writeSize;
+    
+    private boolean inFlight;
+    private boolean draining;
+    
+    private long lingerMillis = NO_BATCHING;
+    private Scheduler scheduler;
+    private boolean lingering;
+    
+    private long writtenCount;
+    private long failedCount;
+    private long droppedCount;
+    private long batchCount;
+    private long batchedCount;
+    
+    public PeerWriteQueue(String peerAddress, LinkWriter writer, int capacity, int writeSize, MeshClock clock) {
+        this.peerAddress = peerAddress;
+        this.writer = writer;
+        this.writeSize = writeSize;
+        this.pending = new OutboundScheduler(capacity);
+        this.clock = clock;
+    }
+    
+    public String getPeerAddress() {
+        return peerAddress;
+    }
+    
+    public int getWriteSize() {
+        return writeSize;
+    }
+    
+    public void setWriteSize(int writeSize) {
+        this.writeSize = writeSize;
+    }
+    
+    /**
+     * Pack waiting packets into shared writes, holding a write that is not
+     * full back for up to {@code lingerMillis} while the link is idle.
+     * A linger of 0 only packs what is already waiting; {@link #NO_BATCHING}
+     * turns batching off. The scheduler may be null without a linger.
+     */
+    public synchronized void setBatching(long lingerMillis, Scheduler scheduler) {
+        this.lingerMillis = lingerMillis;
+        this.scheduler = scheduler;
+    }
+    
+    /**
+     * Queue a packet at a {@link com.meshnetwork.mesh.schedule.Priority}
+     * and start writing if the link is idle.
+     * Returns false, dropping the packet, if the queue is full of packets
+     * of the same or higher priority.
+     */
+    public boolean enqueue(byte[] data, int priority) {
+        return enqueue(data, priority, OutboundScheduler.NO_KEY);
+    }
+    
+    /**
+     * Queue a packet that replaces any waiting packet with the same
+     * coalescing key (see {@link OutboundScheduler})
+     */
+    public boolean enqueue(byte[] data, int priority, long coalesceKey) {
+        synchronized (this) {
+            if (!pending.offer(data, priority, coalesceKey, clock.nowMillis())) {
+                droppedCount++;
+                return false;
+            }
+        }
+        pump();
+        return true;
+    }
+    
+    /**
+     * Queue all fragments of one frame, or none of them if they do not fit,
+     * so a full queue never leaves a partial message on the link. An idle
+     * queue always takes the frame, even if it has more fragments than the
+     * queue capacity.
+     */
+    public boolean enqueueAll(byte[][] packets, int priority) {
+        synchronized (this) {
+            if (!pending.offerAll(packets, priority, clock.nowMillis())) {
+                droppedCount += packets.length;
+                return false;
+            }
+        }
+        pump();
+        return true;
+    }
+    
+    /**
+     * Called by the link when the in-flight write finished
+     */
+    public void onWriteComplete(boolean success) {
+        synchronized (this) {
+            if (!inFlight) return;
+            inFlight = false;
+            if (success) {
+                writtenCount++;
+            } else {
+                failedCount++;
+            }
+        }
+        pump();
+    }
+    
+    /**
+     * Drop everything still queued, e.g. when the link goes down
+     */
+    public synchronized int clear() {
+        int dropped = pending.clear();
+        droppedCount += dropped;
+        inFlight = false;
+        return dropped;
+    }
+    
+    /**
+     * Per-class counters; only read them while holding this queue's lock
+     */
+    public OutboundScheduler getScheduler() {
+        return pending;
+    }
+    
+    public synchronized int size() {
+        return pending.size();
+    }
+    
+    public synchronized boolean isIdle() {
+        return !inFlight && pending.isEmpty();
+    }
+    
+    public synchronized long getWrittenCount() {
+        return writtenCount;
+    }
+    
+    public synchronized long getFailedCount() {
+        return failedCount;
+    }
+    
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+    
+    /** Writes that carried more than one packet */
+    public synchronized long getBatchCount() {
+        return batchCount;
+    }
+    
+    /** Packets that went out in a shared write */
+    public synchronized long getBatchedCount() {
+        return batchedCount;
+    }
+    
+    private void pump() {
+        while (true) {
+            byte[] next;
+            synchronized (this) {
+                // A link that completes synchronously re-enters here from
+                // write(); the outer loop picks up the next packet instead
+                if (draining || inFlight || pending.isEmpty()) return;
+                long now = clock.nowMillis();
+                if (shouldLinger(now)) {
+                    lingerUntil(pending.getOldestEnqueuedAt() + lingerMillis, now);
+                    return;
+                }
+                next = nextWrite(now);
+                inFlight = true;
+                draining = true;
+            }
+            
+            boolean started = false;
+            try {
+                started = writer.write(next);
+            } finally {
+                synchronized (this) {
+                    draining = false;
+                    if (!started && inFlight) {
+                        inFlight = false;
+                        failedCount++;
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Whether to hold back a write that is not full for more packets to
+     * join it. Call with the lock held.
+     */
+    private boolean shouldLinger(long nowMillis) {
+        if (lingerMillis <= 0 || scheduler == null) return false;
+        if (pending.size(Priority.SOS) > 0 || pending.size(Priority.ALERT) > 0) return false;
+        
+        int batchSize = FrameBatch.HEADER_SIZE + pending.getQueuedBytes() + MAX_LENGTH_PREFIX * pending.size();
+        return batchSize < writeSize && nowMillis - pending.getOldestEnqueuedAt() < lingerMillis;
+    }
+    
+    private void lingerUntil(long wakeAt, long nowMillis) {
+        if (lingering) return;
+        lingering = true;
+        scheduler.schedule(wakeAt - nowMillis, lingerExpired);
+    }
+    
+    private final Runnable lingerExpired = () -> {
+        synchronized (this) {
+            lingering = false;
+        }
+        pump();
+    };
+    
+    /**
+     * The next packet, or a batch of it and as many after it as fit one
+     * write. Call with the lock held and the queue not empty.
+     */
+    private byte[] nextWrite(long nowMillis) {
+        byte[] first = pending.poll(nowMillis);
+        if (lingerMillis < 0 || pending.isEmpty()) return first;
+        
+        int size = FrameBatch.HEADER_SIZE + FrameBatch.entrySize(first.length);
+        if (size > writeSize) return first;
+        
+        List<byte[]> packets = null;
+        byte[] packet;
+        while ((packet = pending.poll(nowMillis, FrameBatch.maxFrameLength(writeSize - size))) != null) {
+            if (packets == null) {
+                packets = new ArrayList<>();
+                packets.add(first);
+            }
+            packets.add(packet);
+            size += FrameBatch.entrySize(packet.length);
+        }
+        if (packets == null) return first;
+        
+        batchCount++;
+        batchedCount += packets.size();
+        return FrameBatch.pack(packets, size);
+    }
+}
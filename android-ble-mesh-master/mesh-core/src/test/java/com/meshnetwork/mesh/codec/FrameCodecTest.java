@@ -0,0 +1,197 @@
+package com.meshnetwork.mesh.codec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameCodecTest {
+    
+    /** Ids that take the longest varints, the worst case for frame size */
+    private static final int MAX_ID = -1;
+    
+    private static MeshFrame roundTrip(MeshFrame frame) {
+        byte[] data = FrameCodec.encode(frame);
+        assertEquals(FrameCodec.encodedSize(frame), data.length);
+        
+        MeshFrame decoded = new MeshFrame();
+        assertEquals(data.length, FrameCodec.decode(data, 0, data.length, decoded));
+        assertEquals(frame.type, decoded.type);
+        assertEquals(frame.ttl, decoded.ttl);
+        assertEquals(frame.originId, decoded.originId);
+        assertEquals(frame.sequence, decoded.sequence);
+        return decoded;
+    }
+    
+    @Test
+    public void coordinateFramesFitOneDefaultWrite() {
+        MeshFrame sos = new MeshFrame(FrameType.SOS, MAX_ID, MAX_ID).setLocation(-89.9999999, -179.9999999);
+        MeshFrame location = new MeshFrame(FrameType.LOCATION, MAX_ID, MAX_ID).setLocation(89.9999999, 179.9999999);
+        
+        assertEquals(FrameCodec.MAX_COORDINATE_FRAME_SIZE, FrameCodec.encode(sos).length);
+        assertEquals(FrameCodec.MAX_COORDINATE_FRAME_SIZE, FrameCodec.encode(location).length);
+        assertTrue(FrameCodec.MAX_COORDINATE_FRAME_SIZE <= FrameCodec.DEFAULT_WRITE_SIZE);
+    }
+    
+    @Test
+    public void coordinatesRoundTripToFixedPoint() {
+        MeshFrame decoded = roundTrip(new MeshFrame(FrameType.SOS, 0x1234, 77).setLocation(52.5200081, -13.4049544));
+        
+        assertEquals(FrameCodec.toFixed(52.5200081), decoded.latitudeE7);
+        assertEquals(FrameCodec.toFixed(-13.4049544), decoded.longitudeE7);
+        assertEquals(52.5200081, decoded.getLatitude(), 1e-7);
+        assertEquals(-13.4049544, decoded.getLongitude(), 1e-7);
+    }
+    
+    @Test
+    public void textBodyRoundTripsAsUtf8() {
+        String body = "Evacuate north gate → Sammelpunkt Müller";
+        MeshFrame decoded = roundTrip(new MeshFrame(FrameType.TEXT, 5, 6).setBody(body));
+        
+        assertEquals(body, decoded.getBody());
+    }
+    
+    @Test
+    public void emptyBodyRoundTrips() {
+        MeshFrame frame = new MeshFrame(FrameType.ALERT, 5, 6).setBody("");
+        
+        assertEquals(5, FrameCodec.encode(frame).length);
+        assertEquals("", roundTrip(frame).getBody());
+    }
+    
+    @Test
+    public void geoAlertRoundTrips() {
+        MeshFrame frame = new MeshFrame(FrameType.GEO_ALERT, 9, 10).setLocation(48.137154, 11.576124).setBody("flood");
+        frame.radiusMeters = 2500;
+        MeshFrame decoded = roundTrip(frame);
+        
+        assertEquals(frame.latitudeE7, decoded.latitudeE7);
+        assertEquals(frame.longitudeE7, decoded.longitudeE7);
+        assertEquals(2500, decoded.radiusMeters);
+        assertEquals("flood", decoded.getBody());
+    }
+    
+    @Test
+    public void locationDeltaKeepsSignedOffsets() {
+        MeshFrame frame = new MeshFrame(FrameType.LOCATION_DELTA, 9, 11);
+        frame.baseSequence = 10;
+        frame.latitudeE7 = -1234;
+        frame.longitudeE7 = 56;
+        MeshFrame decoded = roundTrip(frame);
+        
+        assertEquals(10, decoded.baseSequence);
+        assertEquals(-1234, decoded.latitudeE7);
+        assertEquals(56, decoded.longitudeE7);
+        // Small offsets stay short: header, ttl, origin, sequence, base and two offsets
+        assertEquals(2 + 1 + 1 + 1 + 2 + 1, FrameCodec.encode(frame).length);
+    }
+    
+    @Test
+    public void receiptRoundTrips() {
+        MeshFrame frame = new MeshFrame(FrameType.RECEIPT, 3, 4);
+        frame.ackedOrigin = 0xABCDEF;
+        frame.ackedSequence = 123456;
+        MeshFrame decoded = roundTrip(frame);
+        
+        assertEquals(0xABCDEF, decoded.ackedOrigin);
+        assertEquals(123456, decoded.ackedSequence);
+    }
+    
+    @Test
+    public void decodesAtBufferPositionAndAdvancesIt() {
+        MeshFrame first = new MeshFrame(FrameType.LOCATION, 1, 2).setLocation(1.0, 2.0);
+        MeshFrame second = new MeshFrame(FrameType.TEXT, 3, 4).setBody("hi");
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        FrameCodec.encode(first, buffer);
+        FrameCodec.encode(second, buffer);
+        buffer.flip();
+        
+        MeshFrame decoded = new MeshFrame();
+        assertTrue(FrameCodec.decode(buffer, decoded));
+        assertEquals(FrameType.LOCATION, decoded.type);
+        assertTrue(FrameCodec.decode(buffer, decoded));
+        assertEquals("hi", decoded.getBody());
+        assertFalse(buffer.hasRemaining());
+    }
+    
+    @Test
+    public void rejectsEveryTruncation() {
+        MeshFrame frame = new MeshFrame(FrameType.GEO_ALERT, MAX_ID, 300).setLocation(1.0, 2.0).setBody("area");
+        frame.radiusMeters = 1000;
+        byte[] data = FrameCodec.encode(frame);
+        
+        for (int length = 0; length < data.length; length++) {
+            assertEquals("truncated to " + length, -1, FrameCodec.decode(data, 0, length, new MeshFrame()));
+        }
+    }
+    
+    @Test
+    public void rejectsUnknownVersion() {
+        byte[] data = FrameCodec.encode(new MeshFrame(FrameType.SOS, 1, 1));
+        data[0] = (byte) (((FrameCodec.VERSION + 1) << 4) | FrameType.SOS);
+        
+        assertEquals(-1, FrameCodec.decode(data, 0, data.length, new MeshFrame()));
+        assertEquals(-1, FrameCodec.peekType(data));
+    }
+    
+    @Test
+    public void rejectsBodyLongerThanFrame() {
+        byte[] data = FrameCodec.encode(new MeshFrame(FrameType.TEXT, 1, 1).setBody("abc"));
+        // Body length varint sits right after the 1-byte origin and sequence
+        data[4] = 4;
+        
+        assertEquals(-1, FrameCodec.decode(data, 0, data.length, new MeshFrame()));
+    }
+    
+    @Test
+    public void rejectsOverlongVarint() {
+        byte[] data = {(byte) ((FrameCodec.VERSION << 4) | FrameType.LOCATION), 7,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F, 1, 0, 0, 0, 0, 0, 0, 0, 0};
+        
+        assertEquals(-1, FrameCodec.decode(data, 0, data.length, new MeshFrame()));
+    }
+    
+    @Test
+    public void varintsMatchTheirSize() {
+        int[] values = {0, 1, 0x7F, 0x80, 0x3FFF, 0x4000, 0x1FFFFF, 0x200000, 0xFFFFFFF, 0x10000000, MAX_ID};
+        for (int value : values) {
+            ByteBuffer buffer = ByteBuffer.allocate(5);
+            FrameCodec.writeVarint(buffer, value);
+            assertEquals("size of " + value, FrameCodec.varintSize(value), buffer.position());
+            
+            buffer.flip();
+            assertEquals(value & 0xFFFFFFFFL, FrameCodec.readVarint(buffer));
+        }
+    }
+    
+    @Test
+    public void zigzagRoundTrips() {
+        int[] values = {0, -1, 1, -64, 63, Integer.MIN_VALUE, Integer.MAX_VALUE};
+        for (int value : values) {
+            assertEquals(value, FrameCodec.unzigzag(FrameCodec.zigzag(value)));
+        }
+        assertEquals(1, FrameCodec.zigzag(-1));
+        assertEquals(2, FrameCodec.zigzag(1));
+    }
+    
+    @Test
+    public void peeksTypeAndOriginWithoutDecoding() {
+        byte[] data = FrameCodec.encode(new MeshFrame(FrameType.ALERT, 0x12345, 1).setBody("x"));
+        
+        assertEquals(FrameType.ALERT, FrameCodec.peekType(data));
+        assertEquals(0x12345, FrameCodec.peekOrigin(data));
+    }
+    
+    @Test
+    public void encodesIntoExactlySizedArray() {
+        MeshFrame frame = new MeshFrame(FrameType.TEXT, 1, 2).setBody("body");
+        byte[] expected = {(byte) ((FrameCodec.VERSION << 4) | FrameType.TEXT), MeshFrame.DEFAULT_TTL, 1, 2, 4,
+                'b', 'o', 'd', 'y'};
+        
+        assertArrayEquals(expected, FrameCodec.encode(frame));
+    }
+}
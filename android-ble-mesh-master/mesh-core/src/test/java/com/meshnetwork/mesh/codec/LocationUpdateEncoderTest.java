@@ -0,0 +1,130 @@
+package com.meshnetwork.mesh.codec;
+
+import com.meshnetwork.mesh.location.LocationBaseTable;
+import com.meshnetwork.mesh.location.LocationUpdateEncoder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Location updates from the encoder through the wire format and back to
+ * absolute fixes: keyframes, deltas against them, and the full fix that
+ * follows a gap, a long jump or a lost keyframe.
+ */
+public class LocationUpdateEncoderTest {
+    
+    private static final int ORIGIN = 0x4242;
+    private static final int KEYFRAME_INTERVAL = 4;
+    private static final long KEYFRAME_MAX_AGE = 60_000;
+    private static final double LAT = 52.5200081;
+    private static final double LON = 13.4049544;
+    // About 55 m north, well past the minimum movement
+    private static final double STEP = 0.0005;
+    
+    private LocationUpdateEncoder encoder;
+    private LocationBaseTable bases;
+    private int sequence;
+    
+    @Before
+    public void setUp() {
+        encoder = new LocationUpdateEncoder(10, KEYFRAME_INTERVAL, KEYFRAME_MAX_AGE);
+        bases = new LocationBaseTable(16);
+        sequence = 0;
+    }
+    
+    private byte[] send(double latitude, double longitude, long now) {
+        MeshFrame frame = new MeshFrame(FrameType.LOCATION, ORIGIN, ++sequence);
+        encoder.encode(latitude, longitude, now, frame);
+        return FrameCodec.encode(frame);
+    }
+    
+    /** The absolute fix a receiver shows for the bytes, or null if it cannot resolve them */
+    private MeshFrame receive(byte[] data) {
+        MeshFrame frame = new MeshFrame();
+        assertEquals(data.length, FrameCodec.decode(data, 0, data.length, frame));
+        if (!bases.resolve(frame)) return null;
+        assertEquals(FrameType.LOCATION, frame.type);
+        return frame;
+    }
+    
+    private static void assertFix(double latitude, double longitude, MeshFrame frame) {
+        assertEquals(FrameCodec.toFixed(latitude), frame.latitudeE7);
+        assertEquals(FrameCodec.toFixed(longitude), frame.longitudeE7);
+    }
+    
+    @Test
+    public void deltasBetweenKeyframesRoundTripToTheSentFix() {
+        byte[] keyframe = send(LAT, LON, 0);
+        assertEquals(FrameType.LOCATION, FrameCodec.peekType(keyframe));
+        assertFix(LAT, LON, receive(keyframe));
+        
+        for (int i = 1; i < KEYFRAME_INTERVAL; i++) {
+            double latitude = LAT + i * STEP;
+            double longitude = LON - i * STEP;
+            byte[] delta = send(latitude, longitude, i * 1_000);
+            
+            assertEquals(FrameType.LOCATION_DELTA, FrameCodec.peekType(delta));
+            assertTrue(delta.length < keyframe.length);
+            assertFix(latitude, longitude, receive(delta));
+        }
+        
+        // The interval is up, so the next update is a keyframe again
+        assertEquals(FrameType.LOCATION, FrameCodec.peekType(send(LAT, LON, 5_000)));
+    }
+    
+    @Test
+    public void deltasDoNotChainSoALostOneCostsNothing() {
+        receive(send(LAT, LON, 0));
+        send(LAT + STEP, LON, 1_000);
+        
+        MeshFrame decoded = receive(send(LAT + 2 * STEP, LON, 2_000));
+        
+        assertEquals(3, decoded.sequence);
+        assertFix(LAT + 2 * STEP, LON, decoded);
+    }
+    
+    @Test
+    public void fullFixAfterAGap() {
+        receive(send(LAT, LON, 0));
+        
+        // Standing still is skipped until the keyframe is due by age
+        assertFalse(encoder.shouldSend(LAT, LON, KEYFRAME_MAX_AGE - 1));
+        assertEquals(1, encoder.getSkippedCount());
+        assertTrue(encoder.shouldSend(LAT, LON, KEYFRAME_MAX_AGE));
+        
+        byte[] data = send(LAT + STEP, LON, KEYFRAME_MAX_AGE);
+        assertEquals(FrameType.LOCATION, FrameCodec.peekType(data));
+        assertFix(LAT + STEP, LON, receive(data));
+    }
+    
+    @Test
+    public void jumpTooLongForADeltaIsSentAsAFullFix() {
+        receive(send(LAT, LON, 0));
+        
+        // 0.2 degrees is beyond the delta range of about 0.1
+        byte[] data = send(LAT + 0.2, LON, 1_000);
+        
+        assertEquals(FrameType.LOCATION, FrameCodec.peekType(data));
+        assertFix(LAT + 0.2, LON, receive(data));
+        assertEquals(FrameType.LOCATION_DELTA, FrameCodec.peekType(send(LAT + 0.2 + STEP, LON, 2_000)));
+    }
+    
+    @Test
+    public void receiverThatMissedTheKeyframeRecoversWithTheNext() {
+        send(LAT, LON, 0);
+        assertNull(receive(send(LAT + STEP, LON, 1_000)));
+        
+        // New neighbours appeared, so the sender starts over with a keyframe
+        encoder.reset();
+        byte[] data = send(LAT + 2 * STEP, LON, 2_000);
+        
+        assertEquals(FrameType.LOCATION, FrameCodec.peekType(data));
+        assertFix(LAT + 2 * STEP, LON, receive(data));
+        assertFix(LAT + 3 * STEP, LON, receive(send(LAT + 3 * STEP, LON, 3_000)));
+    }
+}
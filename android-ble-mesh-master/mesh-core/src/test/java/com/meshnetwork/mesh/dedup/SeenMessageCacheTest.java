@@ -0,0 +1,158 @@
+package com.meshnetwork.mesh.dedup;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Dedup guarantees at 100k keys per second of simulated time: no new key
+ * is ever taken for a duplicate, and every duplicate inside the window is
+ * caught, whether the window is set by the expiry or, under overload, by
+ * the entry count.
+ */
+public class SeenMessageCacheTest {
+    
+    private static final int RATE_PER_SECOND = 100_000;
+    private static final int ORIGINS = 5_000;
+    
+    /**
+     * Key stream at a fixed rate, each key new, with a lookup of an earlier
+     * key after every new one. Lookups do not record, so only the new keys
+     * count towards rotations.
+     */
+    private static final class Load {
+        final SeenMessageCache cache;
+        final long expiryMillis;
+        final int maxEntries;
+        final Random random = new Random(1);
+        
+        // Every key sent so far, by send index
+        final int[] origins;
+        final int[] sequences;
+        final int[] nextSequence = new int[ORIGINS];
+        
+        long falsePositives;
+        long caughtInWindow;
+        long forgottenInWindow;
+        
+        Load(int maxEntries, long expiryMillis, int keys) {
+            this.cache = new SeenMessageCache(maxEntries, expiryMillis);
+            this.maxEntries = maxEntries;
+            this.expiryMillis = expiryMillis;
+            this.origins = new int[keys];
+            this.sequences = new int[keys];
+        }
+        
+        /** Window in keys: younger than the expiry and fewer than maxEntries newer keys */
+        long windowKeys() {
+            return Math.min(maxEntries, expiryMillis * RATE_PER_SECOND / 1000);
+        }
+        
+        void run() {
+            for (int i = 0; i < origins.length; i++) {
+                long now = (long) i * 1000 / RATE_PER_SECOND;
+                
+                int origin = random.nextInt(ORIGINS);
+                origins[i] = origin;
+                sequences[i] = nextSequence[origin]++;
+                if (!cache.markSeen(origin, sequences[i], now)) {
+                    falsePositives++;
+                }
+                
+                if (i == 0) continue;
+                // A copy of a key up to twice the window old
+                int age = 1 + random.nextInt((int) Math.min(i, 2 * windowKeys()));
+                int earlier = i - age;
+                boolean caught = cache.contains(origins[earlier], sequences[earlier], now);
+                // Keys are younger than the window when sent fewer than windowKeys() keys ago
+                if (age < windowKeys()) {
+                    if (caught) {
+                        caughtInWindow++;
+                    } else {
+                        forgottenInWindow++;
+                    }
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void catchesEveryDuplicateWithinExpiryWhenSizedForTheRate() {
+        // One second of keys fits a generation, so only the expiry rotates
+        Load load = new Load(RATE_PER_SECOND, 1000, 10 * RATE_PER_SECOND);
+        long memory = load.cache.getMemoryBytes();
+        load.run();
+        
+        assertEquals(0, load.falsePositives);
+        assertEquals(0, load.forgottenInWindow);
+        // About half the lookups fall inside the window
+        assertTrue(load.caughtInWindow > 400_000);
+        assertEquals(0, load.cache.getForcedRotations());
+        assertEquals(memory, load.cache.getMemoryBytes());
+    }
+    
+    @Test
+    public void overloadStillRemembersTheLastMaxEntriesKeys() {
+        // A tenth of a second of keys per generation against a 10 s expiry
+        Load load = new Load(RATE_PER_SECOND / 10, 10_000, 10 * RATE_PER_SECOND);
+        long memory = load.cache.getMemoryBytes();
+        load.run();
+        
+        assertTrue(load.cache.getForcedRotations() > 0);
+        assertEquals(0, load.falsePositives);
+        assertEquals(0, load.forgottenInWindow);
+        // About half the lookups fall inside the window
+        assertTrue(load.caughtInWindow > 400_000);
+        assertEquals(memory, load.cache.getMemoryBytes());
+    }
+    
+    @Test
+    public void remembersKeysForTheExpiryAtLowRates() {
+        SeenMessageCache cache = new SeenMessageCache(1024, 1000);
+        
+        assertTrue(cache.markSeen(1, 1, 0));
+        assertFalse(cache.markSeen(1, 1, 999));
+        // One rotation later the key is in the previous generation
+        assertTrue(cache.markSeen(1, 2, 1000));
+        assertFalse(cache.markSeen(1, 1, 1999));
+        assertFalse(cache.markSeen(1, 2, 2999));
+        // Two expiries without a rotation leave both generations stale
+        assertTrue(cache.markSeen(1, 2, 5000));
+    }
+    
+    @Test
+    public void forgetsKeysOnceTheirGenerationIsRotatedOut() {
+        SeenMessageCache cache = new SeenMessageCache(1024, 1000);
+        cache.markSeen(1, 1, 0);
+        
+        assertTrue(cache.contains(1, 1, 1000));
+        assertFalse(cache.contains(1, 1, 2000));
+    }
+    
+    @Test
+    public void forcedRotationKeepsTheFullGeneration() {
+        SeenMessageCache cache = new SeenMessageCache(4, 60_000);
+        for (int sequence = 0; sequence < 5; sequence++) {
+            assertTrue(cache.markSeen(1, sequence, 0));
+        }
+        
+        assertEquals(1, cache.getForcedRotations());
+        for (int sequence = 0; sequence < 5; sequence++) {
+            assertTrue("sequence " + sequence, cache.contains(1, sequence, 0));
+        }
+    }
+    
+    @Test
+    public void storesTheZeroKey() {
+        SeenMessageCache cache = new SeenMessageCache(16, 1000);
+        
+        assertTrue(cache.markSeen(0, 0, 0));
+        assertFalse(cache.markSeen(0, 0, 1));
+        assertEquals(1, cache.getDuplicateCount());
+        assertTrue(cache.markSeen(0, 1, 1));
+    }
+}
@@ -0,0 +1,185 @@
+package com.meshnetwork.mesh.dispatch;
+
+import com.meshnetwork.mesh.MeshClock;
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.dedup.SeenMessageCache;
+import com.meshnetwork.mesh.location.GeofenceFilter;
+import com.meshnetwork.mesh.routing.EtxStrategy;
+import com.meshnetwork.mesh.routing.FloodingStrategy;
+import com.meshnetwork.mesh.routing.LinkQualityTable;
+import com.meshnetwork.mesh.routing.RoutingEngine;
+import com.meshnetwork.mesh.routing.RoutingStrategy;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Bytes allocated per received frame once the receive path is warmed up,
+ * read from the thread's allocation counter. Pool and cache sizes match the
+ * app. Every frame presented is new to the receiver unless the case is
+ * about duplicates.
+ */
+public class ReceivePathAllocationTest {
+    
+    private static final String PEER = "AA:00:00:00:00:01";
+    private static final MeshClock FIXED_CLOCK = () -> 0L;
+    
+    /** Distinct frames per case, well past the seen cache, so keys recur only once forgotten */
+    private static final int FRAMES = 1 << 15;
+    private static final int WARMUP = 1_000_000;
+    private static final int MEASURED = 1_000_000;
+    
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    
+    private RoutingEngine routing;
+    private long relayed;
+    private long delivered;
+    
+    private ReceivePath newPath(RoutingStrategy strategy) {
+        routing = new RoutingEngine(strategy);
+        GeofenceFilter geofence = new GeofenceFilter(GeofenceFilter.DEFAULT_HOP_RANGE_METERS);
+        geofence.setPosition(52.52, 13.40);
+        return new ReceivePath(FIXED_CLOCK, new FrameDispatcher(new FramePool(64)),
+                new SeenMessageCache(8192, 10 * 60 * 1000), routing, geofence, handler, host);
+    }
+    
+    private static byte[][] frames(int type) {
+        byte[][] frames = new byte[FRAMES][];
+        for (int i = 0; i < FRAMES; i++) {
+            MeshFrame frame = new MeshFrame(type, 0x12345, i + 1);
+            if (FrameType.hasCoordinates(type)) {
+                frame.setLocation(52.52 + i * 1e-6, 13.40);
+                frame.radiusMeters = 5000;
+            }
+            if (FrameType.hasBody(type)) {
+                frame.setBody("allocation test message body of typical length");
+            }
+            frames[i] = FrameCodec.encode(frame);
+        }
+        return frames;
+    }
+    
+    /**
+     * Fail if receiving the frames allocates once warmed up. Late JIT
+     * compilation can still leave a few hundred bytes in total, but any
+     * allocation per frame would cost at least one 16-byte object each.
+     */
+    private void assertNoAllocation(ReceivePath path, byte[][] frames) {
+        receive(path, frames, WARMUP);
+        long before = threads.getCurrentThreadAllocatedBytes();
+        receive(path, frames, MEASURED);
+        double perFrame = (threads.getCurrentThreadAllocatedBytes() - before) / (double) MEASURED;
+        assertTrue(perFrame + " bytes allocated per frame", perFrame < 1);
+    }
+    
+    private static void receive(ReceivePath path, byte[][] frames, int count) {
+        for (int i = 0; i < count; i++) {
+            byte[] data = frames[i & (FRAMES - 1)];
+            // Relays decrement the hop count in place
+            data[FrameCodec.TTL_OFFSET] = (byte) MeshFrame.DEFAULT_TTL;
+            path.receive(PEER, data);
+        }
+    }
+    
+    @Test
+    public void newTextFramesDoNotAllocate() {
+        assertNoAllocation(newPath(new FloodingStrategy()), frames(FrameType.TEXT));
+        assertTrue(delivered > 0 && relayed > 0);
+    }
+    
+    @Test
+    public void newLocationFramesDoNotAllocate() {
+        assertNoAllocation(newPath(new FloodingStrategy()), frames(FrameType.LOCATION));
+    }
+    
+    @Test
+    public void geofencedAlertsDoNotAllocate() {
+        assertNoAllocation(newPath(new FloodingStrategy()), frames(FrameType.GEO_ALERT));
+    }
+    
+    @Test
+    public void duplicatesDoNotAllocate() {
+        ReceivePath path = newPath(new FloodingStrategy());
+        byte[][] duplicates = new byte[FRAMES][];
+        byte[] frame = FrameCodec.encode(new MeshFrame(FrameType.TEXT, 0x12345, 1).setBody("duplicate"));
+        path.receive(PEER, frame.clone());
+        for (int i = 0; i < FRAMES; i++) {
+            duplicates[i] = frame;
+        }
+        
+        assertNoAllocation(path, duplicates);
+    }
+    
+    @Test
+    public void delayedEtxRelaysDoNotAllocate() {
+        LinkQualityTable links = new LinkQualityTable();
+        links.recordRssi(PEER, -70);
+        ReceivePath path = newPath(new EtxStrategy(links));
+        
+        assertNoAllocation(path, frames(FrameType.TEXT));
+        assertEquals(0, routing.getPendingCount());
+        assertTrue(routing.getRelayedCount() > 0);
+    }
+    
+    private final ReceivePath.Host host = new ReceivePath.Host() {
+        @Override
+        public void onSyncFrame(String fromPeer, MeshFrame frame) {
+        }
+        
+        @Override
+        public void onAck(String fromPeer, MeshFrame frame) {
+        }
+        
+        @Override
+        public void acknowledge(String fromPeer, MeshFrame frame) {
+        }
+        
+        @Override
+        public void onFirstCopy(String fromPeer, MeshFrame frame) {
+        }
+        
+        @Override
+        public void relay(MeshFrame frame, String fromPeer, byte[] data, long delayMillis) {
+            // A delayed relay comes due at once, with a duplicate heard while it waited
+            if (delayMillis > 0) {
+                routing.onDuplicate(frame.originId, frame.sequence);
+                routing.onRelayDue(frame.originId, frame.sequence);
+            }
+            relayed++;
+        }
+    };
+    
+    private final FrameDispatcher.FrameHandler handler = new FrameDispatcher.FrameHandler() {
+        @Override
+        public void onSOS(MeshFrame frame) {
+            delivered++;
+        }
+        
+        @Override
+        public void onLocation(MeshFrame frame) {
+            delivered++;
+        }
+        
+        @Override
+        public void onAlert(MeshFrame frame) {
+            delivered++;
+        }
+        
+        @Override
+        public void onText(MeshFrame frame) {
+            delivered++;
+        }
+        
+        @Override
+        public void onReceipt(MeshFrame frame) {
+            delivered++;
+        }
+    };
+}
@@ -0,0 +1,125 @@
+package com.meshnetwork.mesh.fragment;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Packing and unpacking at the edges: one frame, a frame that fills a
+ * write to the byte, the varint length boundary, and truncated or corrupt
+ * batches.
+ */
+public class FrameBatchTest {
+    
+    private static final int WRITE_SIZE = FrameCodec.DEFAULT_WRITE_SIZE;
+    
+    /** An encoded TEXT frame of exactly {@code length} bytes */
+    private static byte[] text(int sequence, int length) {
+        for (StringBuilder body = new StringBuilder(); body.length() <= length; body.append('x')) {
+            byte[] frame = FrameCodec.encode(new MeshFrame(FrameType.TEXT, 1, sequence).setBody(body.toString()));
+            if (frame.length == length) return frame;
+        }
+        throw new AssertionError("no text frame of " + length + " bytes");
+    }
+    
+    private static byte[] location(int origin) {
+        return FrameCodec.encode(new MeshFrame(FrameType.LOCATION, origin, 1).setLocation(52.52, 13.40));
+    }
+    
+    private static byte[] pack(byte[]... frames) {
+        int size = FrameBatch.HEADER_SIZE;
+        for (byte[] frame : frames) {
+            size += FrameBatch.entrySize(frame.length);
+        }
+        return FrameBatch.pack(Arrays.asList(frames), size);
+    }
+    
+    @Test
+    public void singleFrameRoundTrips() {
+        byte[] frame = text(1, 12);
+        byte[] batch = pack(frame);
+        
+        assertEquals(FrameBatch.HEADER_SIZE + 1 + frame.length, batch.length);
+        assertEquals(FrameType.BATCH, FrameCodec.peekType(batch));
+        List<byte[]> frames = FrameBatch.unpack(batch);
+        assertEquals(1, frames.size());
+        assertArrayEquals(frame, frames.get(0));
+    }
+    
+    @Test
+    public void frameThatFillsTheWriteExactly() {
+        int longest = FrameBatch.maxFrameLength(WRITE_SIZE - FrameBatch.HEADER_SIZE);
+        byte[] frame = text(1, longest);
+        byte[] batch = pack(frame);
+        
+        assertEquals(WRITE_SIZE, batch.length);
+        assertArrayEquals(frame, FrameBatch.unpack(batch).get(0));
+        // One byte more would not fit
+        assertTrue(FrameBatch.HEADER_SIZE + FrameBatch.entrySize(longest + 1) > WRITE_SIZE);
+    }
+    
+    @Test
+    public void maxFrameLengthFitsAcrossTheVarintBoundary() {
+        for (int room = 1; room <= 300; room++) {
+            int longest = FrameBatch.maxFrameLength(room);
+            if (longest >= 1) {
+                assertTrue("room " + room, FrameBatch.entrySize(longest) <= room);
+            }
+            assertTrue("room " + room, FrameBatch.entrySize(longest + 1) > room);
+        }
+        
+        // 128 bytes take a two-byte length, so they need 130 bytes of room
+        byte[] frame = text(1, 128);
+        byte[] batch = pack(frame, text(2, 5));
+        List<byte[]> frames = FrameBatch.unpack(batch);
+        assertEquals(130, FrameBatch.entrySize(frame.length));
+        assertArrayEquals(frame, frames.get(0));
+        assertEquals(5, frames.get(1).length);
+    }
+    
+    @Test
+    public void truncatedBatchIsRejected() {
+        byte[] batch = pack(text(1, 12), text(2, 12));
+        
+        for (int length = batch.length - 12; length < batch.length; length++) {
+            byte[] truncated = Arrays.copyOf(batch, length);
+            assertNull("length " + length, FrameBatch.unpack(truncated));
+            assertFalse(FrameBatch.allTypesMatch(truncated, type -> true));
+        }
+        // Cut right after the first entry it is a well-formed batch of one
+        assertEquals(1, FrameBatch.unpack(Arrays.copyOf(batch, batch.length - 13)).size());
+    }
+    
+    @Test
+    public void corruptBatchIsRejected() {
+        byte[] zeroLength = pack(text(1, 12));
+        zeroLength[FrameBatch.HEADER_SIZE] = 0;
+        assertNull(FrameBatch.unpack(zeroLength));
+        
+        // A length varint that never ends
+        byte[] endless = pack(text(1, 12));
+        Arrays.fill(endless, FrameBatch.HEADER_SIZE, endless.length, (byte) 0x80);
+        assertNull(FrameBatch.unpack(endless));
+        
+        byte[] nested = pack(pack(text(1, 12)));
+        assertNull(FrameBatch.unpack(nested));
+    }
+    
+    @Test
+    public void allTypesMatchLooksAtEveryEntry() {
+        assertTrue(FrameBatch.allTypesMatch(pack(location(1), location(2)), FrameType::isLocationUpdate));
+        assertFalse(FrameBatch.allTypesMatch(pack(location(1), text(2, 12)), FrameType::isLocationUpdate));
+        assertFalse(FrameBatch.allTypesMatch(pack(), FrameType::isLocationUpdate));
+    }
+}
@@ -0,0 +1,89 @@
+package com.meshnetwork.mesh.location;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GeofenceFilterTest {
+    
+    private static final double LAT = 52.5;
+    private static final double LON = 13.4;
+    // One metre of latitude in degrees
+    private static final double METER = 1 / 111_195.0;
+    
+    /** A 200 m alert around the origin with {@code ttl} hops left */
+    private static MeshFrame alert(int ttl) {
+        MeshFrame frame = new MeshFrame(FrameType.GEO_ALERT, 1, 1).setLocation(LAT, LON);
+        frame.radiusMeters = 200;
+        frame.ttl = ttl;
+        return frame;
+    }
+    
+    /** A filter 100 m per hop placed {@code meters} north of the origin */
+    private static GeofenceFilter at(double meters) {
+        GeofenceFilter filter = new GeofenceFilter(100);
+        filter.setPosition(LAT + meters * METER, LON);
+        return filter;
+    }
+    
+    @Test
+    public void deliversOnlyInsideTheCircle() {
+        assertTrue(at(0).shouldDeliver(alert(5)));
+        assertTrue(at(199).shouldDeliver(alert(5)));
+        GeofenceFilter outside = at(201);
+        assertFalse(outside.shouldDeliver(alert(5)));
+        assertEquals(1, outside.getDroppedCount());
+    }
+    
+    @Test
+    public void relaysWhileTheCircleIsWithinReachOfTheHopsLeft() {
+        // 200 m radius plus 3 more hops of 100 m
+        assertTrue(at(499).shouldRelay(alert(4)));
+        GeofenceFilter far = at(501);
+        assertFalse(far.shouldRelay(alert(4)));
+        assertEquals(1, far.getSuppressedRelayCount());
+        // The last hop only relays inside the circle
+        assertTrue(at(199).shouldRelay(alert(1)));
+        assertFalse(at(201).shouldRelay(alert(1)));
+    }
+    
+    @Test
+    public void withoutAPositionDeliversAndRelaysEverything() {
+        GeofenceFilter filter = new GeofenceFilter(100);
+        
+        assertFalse(filter.hasPosition());
+        assertTrue(filter.shouldDeliver(alert(1)));
+        assertTrue(filter.shouldRelay(alert(1)));
+        
+        filter.setPosition(LAT + 1, LON);
+        filter.clearPosition();
+        assertTrue(filter.shouldDeliver(alert(1)));
+    }
+    
+    @Test
+    public void otherFrameTypesAlwaysPass() {
+        GeofenceFilter filter = at(10_000);
+        MeshFrame text = new MeshFrame(FrameType.TEXT, 1, 1);
+        text.ttl = 1;
+        
+        assertTrue(filter.shouldDeliver(text));
+        assertTrue(filter.shouldRelay(text));
+    }
+    
+    @Test
+    public void encodesTheTargetInTheFrame() {
+        MeshFrame decoded = new MeshFrame();
+        byte[] data = FrameCodec.encode(alert(4));
+        assertTrue(FrameCodec.decode(data, 0, data.length, decoded) > 0);
+        
+        assertEquals(200, decoded.radiusMeters);
+        assertFalse(at(201).shouldDeliver(decoded));
+        assertTrue(at(199).shouldDeliver(decoded));
+    }
+}
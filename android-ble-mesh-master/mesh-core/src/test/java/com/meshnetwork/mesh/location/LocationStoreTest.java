@@ -0,0 +1,152 @@
+package com.meshnetwork.mesh.location;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Grid queries against a brute-force scan of the same users, and the bound
+ * on how many users are kept
+ */
+public class LocationStoreTest {
+    
+    private static final double CELL_DEGREES = 0.01;
+    
+    private static int lat(double degrees) {
+        return FrameCodec.toFixed(47.37 + degrees);
+    }
+    
+    private static int lon(double degrees) {
+        return FrameCodec.toFixed(8.54 + degrees);
+    }
+    
+    private static Set<Integer> box(LocationStore store, int minLat, int minLon, int maxLat, int maxLon) {
+        Set<Integer> found = new HashSet<>();
+        int count = store.queryBox(minLat, minLon, maxLat, maxLon, position -> assertTrue(found.add(position.userId)));
+        assertEquals(found.size(), count);
+        return found;
+    }
+    
+    @Test
+    public void queriesMatchAScanOfEveryUser() {
+        LocationStore store = new LocationStore(50_000, CELL_DEGREES);
+        Random random = new Random(1);
+        int[] lats = new int[20_000];
+        int[] lons = new int[lats.length];
+        for (int userId = 0; userId < lats.length; userId++) {
+            lats[userId] = lat((random.nextDouble() - 0.5) * 0.2);
+            lons[userId] = lon((random.nextDouble() - 0.5) * 0.3);
+            store.update(userId, lats[userId], lons[userId], userId);
+        }
+        // Move a quarter of them, most into other cells
+        for (int n = 0; n < lats.length / 4; n++) {
+            int userId = random.nextInt(lats.length);
+            lats[userId] = lat((random.nextDouble() - 0.5) * 0.2);
+            lons[userId] = lon((random.nextDouble() - 0.5) * 0.3);
+            store.update(userId, lats[userId], lons[userId], lats.length + n);
+        }
+        
+        for (int q = 0; q < 50; q++) {
+            double latitude = 47.37 + (random.nextDouble() - 0.5) * 0.2;
+            double longitude = 8.54 + (random.nextDouble() - 0.5) * 0.3;
+            double radius = 100 + random.nextDouble() * 3000;
+            
+            Set<Integer> expected = new HashSet<>();
+            for (int userId = 0; userId < lats.length; userId++) {
+                if (GeoMath.distanceMeters(FrameCodec.toFixed(latitude), FrameCodec.toFixed(longitude),
+                        lats[userId], lons[userId]) <= radius) {
+                    expected.add(userId);
+                }
+            }
+            Set<Integer> found = new HashSet<>();
+            int count = store.queryRadius(latitude, longitude, radius, position -> assertTrue(found.add(position.userId)));
+            
+            assertEquals(expected, found);
+            assertEquals(expected.size(), count);
+        }
+    }
+    
+    @Test
+    public void boxesAreInclusiveAndSpanCells() {
+        LocationStore store = new LocationStore(16, CELL_DEGREES);
+        store.update(1, lat(0), lon(0), 0);
+        store.update(2, lat(0.015), lon(0.015), 0);
+        store.update(3, lat(0.05), lon(0.05), 0);
+        
+        assertEquals(Set.of(1, 2), box(store, lat(0), lon(0), lat(0.015), lon(0.015)));
+        assertEquals(Set.of(2), box(store, lat(0.001), lon(0.001), lat(0.02), lon(0.02)));
+    }
+    
+    @Test
+    public void hugeBoxesWalkTheOccupiedCells() {
+        LocationStore store = new LocationStore(16, CELL_DEGREES);
+        store.update(1, lat(0), lon(0), 0);
+        store.update(2, FrameCodec.toFixed(-33.9), FrameCodec.toFixed(151.2), 0);
+        
+        assertEquals(Set.of(1, 2), box(store, FrameCodec.toFixed(-90), FrameCodec.toFixed(-180),
+                FrameCodec.toFixed(90), FrameCodec.toFixed(180)));
+        assertEquals(Set.of(2), box(store, FrameCodec.toFixed(-90), FrameCodec.toFixed(100),
+                FrameCodec.toFixed(0), FrameCodec.toFixed(180)));
+    }
+    
+    @Test
+    public void movingUsersLeaveTheirOldCell() {
+        LocationStore store = new LocationStore(16, CELL_DEGREES);
+        store.update(1, lat(0), lon(0), 0);
+        store.update(1, lat(0.05), lon(0.05), 1);
+        
+        assertTrue(box(store, lat(-0.005), lon(-0.005), lat(0.005), lon(0.005)).isEmpty());
+        assertEquals(Set.of(1), box(store, lat(0.045), lon(0.045), lat(0.055), lon(0.055)));
+        assertEquals(1, store.size());
+    }
+    
+    @Test
+    public void ignoresUpdatesOlderThanTheStoredOne() {
+        LocationStore store = new LocationStore(16, CELL_DEGREES);
+        store.update(1, lat(0), lon(0), 10);
+        store.update(1, lat(0.05), lon(0.05), 5);
+        
+        assertEquals(lat(0), store.get(1).latitudeE7);
+        assertEquals(10, store.get(1).timestamp);
+    }
+    
+    @Test
+    public void evictsTheLeastRecentlyUpdatedWhenFull() {
+        LocationStore store = new LocationStore(3, CELL_DEGREES);
+        store.update(1, lat(0), lon(0), 0);
+        store.update(2, lat(0), lon(0), 1);
+        store.update(3, lat(0), lon(0), 2);
+        // Hearing from 1 again makes 2 the eldest
+        store.update(1, lat(0), lon(0), 3);
+        store.update(4, lat(0), lon(0), 4);
+        
+        assertEquals(3, store.size());
+        assertNull(store.get(2));
+        assertEquals(1, store.getEvictedCount());
+        assertEquals(Set.of(1, 3, 4), box(store, lat(-0.01), lon(-0.01), lat(0.01), lon(0.01)));
+    }
+    
+    @Test
+    public void evictsUsersNotHeardFromSinceACutoff() {
+        LocationStore store = new LocationStore(16, CELL_DEGREES);
+        store.update(1, lat(0), lon(0), 100);
+        store.update(2, lat(0.02), lon(0), 200);
+        store.update(3, lat(0.04), lon(0), 300);
+        
+        assertEquals(2, store.evictOlderThan(250));
+        assertEquals(1, store.size());
+        assertEquals(Set.of(3), box(store, lat(-1), lon(-1), lat(1), lon(1)));
+        assertTrue(store.remove(3));
+        assertFalse(store.remove(3));
+        assertEquals(0, store.size());
+    }
+}
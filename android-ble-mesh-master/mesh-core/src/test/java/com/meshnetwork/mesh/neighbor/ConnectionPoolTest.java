@@ -0,0 +1,111 @@
+package com.meshnetwork.mesh.neighbor;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pool answers and the victim each eviction names, alone and under
+ * concurrent offers.
+ */
+public class ConnectionPoolTest {
+    
+    private static String address(int i) {
+        return String.format("AA:00:00:00:%02X:%02X", i >>> 8, i & 0xFF);
+    }
+    
+    /** A full pool of links connected at 0 and idle since, so any candidate may evict them */
+    private static ConnectionPool idlePool(int capacity) {
+        ConnectionPool pool = new ConnectionPool(capacity);
+        for (int i = 0; i < capacity; i++) {
+            assertEquals(ConnectionPool.CONNECT, pool.offer(address(i), 0).answer);
+            pool.onConnected(address(i), 0);
+        }
+        return pool;
+    }
+    
+    @Test
+    public void connectsUntilFullThenHits() {
+        ConnectionPool pool = new ConnectionPool(2);
+        
+        assertEquals(ConnectionPool.CONNECT, pool.offer(address(0), 0).answer);
+        assertEquals(ConnectionPool.CONNECT, pool.offer(address(1), 0).answer);
+        ConnectionPool.Offer hit = pool.offer(address(0), 0);
+        
+        assertEquals(ConnectionPool.HIT, hit.answer);
+        assertNull(hit.victim);
+        // Both links are still connecting, so neither can be evicted
+        assertEquals(ConnectionPool.REJECT, pool.offer(address(2), 0).answer);
+        assertEquals(2, pool.size());
+    }
+    
+    @Test
+    public void evictionNamesTheLeastRecentlyUsedIdleLink() {
+        ConnectionPool pool = idlePool(2);
+        pool.onUsed(address(0), 1000);
+        
+        ConnectionPool.Offer offer = pool.offer(address(2), ConnectionPool.IDLE_MS + 1000);
+        
+        assertEquals(ConnectionPool.EVICT, offer.answer);
+        assertEquals(address(1), offer.victim);
+        assertEquals(2, pool.size());
+        assertEquals(1, pool.getEvictionCount());
+    }
+    
+    @Test
+    public void evictedPeerWaitsOutAHoldBeforeComingBack() {
+        ConnectionPool pool = idlePool(1);
+        long now = ConnectionPool.IDLE_MS;
+        
+        assertEquals(address(0), pool.offer(address(1), now).victim);
+        
+        assertEquals(ConnectionPool.BACKOFF, pool.offer(address(0), now + 1).answer);
+        // A late disconnect of the closed link leaves the books alone
+        pool.onDisconnected(address(0), now + 1);
+        assertEquals(1, pool.size());
+    }
+    
+    @Test
+    public void concurrentEvictionsEachGetTheirOwnVictim() throws InterruptedException {
+        int links = 64;
+        ConnectionPool pool = idlePool(links);
+        long now = ConnectionPool.IDLE_MS;
+        ConnectionPool.Offer[] offers = new ConnectionPool.Offer[links];
+        Thread[] threads = new Thread[8];
+        CountDownLatch go = new CountDownLatch(1);
+        
+        for (int t = 0; t < threads.length; t++) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = first; i < links; i += threads.length) {
+                    offers[i] = pool.offer(address(links + i), now);
+                }
+            });
+            threads[t].start();
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        // Every old link is closed exactly once; with a shared victim field some would be named twice
+        Set<String> victims = new HashSet<>();
+        for (ConnectionPool.Offer offer : offers) {
+            assertEquals(ConnectionPool.EVICT, offer.answer);
+            assertTrue(offer.victim, victims.add(offer.victim));
+        }
+        assertEquals(links, victims.size());
+        assertEquals(links, pool.size());
+    }
+}
@@ -0,0 +1,116 @@
+package com.meshnetwork.mesh.neighbor;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Which updates count as visible changes, RSSI smoothing, the expiry sweep
+ * and the order and contents of snapshots.
+ */
+public class NeighborTableTest {
+    
+    private static final long EXPIRY = 10_000;
+    private static final String A = "AA:00:00:00:00:01";
+    private static final String B = "AA:00:00:00:00:02";
+    private static final String C = "AA:00:00:00:00:03";
+    
+    @Test
+    public void newNeighbourIsAChangeUntilTheNextSnapshot() {
+        NeighborTable table = new NeighborTable(EXPIRY);
+        
+        assertTrue(table.update(A, "alpha", -60, 0));
+        assertFalse(table.update(A, "alpha", -60, 100));
+        assertTrue(table.hasChanges());
+        
+        table.snapshot();
+        assertFalse(table.hasChanges());
+        table.update(A, "alpha", -60, 200);
+        assertFalse(table.hasChanges());
+    }
+    
+    @Test
+    public void rssiIsSmoothedAndSmallMovesAreNotChanges() {
+        NeighborTable table = new NeighborTable(EXPIRY);
+        table.update(A, null, -60, 0);
+        table.snapshot();
+        
+        // One faded packet moves the average by a quarter: -61.5, a 1 dB change
+        table.update(A, null, -66, 100);
+        assertEquals(-61, table.getRssi(A));
+        assertFalse(table.hasChanges());
+        
+        // A second one reaches -62.6, past the threshold against the published -60
+        table.update(A, null, -66, 200);
+        assertEquals(-63, table.getRssi(A));
+        assertTrue(table.hasChanges());
+        assertEquals(-63, table.snapshot().get(0).rssi);
+        assertEquals(Integer.MIN_VALUE, table.getRssi(B));
+    }
+    
+    @Test
+    public void renameIsAChangeButAMissingNameKeepsTheOldOne() {
+        NeighborTable table = new NeighborTable(EXPIRY);
+        table.update(A, "alpha", -60, 0);
+        table.snapshot();
+        
+        // Scan responses without a name are common; they must not blank the row
+        table.update(A, null, -60, 100);
+        assertFalse(table.hasChanges());
+        assertEquals("alpha", table.snapshot().get(0).name);
+        
+        table.update(A, "beta", -60, 200);
+        assertTrue(table.hasChanges());
+        assertEquals("beta", table.snapshot().get(0).name);
+    }
+    
+    @Test
+    public void expirySweepDropsOnlyStaleNeighbours() {
+        NeighborTable table = new NeighborTable(EXPIRY);
+        table.update(A, null, -60, 0);
+        table.update(B, null, -70, 5_000);
+        table.update(C, null, -80, 1_000);
+        table.snapshot();
+        
+        // Heard exactly the expiry time ago still counts as present
+        assertEquals(0, table.expire(EXPIRY));
+        assertFalse(table.hasChanges());
+        
+        assertEquals(2, table.expire(EXPIRY + 1_001));
+        assertTrue(table.hasChanges());
+        assertFalse(table.contains(A));
+        assertFalse(table.contains(C));
+        assertTrue(table.contains(B));
+        assertEquals(1, table.size());
+        
+        // An expired neighbour heard again is new
+        assertTrue(table.update(A, null, -60, EXPIRY + 2_000));
+    }
+    
+    @Test
+    public void snapshotKeepsDiscoveryOrderAndComparesRows() {
+        NeighborTable table = new NeighborTable(EXPIRY);
+        table.update(B, "beta", -70, 0);
+        table.update(A, "alpha", -60, 0);
+        table.update(C, "gamma", -80, 0);
+        List<NeighborTable.Neighbor> before = table.snapshot();
+        
+        // A stronger signal from A does not move it to the front
+        table.update(A, "alpha", -40, 100);
+        table.update(A, "alpha", -40, 200);
+        assertTrue(table.remove(C));
+        assertFalse(table.remove(C));
+        List<NeighborTable.Neighbor> after = table.snapshot();
+        
+        assertEquals(2, after.size());
+        assertEquals(B, after.get(0).address);
+        assertEquals(A, after.get(1).address);
+        assertTrue(before.get(0).sameContents(after.get(0)));
+        assertFalse(before.get(1).sameContents(after.get(1)));
+        assertEquals(200, after.get(1).lastSeen);
+    }
+}
@@ -0,0 +1,125 @@
+package com.meshnetwork.mesh.radio;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.meshnetwork.mesh.radio.RadioPolicy.MODE_BALANCED;
+import static com.meshnetwork.mesh.radio.RadioPolicy.MODE_LOW_LATENCY;
+import static com.meshnetwork.mesh.radio.RadioPolicy.MODE_LOW_POWER;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Mode decisions and time accounting on a simulated clock
+ */
+public class RadioPolicyTest {
+    
+    private long now;
+    private final List<Integer> changes = new ArrayList<>();
+    private RadioPolicy policy;
+    
+    @Before
+    public void setUp() {
+        now = 1_000_000;
+        policy = new RadioPolicy(() -> now, changes::add);
+    }
+    
+    /** Move the clock and let holds expire, as the owner does at getNextChangeAt */
+    private int at(long millis) {
+        now = 1_000_000 + millis;
+        return policy.evaluate();
+    }
+    
+    @Test
+    public void staysInLowPowerWhenQuiet() {
+        assertEquals(MODE_LOW_POWER, policy.getMode());
+        assertEquals(MODE_LOW_POWER, at(3_600_000));
+        assertEquals(-1, policy.getNextChangeAt());
+        assertEquals(0, policy.getTransitionCount());
+        assertEquals(List.of(), changes);
+    }
+    
+    @Test
+    public void emergencyHoldsLowLatencyThenDrops() {
+        policy.onEmergency();
+        
+        assertEquals(MODE_LOW_LATENCY, policy.getMode());
+        assertEquals(now + RadioPolicy.EMERGENCY_HOLD_MS, policy.getNextChangeAt());
+        assertEquals(MODE_LOW_LATENCY, at(RadioPolicy.EMERGENCY_HOLD_MS - 1));
+        assertEquals(MODE_LOW_POWER, at(RadioPolicy.EMERGENCY_HOLD_MS));
+        assertEquals(List.of(MODE_LOW_LATENCY, MODE_LOW_POWER), changes);
+    }
+    
+    @Test
+    public void neighbourChurnKeepsExtendingBalanced() {
+        policy.onNeighborChange();
+        at(20_000);
+        policy.onNeighborChange();
+        
+        assertEquals(MODE_BALANCED, at(20_000 + RadioPolicy.NEIGHBOR_HOLD_MS - 1));
+        assertEquals(MODE_LOW_POWER, at(20_000 + RadioPolicy.NEIGHBOR_HOLD_MS));
+        assertEquals(List.of(MODE_BALANCED, MODE_LOW_POWER), changes);
+    }
+    
+    @Test
+    public void fallsBackToTheNextHoldWhenAnEmergencyEnds() {
+        policy.onEmergency();
+        at(50_000);
+        policy.onNeighborChange();
+        
+        assertEquals(MODE_LOW_LATENCY, policy.getMode());
+        assertEquals(MODE_BALANCED, at(RadioPolicy.EMERGENCY_HOLD_MS));
+        assertEquals(now - RadioPolicy.EMERGENCY_HOLD_MS + 50_000 + RadioPolicy.NEIGHBOR_HOLD_MS,
+                policy.getNextChangeAt());
+        assertEquals(MODE_LOW_POWER, at(50_000 + RadioPolicy.NEIGHBOR_HOLD_MS));
+    }
+    
+    @Test
+    public void trafficHoldsBalancedBriefly() {
+        policy.onTraffic();
+        
+        assertEquals(MODE_BALANCED, policy.getMode());
+        assertEquals(MODE_LOW_POWER, at(RadioPolicy.TRAFFIC_HOLD_MS));
+    }
+    
+    @Test
+    public void lowBatteryCapsRoutineActivityButNotEmergencies() {
+        policy.setBattery(RadioPolicy.LOW_BATTERY_PERCENT, false);
+        policy.onTraffic();
+        assertEquals(MODE_BALANCED, policy.getMode());
+        policy.onEmergency();
+        assertEquals(MODE_LOW_LATENCY, policy.getMode());
+    }
+    
+    @Test
+    public void criticalBatteryLeavesEmergenciesOneLevelAboveLowPower() {
+        policy.setBattery(RadioPolicy.CRITICAL_BATTERY_PERCENT, false);
+        policy.onNeighborChange();
+        assertEquals(MODE_LOW_POWER, policy.getMode());
+        policy.onEmergency();
+        assertEquals(MODE_BALANCED, policy.getMode());
+        
+        // Charging lifts the cap
+        policy.setBattery(RadioPolicy.CRITICAL_BATTERY_PERCENT, true);
+        assertEquals(MODE_LOW_LATENCY, policy.getMode());
+    }
+    
+    @Test
+    public void reportsTimeSpentInEachMode() {
+        at(5_000);
+        policy.onEmergency();
+        at(RadioPolicy.EMERGENCY_HOLD_MS + 5_000);
+        policy.onTraffic();
+        at(RadioPolicy.EMERGENCY_HOLD_MS + 5_000 + RadioPolicy.TRAFFIC_HOLD_MS);
+        at(RadioPolicy.EMERGENCY_HOLD_MS + RadioPolicy.TRAFFIC_HOLD_MS + 30_000);
+        
+        assertEquals(RadioPolicy.EMERGENCY_HOLD_MS, policy.getTimeInMode(MODE_LOW_LATENCY));
+        assertEquals(RadioPolicy.TRAFFIC_HOLD_MS, policy.getTimeInMode(MODE_BALANCED));
+        // 5 s before the emergency and 25 s after the traffic, the current stretch included
+        assertEquals(30_000, policy.getTimeInMode(MODE_LOW_POWER));
+        assertEquals(4, policy.getTransitionCount());
+        assertEquals("LOW_POWER=30s, BALANCED=10s, LOW_LATENCY=60s", policy.describeTimeInModes());
+    }
+}
@@ -0,0 +1,57 @@
+package com.meshnetwork.mesh.radio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Scan starts within Android's sliding window, counted per scan.
+ */
+public class ScanStartLimiterTest {
+    
+    @Test
+    public void startsFreelyWithinTheBudget() {
+        ScanStartLimiter limiter = new ScanStartLimiter();
+        
+        assertEquals(0, limiter.tryStart(2, 0));
+        assertEquals(0, limiter.tryStart(2, 1_000));
+        
+        assertEquals(0, limiter.getDeferredCount());
+    }
+    
+    @Test
+    public void restartPastTheBudgetWaitsForTheOldestStartToLeave() {
+        ScanStartLimiter limiter = new ScanStartLimiter();
+        limiter.tryStart(2, 0);
+        limiter.tryStart(2, 1_000);
+        
+        // One start left, but a restart needs two: the first start at 0 has to go
+        assertEquals(ScanStartLimiter.WINDOW_MS - 2_000, limiter.tryStart(2, 2_000));
+        assertEquals(1, limiter.getDeferredCount());
+        // Nothing was recorded by the refusal
+        assertEquals(0, limiter.tryStart(1, 2_000));
+        // Now the budget is spent; both starts at 0 have to leave for another two
+        assertEquals(ScanStartLimiter.WINDOW_MS - 3_000, limiter.tryStart(2, 3_000));
+        
+        assertEquals(0, limiter.tryStart(2, ScanStartLimiter.WINDOW_MS));
+    }
+    
+    @Test
+    public void fullWindowFreesUpStartByStart() {
+        ScanStartLimiter limiter = new ScanStartLimiter(5, 30_000);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryStart(1, i * 1_000));
+        }
+        
+        // The third oldest start, at 2000, has to leave for three more
+        assertEquals(32_000 - 10_000, limiter.tryStart(3, 10_000));
+        assertEquals(0, limiter.tryStart(1, 30_000));
+        assertEquals(1_000, limiter.tryStart(1, 30_000));
+        assertEquals(0, limiter.tryStart(2, 32_000));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesMoreStartsThanTheWholeBudget() {
+        new ScanStartLimiter(5, 30_000).tryStart(6, 0);
+    }
+}
@@ -0,0 +1,218 @@
+package com.meshnetwork.mesh.reliable;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.schedule.TimingWheel;
+import com.meshnetwork.mesh.transport.FakeTransport;
+import com.meshnetwork.mesh.transport.MeshTransport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ACKs, retransmission and cancellation between fake transports on a
+ * simulated clock, including ACKs back over a link only the sender holds.
+ */
+public class HopReliabilityTest {
+    
+    private long now;
+    
+    /** A transport and its hop reliability, acknowledging as ReceivePath does */
+    private final class Node implements MeshTransport.Listener {
+        final FakeTransport transport;
+        final TimingWheel wheel = new TimingWheel(() -> now, 10, 64, delay -> { });
+        final HopReliability hop;
+        boolean acking = true;
+        int received;
+        
+        Node(String address) {
+            transport = new FakeTransport(address, 8, () -> now);
+            hop = new HopReliability(() -> now, wheel, transport);
+            transport.start(this);
+        }
+        
+        @Override
+        public void onPeerConnected(String peerAddress) {
+        }
+        
+        @Override
+        public void onPeerDisconnected(String peerAddress) {
+            hop.onPeerDown(peerAddress);
+        }
+        
+        @Override
+        public void onFrameReceived(String peerAddress, byte[] data) {
+            MeshFrame frame = new MeshFrame();
+            assertTrue(FrameCodec.decode(data, 0, data.length, frame) > 0);
+            if (frame.type == FrameType.ACK) {
+                hop.onAck(peerAddress, frame.originId, frame.sequence);
+            } else if (HopReliability.isReliable(frame.type)) {
+                received++;
+                if (acking) {
+                    hop.acknowledge(peerAddress, frame);
+                }
+            }
+        }
+    }
+    
+    private Node a;
+    private Node b;
+    private Node c;
+    
+    @Before
+    public void setUp() {
+        now = 0;
+        a = new Node("A");
+        b = new Node("B");
+        c = new Node("C");
+    }
+    
+    private static byte[] sos(int sequence) {
+        return FrameCodec.encode(new MeshFrame(FrameType.SOS, 1, sequence).setLocation(1.0, 2.0));
+    }
+    
+    /** Move the clock and fire what is due on every wheel */
+    private void advanceTo(long millis) {
+        now = millis;
+        a.wheel.advance();
+        b.wheel.advance();
+        c.wheel.advance();
+    }
+    
+    @Test
+    public void ackComesBackOverALinkOnlyTheSenderHolds() {
+        FakeTransport.linkOneWay(a.transport, b.transport);
+        assertFalse(b.transport.isConnected("A"));
+        
+        assertTrue(a.hop.send("B", 1, 7, sos(7)));
+        a.transport.completeAll();
+        now = 150;
+        b.transport.completeAll();
+        
+        assertEquals(1, b.hop.getAckSentCount());
+        assertEquals(1, a.hop.getAckedCount());
+        assertEquals(0, a.hop.getPendingCount());
+        // First sample: SRTT 150, RTTVAR 75
+        assertEquals(450, a.hop.getRto("B"));
+    }
+    
+    @Test
+    public void retransmitsWithDoublingTimeoutThenGivesUp() {
+        FakeTransport.link(a.transport, b.transport);
+        b.acking = false;
+        
+        a.hop.send("B", 1, 7, sos(7));
+        a.transport.completeAll();
+        long[] timeouts = {1_000, 2_000, 4_000, 8_000, RttEstimator.MAX_RTO_MS};
+        long at = 0;
+        for (int i = 0; i < timeouts.length; i++) {
+            advanceTo(at + timeouts[i] - 10);
+            assertEquals(i, a.hop.getRetransmittedCount());
+            at += timeouts[i];
+            advanceTo(at);
+            a.transport.completeAll();
+        }
+        
+        assertEquals(HopReliability.MAX_ATTEMPTS - 1, a.hop.getRetransmittedCount());
+        assertEquals(HopReliability.MAX_ATTEMPTS, b.received);
+        assertEquals(1, a.hop.getExpiredCount());
+        assertEquals(0, a.hop.getPendingCount());
+    }
+    
+    @Test
+    public void everyCopyIsAckedAndRetransmissionsAreNotSampled() {
+        FakeTransport.linkOneWay(a.transport, b.transport);
+        a.hop.send("B", 1, 7, sos(7));
+        a.transport.completeAll();
+        
+        // B's ACK is slow to go out, so A sends again and B answers that copy too
+        advanceTo(1_000);
+        a.transport.completeAll();
+        b.transport.completeAll();
+        
+        assertEquals(2, b.received);
+        assertEquals(2, b.hop.getAckSentCount());
+        assertEquals(1, a.hop.getRetransmittedCount());
+        assertEquals(1, a.hop.getAckedCount());
+        assertEquals(0, a.hop.getPendingCount());
+        // Karn's rule: the ACK cannot be matched to one of the two sends
+        assertEquals(RttEstimator.INITIAL_RTO_MS, a.hop.getRto("B"));
+    }
+    
+    @Test
+    public void copyFromTheNeighbourCountsAsItsAck() {
+        FakeTransport.link(a.transport, b.transport);
+        a.hop.send("B", 1, 7, sos(7));
+        
+        // B relays its copy back before A's write even completes
+        b.transport.send("A", sos(7));
+        b.transport.completeAll();
+        
+        assertEquals(1, a.hop.getImplicitAckCount());
+        assertEquals(0, a.hop.getAckedCount());
+        assertEquals(0, a.hop.getPendingCount());
+    }
+    
+    @Test
+    public void secondSendWhileInFlightIsNotRepeated() {
+        FakeTransport.link(a.transport, b.transport);
+        
+        assertTrue(a.hop.send("B", 1, 7, sos(7)));
+        assertTrue(a.hop.send("B", 1, 7, sos(7)));
+        
+        assertEquals(1, a.hop.getSentCount());
+        assertEquals(1, a.transport.getWritten().size());
+    }
+    
+    @Test
+    public void cancelStopsEveryNeighbour() {
+        FakeTransport.link(a.transport, b.transport);
+        FakeTransport.link(a.transport, c.transport);
+        b.acking = false;
+        c.acking = false;
+        
+        assertEquals(2, a.hop.broadcast(List.of("B", "C"), null, 1, 7, sos(7)));
+        assertEquals(2, a.hop.cancel(1, 7));
+        advanceTo(60_000);
+        
+        assertEquals(2, a.hop.getCancelledCount());
+        assertEquals(0, a.hop.getRetransmittedCount());
+        assertEquals(0, a.hop.getPendingCount());
+    }
+    
+    @Test
+    public void broadcastSkipsThePeerTheFrameCameFrom() {
+        FakeTransport.link(a.transport, b.transport);
+        FakeTransport.link(a.transport, c.transport);
+        
+        assertEquals(1, a.hop.broadcast(List.of("B", "C"), "B", 1, 7, sos(7)));
+        a.transport.completeAll();
+        
+        assertEquals(0, b.received);
+        assertEquals(1, c.received);
+    }
+    
+    @Test
+    public void peerDownForgetsItsSendsAndRtt() {
+        FakeTransport.link(a.transport, b.transport);
+        a.hop.send("B", 1, 7, sos(7));
+        a.transport.completeAll();
+        now = 300;
+        b.transport.completeAll();
+        a.hop.send("B", 1, 8, sos(8));
+        
+        FakeTransport.unlink(a.transport, b.transport);
+        advanceTo(60_000);
+        
+        assertEquals(0, a.hop.getPendingCount());
+        assertEquals(0, a.hop.getRetransmittedCount());
+        assertEquals(RttEstimator.INITIAL_RTO_MS, a.hop.getRto("B"));
+    }
+}
@@ -0,0 +1,43 @@
+package com.meshnetwork.mesh.reliable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * First receipt wins, and the oldest frames are forgotten beyond capacity.
+ */
+public class PendingReceiptsTest {
+    
+    @Test
+    public void firstReceiptReturnsTheRoundTrip() {
+        PendingReceipts receipts = new PendingReceipts(4);
+        receipts.onSent(1, 1_000);
+        
+        assertEquals(2_500, receipts.onReceipt(1, 3_500));
+        // A second responder's receipt for the same frame
+        assertEquals(-1, receipts.onReceipt(1, 4_000));
+        assertEquals(1, receipts.getConfirmedCount());
+        assertEquals(0, receipts.size());
+    }
+    
+    @Test
+    public void unknownReceiptsAreIgnored() {
+        PendingReceipts receipts = new PendingReceipts(4);
+        
+        assertEquals(-1, receipts.onReceipt(9, 0));
+        assertEquals(0, receipts.getConfirmedCount());
+    }
+    
+    @Test
+    public void oldestFramesAreForgottenBeyondCapacity() {
+        PendingReceipts receipts = new PendingReceipts(2);
+        receipts.onSent(1, 0);
+        receipts.onSent(2, 0);
+        receipts.onSent(3, 0);
+        
+        assertEquals(2, receipts.size());
+        assertEquals(-1, receipts.onReceipt(1, 10));
+        assertEquals(10, receipts.onReceipt(3, 10));
+    }
+}
@@ -0,0 +1,46 @@
+package com.meshnetwork.mesh.reliable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Previous hops by frame key, with the oldest forgotten beyond capacity.
+ */
+public class ReversePathTableTest {
+    
+    @Test
+    public void remembersThePreviousHopPerFrame() {
+        ReversePathTable paths = new ReversePathTable(8);
+        paths.record(1, 7, "A");
+        paths.record(2, 7, "B");
+        
+        assertEquals("A", paths.previousHop(1, 7));
+        assertEquals("B", paths.previousHop(2, 7));
+        assertNull(paths.previousHop(1, 8));
+    }
+    
+    @Test
+    public void oldestEntriesAreForgottenBeyondCapacity() {
+        ReversePathTable paths = new ReversePathTable(2);
+        paths.record(1, 1, "A");
+        paths.record(1, 2, "B");
+        paths.record(1, 3, "C");
+        
+        assertEquals(2, paths.size());
+        assertNull(paths.previousHop(1, 1));
+        assertEquals("C", paths.previousHop(1, 3));
+    }
+    
+    @Test
+    public void clearForgetsEverything() {
+        ReversePathTable paths = new ReversePathTable(2);
+        paths.record(1, 1, "A");
+        
+        paths.clear();
+        
+        assertEquals(0, paths.size());
+        assertNull(paths.previousHop(1, 1));
+    }
+}
@@ -0,0 +1,66 @@
+package com.meshnetwork.mesh.reliable;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * RFC 6298 smoothing and the clamped timeout.
+ */
+public class RttEstimatorTest {
+    
+    @Test
+    public void startsAtTheInitialTimeout() {
+        RttEstimator rtt = new RttEstimator();
+        
+        assertEquals(RttEstimator.INITIAL_RTO_MS, rtt.getRto());
+        assertEquals(-1, rtt.getSrtt());
+        assertEquals(0, rtt.getSampleCount());
+    }
+    
+    @Test
+    public void firstSampleSetsSrttAndHalfOfItAsVariance() {
+        RttEstimator rtt = new RttEstimator();
+        
+        rtt.sample(400);
+        
+        assertEquals(400, rtt.getSrtt());
+        // 400 + 4 * 200
+        assertEquals(1_200, rtt.getRto());
+    }
+    
+    @Test
+    public void laterSamplesAreSmoothed() {
+        RttEstimator rtt = new RttEstimator();
+        rtt.sample(400);
+        
+        rtt.sample(800);
+        
+        // SRTT 7/8 * 400 + 1/8 * 800, RTTVAR 3/4 * 200 + 1/4 * 400
+        assertEquals(450, rtt.getSrtt());
+        assertEquals(450 + 4 * 250, rtt.getRto());
+        assertEquals(2, rtt.getSampleCount());
+    }
+    
+    @Test
+    public void timeoutIsClamped() {
+        RttEstimator fast = new RttEstimator();
+        RttEstimator slow = new RttEstimator();
+        
+        fast.sample(10);
+        slow.sample(5_000);
+        
+        assertEquals(RttEstimator.MIN_RTO_MS, fast.getRto());
+        assertEquals(RttEstimator.MAX_RTO_MS, slow.getRto());
+    }
+    
+    @Test
+    public void negativeSamplesAreIgnored() {
+        RttEstimator rtt = new RttEstimator();
+        
+        rtt.sample(-1);
+        
+        assertEquals(0, rtt.getSampleCount());
+        assertEquals(RttEstimator.INITIAL_RTO_MS, rtt.getRto());
+    }
+}
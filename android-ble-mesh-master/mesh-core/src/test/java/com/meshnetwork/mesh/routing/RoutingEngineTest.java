@@ -0,0 +1,124 @@
+package com.meshnetwork.mesh.routing;
+
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RoutingEngineTest {
+    
+    private static final String PEER = "AA:00:00:00:00:01";
+    
+    /** Every frame waits 50 ms and is cancelled by two overheard copies */
+    private static RoutingEngine delayedEngine() {
+        LinkQualityTable links = new LinkQualityTable();
+        return new RoutingEngine(new EtxStrategy(links, 100, 2));
+    }
+    
+    private static MeshFrame text(int origin, int sequence) {
+        return new MeshFrame(FrameType.TEXT, origin, sequence);
+    }
+    
+    @Test
+    public void waitingRelayIsSuppressedByEnoughCopies() {
+        RoutingEngine engine = delayedEngine();
+        
+        assertEquals(50, engine.onFirstCopy(text(1, 1), PEER));
+        assertEquals(50, engine.onFirstCopy(text(1, 2), PEER));
+        engine.onDuplicate(1, 1);
+        engine.onDuplicate(1, 1);
+        engine.onDuplicate(1, 2);
+        
+        assertFalse(engine.onRelayDue(1, 1));
+        assertTrue(engine.onRelayDue(1, 2));
+        assertEquals(1, engine.getSuppressedCount());
+        assertEquals(1, engine.getRelayedCount());
+        assertEquals(0, engine.getPendingCount());
+        // A relay is due only once
+        assertFalse(engine.onRelayDue(1, 2));
+    }
+    
+    @Test
+    public void duplicatesOfUnknownFramesAreIgnored() {
+        RoutingEngine engine = delayedEngine();
+        
+        engine.onDuplicate(7, 7);
+        
+        assertFalse(engine.onRelayDue(7, 7));
+        assertEquals(0, engine.getPendingCount());
+    }
+    
+    @Test
+    public void relaysAtOnceWhenTooManyAreWaiting() {
+        RoutingEngine engine = delayedEngine();
+        for (int i = 0; i < RoutingEngine.MAX_PENDING; i++) {
+            assertEquals(50, engine.onFirstCopy(text(1, i), PEER));
+        }
+        
+        assertEquals(0, engine.onFirstCopy(text(2, 0), PEER));
+        assertEquals(RoutingEngine.MAX_PENDING, engine.getPendingCount());
+    }
+    
+    @Test
+    public void keepsCountsApartUnderChurn() {
+        // Random adds and removals of a full table, checked against a plain model
+        RoutingEngine engine = delayedEngine();
+        Random random = new Random(1);
+        int[] copies = new int[4096];
+        boolean[] waiting = new boolean[copies.length];
+        int waitingCount = 0;
+        
+        for (int step = 0; step < 200_000; step++) {
+            int sequence = random.nextInt(copies.length);
+            int action = random.nextInt(3);
+            if (action == 0 && !waiting[sequence] && waitingCount < RoutingEngine.MAX_PENDING) {
+                assertEquals(50, engine.onFirstCopy(text(3, sequence), PEER));
+                waiting[sequence] = true;
+                copies[sequence] = 0;
+                waitingCount++;
+            } else if (action == 1) {
+                engine.onDuplicate(3, sequence);
+                copies[sequence]++;
+            } else if (action == 2) {
+                boolean expected = waiting[sequence] && copies[sequence] < 2;
+                assertEquals("relay of " + sequence, expected, engine.onRelayDue(3, sequence));
+                if (waiting[sequence]) {
+                    waiting[sequence] = false;
+                    waitingCount--;
+                }
+            }
+            assertEquals(waitingCount, engine.getPendingCount());
+        }
+    }
+    
+    @Test
+    public void clearForgetsWaitingRelays() {
+        RoutingEngine engine = delayedEngine();
+        for (int i = 0; i < RoutingEngine.MAX_PENDING; i++) {
+            engine.onFirstCopy(text(1, i), PEER);
+        }
+        
+        engine.clear();
+        
+        assertEquals(0, engine.getPendingCount());
+        assertFalse(engine.onRelayDue(1, 0));
+        // The table has room for delayed relays again
+        assertEquals(50, engine.onFirstCopy(text(2, 0), PEER));
+    }
+    
+    @Test
+    public void dropsFramesWithoutHopsLeft() {
+        RoutingEngine engine = new RoutingEngine(new FloodingStrategy());
+        MeshFrame frame = text(1, 1);
+        frame.ttl = 1;
+        
+        assertEquals(RoutingStrategy.DROP, engine.onFirstCopy(frame, PEER));
+        assertEquals(1, engine.getDroppedCount());
+    }
+}
@@ -0,0 +1,159 @@
+package com.meshnetwork.mesh.schedule;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Class shares, capacity and displacement, with fragment groups kept whole
+ */
+public class OutboundSchedulerTest {
+    
+    /** Fragments of one frame, each tagged with its frame and index */
+    private static byte[][] group(int frame, int count) {
+        byte[][] packets = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            packets[i] = new byte[] {(byte) frame, (byte) i};
+        }
+        return packets;
+    }
+    
+    @Test
+    public void sendsHigherClassesFirst() {
+        OutboundScheduler scheduler = new OutboundScheduler(8);
+        byte[] chat = {1};
+        byte[] sos = {2};
+        scheduler.offer(chat, Priority.CHAT, 0);
+        scheduler.offer(sos, Priority.SOS, 0);
+        
+        assertSame(sos, scheduler.poll(0));
+        assertSame(chat, scheduler.poll(0));
+        assertNull(scheduler.poll(0));
+    }
+    
+    @Test
+    public void groupsCountAgainstTheClassShare() {
+        // Chat may fill half of 8
+        OutboundScheduler scheduler = new OutboundScheduler(8);
+        scheduler.offer(new byte[1], Priority.CHAT, 0);
+        scheduler.offer(new byte[1], Priority.CHAT, 0);
+        
+        assertFalse(scheduler.offerAll(group(1, 3), Priority.CHAT, 0));
+        assertEquals(2, scheduler.size(Priority.CHAT));
+        assertEquals(3, scheduler.getDroppedCount(Priority.CHAT));
+        assertTrue(scheduler.offerAll(group(2, 2), Priority.CHAT, 0));
+        assertEquals(4, scheduler.size(Priority.CHAT));
+    }
+    
+    @Test
+    public void groupsNeverOverfillTheQueue() {
+        OutboundScheduler scheduler = new OutboundScheduler(8);
+        for (int i = 0; i < 6; i++) {
+            scheduler.offer(new byte[1], Priority.SOS, 0);
+        }
+        
+        // Nothing below alerts to displace
+        assertFalse(scheduler.offerAll(group(1, 3), Priority.ALERT, 0));
+        assertTrue(scheduler.offerAll(group(2, 2), Priority.ALERT, 0));
+        assertEquals(8, scheduler.size());
+        assertFalse(scheduler.offer(new byte[1], Priority.ALERT, 0));
+        // An SOS displaces the whole alert frame
+        assertTrue(scheduler.offerAll(group(3, 1), Priority.SOS, 0));
+        assertEquals(0, scheduler.size(Priority.ALERT));
+        assertEquals(7, scheduler.size());
+    }
+    
+    @Test
+    public void displacesWholeGroupsOfTheLowestClass() {
+        OutboundScheduler scheduler = new OutboundScheduler(8);
+        scheduler.offerAll(group(1, 3), Priority.CHAT, 0);
+        scheduler.offer(new byte[] {9}, Priority.CHAT, 0);
+        scheduler.offerAll(group(2, 2), Priority.LOCATION, 0);
+        scheduler.offer(new byte[] {8}, Priority.SOS, 0);
+        scheduler.offer(new byte[] {8}, Priority.SOS, 0);
+        
+        // Room for 4 takes the chat packet and then the whole chat frame, not part of it
+        assertTrue(scheduler.offerAll(group(3, 4), Priority.ALERT, 0));
+        assertEquals(0, scheduler.size(Priority.CHAT));
+        assertEquals(4, scheduler.getDroppedCount(Priority.CHAT));
+        assertEquals(2, scheduler.size(Priority.LOCATION));
+        assertEquals(8, scheduler.size());
+    }
+    
+    @Test
+    public void displacesNothingWhenItCannotMakeRoom() {
+        OutboundScheduler scheduler = new OutboundScheduler(8);
+        scheduler.offerAll(group(1, 2), Priority.CHAT, 0);
+        for (int i = 0; i < 6; i++) {
+            scheduler.offer(new byte[1], Priority.SOS, 0);
+        }
+        
+        assertFalse(scheduler.offerAll(group(2, 3), Priority.ALERT, 0));
+        assertEquals(2, scheduler.size(Priority.CHAT));
+        assertEquals(0, scheduler.getDroppedCount(Priority.CHAT));
+    }
+    
+    @Test
+    public void neverDisplacesTheRestOfAFrameAlreadyStarted() {
+        OutboundScheduler scheduler = new OutboundScheduler(8);
+        scheduler.setQueueLimit(Priority.CHAT, 8);
+        byte[][] frame = group(1, 8);
+        scheduler.offerAll(frame, Priority.CHAT, 0);
+        assertSame(frame[0], scheduler.poll(0));
+        
+        assertTrue(scheduler.offer(new byte[1], Priority.SOS, 0));
+        assertFalse(scheduler.offer(new byte[1], Priority.SOS, 0));
+        
+        assertEquals(7, scheduler.size(Priority.CHAT));
+        scheduler.poll(0);
+        for (int i = 1; i < frame.length; i++) {
+            assertArrayEquals(frame[i], scheduler.poll(0));
+        }
+    }
+    
+    @Test
+    public void singlePacketsDisplaceGroupsWhole() {
+        OutboundScheduler scheduler = new OutboundScheduler(4);
+        scheduler.setQueueLimit(Priority.CHAT, 4);
+        scheduler.offerAll(group(1, 3), Priority.CHAT, 0);
+        scheduler.offer(new byte[] {9}, Priority.CHAT, 0);
+        
+        assertTrue(scheduler.offer(new byte[1], Priority.LOCATION, 0));
+        assertEquals(3, scheduler.size(Priority.CHAT));
+        assertTrue(scheduler.offer(new byte[1], Priority.LOCATION, 0));
+        assertEquals(0, scheduler.size(Priority.CHAT));
+        assertEquals(2, scheduler.size());
+    }
+    
+    @Test
+    public void onlyAnEmptyQueueTakesAnOversizedGroup() {
+        OutboundScheduler scheduler = new OutboundScheduler(4);
+        
+        assertTrue(scheduler.offerAll(group(1, 6), Priority.CHAT, 0));
+        assertEquals(6, scheduler.size());
+        assertFalse(scheduler.offerAll(group(2, 6), Priority.CHAT, 0));
+        assertFalse(scheduler.offer(new byte[1], Priority.CHAT, 0));
+        // It is still displaced whole by anything higher
+        assertTrue(scheduler.offer(new byte[1], Priority.SOS, 0));
+        assertEquals(0, scheduler.size(Priority.CHAT));
+        assertEquals(1, scheduler.size());
+    }
+    
+    @Test
+    public void coalescesByKeyInPlace() {
+        OutboundScheduler scheduler = new OutboundScheduler(8);
+        byte[] newer = {2};
+        scheduler.offer(new byte[] {1}, Priority.LOCATION, 42, 0);
+        scheduler.offer(new byte[] {3}, Priority.LOCATION, 0);
+        scheduler.offer(newer, Priority.LOCATION, 42, 0);
+        
+        assertEquals(2, scheduler.size());
+        assertEquals(1, scheduler.getCoalescedCount(Priority.LOCATION));
+        assertSame(newer, scheduler.poll(0));
+    }
+}
@@ -0,0 +1,94 @@
+package com.meshnetwork.mesh.schedule;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Firing, cancelling and clearing on a simulated clock.
+ */
+public class TimingWheelTest {
+    
+    private long now;
+    private final List<Long> wakes = new ArrayList<>();
+    private final List<String> fired = new ArrayList<>();
+    private TimingWheel wheel;
+    
+    @Before
+    public void setUp() {
+        now = 0;
+        wheel = new TimingWheel(() -> now, 10, 8, wakes::add);
+    }
+    
+    private TimingWheel.Timeout schedule(String name, long delay) {
+        return wheel.schedule(() -> fired.add(name), delay);
+    }
+    
+    @Test
+    public void firesInDeadlineOrderAcrossTurns() {
+        schedule("late", 200);
+        schedule("early", 20);
+        
+        now = 20;
+        assertEquals(1, wheel.advance());
+        // 200 ms is more than one turn of 80 ms; the timer waits in its slot
+        now = 120;
+        assertEquals(0, wheel.advance());
+        now = 200;
+        assertEquals(1, wheel.advance());
+        
+        assertEquals(List.of("early", "late"), fired);
+        assertEquals(0, wheel.size());
+    }
+    
+    @Test
+    public void cancelledTimersDoNotFire() {
+        TimingWheel.Timeout timeout = schedule("cancelled", 30);
+        
+        assertTrue(wheel.cancel(timeout));
+        assertFalse(wheel.cancel(timeout));
+        now = 100;
+        wheel.advance();
+        
+        assertTrue(fired.isEmpty());
+    }
+    
+    @Test
+    public void clearCancelsEveryPendingTimer() {
+        List<TimingWheel.Timeout> timeouts = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            timeouts.add(schedule("t" + i, 10 * i));
+        }
+        
+        assertEquals(20, wheel.clear());
+        
+        assertEquals(0, wheel.size());
+        for (TimingWheel.Timeout timeout : timeouts) {
+            assertFalse(timeout.isPending());
+        }
+        now = 1000;
+        assertEquals(0, wheel.advance());
+        assertTrue(fired.isEmpty());
+    }
+    
+    @Test
+    public void timersCanBeRescheduledAfterClear() {
+        TimingWheel.Timeout timeout = schedule("again", 500);
+        wheel.clear();
+        wakes.clear();
+        
+        wheel.schedule(timeout, 30);
+        
+        // The wheel forgot its earlier wake request and asks again
+        assertEquals(List.of(30L), wakes);
+        now = 30;
+        assertEquals(1, wheel.advance());
+        assertEquals(List.of("again"), fired);
+    }
+}
@@ -0,0 +1,212 @@
+package com.meshnetwork.mesh.store;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reopening, crash recovery from torn records and damaged indexes, and
+ * dropping frames by expiry and disk budget.
+ */
+public class CarryForwardStoreTest {
+    
+    private static final int ORIGIN = 1;
+    private static final int FRAME_SIZE = 40;
+    private static final int RECORD_SIZE = CarryForwardStore.RECORD_HEADER_SIZE + FRAME_SIZE;
+    // Four records fill a segment exactly
+    private static final long SEGMENT_BYTES = 4 * RECORD_SIZE;
+    private static final long BUDGET_BYTES = 4 * SEGMENT_BYTES;
+    private static final long EXPIRES_AT = 100_000;
+    
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    
+    private File directory;
+    
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("carry");
+    }
+    
+    private static byte[] frame(int sequence) {
+        byte[] frame = new byte[FRAME_SIZE];
+        Arrays.fill(frame, (byte) sequence);
+        return frame;
+    }
+    
+    private CarryForwardStore open(long budgetBytes, long now) throws IOException {
+        return new CarryForwardStore(directory, budgetBytes, SEGMENT_BYTES, now);
+    }
+    
+    private CarryForwardStore open() throws IOException {
+        return open(BUDGET_BYTES, 0);
+    }
+    
+    /** A store holding frames 0 to count - 1, closed again */
+    private void fill(int count) throws IOException {
+        try (CarryForwardStore store = open()) {
+            for (int i = 0; i < count; i++) {
+                assertTrue(store.add(ORIGIN, i, frame(i), EXPIRES_AT, false));
+            }
+        }
+    }
+    
+    private File file(long segment, String suffix) {
+        return new File(directory, String.format("%012d", segment) + suffix);
+    }
+    
+    private static void assertHolds(CarryForwardStore store, int from, int to) throws IOException {
+        assertEquals(to - from, store.size());
+        for (int i = from; i < to; i++) {
+            assertArrayEquals(frame(i), store.get(ORIGIN, i));
+        }
+    }
+    
+    @Test
+    public void reopensWithEverythingStored() throws IOException {
+        fill(10);
+        
+        try (CarryForwardStore store = open()) {
+            assertHolds(store, 0, 10);
+            assertEquals(3, store.getSegmentCount());
+            assertEquals(10 * RECORD_SIZE, store.getDiskBytes());
+            assertFalse(store.wasRecoveredFromScan());
+            // Still takes appends after the last open segment
+            assertTrue(store.add(ORIGIN, 10, frame(10), EXPIRES_AT, true));
+            assertFalse(store.add(ORIGIN, 3, frame(3), EXPIRES_AT, true));
+        }
+    }
+    
+    @Test
+    public void tornTailRecordIsTruncated() throws IOException {
+        fill(3);
+        try (RandomAccessFile log = new RandomAccessFile(file(1, ".log"), "rw")) {
+            // Half the header of a fourth record
+            log.seek(log.length());
+            log.write(new byte[CarryForwardStore.RECORD_HEADER_SIZE / 2]);
+        }
+        
+        try (CarryForwardStore store = open()) {
+            assertHolds(store, 0, 3);
+            assertEquals(3 * RECORD_SIZE, store.getDiskBytes());
+        }
+        assertEquals(3 * RECORD_SIZE, file(1, ".log").length());
+    }
+    
+    @Test
+    public void corruptRecordAndEverythingAfterItIsTruncated() throws IOException {
+        fill(3);
+        try (RandomAccessFile log = new RandomAccessFile(file(1, ".log"), "rw")) {
+            log.seek(RECORD_SIZE + CarryForwardStore.RECORD_HEADER_SIZE);
+            log.write(0x7F);
+        }
+        
+        try (CarryForwardStore store = open()) {
+            assertHolds(store, 0, 1);
+            assertNull(store.get(ORIGIN, 2));
+        }
+        assertEquals(RECORD_SIZE, file(1, ".log").length());
+    }
+    
+    @Test
+    public void damagedIndexFallsBackToAScanAndIsRewritten() throws IOException {
+        fill(10);
+        try (RandomAccessFile index = new RandomAccessFile(file(1, ".idx"), "rw")) {
+            index.seek(12);
+            index.write(0xFF);
+        }
+        
+        try (CarryForwardStore store = open()) {
+            assertTrue(store.wasRecoveredFromScan());
+            assertHolds(store, 0, 10);
+        }
+        try (CarryForwardStore store = open()) {
+            assertFalse(store.wasRecoveredFromScan());
+            assertHolds(store, 0, 10);
+        }
+    }
+    
+    @Test
+    public void missingIndexFallsBackToAScanAndIsRewritten() throws IOException {
+        fill(10);
+        assertTrue(file(2, ".idx").delete());
+        
+        try (CarryForwardStore store = open()) {
+            assertTrue(store.wasRecoveredFromScan());
+            assertHolds(store, 0, 10);
+        }
+        assertTrue(file(2, ".idx").exists());
+        try (CarryForwardStore store = open()) {
+            assertFalse(store.wasRecoveredFromScan());
+        }
+    }
+    
+    @Test
+    public void indexWithoutItsSegmentIsRemoved() throws IOException {
+        fill(10);
+        // As if the process died between deleting the log and its index
+        assertTrue(file(1, ".log").delete());
+        
+        try (CarryForwardStore store = open()) {
+            assertHolds(store, 4, 10);
+        }
+        assertFalse(file(1, ".idx").exists());
+        assertTrue(file(2, ".idx").exists());
+    }
+    
+    @Test
+    public void oldestSegmentIsDroppedForTheBudget() throws IOException {
+        try (CarryForwardStore store = open(2 * SEGMENT_BYTES, 0)) {
+            for (int i = 0; i < 12; i++) {
+                assertTrue(store.add(ORIGIN, i, frame(i), EXPIRES_AT, false));
+            }
+            
+            assertHolds(store, 4, 12);
+            assertFalse(store.contains(ORIGIN, 0));
+            assertEquals(4, store.getDroppedForBudgetCount());
+            assertEquals(2, store.getSegmentCount());
+            assertEquals(2 * SEGMENT_BYTES, store.getDiskBytes());
+        }
+        assertFalse(file(1, ".log").exists());
+        assertFalse(file(1, ".idx").exists());
+    }
+    
+    @Test
+    public void expiredFramesAreDroppedWithTheirSegments() throws IOException {
+        try (CarryForwardStore store = open()) {
+            for (int i = 0; i < 8; i++) {
+                store.add(ORIGIN, i, frame(i), i < 4 ? 1_000 : 5_000, false);
+            }
+            
+            // Expired frames are skipped before the sweep removes them
+            List<Integer> visited = new ArrayList<>();
+            assertEquals(4, store.forEachLive(2_000, 10, (origin, sequence, frame) -> visited.add(sequence)));
+            assertEquals(Arrays.asList(7, 6, 5, 4), visited);
+            assertEquals(4, store.keys(2_000).length);
+            
+            assertEquals(4, store.expire(2_000));
+            assertHolds(store, 4, 8);
+            assertEquals(1, store.getSegmentCount());
+        }
+        assertFalse(file(1, ".log").exists());
+        
+        // Opening after the rest expired drops them too
+        try (CarryForwardStore store = open(BUDGET_BYTES, 6_000)) {
+            assertEquals(0, store.size());
+        }
+    }
+}
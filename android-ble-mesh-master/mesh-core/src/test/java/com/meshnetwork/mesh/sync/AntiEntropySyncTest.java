@@ -0,0 +1,187 @@
+package com.meshnetwork.mesh.sync;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.dedup.SeenMessageCache;
+import com.meshnetwork.mesh.transport.FakeTransport;
+import com.meshnetwork.mesh.transport.MeshTransport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Two nodes converging on the union of their stores, over a link only one
+ * of them holds, with retries for large differences and the tie-break
+ * when both start a round.
+ */
+public class AntiEntropySyncTest {
+    
+    private long now;
+    
+    /** A store, its sync and a transport that files every received frame */
+    private final class Node implements MeshTransport.Listener, AntiEntropySync.FrameSource {
+        final Map<Long, byte[]> frames = new LinkedHashMap<>();
+        final FakeTransport transport;
+        final AntiEntropySync sync;
+        
+        Node(String address, int nodeId) {
+            transport = new FakeTransport(address, 4096, () -> now);
+            // A negotiated MTU, so the fragments of the largest filter fit the queue
+            transport.setWriteSize(509);
+            sync = new AntiEntropySync(nodeId, this, transport, () -> now);
+            transport.start(this);
+        }
+        
+        void store(int originId, int from, int to) {
+            for (int sequence = from; sequence < to; sequence++) {
+                MeshFrame frame = new MeshFrame(FrameType.TEXT, originId, sequence).setBody("carried " + sequence);
+                frames.put(SeenMessageCache.key(originId, sequence), FrameCodec.encode(frame));
+            }
+        }
+        
+        @Override
+        public long[] keys() {
+            long[] keys = new long[frames.size()];
+            int i = 0;
+            for (long key : frames.keySet()) {
+                keys[i++] = key;
+            }
+            return keys;
+        }
+        
+        @Override
+        public byte[] frame(long key) {
+            return frames.get(key);
+        }
+        
+        @Override
+        public void onPeerConnected(String peerAddress) {
+        }
+        
+        @Override
+        public void onPeerDisconnected(String peerAddress) {
+            sync.onDisconnected(peerAddress);
+        }
+        
+        @Override
+        public void onFrameReceived(String peerAddress, byte[] data) {
+            MeshFrame frame = new MeshFrame();
+            assertTrue(FrameCodec.decode(data, 0, data.length, frame) > 0);
+            if (frame.type == FrameType.SYNC) {
+                sync.onSyncFrame(peerAddress, frame);
+            } else {
+                frames.put(SeenMessageCache.key(frame.originId, frame.sequence), data);
+            }
+        }
+    }
+    
+    private Node a;
+    private Node b;
+    
+    @Before
+    public void setUp() {
+        now = 0;
+        a = new Node("A", 1);
+        b = new Node("B", 2);
+    }
+    
+    /** Deliver writes both ways until nothing is left in flight */
+    private void exchange() {
+        while (a.transport.completeAll() + b.transport.completeAll() > 0) {
+            // keep going
+        }
+    }
+    
+    private void assertConverged(int expected) {
+        assertEquals(expected, a.frames.size());
+        assertEquals(a.frames.keySet(), b.frames.keySet());
+    }
+    
+    @Test
+    public void convergesOverALinkOnlyTheInitiatorHolds() {
+        a.store(7, 0, 50);
+        b.store(7, 0, 50);
+        a.store(8, 0, 5);
+        b.store(9, 0, 3);
+        FakeTransport.linkOneWay(a.transport, b.transport);
+        
+        a.sync.onContact("B");
+        exchange();
+        
+        // B answers, requests and pushes over A's link
+        assertConverged(58);
+        assertEquals(5, b.sync.getKeysRequested());
+        assertEquals(3, b.sync.getFramesSent());
+        assertEquals(5, a.sync.getFramesSent());
+    }
+    
+    @Test
+    public void largeDifferenceRetriesWithLargerFilters() {
+        a.store(7, 0, 100);
+        FakeTransport.link(a.transport, b.transport);
+        
+        a.sync.onContact("B");
+        exchange();
+        
+        // 30, 60 and 120 cells are too few for 100 keys; 240 spans two FILTER frames
+        assertConverged(100);
+        assertEquals(3, b.sync.getRetryCount());
+        assertEquals(0, b.sync.getFallbackCount() + a.sync.getFallbackCount());
+    }
+    
+    @Test
+    public void differenceTooLargeForAnyFilterFallsBackToNewestFrames() {
+        // Past what even the largest filter can list
+        a.store(7, 0, 8_000);
+        FakeTransport.link(a.transport, b.transport);
+        
+        a.sync.onContact("B");
+        exchange();
+        
+        assertEquals(1, a.sync.getFallbackCount());
+        assertTrue(b.frames.size() >= AntiEntropySync.FALLBACK_FRAMES);
+        assertTrue(b.frames.containsKey(SeenMessageCache.key(7, 7_999)));
+    }
+    
+    @Test
+    public void onlyTheLowerIdAnswersWhenBothStartARound() {
+        a.store(7, 0, 20);
+        b.store(7, 10, 30);
+        FakeTransport.link(a.transport, b.transport);
+        
+        a.sync.onContact("B");
+        b.sync.onContact("A");
+        exchange();
+        
+        assertConverged(30);
+        // B (id 2) ignored A's filter; A decoded B's and settled both directions
+        assertEquals(0, b.sync.getKeysRequested());
+        assertEquals(10, a.sync.getKeysRequested());
+        assertEquals(10, a.sync.getFramesSent());
+        assertEquals(10, b.sync.getFramesSent());
+    }
+    
+    @Test
+    public void staleRoundNoLongerSuppressesAnswers() {
+        a.store(7, 0, 5);
+        FakeTransport.link(a.transport, b.transport);
+        b.sync.onContact("A");
+        exchange();
+        
+        now = AntiEntropySync.ROUND_INTERVAL_MS;
+        a.store(8, 0, 3);
+        a.sync.onContact("B");
+        exchange();
+        
+        // B's own round has run out, so B answers A's filter itself
+        assertConverged(8);
+        assertEquals(3, b.sync.getKeysRequested());
+    }
+}
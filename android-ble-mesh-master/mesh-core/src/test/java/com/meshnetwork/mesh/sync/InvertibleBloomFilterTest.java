@@ -0,0 +1,128 @@
+package com.meshnetwork.mesh.sync;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Listing the difference of two key sets, failing when it is too large,
+ * and cells surviving the wire.
+ */
+public class InvertibleBloomFilterTest {
+    
+    private static InvertibleBloomFilter filter(int cells, long from, long to, long... extra) {
+        InvertibleBloomFilter filter = new InvertibleBloomFilter(cells);
+        for (long key = from; key < to; key++) {
+            filter.add(key << 32 | key);
+        }
+        for (long key : extra) {
+            filter.add(key);
+        }
+        return filter;
+    }
+    
+    private static Set<Long> set(InvertibleBloomFilter.KeyList keys) {
+        Set<Long> set = new HashSet<>();
+        for (int i = 0; i < keys.size(); i++) {
+            assertTrue(set.add(keys.get(i)));
+        }
+        return set;
+    }
+    
+    @Test
+    public void listsTheDifferenceOnBothSides() {
+        InvertibleBloomFilter here = filter(30, 0, 500, 1_000L, 1_001L);
+        InvertibleBloomFilter there = filter(30, 0, 500, -7L);
+        InvertibleBloomFilter.KeyList onlyHere = new InvertibleBloomFilter.KeyList();
+        InvertibleBloomFilter.KeyList onlyThere = new InvertibleBloomFilter.KeyList();
+        
+        here.subtract(there);
+        
+        assertTrue(here.decode(onlyHere, onlyThere));
+        assertEquals(Set.of(1_000L, 1_001L), set(onlyHere));
+        assertEquals(Set.of(-7L), set(onlyThere));
+    }
+    
+    @Test
+    public void identicalSetsLeaveNothing() {
+        InvertibleBloomFilter here = filter(30, 0, 100);
+        InvertibleBloomFilter.KeyList onlyHere = new InvertibleBloomFilter.KeyList();
+        InvertibleBloomFilter.KeyList onlyThere = new InvertibleBloomFilter.KeyList();
+        
+        here.subtract(filter(30, 0, 100));
+        
+        assertTrue(here.decode(onlyHere, onlyThere));
+        assertEquals(0, onlyHere.size());
+        assertEquals(0, onlyThere.size());
+    }
+    
+    @Test
+    public void overloadedFilterReportsFailure() {
+        // 100 differences in 30 cells, far past cells / 1.5
+        InvertibleBloomFilter here = filter(30, 0, 100);
+        InvertibleBloomFilter.KeyList onlyHere = new InvertibleBloomFilter.KeyList();
+        InvertibleBloomFilter.KeyList onlyThere = new InvertibleBloomFilter.KeyList();
+        
+        here.subtract(filter(30, 0, 0));
+        
+        assertFalse(here.decode(onlyHere, onlyThere));
+        assertTrue(onlyHere.size() < 100);
+    }
+    
+    @Test
+    public void sameDifferenceDecodesWithMoreCells() {
+        InvertibleBloomFilter here = filter(240, 0, 100);
+        InvertibleBloomFilter.KeyList onlyHere = new InvertibleBloomFilter.KeyList();
+        
+        here.subtract(filter(240, 0, 0));
+        
+        assertTrue(here.decode(onlyHere, new InvertibleBloomFilter.KeyList()));
+        assertEquals(100, onlyHere.size());
+    }
+    
+    @Test
+    public void cellsSurviveTheWireInPieces() {
+        InvertibleBloomFilter sent = filter(60, 0, 40, -1L);
+        ByteBuffer out = ByteBuffer.allocate(sent.getCellCount() * InvertibleBloomFilter.MAX_CELL_BYTES);
+        sent.writeCells(out, 0, 25);
+        sent.writeCells(out, 25, sent.getCellCount() - 25);
+        out.flip();
+        
+        InvertibleBloomFilter received = new InvertibleBloomFilter(60);
+        assertTrue(received.readCells(out, 0, 25));
+        assertTrue(received.readCells(out, 25, received.getCellCount() - 25));
+        assertEquals(0, out.remaining());
+        
+        // A copy subtracts to nothing
+        InvertibleBloomFilter.KeyList onlyHere = new InvertibleBloomFilter.KeyList();
+        InvertibleBloomFilter.KeyList onlyThere = new InvertibleBloomFilter.KeyList();
+        received.subtract(filter(60, 0, 40, -1L));
+        assertTrue(received.decode(onlyHere, onlyThere));
+        assertEquals(0, onlyHere.size() + onlyThere.size());
+    }
+    
+    @Test
+    public void truncatedOrOutOfRangeCellsAreRejected() {
+        InvertibleBloomFilter sent = filter(30, 0, 10);
+        ByteBuffer out = ByteBuffer.allocate(sent.getCellCount() * InvertibleBloomFilter.MAX_CELL_BYTES);
+        sent.writeCells(out, 0, 30);
+        out.flip();
+        InvertibleBloomFilter received = new InvertibleBloomFilter(30);
+        
+        assertFalse(received.readCells(out.duplicate(), 20, 11));
+        assertFalse(received.readCells(out.duplicate(), -1, 1));
+        out.limit(out.limit() - 1);
+        assertFalse(received.readCells(out, 0, 30));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void filtersOfDifferentSizesCannotBeSubtracted() {
+        new InvertibleBloomFilter(30).subtract(new InvertibleBloomFilter(60));
+    }
+}
@@ -0,0 +1,111 @@
+package com.meshnetwork.mesh.transport;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Which frame is on air when: priority then arrival order, hold expiry,
+ * replacement of location updates and refusal by size and capacity.
+ */
+public class AdvertQueueTest {
+    
+    private static final long HOLD = 500;
+    
+    private static byte[] frame(int type, int origin, int sequence) {
+        MeshFrame frame = new MeshFrame(type, origin, sequence);
+        if (FrameType.hasCoordinates(type)) {
+            frame.setLocation(52.52, 13.40);
+        }
+        if (FrameType.hasBody(type)) {
+            frame.setBody("hi");
+        }
+        return FrameCodec.encode(frame);
+    }
+    
+    private static AdvertQueue queue(int capacity) {
+        return new AdvertQueue(capacity, HOLD, AdvertQueue.LEGACY_MAX_FRAME_SIZE);
+    }
+    
+    @Test
+    public void highestPriorityGoesFirstThenArrivalOrder() {
+        AdvertQueue queue = queue(8);
+        byte[] chat1 = frame(FrameType.TEXT, 1, 1);
+        byte[] chat2 = frame(FrameType.TEXT, 1, 2);
+        byte[] sos = frame(FrameType.SOS, 2, 1);
+        byte[] alert = frame(FrameType.ALERT, 3, 1);
+        assertTrue(queue.offer(chat1));
+        assertTrue(queue.offer(chat2));
+        assertTrue(queue.offer(sos));
+        assertTrue(queue.offer(alert));
+        
+        assertSame(sos, queue.poll(0));
+        assertSame(alert, queue.poll(HOLD));
+        assertSame(chat1, queue.poll(2 * HOLD));
+        assertSame(chat2, queue.poll(3 * HOLD));
+        assertEquals(4, queue.getAdvertisedCount());
+    }
+    
+    @Test
+    public void frameStaysOnAirForItsHoldThenRetires() {
+        AdvertQueue queue = queue(8);
+        byte[] first = frame(FrameType.TEXT, 1, 1);
+        byte[] sos = frame(FrameType.SOS, 1, 2);
+        queue.offer(first);
+        
+        assertSame(first, queue.poll(100));
+        assertEquals(100 + HOLD, queue.getNextChangeAt());
+        // A more urgent frame waits for the hold to end rather than cutting it short
+        queue.offer(sos);
+        assertSame(first, queue.poll(100 + HOLD - 1));
+        assertSame(sos, queue.poll(100 + HOLD));
+        
+        assertNull(queue.poll(100 + 2 * HOLD));
+        assertEquals(0, queue.getNextChangeAt());
+        assertEquals(0, queue.size());
+    }
+    
+    @Test
+    public void locationUpdateReplacesTheWaitingOneFromTheSameOrigin() {
+        AdvertQueue queue = queue(8);
+        byte[] old = frame(FrameType.LOCATION, 1, 1);
+        byte[] other = frame(FrameType.LOCATION, 2, 1);
+        byte[] fresh = frame(FrameType.LOCATION, 1, 2);
+        queue.offer(old);
+        queue.offer(other);
+        queue.offer(fresh);
+        
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getReplacedCount());
+        // The fresh update keeps the place of the one it replaced
+        assertSame(fresh, queue.poll(0));
+        assertSame(other, queue.poll(HOLD));
+    }
+    
+    @Test
+    public void refusesFramesThatAreTooLargeOrFindTheQueueFull() {
+        AdvertQueue queue = queue(2);
+        MeshFrame text = new MeshFrame(FrameType.TEXT, 1, 9).setBody("longer than an advertisement can carry");
+        byte[] large = FrameCodec.encode(text);
+        
+        assertTrue(large.length > AdvertQueue.LEGACY_MAX_FRAME_SIZE);
+        assertFalse(queue.offer(large));
+        assertTrue(queue.offer(frame(FrameType.TEXT, 1, 1)));
+        assertTrue(queue.offer(frame(FrameType.TEXT, 1, 2)));
+        assertFalse(queue.offer(frame(FrameType.SOS, 1, 3)));
+        assertEquals(2, queue.getRefusedCount());
+        
+        // The frame on air no longer takes a waiting place
+        queue.poll(0);
+        assertTrue(queue.offer(frame(FrameType.SOS, 1, 3)));
+        assertEquals(3, queue.size());
+    }
+}
@@ -0,0 +1,278 @@
+package com.meshnetwork.mesh.transport;
+
+import com.meshnetwork.mesh.MeshClock;
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Per-peer write queues over linked fakes: one write in flight per link,
+ * the next started only on completion, and links independent of each other.
+ */
+public class FakeTransportTest {
+    
+    private static final MeshClock FIXED_CLOCK = () -> 0L;
+    
+    /** Records what a transport reports to the mesh */
+    private static final class Recorder implements MeshTransport.Listener {
+        final List<String> connected = new ArrayList<>();
+        final List<String> disconnected = new ArrayList<>();
+        final List<byte[]> frames = new ArrayList<>();
+        final List<String> senders = new ArrayList<>();
+        
+        @Override
+        public void onPeerConnected(String peerAddress) {
+            connected.add(peerAddress);
+        }
+        
+        @Override
+        public void onPeerDisconnected(String peerAddress) {
+            disconnected.add(peerAddress);
+        }
+        
+        @Override
+        public void onFrameReceived(String peerAddress, byte[] data) {
+            senders.add(peerAddress);
+            frames.add(data);
+        }
+    }
+    
+    private FakeTransport a;
+    private FakeTransport b;
+    private FakeTransport c;
+    private final Recorder atA = new Recorder();
+    private final Recorder atB = new Recorder();
+    private final Recorder atC = new Recorder();
+    
+    @Before
+    public void setUp() {
+        a = new FakeTransport("A", 8, FIXED_CLOCK);
+        b = new FakeTransport("B", 8, FIXED_CLOCK);
+        c = new FakeTransport("C", 8, FIXED_CLOCK);
+        a.start(atA);
+        b.start(atB);
+        c.start(atC);
+        FakeTransport.link(a, b);
+        FakeTransport.link(a, c);
+    }
+    
+    private static byte[] text(int sequence) {
+        return FrameCodec.encode(new MeshFrame(FrameType.TEXT, 1, sequence).setBody("t"));
+    }
+    
+    private static byte[] sos(int sequence) {
+        return FrameCodec.encode(new MeshFrame(FrameType.SOS, 1, sequence).setLocation(1.0, 2.0));
+    }
+    
+    private static int sequenceOf(byte[] data) {
+        MeshFrame frame = new MeshFrame();
+        assertTrue(FrameCodec.decode(data, 0, data.length, frame) > 0);
+        return frame.sequence;
+    }
+    
+    @Test
+    public void reportsLinksToTheListener() {
+        assertEquals(2, a.getConnectedPeerCount());
+        assertEquals(List.of("B", "C"), atA.connected);
+        assertEquals(List.of("A"), atB.connected);
+        
+        FakeTransport.unlink(a, c);
+        
+        assertEquals(List.of("C"), atA.disconnected);
+        assertEquals(List.of("A"), atC.disconnected);
+        assertFalse(a.isConnected("C"));
+    }
+    
+    @Test
+    public void keepsOneWriteInFlightPerPeer() {
+        for (int i = 0; i < 3; i++) {
+            assertTrue(a.send("B", text(i)));
+        }
+        
+        // The fake throws if a second write starts before the first completes
+        assertEquals(1, a.getInFlightCount());
+        assertEquals(1, a.getWritten().size());
+        assertEquals(2, a.getQueue("B").size());
+        assertTrue(atB.frames.isEmpty());
+        
+        assertTrue(a.completeWrite("B"));
+        assertEquals(1, atB.frames.size());
+        assertEquals(2, a.getWritten().size());
+        assertEquals(1, a.getQueue("B").size());
+    }
+    
+    @Test
+    public void deliversInOrderOnCompletion() {
+        for (int i = 0; i < 5; i++) {
+            a.send("B", text(i));
+        }
+        
+        assertEquals(5, a.completeAll());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, sequenceOf(atB.frames.get(i)));
+            assertEquals("A", atB.senders.get(i));
+        }
+        assertTrue(a.getQueue("B").isIdle());
+        assertEquals(5, a.getQueue("B").getWrittenCount());
+    }
+    
+    @Test
+    public void slowPeerDoesNotHoldBackOthers() {
+        a.send("B", text(0));
+        a.send("B", text(1));
+        a.send("C", text(2));
+        a.send("C", text(3));
+        
+        // B never completes; C drains on its own
+        assertTrue(a.completeWrite("C"));
+        assertTrue(a.completeWrite("C"));
+        
+        assertEquals(2, atC.frames.size());
+        assertTrue(atB.frames.isEmpty());
+        assertEquals(1, a.getQueue("B").size());
+    }
+    
+    @Test
+    public void broadcastSkipsThePeerAFrameCameFrom() {
+        a.setAutoComplete(true);
+        
+        assertEquals(1, a.broadcast(text(0), "B"));
+        assertEquals(2, a.broadcast(text(1), null));
+        
+        assertEquals(1, atB.frames.size());
+        assertEquals(2, atC.frames.size());
+    }
+    
+    @Test
+    public void refusesUnknownPeers() {
+        assertFalse(a.send("D", text(0)));
+    }
+    
+    @Test
+    public void answersOverALinkThePeerOpened() {
+        FakeTransport d = new FakeTransport("D", 8, FIXED_CLOCK);
+        Recorder atD = new Recorder();
+        d.start(atD);
+        FakeTransport.linkOneWay(d, a);
+        
+        // A holds no link to D: broadcasts leave it out, but a reply gets there
+        assertFalse(a.isConnected("D"));
+        assertTrue(a.canReach("D"));
+        assertEquals(2, a.broadcast(text(0), null));
+        assertTrue(a.send("D", text(1)));
+        assertEquals(3, a.completeAll());
+        
+        assertEquals(1, atD.frames.size());
+        assertEquals(1, sequenceOf(atD.frames.get(0)));
+        assertEquals("A", atD.senders.get(0));
+        
+        FakeTransport.unlinkOneWay(d, a);
+        assertFalse(a.send("D", text(2)));
+    }
+    
+    @Test
+    public void dropsWhenTheQueueIsFull() {
+        // One in flight plus half the capacity of 8 for chat
+        for (int i = 0; i < 5; i++) {
+            assertTrue(a.send("B", text(i)));
+        }
+        
+        assertFalse(a.send("B", text(5)));
+        assertEquals(1, a.getQueue("B").getDroppedCount());
+        // Higher classes still get in
+        assertTrue(a.send("B", sos(6)));
+    }
+    
+    @Test
+    public void sosOvertakesQueuedChat() {
+        a.send("B", text(0));
+        a.send("B", text(1));
+        a.send("B", text(2));
+        a.send("B", sos(3));
+        a.completeAll();
+        
+        // The first text was already in flight
+        assertEquals(0, sequenceOf(atB.frames.get(0)));
+        assertEquals(3, sequenceOf(atB.frames.get(1)));
+    }
+    
+    @Test
+    public void linkDownDropsQueuedPackets() {
+        a.send("B", text(0));
+        a.send("B", text(1));
+        PeerWriteQueue queue = a.getQueue("B");
+        
+        FakeTransport.unlink(a, b);
+        
+        assertEquals(0, queue.size());
+        assertFalse(a.completeWrite("B"));
+        assertFalse(a.send("B", text(2)));
+        assertTrue(atB.frames.isEmpty());
+    }
+    
+    @Test
+    public void synchronousCompletionDrainsWithoutReentry() {
+        a.setAutoComplete(true);
+        for (int i = 0; i < 20; i++) {
+            a.send("B", text(i));
+        }
+        
+        assertEquals(20, atB.frames.size());
+        assertEquals(0, a.getInFlightCount());
+    }
+    
+    @Test
+    public void fragmentsLargeFramesAndReassemblesThem() {
+        a.setAutoComplete(true);
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            body.append("fragment ").append(i).append(' ');
+        }
+        byte[] frame = FrameCodec.encode(new MeshFrame(FrameType.ALERT, 1, 1).setBody(body.toString()));
+        
+        assertTrue(a.send("B", frame));
+        
+        assertTrue(a.getWritten().size() > 1);
+        for (byte[] write : a.getWritten()) {
+            assertTrue(write.length <= FrameCodec.DEFAULT_WRITE_SIZE);
+        }
+        assertEquals(1, atB.frames.size());
+        assertArrayEquals(frame, atB.frames.get(0));
+    }
+    
+    @Test
+    public void batchesSmallFramesIntoOneWrite() {
+        FakeTransport d = new FakeTransport("D", 8, FIXED_CLOCK);
+        FakeTransport e = new FakeTransport("E", 8, FIXED_CLOCK);
+        Recorder atE = new Recorder();
+        d.start(new Recorder());
+        e.start(atE);
+        d.setWriteSize(180);
+        d.setBatching(0, null);
+        FakeTransport.link(d, e);
+        
+        for (int i = 0; i < 4; i++) {
+            d.send("E", text(i));
+        }
+        d.completeAll();
+        
+        // The first goes out alone while the rest wait, then they share a write
+        assertEquals(2, d.getWritten().size());
+        assertEquals(FrameType.BATCH, FrameCodec.peekType(d.getWritten().get(1)));
+        assertEquals(4, atE.frames.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, sequenceOf(atE.frames.get(i)));
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.meshnetwork.mesh.sim;
+
+import com.meshnetwork.mesh.event.MeshEvent;
+import com.meshnetwork.mesh.event.MeshEventBus;
+import com.meshnetwork.mesh.neighbor.ConnectedPeers;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multithreaded stress check for the state shared between the mesh worker,
+ * binder callbacks and the UI: {@link ConnectedPeers} under concurrent
+ * link up/down, lookups and stop, and {@link MeshEventBus} under concurrent
+ * publishers. Exits with status 1 on the first violated invariant.
+ *
+ * Usage: ConcurrencyStress [threads] [seconds]
+ */
+public class ConcurrencyStress {
+    
+    private static final AtomicLong failures = new AtomicLong();
+    
+    private static void check(boolean condition, String message) {
+        if (!condition && failures.getAndIncrement() < 10) {
+            System.out.println("FAIL: " + message);
+        }
+    }
+    
+    /**
+     * Writers own disjoint addresses, so each knows exactly what its own
+     * entries must look like; readers check every snapshot they see is
+     * internally consistent and never older than the last one.
+     */
+    static void stressPeers(int threads, long millis) throws InterruptedException {
+        ConnectedPeers peers = new ConnectedPeers();
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Thread> workers = new ArrayList<>();
+        List<Set<String>> expected = new ArrayList<>();
+        AtomicLong operations = new AtomicLong();
+        
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Set<String> mine = new HashSet<>();
+            expected.add(mine);
+            workers.add(new Thread(() -> {
+                Random random = new Random(id);
+                long ops = 0;
+                while (!stop.get()) {
+                    String address = "peer-" + id + "-" + random.nextInt(8);
+                    if (random.nextBoolean()) {
+                        check(peers.add(address, ops) == mine.add(address), "add result for " + address);
+                        check(peers.contains(address), "own add not visible: " + address);
+                    } else {
+                        check(peers.remove(address) == mine.remove(address), "remove result for " + address);
+                        check(!peers.contains(address), "own remove not visible: " + address);
+                    }
+                    ops++;
+                }
+                operations.addAndGet(ops);
+            }));
+        }
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                long lastVersion = -1;
+                while (!stop.get()) {
+                    ConnectedPeers.Snapshot snapshot = peers.snapshot();
+                    check(snapshot.version >= lastVersion, "snapshot went back in time");
+                    lastVersion = snapshot.version;
+                    Set<String> seen = new HashSet<>(snapshot.getAddresses());
+                    check(seen.size() == snapshot.size(), "duplicate address in snapshot");
+                    for (String address : snapshot.getAddresses()) {
+                        check(snapshot.contains(address) && snapshot.getConnectedAt(address) >= 0,
+                                "snapshot list and map disagree on " + address);
+                    }
+                }
+            }));
+        }
+        
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        Thread.sleep(millis);
+        stop.set(true);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        
+        Set<String> union = new HashSet<>();
+        for (Set<String> mine : expected) {
+            union.addAll(mine);
+        }
+        check(union.equals(new HashSet<>(peers.snapshot().getAddresses())), "final set differs from writers' view");
+        System.out.printf("peers: %d writer ops, final size %d, version %d%n",
+                operations.get(), peers.size(), peers.snapshot().version);
+    }
+    
+    /**
+     * Like stop(): one thread clears while links keep coming and going.
+     * Afterwards a final clear must leave nothing behind.
+     */
+    static void stressPeersWithClear(int threads, long millis) throws InterruptedException {
+        ConnectedPeers peers = new ConnectedPeers();
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            workers.add(new Thread(() -> {
+                Random random = new Random(id);
+                while (!stop.get()) {
+                    String address = "peer-" + random.nextInt(16);
+                    if (random.nextBoolean()) {
+                        peers.add(address, 0);
+                    } else {
+                        peers.remove(address);
+                    }
+                }
+            }));
+        }
+        workers.add(new Thread(() -> {
+            while (!stop.get()) {
+                peers.clear();
+                check(peers.size() <= 16, "more peers than addresses");
+            }
+        }));
+        
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        Thread.sleep(millis);
+        stop.set(true);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        peers.clear();
+        check(peers.size() == 0 && peers.snapshot().getAddresses().isEmpty(), "clear left peers behind");
+        System.out.printf("peers with clear: version %d%n", peers.snapshot().version);
+    }
+    
+    /**
+     * Publishers stamp their events with a per-publisher counter; the single
+     * delivery thread must see every event exactly once and each publisher's
+     * events in order.
+     */
+    static void stressEventBus(int threads, int eventsPerThread) throws InterruptedException {
+        ExecutorService ui = Executors.newSingleThreadExecutor();
+        MeshEventBus bus = new MeshEventBus(ui, Integer.MAX_VALUE);
+        int[] next = new int[threads];
+        AtomicLong received = new AtomicLong();
+        bus.subscribe(event -> {
+            // Only the delivery thread touches next[]
+            check(event.originId >= 0 && event.originId < threads, "unknown publisher");
+            check(Integer.parseInt(event.text) == next[event.originId], "out of order from " + event.originId);
+            next[event.originId]++;
+            received.incrementAndGet();
+        });
+        
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> publishers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            publishers.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < eventsPerThread; i++) {
+                    bus.publish(MeshEvent.message(null, id, Integer.toString(i)));
+                }
+            }));
+        }
+        for (Thread publisher : publishers) {
+            publisher.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread publisher : publishers) {
+            publisher.join();
+        }
+        
+        // A final drain is always scheduled after the last publish
+        long total = (long) threads * eventsPerThread;
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (received.get() < total && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        ui.shutdown();
+        ui.awaitTermination(1, TimeUnit.SECONDS);
+        
+        check(received.get() == total, "delivered " + received.get() + " of " + total);
+        check(bus.getPendingCount() == 0, "events left pending");
+        System.out.printf("event bus: %d events in %.2f s (%.1f M/s), %d drains%n",
+                received.get(), seconds, received.get() / seconds / 1e6, bus.getDrainCount());
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 2;
+        
+        stressPeers(threads, seconds * 1000);
+        stressPeersWithClear(threads, seconds * 1000);
+        stressEventBus(threads, 250_000);
+        
+        if (failures.get() > 0) {
+            System.out.println(failures.get() + " invariant violations");
+            System.exit(1);
+        }
+        System.out.println("all invariants held");
+    }
+}
@@ -0,0 +1,155 @@
+package com.meshnetwork.mesh.sim;
+
+import com.meshnetwork.mesh.dedup.SeenMessageCache;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The seen-message cache at 100k new frames per second of simulated time,
+ * each followed by the copies a busy mesh would deliver: most within a
+ * second over parallel paths, a few up to a minute later from carried
+ * frames, all well inside the expiry. For each cache size it reports the
+ * fixed memory, the wall-clock cost per lookup with the traffic model
+ * included, false positives (new frames taken for duplicates) and
+ * forgotten duplicates, i.e. copies that would be relayed again.
+ *
+ * Usage: DedupLoad [seconds] [seed]
+ */
+public class DedupLoad {
+    
+    private static final int RATE_PER_SECOND = 100_000;
+    private static final long EXPIRY_MS = 10 * 60 * 1000;
+    private static final int[] ENTRIES = {8_192, 65_536, 131_072, 1 << 20};
+    
+    private static final int ORIGINS = 5_000;
+    private static final int COPIES_PER_FRAME = 3;
+    
+    /** Mean delay of a copy over another path, and the share that arrives late from a carrier */
+    private static final double MEAN_COPY_DELAY_MS = 200;
+    private static final double LATE_COPY_SHARE = 0.01;
+    private static final long MAX_LATE_COPY_MS = 60_000;
+    
+    static void run(int entries, int seconds, long seed, boolean report) {
+        SeenMessageCache cache = new SeenMessageCache(entries, EXPIRY_MS);
+        Random random = new Random(seed);
+        int frames = seconds * RATE_PER_SECOND;
+        
+        PendingCopies copies = new PendingCopies();
+        
+        int[] nextSequence = new int[ORIGINS];
+        long falsePositives = 0;
+        long duplicates = 0;
+        long forgotten = 0;
+        long lookups = 0;
+        
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            long now = (long) i * 1000 / RATE_PER_SECOND;
+            
+            // Copies due by now arrive first
+            while (copies.size() > 0 && copies.peekDue() <= now) {
+                long key = copies.peekKey();
+                copies.poll();
+                if (cache.markSeen((int) (key >>> 32), (int) key, now)) {
+                    forgotten++;
+                }
+                duplicates++;
+                lookups++;
+            }
+            
+            int origin = random.nextInt(ORIGINS);
+            int sequence = nextSequence[origin]++;
+            if (!cache.markSeen(origin, sequence, now)) {
+                falsePositives++;
+            }
+            lookups++;
+            
+            long key = SeenMessageCache.key(origin, sequence);
+            for (int c = 0; c < COPIES_PER_FRAME; c++) {
+                long delay = random.nextDouble() < LATE_COPY_SHARE
+                        ? (long) (random.nextDouble() * MAX_LATE_COPY_MS)
+                        : (long) (-Math.log(1 - random.nextDouble()) * MEAN_COPY_DELAY_MS);
+                copies.add(now + delay, key);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        if (!report) return;
+        
+        System.out.printf("  %8d entries  %6.1f MiB  %5.1f ns per lookup  %4d forced rotations"
+                        + "  false positives %.6f  forgotten duplicates %.6f%n",
+                entries, cache.getMemoryBytes() / (double) (1 << 20), nanos / (double) lookups,
+                cache.getForcedRotations(), falsePositives / (double) frames, forgotten / (double) duplicates);
+    }
+    
+    /** Copies waiting to arrive: a binary min-heap by due time on parallel primitive arrays */
+    private static final class PendingCopies {
+        private long[] due = new long[1 << 16];
+        private long[] key = new long[1 << 16];
+        private int size;
+        
+        int size() {
+            return size;
+        }
+        
+        long peekDue() {
+            return due[0];
+        }
+        
+        long peekKey() {
+            return key[0];
+        }
+        
+        void add(long dueAt, long frameKey) {
+            if (size == due.length) {
+                due = Arrays.copyOf(due, size * 2);
+                key = Arrays.copyOf(key, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (due[parent] <= dueAt) break;
+                move(parent, i);
+                i = parent;
+            }
+            due[i] = dueAt;
+            key[i] = frameKey;
+        }
+        
+        void poll() {
+            int last = --size;
+            long dueAt = due[last];
+            long frameKey = key[last];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && due[child + 1] < due[child]) child++;
+                if (due[child] >= dueAt) break;
+                move(child, i);
+                i = child;
+            }
+            due[i] = dueAt;
+            key[i] = frameKey;
+        }
+        
+        private void move(int from, int to) {
+            due[to] = due[from];
+            key[to] = key[from];
+        }
+    }
+    
+    public static void main(String[] args) {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        
+        System.out.printf("%d new frames/s for %d s, %d copies each (mean %.0f ms, %.0f%% up to %d s late), expiry %d s%n",
+                RATE_PER_SECOND, seconds, COPIES_PER_FRAME, MEAN_COPY_DELAY_MS, LATE_COPY_SHARE * 100,
+                MAX_LATE_COPY_MS / 1000, EXPIRY_MS / 1000);
+        // A first pass warms up the JIT
+        run(ENTRIES[0], 1, seed, false);
+        for (int entries : ENTRIES) {
+            run(entries, seconds, seed, true);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.meshnetwork.mesh.sim;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.dedup.SeenMessageCache;
+import com.meshnetwork.mesh.dispatch.FrameDispatcher;
+import com.meshnetwork.mesh.dispatch.FramePool;
+import com.meshnetwork.mesh.dispatch.ReceivePath;
+import com.meshnetwork.mesh.location.GeofenceFilter;
+import com.meshnetwork.mesh.reliable.HopReliability;
+import com.meshnetwork.mesh.reliable.ReversePathTable;
+import com.meshnetwork.mesh.routing.EtxStrategy;
+import com.meshnetwork.mesh.routing.LinkQualityTable;
+import com.meshnetwork.mesh.routing.RoutingEngine;
+import com.meshnetwork.mesh.routing.RoutingStrategy;
+import com.meshnetwork.mesh.schedule.TimingWheel;
+import com.meshnetwork.mesh.transport.MeshTransport;
+import com.meshnetwork.mesh.transport.PeerWriteQueue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * One simulated phone running the same engine as the app: frames are
+ * encoded, queued and fragmented by the transport, and received frames go
+ * through {@link ReceivePath} with ETX routing, as in BLEMeshService.
+ * With hop ACKs on, emergency frames are retransmitted per neighbour until
+ * acknowledged, and responders answer each SOS with a receipt that
+ * retraces its path. Only the pieces that need Android (timers, disk, radio duty cycle) are
+ * replaced by the simulator or left out.
+ */
+public class EngineNode implements MeshTransport.Listener {
+    
+    /** Receives every frame a node delivers to its UI */
+    public interface Observer {
+        void onDelivered(EngineNode node, MeshFrame frame);
+    }
+    
+    // Sized for thousands of nodes in one heap rather than for one phone
+    private static final int FRAME_POOL_SIZE = 4;
+    private static final int LOCATION_BASE_ENTRIES = 256;
+    private static final int SEEN_CACHE_ENTRIES = 1024;
+    private static final long SEEN_CACHE_EXPIRY_MS = 10 * 60 * 1000;
+    private static final int QUEUE_CAPACITY = 64;
+    private static final int REVERSE_PATH_ENTRIES = 256;
+    private static final long TIMER_TICK_MS = 10;
+    private static final int TIMER_SLOTS = 512;
+    
+    /** Receipts take sequences above the simulation's message numbers so their keys never collide */
+    private static final int RECEIPT_SEQUENCE_BASE = 1 << 30;
+    
+    public final SimNode site;
+    
+    private final Simulator sim;
+    private final SimTransport transport;
+    private final SeenMessageCache seen = new SeenMessageCache(SEEN_CACHE_ENTRIES, SEEN_CACHE_EXPIRY_MS);
+    private final LinkQualityTable linkQuality = new LinkQualityTable();
+    private final RoutingEngine routing = new RoutingEngine(new EtxStrategy(linkQuality));
+    private final ReceivePath receivePath;
+    private final GeofenceFilter geofence;
+    private final Observer observer;
+    private final TimingWheel timers;
+    private final HopReliability hopReliability;
+    private final ReversePathTable reversePaths = new ReversePathTable(REVERSE_PATH_ENTRIES);
+    private final List<String> neighbours = new ArrayList<>();
+    private final boolean responder;
+    private int nextReceiptSequence = RECEIPT_SEQUENCE_BASE;
+    
+    /**
+     * @param hopAcks acknowledge and retransmit emergency frames hop by hop
+     * @param lingerMillis batching linger on every link, or {@link PeerWriteQueue#NO_BATCHING}
+     * @param responder answer every SOS delivered here with a receipt
+     */
+    public EngineNode(SimNode site, Simulator sim, RadioChannel channel, Observer observer, boolean hopAcks,
+                      long lingerMillis, boolean responder) {
+        this(site, sim, channel, observer, hopAcks, lingerMillis, responder, GeofenceFilter.DEFAULT_HOP_RANGE_METERS);
+    }
+    
+    /**
+     * @param hopRangeMeters hop range the geofence filter assumes when deciding whether to relay
+     */
+    public EngineNode(SimNode site, Simulator sim, RadioChannel channel, Observer observer, boolean hopAcks,
+                      long lingerMillis, boolean responder, double hopRangeMeters) {
+        this.site = site;
+        this.sim = sim;
+        this.observer = observer;
+        this.responder = responder;
+        this.transport = new SimTransport(site, sim, channel, QUEUE_CAPACITY);
+        this.timers = new TimingWheel(sim, TIMER_TICK_MS, TIMER_SLOTS, delay -> sim.schedule(delay, this::advanceTimers));
+        this.hopReliability = hopAcks ? new HopReliability(sim, timers, transport) : null;
+        this.geofence = new GeofenceFilter(hopRangeMeters);
+        this.receivePath = new ReceivePath(sim, new FrameDispatcher(new FramePool(FRAME_POOL_SIZE), LOCATION_BASE_ENTRIES),
+                seen, routing, geofence, frameHandler, receiveHost);
+        transport.setLinkQuality(linkQuality);
+        transport.setBatching(lingerMillis, sim::schedule);
+        transport.start(this);
+        // Neighbour RSSI is known up front, as a phone has it from scanning
+        for (SimNode.Link link : site.links) {
+            linkQuality.recordRssi(link.to.address, link.rssi);
+        }
+    }
+    
+    /**
+     * Open links to every neighbour in range, with writes of up to {@code writeSize} bytes
+     */
+    public void connect(EngineNode[] nodes, int writeSize) {
+        connect(nodes, writeSize, 0);
+    }
+    
+    /**
+     * Open links to the {@code maxLinks} strongest neighbours, or to all of
+     * them with 0, as a phone's client links are capped. A neighbour that is
+     * not picked may still link to us, and then hears from us only over its link.
+     */
+    public void connect(EngineNode[] nodes, int writeSize, int maxLinks) {
+        List<SimNode.Link> links = new ArrayList<>(site.links);
+        if (maxLinks > 0 && links.size() > maxLinks) {
+            links.sort(Comparator.comparingInt((SimNode.Link link) -> link.rssi).reversed());
+            links = links.subList(0, maxLinks);
+        }
+        for (SimNode.Link link : links) {
+            transport.link(link, nodes[link.to.id].transport, writeSize);
+        }
+    }
+    
+    /**
+     * Originate a frame from this node
+     */
+    public void originate(MeshFrame frame) {
+        // Remember our own frames so echoes from neighbours are not re-flooded
+        seen.markSeen(frame.originId, frame.sequence, sim.nowMillis());
+        send(frame.originId, frame.sequence, FrameCodec.encode(frame), null);
+    }
+    
+    /**
+     * Give the node a position fix; without one it delivers and relays every geofenced alert
+     */
+    public void setPositionE7(int latitudeE7, int longitudeE7) {
+        geofence.setPositionE7(latitudeE7, longitudeE7);
+    }
+    
+    public GeofenceFilter getGeofence() {
+        return geofence;
+    }
+    
+    public SimTransport getTransport() {
+        return transport;
+    }
+    
+    public RoutingEngine getRouting() {
+        return routing;
+    }
+    
+    /** Null with hop ACKs off */
+    public HopReliability getHopReliability() {
+        return hopReliability;
+    }
+    
+    public boolean isResponder() {
+        return responder;
+    }
+    
+    /**
+     * Broadcast to every neighbour but {@code exceptPeer}, hop by hop reliably for emergency frames
+     */
+    private void send(int originId, int sequence, byte[] data, String exceptPeer) {
+        if (hopReliability != null && HopReliability.isReliable(FrameCodec.peekType(data))) {
+            hopReliability.broadcast(neighbours, exceptPeer, originId, sequence, data);
+        } else {
+            transport.broadcast(data, exceptPeer);
+        }
+    }
+    
+    /**
+     * Send a receipt one hop back towards the SOS sender; false if the way back is unknown
+     */
+    private boolean sendToPreviousHop(MeshFrame receipt, byte[] data) {
+        String previousHop = reversePaths.previousHop(receipt.ackedOrigin, receipt.ackedSequence);
+        if (previousHop == null) return false;
+        if (hopReliability != null) {
+            return hopReliability.send(previousHop, receipt.originId, receipt.sequence, data);
+        }
+        return transport.send(previousHop, data);
+    }
+    
+    private void sendReceipt(MeshFrame sos) {
+        MeshFrame receipt = new MeshFrame(FrameType.RECEIPT, site.id, nextReceiptSequence++);
+        receipt.ackedOrigin = sos.originId;
+        receipt.ackedSequence = sos.sequence;
+        seen.markSeen(receipt.originId, receipt.sequence, sim.nowMillis());
+        byte[] data = FrameCodec.encode(receipt);
+        if (!sendToPreviousHop(receipt, data)) {
+            send(receipt.originId, receipt.sequence, data, null);
+        }
+    }
+    
+    private void advanceTimers() {
+        timers.advance();
+    }
+    
+    @Override
+    public void onPeerConnected(String peerAddress) {
+        // Reliable broadcasts go over our own links, as the service's go to its connected peers
+        neighbours.add(peerAddress);
+    }
+    
+    @Override
+    public void onPeerDisconnected(String peerAddress) {
+        neighbours.remove(peerAddress);
+    }
+    
+    @Override
+    public void onFrameReceived(String peerAddress, byte[] data) {
+        receivePath.receive(peerAddress, data);
+    }
+    
+    private final ReceivePath.Host receiveHost = new ReceivePath.Host() {
+        @Override
+        public void onSyncFrame(String fromPeer, MeshFrame frame) {
+            // No carry store in the simulation
+        }
+        
+        @Override
+        public void onAck(String fromPeer, MeshFrame frame) {
+            if (hopReliability != null) {
+                hopReliability.onAck(fromPeer, frame.originId, frame.sequence);
+            }
+        }
+        
+        @Override
+        public void acknowledge(String fromPeer, MeshFrame frame) {
+            if (hopReliability != null) {
+                hopReliability.acknowledge(fromPeer, frame);
+            }
+        }
+        
+        @Override
+        public void onFirstCopy(String fromPeer, MeshFrame frame) {
+            if (frame.type == FrameType.SOS) {
+                reversePaths.record(frame.originId, frame.sequence, fromPeer);
+            } else if (frame.type == FrameType.RECEIPT && hopReliability != null) {
+                hopReliability.cancel(frame.ackedOrigin, frame.ackedSequence);
+            }
+        }
+        
+        @Override
+        public void relay(MeshFrame frame, String fromPeer, byte[] data, long delayMillis) {
+            if (frame.type == FrameType.RECEIPT && (frame.ackedOrigin == site.id || sendToPreviousHop(frame, data))) {
+                if (delayMillis > 0) {
+                    routing.onRelayDue(frame.originId, frame.sequence);
+                }
+                return;
+            }
+            if (delayMillis == RoutingStrategy.DROP) return;
+            
+            int originId = frame.originId;
+            int sequence = frame.sequence;
+            if (delayMillis == 0) {
+                send(originId, sequence, data, fromPeer);
+                return;
+            }
+            
+            // On the node's wheel, as the service does, so relay timing matches the app
+            timers.schedule(() -> {
+                if (routing.onRelayDue(originId, sequence)) {
+                    send(originId, sequence, data, fromPeer);
+                }
+            }, delayMillis);
+        }
+    };
+    
+    private final FrameDispatcher.FrameHandler frameHandler = new FrameDispatcher.FrameHandler() {
+        @Override
+        public void onSOS(MeshFrame frame) {
+            observer.onDelivered(EngineNode.this, frame);
+            if (responder) {
+                sendReceipt(frame);
+            }
+        }
+        
+        @Override
+        public void onLocation(MeshFrame frame) {
+            observer.onDelivered(EngineNode.this, frame);
+        }
+        
+        @Override
+        public void onAlert(MeshFrame frame) {
+            observer.onDelivered(EngineNode.this, frame);
+        }
+        
+        @Override
+        public void onText(MeshFrame frame) {
+            observer.onDelivered(EngineNode.this, frame);
+        }
+        
+        @Override
+        public void onReceipt(MeshFrame frame) {
+            observer.onDelivered(EngineNode.this, frame);
+        }
+    };
+}
@@ -0,0 +1,177 @@
+package com.meshnetwork.mesh.sim;
+
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.location.GeoMath;
+import com.meshnetwork.mesh.location.GeofenceFilter;
+import com.meshnetwork.mesh.transport.PeerWriteQueue;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * Geofenced alerts on the mesh engine: each alert starts at a random node
+ * and targets a circle somewhere in the area. The same alerts run once
+ * with no node knowing its position, which floods them like any alert,
+ * and then with every node placed on the map and filtering at each hop
+ * range. Reports how many reachable nodes inside each circle got the
+ * alert, how many outside had it delivered to the UI, and the writes and
+ * airtime each alert cost.
+ *
+ * Usage: GeofenceSimulation [nodes] [sideMeters] [alerts] [radiusMeters] [ttl] [seed]
+ */
+public class GeofenceSimulation {
+    
+    private static final int ATT_HEADER_SIZE = 3;
+    private static final int MTU = 185;
+    
+    /** Gap between alerts, long enough that they never overlap */
+    private static final long ALERT_SPACING_MS = 60_000;
+    
+    // Map origin for the simulated square; metres are converted on a local flat projection
+    private static final double ORIGIN_LAT = 52.5;
+    private static final double ORIGIN_LON = 13.4;
+    private static final double METERS_PER_DEGREE = 111_320;
+    
+    /** Hop ranges assumed by the filter; 0 runs without positions */
+    private static final double[] HOP_RANGES = {0, GeofenceFilter.DEFAULT_HOP_RANGE_METERS, 50};
+    
+    private final int nodeCount;
+    private final double side;
+    private final int alerts;
+    private final int radiusMeters;
+    private final int ttl;
+    private final long seed;
+    
+    GeofenceSimulation(int nodeCount, double side, int alerts, int radiusMeters, int ttl, long seed) {
+        this.nodeCount = nodeCount;
+        this.side = side;
+        this.alerts = alerts;
+        this.radiusMeters = radiusMeters;
+        this.ttl = ttl;
+        this.seed = seed;
+    }
+    
+    private static int latitudeE7(SimNode site) {
+        return FrameCodec.toFixed(ORIGIN_LAT + site.y / METERS_PER_DEGREE);
+    }
+    
+    private static int longitudeE7(SimNode site) {
+        return FrameCodec.toFixed(ORIGIN_LON + site.x / (METERS_PER_DEGREE * Math.cos(Math.toRadians(ORIGIN_LAT))));
+    }
+    
+    void run(double hopRangeMeters) {
+        Simulator sim = new Simulator();
+        Topology topology = new Topology(nodeCount, side, sim, new Random(seed));
+        RadioChannel channel = new RadioChannel(topology, new Random(seed ^ 0x2545F4914F6CDD1DL));
+        
+        int[] lats = new int[nodeCount];
+        int[] lons = new int[nodeCount];
+        for (SimNode site : topology.nodes) {
+            lats[site.id] = latitudeE7(site);
+            lons[site.id] = longitudeE7(site);
+        }
+        
+        long[] deliveredInside = new long[1];
+        long[] deliveredOutside = new long[1];
+        EngineNode.Observer observer = (node, frame) -> {
+            if (frame.type != FrameType.GEO_ALERT) return;
+            if (GeoMath.distanceMeters(lats[node.site.id], lons[node.site.id], frame.latitudeE7, frame.longitudeE7)
+                    <= frame.radiusMeters) {
+                deliveredInside[0]++;
+            } else {
+                deliveredOutside[0]++;
+            }
+        };
+        EngineNode[] nodes = new EngineNode[nodeCount];
+        double hopRange = hopRangeMeters > 0 ? hopRangeMeters : GeofenceFilter.DEFAULT_HOP_RANGE_METERS;
+        for (SimNode site : topology.nodes) {
+            nodes[site.id] = new EngineNode(site, sim, channel, observer, true, PeerWriteQueue.NO_BATCHING, false, hopRange);
+            if (hopRangeMeters > 0) {
+                nodes[site.id].setPositionE7(lats[site.id], lons[site.id]);
+            }
+        }
+        for (EngineNode node : nodes) {
+            node.connect(nodes, MTU - ATT_HEADER_SIZE);
+        }
+        
+        Random traffic = new Random(seed ^ 0x5DEECE66DL);
+        long inside = 0;
+        long reachableInside = 0;
+        long reachable = 0;
+        for (int i = 0; i < alerts; i++) {
+            EngineNode source = nodes[traffic.nextInt(nodeCount)];
+            double centerX = traffic.nextDouble() * side;
+            double centerY = traffic.nextDouble() * side;
+            MeshFrame frame = new MeshFrame(FrameType.GEO_ALERT, source.site.id, i).setBody("Evacuate");
+            frame.latitudeE7 = FrameCodec.toFixed(ORIGIN_LAT + centerY / METERS_PER_DEGREE);
+            frame.longitudeE7 = FrameCodec.toFixed(ORIGIN_LON
+                    + centerX / (METERS_PER_DEGREE * Math.cos(Math.toRadians(ORIGIN_LAT))));
+            frame.radiusMeters = radiusMeters;
+            frame.ttl = ttl;
+            
+            boolean[] connected = reachableFrom(topology, source.site);
+            for (SimNode site : topology.nodes) {
+                if (site == source.site) continue;
+                boolean in = GeoMath.distanceMeters(lats[site.id], lons[site.id], frame.latitudeE7, frame.longitudeE7)
+                        <= radiusMeters;
+                if (in) inside++;
+                if (connected[site.id]) {
+                    reachable++;
+                    if (in) reachableInside++;
+                }
+            }
+            
+            long start = sim.nowMillis();
+            sim.schedule(0, () -> source.originate(frame));
+            sim.runUntil(start + ALERT_SPACING_MS);
+        }
+        
+        long suppressed = 0;
+        long dropped = 0;
+        for (EngineNode node : nodes) {
+            suppressed += node.getGeofence().getSuppressedRelayCount();
+            dropped += node.getGeofence().getDroppedCount();
+        }
+        System.out.printf("  %-22s inside reached %6.2f%% of %5.1f  woken outside %7.1f of %7.1f  dropped %7.1f"
+                        + "  relays suppressed %7.1f  writes %7.0f  airtime %6.1f ms  (per alert)%n",
+                hopRangeMeters > 0 ? String.format("filter, hop %.0f m", hopRangeMeters) : "no positions (flood)",
+                100.0 * deliveredInside[0] / Math.max(1, reachableInside), reachableInside / (double) alerts,
+                deliveredOutside[0] / (double) alerts, (reachable - reachableInside) / (double) alerts,
+                dropped / (double) alerts, suppressed / (double) alerts,
+                channel.getWriteCount() / (double) alerts, channel.getAirtimeMicros() / 1e3 / alerts);
+    }
+    
+    /** Which nodes share a component with {@code source} */
+    private static boolean[] reachableFrom(Topology topology, SimNode source) {
+        boolean[] visited = new boolean[topology.nodes.size()];
+        ArrayDeque<SimNode> queue = new ArrayDeque<>();
+        visited[source.id] = true;
+        queue.add(source);
+        while (!queue.isEmpty()) {
+            for (SimNode.Link link : queue.poll().links) {
+                if (visited[link.to.id]) continue;
+                visited[link.to.id] = true;
+                queue.add(link.to);
+            }
+        }
+        return visited;
+    }
+    
+    public static void main(String[] args) {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 1500;
+        double side = args.length > 1 ? Double.parseDouble(args[1]) : 1200;
+        int alerts = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int radius = args.length > 3 ? Integer.parseInt(args[3]) : 150;
+        int ttl = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 1;
+        
+        System.out.printf("%d nodes in %.0f m square, %d alerts to %d m circles, ttl %d, seed %d%n",
+                nodes, side, alerts, radius, ttl, seed);
+        GeofenceSimulation simulation = new GeofenceSimulation(nodes, side, alerts, radius, ttl, seed);
+        for (double hopRange : HOP_RANGES) {
+            simulation.run(hopRange);
+        }
+    }
+}
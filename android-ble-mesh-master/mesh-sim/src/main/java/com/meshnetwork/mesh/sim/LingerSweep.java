@@ -0,0 +1,30 @@
+package com.meshnetwork.mesh.sim;
+
+/**
+ * Throughput against latency for write batching: the same busy mesh run
+ * once without batching and then with each linger time, so frames per
+ * write, writes and airtime per message can be read off against the
+ * latency percentiles. Every run uses the same seed, topology and traffic.
+ *
+ * Usage: LingerSweep [nodes] [sideMeters] [messages] [messagesPerSecond] [mtu] [seed]
+ */
+public class LingerSweep {
+    
+    private static final String[] LINGERS = {"off", "0", "5", "10", "20", "40"};
+    
+    public static void main(String[] args) {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        double side = args.length > 1 ? Double.parseDouble(args[1]) : 425;
+        int messages = args.length > 2 ? Integer.parseInt(args[2]) : 400;
+        double perSecond = args.length > 3 ? Double.parseDouble(args[3]) : 20;
+        int mtu = args.length > 4 ? Integer.parseInt(args[4]) : 185;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 1;
+        
+        System.out.printf("%d nodes in %.0f m square, %d messages at %.1f/s, MTU %d, seed %d%n",
+                nodes, side, messages, perSecond, mtu, seed);
+        for (String linger : LINGERS) {
+            new ScaleSimulation(nodes, side, messages, perSecond, seed, true, ScaleSimulation.parseLinger(linger))
+                    .run(mtu);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.meshnetwork.mesh.sim;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The shared air between simulated nodes: loss, collisions and airtime of
+ * link writes.
+ *
+ * A write is heard by every neighbour of its sender, not just the peer it
+ * is addressed to. Time is bucketed into milliseconds, and a write collides
+ * at its receiver with each other write heard there in the same millisecond
+ * if both hopped onto the same data channel. Whether a write survives is
+ * decided when it completes, by which time every write that started in its
+ * slot has been registered.
+ */
+public class RadioChannel {
+    
+    /** Writes remembered per listener; far more than one slot ever holds */
+    private static final int HEARD_PER_NODE = 256;
+    
+    private final Random random;
+    private final long[][] heardSlots;
+    private final int[][] heardFrom;
+    private final int[] heardNext;
+    private final long[] airtimeMicrosByNode;
+    
+    private long writeCount;
+    private long lostCount;
+    private long collisionCount;
+    private long airtimeMicros;
+    
+    public RadioChannel(Topology topology, Random random) {
+        this.random = random;
+        int nodes = topology.nodes.size();
+        this.heardSlots = new long[nodes][HEARD_PER_NODE];
+        this.heardFrom = new int[nodes][HEARD_PER_NODE];
+        this.heardNext = new int[nodes];
+        this.airtimeMicrosByNode = new long[nodes];
+        for (long[] slots : heardSlots) {
+            Arrays.fill(slots, -1);
+        }
+    }
+    
+    /**
+     * A write of {@code valueBytes} leaves {@code from} in millisecond {@code slot}
+     */
+    public void startWrite(SimNode from, int valueBytes, long slot) {
+        int airtime = RadioModel.writeAirtimeMicros(valueBytes);
+        writeCount++;
+        airtimeMicros += airtime;
+        airtimeMicrosByNode[from.id] += airtime;
+        for (SimNode.Link link : from.links) {
+            int listener = link.to.id;
+            int next = heardNext[listener];
+            heardSlots[listener][next] = slot;
+            heardFrom[listener][next] = from.id;
+            heardNext[listener] = (next + 1) % HEARD_PER_NODE;
+        }
+    }
+    
+    /**
+     * Whether the write started in {@code slot} reached the peer on {@code link}
+     */
+    public boolean finishWrite(SimNode from, SimNode.Link link, long slot) {
+        if (random.nextDouble() >= link.deliveryProbability) {
+            lostCount++;
+            return false;
+        }
+        
+        int listener = link.to.id;
+        long[] slots = heardSlots[listener];
+        int[] senders = heardFrom[listener];
+        for (int i = 0; i < HEARD_PER_NODE; i++) {
+            if (slots[i] != slot || senders[i] == from.id) continue;
+            if (random.nextInt(RadioModel.DATA_CHANNELS) == 0) {
+                collisionCount++;
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    public long getWriteCount() {
+        return writeCount;
+    }
+    
+    public long getLostCount() {
+        return lostCount;
+    }
+    
+    public long getCollisionCount() {
+        return collisionCount;
+    }
+    
+    public long getAirtimeMicros() {
+        return airtimeMicros;
+    }
+    
+    /**
+     * Radio-on time of the node that transmitted the most
+     */
+    public long getBusiestNodeAirtimeMicros() {
+        long max = 0;
+        for (long micros : airtimeMicrosByNode) {
+            max = Math.max(max, micros);
+        }
+        return max;
+    }
+}
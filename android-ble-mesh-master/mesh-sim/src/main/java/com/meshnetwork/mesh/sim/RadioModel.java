@@ -0,0 +1,62 @@
+package com.meshnetwork.mesh.sim;
+
+/**
+ * Log-distance path loss with per-link shadowing, and a logistic packet
+ * reception curve around the receiver's sensitivity
+ */
+public final class RadioModel {
+    
+    /** RSSI one metre from a phone advertising at medium power */
+    public static final double TX_POWER_AT_1M_DBM = -59.0;
+    public static final double PATH_LOSS_EXPONENT = 2.0;
+    public static final double SHADOWING_SIGMA_DB = 4.0;
+    
+    /** Weakest signal that is ever decoded, and where half the packets get through */
+    public static final double SENSITIVITY_DBM = -95.0;
+    public static final double HALF_DELIVERY_DBM = -90.0;
+    public static final double DELIVERY_SLOPE_DB = 2.5;
+    
+    /** Time one GATT write occupies the sender's link (one connection interval) */
+    public static final long WRITE_TIME_MS = 8;
+    
+    /**
+     * Bytes around the ATT value of one write on the LE 1M PHY: preamble,
+     * access address, link-layer header and CRC, the L2CAP header, and the
+     * ATT opcode and handle
+     */
+    public static final int WRITE_OVERHEAD_BYTES = 1 + 4 + 2 + 3 + 4 + 3;
+    
+    /** Inter-frame space and the empty link-layer packet that acknowledges a write */
+    public static final int ACK_MICROS = 150 + 80 + 150;
+    
+    /** Data channels a connection hops over; overlapping writes only collide on the same one */
+    public static final int DATA_CHANNELS = 37;
+    
+    private RadioModel() {
+    }
+    
+    public static double rssiAt(double distanceMeters, double shadowingDb) {
+        double d = Math.max(1.0, distanceMeters);
+        return TX_POWER_AT_1M_DBM - 10 * PATH_LOSS_EXPONENT * Math.log10(d) + shadowingDb;
+    }
+    
+    /**
+     * Distance beyond which no link can exist even with favourable shadowing
+     */
+    public static double maxRangeMeters() {
+        double margin = TX_POWER_AT_1M_DBM + 3 * SHADOWING_SIGMA_DB - SENSITIVITY_DBM;
+        return Math.pow(10, margin / (10 * PATH_LOSS_EXPONENT));
+    }
+    
+    /**
+     * Radio-on time of one write carrying {@code valueBytes}, at one microsecond per bit
+     */
+    public static int writeAirtimeMicros(int valueBytes) {
+        return 8 * (valueBytes + WRITE_OVERHEAD_BYTES) + ACK_MICROS;
+    }
+    
+    public static double deliveryProbability(double rssi) {
+        if (rssi < SENSITIVITY_DBM) return 0;
+        return 1.0 / (1.0 + Math.exp((HALF_DELIVERY_DBM - rssi) / DELIVERY_SLOPE_DB));
+    }
+}
@@ -0,0 +1,110 @@
+package com.meshnetwork.mesh.sim;
+
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.routing.EtxStrategy;
+import com.meshnetwork.mesh.routing.FloodingStrategy;
+import com.meshnetwork.mesh.routing.GossipStrategy;
+import com.meshnetwork.mesh.routing.RoutingStrategy;
+
+import java.util.Random;
+
+/**
+ * Compares routing strategies on one random topology: delivery ratio,
+ * hop count, latency and link writes (airtime) per message.
+ *
+ * Usage: RoutingComparison [nodes] [sideMeters] [ttl] [messages] [seed]
+ */
+public class RoutingComparison {
+    
+    /** Builds the strategy for one node */
+    interface StrategyFactory {
+        RoutingStrategy create(SimNode node, Random random);
+    }
+    
+    /** Gap between messages, long enough that they never overlap */
+    private static final long MESSAGE_SPACING_MS = 60_000;
+    
+    private final Topology topology;
+    private final Simulator sim;
+    private final int ttl;
+    private final int messages;
+    private final long seed;
+    
+    RoutingComparison(Topology topology, Simulator sim, int ttl, int messages, long seed) {
+        this.topology = topology;
+        this.sim = sim;
+        this.ttl = ttl;
+        this.messages = messages;
+        this.seed = seed;
+    }
+    
+    private final class Score implements SimNode.Observer {
+        long delivered;
+        long reachable;
+        long hops;
+        long latency;
+        long writes;
+        long messageStart;
+        
+        @Override
+        public void onDelivered(SimNode node, MeshFrame frame, int hops) {
+            delivered++;
+            this.hops += hops;
+            latency += sim.nowMillis() - messageStart;
+        }
+        
+        @Override
+        public void onWrite(SimNode node) {
+            writes++;
+        }
+    }
+    
+    void run(String name, StrategyFactory factory) {
+        Random random = new Random(seed);
+        Score score = new Score();
+        for (SimNode node : topology.nodes) {
+            node.reset();
+            node.setRouting(factory.create(node, random), score);
+        }
+        
+        Random sources = new Random(seed ^ 0x5DEECE66DL);
+        for (int i = 0; i < messages; i++) {
+            SimNode source = topology.nodes.get(sources.nextInt(topology.nodes.size()));
+            MeshFrame frame = new MeshFrame(FrameType.TEXT, source.id, i);
+            frame.ttl = ttl;
+            score.reachable += topology.reachableFrom(source);
+            
+            score.messageStart = sim.nowMillis();
+            sim.schedule(0, () -> source.originate(frame));
+            sim.runUntil(score.messageStart + MESSAGE_SPACING_MS);
+        }
+        
+        System.out.printf("%-34s delivery %6.2f%%  hops %5.2f  latency %7.1f ms  writes/msg %8.1f%n",
+                name,
+                100.0 * score.delivered / score.reachable,
+                score.hops / (double) Math.max(1, score.delivered),
+                score.latency / (double) Math.max(1, score.delivered),
+                score.writes / (double) messages);
+    }
+    
+    public static void main(String[] args) {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        double side = args.length > 1 ? Double.parseDouble(args[1]) : 600;
+        int ttl = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int messages = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+        
+        Simulator sim = new Simulator();
+        Topology topology = new Topology(nodes, side, sim, new Random(seed));
+        System.out.printf("%d nodes in %.0f m square, mean degree %.1f, ttl %d, %d messages, seed %d%n",
+                nodes, side, topology.meanDegree(), ttl, messages, seed);
+        
+        RoutingComparison comparison = new RoutingComparison(topology, sim, ttl, messages, seed);
+        comparison.run("flooding", (node, random) -> new FloodingStrategy());
+        comparison.run("gossip p=0.65 k=2", (node, random) -> new GossipStrategy(0.65, 2, ttl, random));
+        comparison.run("gossip p=0.45 k=2", (node, random) -> new GossipStrategy(0.45, 2, ttl, random));
+        comparison.run("etx 200 ms, suppress at 3", (node, random) -> new EtxStrategy(node.getLinkQuality()));
+        comparison.run("etx 200 ms, suppress at 2", (node, random) -> new EtxStrategy(node.getLinkQuality(), 200, 2));
+    }
+}
@@ -0,0 +1,291 @@
+package com.meshnetwork.mesh.sim;
+
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.reliable.HopReliability;
+import com.meshnetwork.mesh.transport.PeerWriteQueue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Runs the mesh engine on thousands of nodes over the simulated air and
+ * reports delivery ratio, end-to-end latency percentiles and airtime.
+ *
+ * Messages start at random nodes with exponential gaps, so floods overlap
+ * and compete for the air. The traffic mix is SOS, location updates and
+ * chat of varying length; at a small MTU chat is fragmented. A few nodes
+ * are responders that answer each SOS with a receipt, and the report
+ * shows how many SOS senders heard back and how soon. Each run is
+ * determined by its seed.
+ *
+ * Usage: ScaleSimulation [nodes] [sideMeters] [messages] [messagesPerSecond] [mtu] [seed] [hopAcks] [linger] [links]
+ * Without an MTU both the default ATT MTU and a negotiated one are run.
+ * hopAcks 0 turns off hop-by-hop acknowledgement of emergency frames.
+ * linger is the batching linger in ms, or "off" for one frame per write.
+ * links caps the links each node opens to its strongest neighbours, 0 for all.
+ */
+public class ScaleSimulation {
+    
+    private static final int ATT_HEADER_SIZE = 3;
+    private static final int DEFAULT_MTU = 23;
+    private static final int NEGOTIATED_MTU = 185;
+    private static final int TTL = 16;
+    
+    /** Quiet time after the last message for floods and retries to finish */
+    private static final long DRAIN_MS = 120_000;
+    
+    private static final int MIN_CHAT_LENGTH = 8;
+    private static final int MAX_CHAT_LENGTH = 120;
+    private static final String CHAT_CHARS = "abcdefghijklmnopqrstuvwxyz ";
+    
+    private static final int[] TYPES = {FrameType.SOS, FrameType.LOCATION, FrameType.TEXT};
+    
+    private static final double RESPONDER_FRACTION = 0.01;
+    
+    /** As on the phone, see BLEMeshService */
+    static final long DEFAULT_LINGER_MS = 5;
+    
+    /** Client links per node, as BLEMeshService caps them */
+    static final int DEFAULT_LINKS = 7;
+    
+    /** Delivery and latency per frame type */
+    private static final class Tally {
+        long sent;
+        long reachable;
+        long delivered;
+        long[] latencies = new long[1024];
+        
+        void addLatency(long millis) {
+            if (delivered == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencies.length * 2);
+            }
+            latencies[(int) delivered++] = millis;
+        }
+    }
+    
+    private final int nodeCount;
+    private final double side;
+    private final int messages;
+    private final double perSecond;
+    private final long seed;
+    private final boolean hopAcks;
+    private final long lingerMillis;
+    private final int maxLinks;
+    
+    ScaleSimulation(int nodeCount, double side, int messages, double perSecond, long seed, boolean hopAcks,
+                    long lingerMillis) {
+        this(nodeCount, side, messages, perSecond, seed, hopAcks, lingerMillis, DEFAULT_LINKS);
+    }
+    
+    ScaleSimulation(int nodeCount, double side, int messages, double perSecond, long seed, boolean hopAcks,
+                    long lingerMillis, int maxLinks) {
+        this.nodeCount = nodeCount;
+        this.side = side;
+        this.messages = messages;
+        this.perSecond = perSecond;
+        this.seed = seed;
+        this.hopAcks = hopAcks;
+        this.lingerMillis = lingerMillis;
+        this.maxLinks = maxLinks;
+    }
+    
+    void run(int mtu) {
+        long wallStart = System.nanoTime();
+        Simulator sim = new Simulator();
+        Topology topology = new Topology(nodeCount, side, sim, new Random(seed));
+        RadioChannel channel = new RadioChannel(topology, new Random(seed ^ 0x2545F4914F6CDD1DL));
+        
+        long[] startedAt = new long[messages];
+        Tally[] tallies = new Tally[FrameType.MAX + 1];
+        for (int type : TYPES) {
+            tallies[type] = new Tally();
+        }
+        
+        // First receipt per SOS, at its sender
+        Tally receipts = new Tally();
+        boolean[] confirmed = new boolean[messages];
+        
+        EngineNode.Observer observer = (node, frame) -> {
+            if (frame.type != FrameType.RECEIPT) {
+                tallies[frame.type].addLatency(sim.nowMillis() - startedAt[frame.sequence]);
+            } else if (frame.ackedOrigin == node.site.id && !confirmed[frame.ackedSequence]) {
+                confirmed[frame.ackedSequence] = true;
+                receipts.addLatency(sim.nowMillis() - startedAt[frame.ackedSequence]);
+            }
+        };
+        Random roles = new Random(seed ^ 0x9E3779B97F4A7C15L);
+        EngineNode[] nodes = new EngineNode[nodeCount];
+        for (SimNode site : topology.nodes) {
+            nodes[site.id] = new EngineNode(site, sim, channel, observer, hopAcks, lingerMillis,
+                    roles.nextDouble() < RESPONDER_FRACTION);
+        }
+        for (EngineNode node : nodes) {
+            node.connect(nodes, mtu - ATT_HEADER_SIZE, maxLinks);
+        }
+        
+        Random traffic = new Random(seed ^ 0x5DEECE66DL);
+        long time = 0;
+        for (int i = 0; i < messages; i++) {
+            time += Math.round(-Math.log(1 - traffic.nextDouble()) * 1000 / perSecond);
+            EngineNode source = nodes[traffic.nextInt(nodeCount)];
+            MeshFrame frame = newFrame(traffic, source.site.id, i);
+            startedAt[i] = time;
+            Tally tally = tallies[frame.type];
+            tally.sent++;
+            tally.reachable += topology.reachableFrom(source.site);
+            sim.schedule(time, () -> source.originate(frame));
+        }
+        sim.runUntil(time + DRAIN_MS);
+        
+        report(mtu, lingerMillis, sim, channel, nodes, tallies, (System.nanoTime() - wallStart) / 1e9);
+        reportReliability(nodes, tallies[FrameType.SOS], receipts);
+    }
+    
+    private static MeshFrame newFrame(Random random, int origin, int sequence) {
+        double pick = random.nextDouble();
+        MeshFrame frame;
+        if (pick < 0.1) {
+            frame = new MeshFrame(FrameType.SOS, origin, sequence).setLocation(randomLatitude(random), randomLongitude(random));
+        } else if (pick < 0.5) {
+            frame = new MeshFrame(FrameType.LOCATION, origin, sequence).setLocation(randomLatitude(random), randomLongitude(random));
+        } else {
+            int length = MIN_CHAT_LENGTH + random.nextInt(MAX_CHAT_LENGTH - MIN_CHAT_LENGTH + 1);
+            StringBuilder body = new StringBuilder(length);
+            for (int i = 0; i < length; i++) {
+                body.append(CHAT_CHARS.charAt(random.nextInt(CHAT_CHARS.length())));
+            }
+            frame = new MeshFrame(FrameType.TEXT, origin, sequence).setBody(body.toString());
+        }
+        frame.ttl = TTL;
+        return frame;
+    }
+    
+    private static double randomLatitude(Random random) {
+        return 52.5 + random.nextDouble() * 0.01;
+    }
+    
+    private static double randomLongitude(Random random) {
+        return 13.4 + random.nextDouble() * 0.01;
+    }
+    
+    private static void report(int mtu, long lingerMillis, Simulator sim, RadioChannel channel, EngineNode[] nodes,
+                               Tally[] tallies, double wallSeconds) {
+        long dropped = 0;
+        long reassemblyLost = 0;
+        long relayed = 0;
+        long batches = 0;
+        long batched = 0;
+        for (EngineNode node : nodes) {
+            dropped += node.getTransport().getDroppedCount();
+            batches += node.getTransport().getBatchCount();
+            batched += node.getTransport().getBatchedCount();
+            reassemblyLost += node.getTransport().getReassembler().getTimedOutCount()
+                    + node.getTransport().getReassembler().getEvictedCount()
+                    + node.getTransport().getReassembler().getDroppedCount();
+            relayed += node.getRouting().getRelayedCount();
+        }
+        
+        System.out.printf("MTU %d (writes of %d bytes), batching %s%n", mtu, mtu - ATT_HEADER_SIZE,
+                lingerMillis == PeerWriteQueue.NO_BATCHING ? "off" : "with " + lingerMillis + " ms linger");
+        Tally all = new Tally();
+        for (int type : TYPES) {
+            Tally tally = tallies[type];
+            printTally(FrameType.name(type), tally);
+            all.sent += tally.sent;
+            all.reachable += tally.reachable;
+            for (int i = 0; i < tally.delivered; i++) {
+                all.addLatency(tally.latencies[i]);
+            }
+        }
+        printTally("all", all);
+        
+        double seconds = sim.nowMillis() / 1000.0;
+        System.out.printf("  writes %d (%.0f per message), lost %d, collided %d, queue drops %d, reassembly drops %d, relays %d%n",
+                channel.getWriteCount(), channel.getWriteCount() / (double) all.sent,
+                channel.getLostCount(), channel.getCollisionCount(), dropped, reassemblyLost, relayed);
+        if (lingerMillis != PeerWriteQueue.NO_BATCHING) {
+            long writes = channel.getWriteCount();
+            System.out.printf("  batched writes %d carrying %d frames, %.2f frames per write%n",
+                    batches, batched, (writes - batches + batched) / (double) Math.max(1, writes));
+        }
+        System.out.printf("  airtime %.1f s total, %.1f ms per message, busiest node on air %.2f%% of %.0f s%n",
+                channel.getAirtimeMicros() / 1e6, channel.getAirtimeMicros() / 1e3 / all.sent,
+                100.0 * channel.getBusiestNodeAirtimeMicros() / 1e6 / seconds, seconds);
+        System.out.printf("  %d events in %.1f s wall clock%n", sim.getEventCount(), wallSeconds);
+    }
+    
+    private static void reportReliability(EngineNode[] nodes, Tally sos, Tally receipts) {
+        int responders = 0;
+        long sent = 0;
+        long acked = 0;
+        long retransmitted = 0;
+        long expired = 0;
+        long cancelled = 0;
+        for (EngineNode node : nodes) {
+            if (node.isResponder()) {
+                responders++;
+            }
+            HopReliability hop = node.getHopReliability();
+            if (hop == null) continue;
+            sent += hop.getSentCount();
+            acked += hop.getAckedCount() + hop.getImplicitAckCount();
+            retransmitted += hop.getRetransmittedCount();
+            expired += hop.getExpiredCount();
+            cancelled += hop.getCancelledCount();
+        }
+        
+        // Receipts are counted against every SOS sent, reachable responder or not
+        receipts.sent = sos.sent;
+        receipts.reachable = sos.sent;
+        printTally("receipts", receipts);
+        System.out.printf("  %d responders; hop sends %d, acked %.2f%%, cancelled by receipts %d, "
+                + "retransmissions %d, given up %d%n",
+                responders, sent, 100.0 * acked / Math.max(1, sent), cancelled, retransmitted, expired);
+    }
+    
+    private static void printTally(String name, Tally tally) {
+        long[] sorted = Arrays.copyOf(tally.latencies, (int) tally.delivered);
+        Arrays.sort(sorted);
+        System.out.printf("  %-9s sent %5d  delivery %6.2f%%  latency p50 %6d  p90 %6d  p99 %6d  max %6d ms%n",
+                name, tally.sent, 100.0 * tally.delivered / Math.max(1, tally.reachable),
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                sorted.length == 0 ? 0 : sorted[sorted.length - 1]);
+    }
+    
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+    
+    /**
+     * Milliseconds, or "off" for {@link PeerWriteQueue#NO_BATCHING}
+     */
+    static long parseLinger(String arg) {
+        return arg.equals("off") ? PeerWriteQueue.NO_BATCHING : Long.parseLong(arg);
+    }
+    
+    public static void main(String[] args) {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        double side = args.length > 1 ? Double.parseDouble(args[1]) : 850;
+        int messages = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        double perSecond = args.length > 3 ? Double.parseDouble(args[3]) : 1.0;
+        int mtu = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 1;
+        boolean hopAcks = args.length <= 6 || !args[6].equals("0");
+        long linger = args.length <= 7 ? DEFAULT_LINGER_MS : parseLinger(args[7]);
+        int links = args.length > 8 ? Integer.parseInt(args[8]) : DEFAULT_LINKS;
+        
+        System.out.printf("%d nodes in %.0f m square, %d messages at %.1f/s, ttl %d, seed %d, hop acks %s, links %s%n",
+                nodes, side, messages, perSecond, TTL, seed, hopAcks ? "on" : "off",
+                links > 0 ? "up to " + links : "all");
+        ScaleSimulation simulation = new ScaleSimulation(nodes, side, messages, perSecond, seed, hopAcks, linger,
+                links);
+        if (mtu > 0) {
+            simulation.run(mtu);
+        } else {
+            simulation.run(DEFAULT_MTU);
+            simulation.run(NEGOTIATED_MTU);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.meshnetwork.mesh.sim;
+
+import com.meshnetwork.mesh.schedule.SendPipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test for {@link SendPipeline}: bursts of sends from several
+ * producer threads, with a sink that costs a fixed time per batch plus a
+ * little per item, like one GATT write carrying several frames. Reports
+ * the most sender threads alive at once, queue-to-send latency percentiles and what each
+ * overflow policy refused or dropped, next to a thread-per-message
+ * baseline like the one MeshNetworkService used to have.
+ *
+ * Usage: SendPipelineLoad [producers]
+ */
+public class SendPipelineLoad {
+    
+    private static final int[] BURSTS = {500, 5_000};
+    private static final int CAPACITY = 256;
+    private static final int MAX_BATCH = 32;
+    private static final long BATCH_COST_NANOS = 2_000_000;
+    private static final long ITEM_COST_NANOS = 50_000;
+    
+    /** One queued send, stamped when it was offered */
+    private static final class Send {
+        final long offeredAt = System.nanoTime();
+    }
+    
+    private static final class Latencies {
+        private long[] values = new long[1024];
+        private int size;
+        
+        synchronized void add(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+        
+        synchronized String describe() {
+            if (size == 0) return "no sends";
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return String.format("p50 %6.1f ms  p99 %6.1f ms  max %6.1f ms",
+                    sorted[size / 2] / 1e6, sorted[(int) (size * 0.99)] / 1e6, sorted[size - 1] / 1e6);
+        }
+    }
+    
+    static void runPipeline(String name, int policy, int burst, int producers) throws InterruptedException {
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(2);
+        Latencies latencies = new Latencies();
+        SendPipeline<Send> pipeline = new SendPipeline<>(executor, CAPACITY, MAX_BATCH, policy, 5_000, batch -> {
+            LockSupport.parkNanos(BATCH_COST_NANOS + batch.size() * ITEM_COST_NANOS);
+            long now = System.nanoTime();
+            for (Send send : batch) {
+                latencies.add(now - send.offeredAt);
+            }
+        });
+        
+        long start = System.nanoTime();
+        produce(burst, producers, () -> pipeline.offer(new Send()));
+        long offered = System.nanoTime();
+        while (pipeline.getSentCount() < pipeline.getAcceptedCount() - pipeline.getDroppedCount()) {
+            Thread.sleep(1);
+        }
+        long done = System.nanoTime();
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+        
+        System.out.printf("%-22s burst %5d  send threads %-4d offer %6.1f ms  drain %7.1f ms  sent %5d  refused %5d  dropped %5d  batches %4d  %s%n",
+                name, burst, executor.getLargestPoolSize(),
+                (offered - start) / 1e6, (done - start) / 1e6,
+                pipeline.getSentCount(), pipeline.getRejectedCount(), pipeline.getDroppedCount(),
+                pipeline.getBatchCount(), latencies.describe());
+    }
+    
+    static void runThreadPerMessage(int burst, int producers) throws InterruptedException {
+        Latencies latencies = new Latencies();
+        List<Thread> senders = new ArrayList<>();
+        AtomicInteger alive = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        
+        long start = System.nanoTime();
+        produce(burst, producers, () -> {
+            Send send = new Send();
+            Thread thread = new Thread(() -> {
+                int now = alive.incrementAndGet();
+                peak.accumulateAndGet(now, Math::max);
+                LockSupport.parkNanos(BATCH_COST_NANOS + ITEM_COST_NANOS);
+                latencies.add(System.nanoTime() - send.offeredAt);
+                alive.decrementAndGet();
+            });
+            synchronized (senders) {
+                senders.add(thread);
+            }
+            thread.start();
+            return true;
+        });
+        long offered = System.nanoTime();
+        for (Thread thread : senders) {
+            thread.join();
+        }
+        long done = System.nanoTime();
+        
+        System.out.printf("%-22s burst %5d  send threads %-4d offer %6.1f ms  drain %7.1f ms  sent %5d  refused %5d  dropped %5d  batches %4s  %s%n",
+                "thread per message", burst, peak.get(),
+                (offered - start) / 1e6, (done - start) / 1e6, senders.size(), 0, 0, "-", latencies.describe());
+    }
+    
+    interface Offer {
+        boolean offer();
+    }
+    
+    private static void produce(int burst, int producers, Offer offer) throws InterruptedException {
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int share = burst / producers + (p < burst % producers ? 1 : 0);
+            threads.add(new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < share; i++) {
+                    offer.offer();
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+    
+    public static void main(String[] args) throws InterruptedException {
+        int producers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        System.out.printf("capacity %d, batches of up to %d, %.1f ms per batch + %.2f ms per item, %d producers%n",
+                CAPACITY, MAX_BATCH, BATCH_COST_NANOS / 1e6, ITEM_COST_NANOS / 1e6, producers);
+        
+        for (int burst : BURSTS) {
+            runThreadPerMessage(burst, producers);
+            runPipeline("pipeline reject", SendPipeline.POLICY_REJECT, burst, producers);
+            runPipeline("pipeline drop oldest", SendPipeline.POLICY_DROP_OLDEST, burst, producers);
+            runPipeline("pipeline block", SendPipeline.POLICY_BLOCK, burst, producers);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.meshnetwork.mesh.sim;
+
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.dedup.SeenMessageCache;
+import com.meshnetwork.mesh.routing.LinkQualityTable;
+import com.meshnetwork.mesh.routing.RoutingEngine;
+import com.meshnetwork.mesh.routing.RoutingStrategy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * One simulated phone: its links, duplicate cache and routing engine.
+ *
+ * Sending a frame is modelled the way the GATT transport does it, as one
+ * write per connected neighbour, serialized on the node's radio.
+ */
+public class SimNode {
+    
+    public static final class Link {
+        public final SimNode to;
+        public final int rssi;
+        public final double deliveryProbability;
+        
+        Link(SimNode to, int rssi, double deliveryProbability) {
+            this.to = to;
+            this.rssi = rssi;
+            this.deliveryProbability = deliveryProbability;
+        }
+    }
+    
+    /** Receives first copies so the simulation can score delivery */
+    public interface Observer {
+        void onDelivered(SimNode node, MeshFrame frame, int hops);
+        void onWrite(SimNode node);
+    }
+    
+    private static final int SEEN_CACHE_ENTRIES = 1024;
+    private static final long SEEN_CACHE_EXPIRY_MS = 10 * 60 * 1000;
+    
+    public final int id;
+    public final String address;
+    public final double x;
+    public final double y;
+    public final List<Link> links = new ArrayList<>();
+    
+    private final Simulator sim;
+    private final Random random;
+    private final SeenMessageCache seen = new SeenMessageCache(SEEN_CACHE_ENTRIES, SEEN_CACHE_EXPIRY_MS);
+    private LinkQualityTable linkQuality;
+    private RoutingEngine engine;
+    private Observer observer;
+    private long radioBusyUntil;
+    
+    public SimNode(int id, double x, double y, Simulator sim, Random random) {
+        this.id = id;
+        this.address = "N" + id;
+        this.x = x;
+        this.y = y;
+        this.sim = sim;
+        this.random = random;
+    }
+    
+    /**
+     * Start a fresh run: forget seen frames and learned link statistics.
+     * Neighbour RSSI is known up front, as a phone has it from scanning.
+     */
+    public void reset() {
+        seen.clear();
+        radioBusyUntil = 0;
+        linkQuality = new LinkQualityTable();
+        for (Link link : links) {
+            linkQuality.recordRssi(link.to.address, link.rssi);
+        }
+    }
+    
+    public void setRouting(RoutingStrategy strategy, Observer observer) {
+        this.engine = new RoutingEngine(strategy);
+        this.observer = observer;
+    }
+    
+    public LinkQualityTable getLinkQuality() {
+        return linkQuality;
+    }
+    
+    public RoutingEngine getEngine() {
+        return engine;
+    }
+    
+    /**
+     * Originate a frame from this node
+     */
+    public void originate(MeshFrame frame) {
+        seen.markSeen(frame.originId, frame.sequence, sim.nowMillis());
+        send(frame, 0, null);
+    }
+    
+    void receive(MeshFrame frame, int hops, SimNode from, int rssi) {
+        linkQuality.recordRssi(from.address, rssi);
+        if (!seen.markSeen(frame.originId, frame.sequence, sim.nowMillis())) {
+            engine.onDuplicate(frame.originId, frame.sequence);
+            return;
+        }
+        observer.onDelivered(this, frame, hops);
+        
+        long delay = engine.onFirstCopy(frame, from.address);
+        if (delay == RoutingStrategy.DROP) return;
+        
+        MeshFrame relay = copy(frame);
+        relay.ttl = frame.ttl - 1;
+        if (delay == 0) {
+            send(relay, hops, from);
+        } else {
+            sim.schedule(delay, () -> {
+                if (engine.onRelayDue(relay.originId, relay.sequence)) {
+                    send(relay, hops, from);
+                }
+            });
+        }
+    }
+    
+    private void send(MeshFrame frame, int hops, SimNode except) {
+        for (Link link : links) {
+            if (link.to == except) continue;
+            
+            // Writes queue up behind each other on this node's radio
+            radioBusyUntil = Math.max(radioBusyUntil, sim.nowMillis()) + RadioModel.WRITE_TIME_MS;
+            observer.onWrite(this);
+            boolean delivered = random.nextDouble() < link.deliveryProbability;
+            linkQuality.recordDelivery(link.to.address, delivered);
+            if (!delivered) continue;
+            
+            SimNode to = link.to;
+            int rssi = link.rssi;
+            sim.schedule(radioBusyUntil - sim.nowMillis(), () -> to.receive(frame, hops + 1, this, rssi));
+        }
+    }
+    
+    private static MeshFrame copy(MeshFrame frame) {
+        MeshFrame copy = new MeshFrame(frame.type, frame.originId, frame.sequence);
+        copy.ttl = frame.ttl;
+        return copy;
+    }
+}
@@ -0,0 +1,138 @@
+package com.meshnetwork.mesh.sim;
+
+import com.meshnetwork.mesh.transport.AbstractMeshTransport;
+import com.meshnetwork.mesh.transport.PeerWriteQueue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The real transport bookkeeping (per-peer priority queues, fragmentation
+ * at the link's write size, reassembly) on top of the simulated air.
+ *
+ * Each write occupies the node's radio for one connection interval, so
+ * writes to different neighbours queue up behind each other as in
+ * {@link SimNode}. Whether a write arrives is up to the {@link RadioChannel}.
+ *
+ * A link is opened by one side, as a GATT client link is; the other side
+ * can only answer over it, as the app does with notifications.
+ */
+public class SimTransport extends AbstractMeshTransport {
+    
+    private final SimNode node;
+    private final Simulator sim;
+    private final RadioChannel channel;
+    private final Map<String, SimNode.Link> links = new HashMap<>();
+    private final Map<String, SimTransport> peers = new HashMap<>();
+    // Links neighbours opened to us: our side of the air towards them, and their transport
+    private final Map<String, SimNode.Link> replyLinks = new HashMap<>();
+    private final Map<String, SimTransport> replyPeers = new HashMap<>();
+    private long radioBusyUntil;
+    
+    public SimTransport(SimNode node, Simulator sim, RadioChannel channel, int queueCapacity) {
+        super(queueCapacity, sim);
+        this.node = node;
+        this.sim = sim;
+        this.channel = channel;
+    }
+    
+    /**
+     * Open the link to a neighbour's transport with writes of up to
+     * {@code writeSize} bytes; the neighbour can answer over it
+     */
+    public void link(SimNode.Link link, SimTransport peer, int writeSize) {
+        links.put(peer.node.address, link);
+        peers.put(peer.node.address, peer);
+        onLinkUp(peer.node.address, writeSize);
+        peer.acceptLink(this, writeSize);
+    }
+    
+    private void acceptLink(SimTransport from, int writeSize) {
+        for (SimNode.Link back : node.links) {
+            if (back.to == from.node) {
+                replyLinks.put(from.node.address, back);
+                replyPeers.put(from.node.address, from);
+                onInboundLinkUp(from.node.address, writeSize);
+                return;
+            }
+        }
+    }
+    
+    @Override
+    public void connect(String peerAddress) {
+        // Links are opened by the simulation with link()
+    }
+    
+    /**
+     * Packets dropped because a neighbour's queue was full
+     */
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (String peer : links.keySet()) {
+            PeerWriteQueue queue = getQueue(peer);
+            if (queue != null) {
+                dropped += queue.getDroppedCount();
+            }
+        }
+        return dropped;
+    }
+    
+    /**
+     * Writes that carried several packets
+     */
+    public long getBatchCount() {
+        long batches = 0;
+        for (String peer : links.keySet()) {
+            PeerWriteQueue queue = getQueue(peer);
+            if (queue != null) {
+                batches += queue.getBatchCount();
+            }
+        }
+        return batches;
+    }
+    
+    /**
+     * Packets carried in those writes
+     */
+    public long getBatchedCount() {
+        long batched = 0;
+        for (String peer : links.keySet()) {
+            PeerWriteQueue queue = getQueue(peer);
+            if (queue != null) {
+                batched += queue.getBatchedCount();
+            }
+        }
+        return batched;
+    }
+    
+    @Override
+    protected PeerWriteQueue.LinkWriter createWriter(String peerAddress) {
+        return writer(peerAddress, links.get(peerAddress), peers.get(peerAddress), false);
+    }
+    
+    @Override
+    protected PeerWriteQueue.LinkWriter createReplyWriter(String peerAddress) {
+        return writer(peerAddress, replyLinks.get(peerAddress), replyPeers.get(peerAddress), true);
+    }
+    
+    private PeerWriteQueue.LinkWriter writer(String peerAddress, SimNode.Link link, SimTransport peer, boolean reply) {
+        return data -> {
+            long slot = Math.max(sim.nowMillis(), radioBusyUntil);
+            radioBusyUntil = slot + RadioModel.WRITE_TIME_MS;
+            channel.startWrite(node, data.length, slot);
+            sim.schedule(radioBusyUntil - sim.nowMillis(), () -> {
+                boolean delivered = channel.finishWrite(node, link, slot);
+                if (delivered) {
+                    // Each receiver gets its own copy, as from a real radio
+                    peer.onDataReceived(node.address, data.clone());
+                }
+                if (reply) {
+                    onReplyComplete(peerAddress, delivered);
+                } else {
+                    onWriteComplete(peerAddress, delivered);
+                }
+            });
+            return true;
+        };
+    }
+}
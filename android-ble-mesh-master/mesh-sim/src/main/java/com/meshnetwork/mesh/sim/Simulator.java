@@ -0,0 +1,62 @@
+package com.meshnetwork.mesh.sim;
+
+import com.meshnetwork.mesh.MeshClock;
+
+import java.util.PriorityQueue;
+
+/**
+ * Single-threaded discrete-event loop. Events run in time order, and
+ * events scheduled for the same time run in the order they were scheduled,
+ * so a run is fully determined by its inputs.
+ */
+public class Simulator implements MeshClock {
+    
+    private static final class Event implements Comparable<Event> {
+        final long time;
+        final long order;
+        final Runnable action;
+        
+        Event(long time, long order, Runnable action) {
+            this.time = time;
+            this.order = order;
+            this.action = action;
+        }
+        
+        @Override
+        public int compareTo(Event other) {
+            if (time != other.time) return Long.compare(time, other.time);
+            return Long.compare(order, other.order);
+        }
+    }
+    
+    private final PriorityQueue<Event> queue = new PriorityQueue<>();
+    private long now;
+    private long nextOrder;
+    private long eventCount;
+    
+    @Override
+    public long nowMillis() {
+        return now;
+    }
+    
+    public void schedule(long delayMillis, Runnable action) {
+        queue.add(new Event(now + Math.max(0, delayMillis), nextOrder++, action));
+    }
+    
+    /**
+     * Run events until the queue is empty or the next one is after {@code endTime}
+     */
+    public void runUntil(long endTime) {
+        while (!queue.isEmpty() && queue.peek().time <= endTime) {
+            Event event = queue.poll();
+            now = event.time;
+            eventCount++;
+            event.action.run();
+        }
+        now = Math.max(now, endTime);
+    }
+    
+    public long getEventCount() {
+        return eventCount;
+    }
+}
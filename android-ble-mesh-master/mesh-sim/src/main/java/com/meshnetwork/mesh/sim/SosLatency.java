@@ -0,0 +1,249 @@
+package com.meshnetwork.mesh.sim;
+
+import com.meshnetwork.mesh.MeshClock;
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.fragment.Fragmenter;
+import com.meshnetwork.mesh.schedule.Priority;
+import com.meshnetwork.mesh.transport.AbstractMeshTransport;
+import com.meshnetwork.mesh.transport.FakeTransport;
+import com.meshnetwork.mesh.transport.MeshTransport;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * SOS latency on a saturated link: one link that completes a fixed number
+ * of writes per second of simulated time, offered location updates and
+ * chat at more than it can carry, with an occasional SOS among them. The
+ * frames go through the real transport queues on a {@link FakeTransport}
+ * pair; the same arrivals also go through a plain drop-tail FIFO of the
+ * same capacity, as every send was queued before the priority scheduler.
+ * Arrivals stop after the given time and both queues drain. Reports
+ * latency percentiles from send to delivery for each class, and what was
+ * dropped or coalesced.
+ *
+ * Usage: SosLatency [seconds] [writesPerSecond] [load] [seed]
+ */
+public class SosLatency {
+    
+    private static final double SOS_PER_SECOND = 2;
+    // Background shares of the offered load, in writes
+    private static final double LOCATION_SHARE = 0.6;
+    private static final double CHAT_SHARE = 0.4;
+    private static final int USERS = 500;
+    private static final int MAX_CHAT_LENGTH = 60;
+    
+    private static final String PEER = "B";
+    
+    /** Latencies in milliseconds, one list per class */
+    private static final class Latencies {
+        private long[] values = new long[1024];
+        private int size;
+        
+        void add(long millis) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = millis;
+        }
+        
+        String describe() {
+            if (size == 0) return "nothing delivered";
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return String.format("%7d delivered  p50 %6d ms  p99 %6d ms  max %6d ms",
+                    size, sorted[size / 2], sorted[(int) (size * 0.99)], sorted[size - 1]);
+        }
+    }
+    
+    /** A frame waiting in the FIFO baseline, as the writes it still needs */
+    private static final class Queued {
+        final int priority;
+        final long sentAt;
+        int writesLeft;
+        
+        Queued(int priority, long sentAt, int writes) {
+            this.priority = priority;
+            this.sentAt = sentAt;
+            this.writesLeft = writes;
+        }
+    }
+    
+    private final int seconds;
+    private final double writesPerSecond;
+    private final double load;
+    private final Random random;
+    
+    private final long[] now = new long[1];
+    private final Latencies[] scheduled = new Latencies[Priority.COUNT];
+    private final Latencies[] fifo = new Latencies[Priority.COUNT];
+    private final long[][] sentAt = new long[Priority.COUNT][];
+    private final int[] offered = new int[Priority.COUNT];
+    private final int[] dropped = new int[Priority.COUNT];
+    private final int[] fifoDropped = new int[Priority.COUNT];
+    
+    SosLatency(int seconds, double writesPerSecond, double load, long seed) {
+        this.seconds = seconds;
+        this.writesPerSecond = writesPerSecond;
+        this.load = load;
+        this.random = new Random(seed);
+        for (int p = 0; p < Priority.COUNT; p++) {
+            scheduled[p] = new Latencies();
+            fifo[p] = new Latencies();
+            sentAt[p] = new long[1024];
+        }
+    }
+    
+    void run() {
+        MeshClock clock = () -> now[0];
+        FakeTransport a = new FakeTransport("A", AbstractMeshTransport.DEFAULT_QUEUE_CAPACITY, clock);
+        FakeTransport b = new FakeTransport(PEER, AbstractMeshTransport.DEFAULT_QUEUE_CAPACITY, clock);
+        MeshFrame decoded = new MeshFrame();
+        a.start(new Listener());
+        b.start(new Listener() {
+            @Override
+            public void onFrameReceived(String peerAddress, byte[] data) {
+                FrameCodec.decode(data, 0, data.length, decoded);
+                int priority = Priority.of(decoded.type);
+                scheduled[priority].add(now[0] - sentAt[priority][decoded.sequence]);
+            }
+        });
+        FakeTransport.link(a, b);
+        
+        ArrayDeque<Queued> baseline = new ArrayDeque<>();
+        int baselineWrites = 0;
+        
+        // Per-millisecond arrival rates; frames are counted in writes for the load
+        double locationPerMilli = writesPerSecond * load * LOCATION_SHARE / 1000;
+        double chatPerMilli = writesPerSecond * load * CHAT_SHARE / 1000 / meanChatWrites();
+        double sosPerMilli = SOS_PER_SECOND / 1000;
+        double writeCredit = 0;
+        
+        long end = seconds * 1000L;
+        for (long t = 0; t < end || a.getInFlightCount() > 0 || !baseline.isEmpty(); t++) {
+            now[0] = t;
+            for (int p = 0; p < Priority.COUNT && t < end; p++) {
+                double rate = p == Priority.SOS ? sosPerMilli
+                        : p == Priority.LOCATION ? locationPerMilli
+                        : p == Priority.CHAT ? chatPerMilli : 0;
+                for (int n = arrivals(rate); n > 0; n--) {
+                    byte[] frame = frame(p, t);
+                    if (!a.send(PEER, frame)) {
+                        dropped[p]++;
+                    }
+                    
+                    int writes = Fragmenter.needsFragmenting(frame, FrameCodec.DEFAULT_WRITE_SIZE)
+                            ? Fragmenter.fragmentCount(frame.length, FrameCodec.DEFAULT_WRITE_SIZE) : 1;
+                    if (baselineWrites + writes > AbstractMeshTransport.DEFAULT_QUEUE_CAPACITY) {
+                        fifoDropped[p]++;
+                    } else {
+                        baseline.add(new Queued(p, t, writes));
+                        baselineWrites += writes;
+                    }
+                }
+            }
+            
+            // The link finishes writes at a steady rate, delivering at the end of each
+            writeCredit += writesPerSecond / 1000;
+            while (writeCredit >= 1) {
+                writeCredit--;
+                a.completeWrite(PEER);
+                Queued head = baseline.peek();
+                if (head != null) {
+                    baselineWrites--;
+                    if (--head.writesLeft == 0) {
+                        baseline.poll();
+                        fifo[head.priority].add(t - head.sentAt);
+                    }
+                }
+            }
+        }
+        
+        System.out.printf("%d s at %.0f writes/s, offered load %.2f, %.0f SOS/s%n",
+                seconds, writesPerSecond, load, SOS_PER_SECOND);
+        report("priority scheduler", scheduled, dropped);
+        report("FIFO baseline", fifo, fifoDropped);
+    }
+    
+    private void report(String name, Latencies[] latencies, int[] dropped) {
+        System.out.printf("  %s%n", name);
+        for (int p : new int[] {Priority.SOS, Priority.LOCATION, Priority.CHAT}) {
+            // With both queues drained, whatever was neither delivered nor dropped was coalesced
+            System.out.printf("    %-8s %7d sent  %s  dropped %6d  coalesced %6d%n", Priority.name(p), offered[p],
+                    latencies[p].describe(), dropped[p], offered[p] - latencies[p].size - dropped[p]);
+        }
+    }
+    
+    private int arrivals(double ratePerMilli) {
+        int n = (int) ratePerMilli;
+        return random.nextDouble() < ratePerMilli - n ? n + 1 : n;
+    }
+    
+    private static double meanChatWrites() {
+        double total = 0;
+        for (int length = 1; length <= MAX_CHAT_LENGTH; length++) {
+            byte[] frame = FrameCodec.encode(new MeshFrame(FrameType.TEXT, USERS, 0).setBody(body(length)));
+            total += Fragmenter.needsFragmenting(frame, FrameCodec.DEFAULT_WRITE_SIZE)
+                    ? Fragmenter.fragmentCount(frame.length, FrameCodec.DEFAULT_WRITE_SIZE) : 1;
+        }
+        return total / MAX_CHAT_LENGTH;
+    }
+    
+    private static String body(int length) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'x');
+        return new String(chars);
+    }
+    
+    /** The next frame of a class, numbered so its send time can be found on delivery */
+    private byte[] frame(int priority, long t) {
+        int sequence = offered[priority]++;
+        if (sequence == sentAt[priority].length) {
+            sentAt[priority] = Arrays.copyOf(sentAt[priority], sequence * 2);
+        }
+        sentAt[priority][sequence] = t;
+        
+        MeshFrame frame;
+        switch (priority) {
+            case Priority.SOS:
+                frame = new MeshFrame(FrameType.SOS, 1, sequence).setLocation(47.37, 8.54);
+                break;
+            case Priority.LOCATION:
+                frame = new MeshFrame(FrameType.LOCATION, 2 + random.nextInt(USERS), sequence)
+                        .setLocation(47.37 + random.nextDouble() / 100, 8.54 + random.nextDouble() / 100);
+                break;
+            default:
+                frame = new MeshFrame(FrameType.TEXT, 2 + random.nextInt(USERS), sequence)
+                        .setBody(body(1 + random.nextInt(MAX_CHAT_LENGTH)));
+                break;
+        }
+        return FrameCodec.encode(frame);
+    }
+    
+    /** Ignores everything; the sender only needs a listener to start */
+    private static class Listener implements MeshTransport.Listener {
+        @Override
+        public void onPeerConnected(String peerAddress) {
+        }
+        
+        @Override
+        public void onPeerDisconnected(String peerAddress) {
+        }
+        
+        @Override
+        public void onFrameReceived(String peerAddress, byte[] data) {
+        }
+    }
+    
+    public static void main(String[] args) {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 120;
+        double writesPerSecond = args.length > 1 ? Double.parseDouble(args[1]) : 400;
+        double load = args.length > 2 ? Double.parseDouble(args[2]) : 1.5;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        
+        new SosLatency(seconds, writesPerSecond, load, seed).run();
+    }
+}
@@ -0,0 +1,150 @@
+package com.meshnetwork.mesh.sim;
+
+import com.meshnetwork.mesh.MeshClock;
+import com.meshnetwork.mesh.codec.FrameCodec;
+import com.meshnetwork.mesh.codec.FrameType;
+import com.meshnetwork.mesh.codec.MeshFrame;
+import com.meshnetwork.mesh.dedup.SeenMessageCache;
+import com.meshnetwork.mesh.sync.AntiEntropySync;
+import com.meshnetwork.mesh.transport.FakeTransport;
+import com.meshnetwork.mesh.transport.MeshTransport;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures one anti-entropy round between two nodes across store sizes
+ * and overlap ratios: bytes on the link for the sync exchange, frames
+ * transferred, and whether both ends ended up with the union. For scale,
+ * it also prints what swapping full key lists would have cost.
+ *
+ * Usage: SyncBenchmark [seed]
+ */
+public class SyncBenchmark {
+    
+    private static final int[] STORE_SIZES = {100, 1_000, 10_000, 100_000};
+    private static final double[] OVERLAPS = {1.0, 0.999, 0.99, 0.95, 0.8};
+    
+    /** Body of every benchmark frame, about a short chat message */
+    private static final String BODY = "benchmark message body of typical length";
+    
+    /** One end of the link: its frames and its sync engine */
+    private static final class Peer implements MeshTransport.Listener {
+        final FakeTransport transport;
+        final Map<Long, byte[]> frames = new LinkedHashMap<>();
+        final AntiEntropySync sync;
+        final MeshFrame scratch = new MeshFrame();
+        long dataFramesReceived;
+        
+        Peer(String address, int nodeId, MeshClock clock) {
+            transport = new FakeTransport(address, 1 << 20, clock);
+            sync = new AntiEntropySync(nodeId, new AntiEntropySync.FrameSource() {
+                @Override
+                public long[] keys() {
+                    long[] keys = new long[frames.size()];
+                    int i = 0;
+                    for (Long key : frames.keySet()) {
+                        keys[i++] = key;
+                    }
+                    return keys;
+                }
+                
+                @Override
+                public byte[] frame(long key) {
+                    return frames.get(key);
+                }
+            }, transport, clock);
+            transport.start(this);
+        }
+        
+        @Override
+        public void onPeerConnected(String peerAddress) {
+            sync.onContact(peerAddress);
+        }
+        
+        @Override
+        public void onPeerDisconnected(String peerAddress) {
+            sync.onDisconnected(peerAddress);
+        }
+        
+        @Override
+        public void onFrameReceived(String peerAddress, byte[] data) {
+            if (FrameCodec.decode(data, 0, data.length, scratch) < 0) return;
+            if (scratch.type == FrameType.SYNC) {
+                sync.onSyncFrame(peerAddress, scratch);
+                return;
+            }
+            dataFramesReceived++;
+            frames.put(SeenMessageCache.key(scratch.originId, scratch.sequence), data);
+        }
+        
+        long linkBytes() {
+            long bytes = 0;
+            for (byte[] packet : transport.getWritten()) {
+                bytes += packet.length;
+            }
+            return bytes;
+        }
+    }
+    
+    private static byte[] frame(int origin, int sequence) {
+        return FrameCodec.encode(new MeshFrame(FrameType.TEXT, origin, sequence).setBody(BODY));
+    }
+    
+    static void run(int storeSize, double overlap, Random random) {
+        MeshClock clock = () -> 0;
+        Peer a = new Peer("A", 1, clock);
+        Peer b = new Peer("B", 2, clock);
+        
+        // Shared frames first, then frames only one side has; origins spread over 64 nodes
+        int shared = (int) Math.round(storeSize * overlap);
+        int next = 0;
+        for (int i = 0; i < storeSize; i++) {
+            int origin = random.nextInt(64);
+            if (i < shared) {
+                byte[] data = frame(origin, next);
+                a.frames.put(SeenMessageCache.key(origin, next), data);
+                b.frames.put(SeenMessageCache.key(origin, next), data);
+                next++;
+            } else {
+                a.frames.put(SeenMessageCache.key(origin, next), frame(origin, next));
+                next++;
+                b.frames.put(SeenMessageCache.key(origin, next), frame(origin, next));
+                next++;
+            }
+        }
+        int difference = 2 * (storeSize - shared);
+        
+        long start = System.nanoTime();
+        FakeTransport.link(a.transport, b.transport);
+        int delivered = 1;
+        while (delivered > 0) {
+            delivered = a.transport.completeAll() + b.transport.completeAll();
+        }
+        double millis = (System.nanoTime() - start) / 1e6;
+        
+        long syncBytes = a.sync.getControlBytesSent() + b.sync.getControlBytesSent();
+        long linkBytes = a.linkBytes() + b.linkBytes();
+        long transferred = a.dataFramesReceived + b.dataFramesReceived;
+        boolean converged = a.frames.keySet().equals(b.frames.keySet());
+        long keyListBytes = 2L * storeSize * 8;
+        
+        System.out.printf("%7d  %6.1f%%  %6d  %9d  %9d  %9d  %7d  %-9s  %5d  %8.1f%n",
+                storeSize, overlap * 100, difference, syncBytes, keyListBytes, linkBytes, transferred,
+                converged ? "yes" : "partial", a.sync.getRetryCount() + b.sync.getRetryCount(), millis);
+    }
+    
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        Random random = new Random(seed);
+        
+        System.out.printf("%7s  %7s  %6s  %9s  %9s  %9s  %7s  %-9s  %5s  %8s%n",
+                "store", "overlap", "diff", "syncB", "keylistB", "linkB", "frames", "converged", "retry", "ms");
+        for (int storeSize : STORE_SIZES) {
+            for (double overlap : OVERLAPS) {
+                run(storeSize, overlap, random);
+            }
+        }
+    }
+}
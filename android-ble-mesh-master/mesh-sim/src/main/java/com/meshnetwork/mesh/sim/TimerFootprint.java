@@ -0,0 +1,137 @@
+package com.meshnetwork.mesh.sim;
+
+import com.meshnetwork.mesh.schedule.TimingWheel;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Retained heap and bulk cost of many pending timers: the mesh worker's
+ * {@link TimingWheel} against a binary heap of timer entries, the shape
+ * of a delay queue. Each timer has a task of its own, as relay and
+ * retransmission timers do, and a delay of up to the longest
+ * retransmission timeout. Run with enough heap for the count, e.g.
+ * {@code -Xmx1g} for a million.
+ *
+ * Usage: TimerFootprint [timers] [seed]
+ */
+public class TimerFootprint {
+    
+    private static final long TICK_MS = 10;
+    private static final int SLOTS = 512;
+    private static final int MAX_DELAY_MS = 10_000;
+    
+    private static final class HeapTimer implements Comparable<HeapTimer> {
+        final Runnable task;
+        final long deadline;
+        final long order;
+        
+        HeapTimer(Runnable task, long deadline, long order) {
+            this.task = task;
+            this.deadline = deadline;
+            this.order = order;
+        }
+        
+        @Override
+        public int compareTo(HeapTimer other) {
+            if (deadline != other.deadline) return deadline < other.deadline ? -1 : 1;
+            return Long.compare(order, other.order);
+        }
+    }
+    
+    /** A task with a little state, like a relay's frame key */
+    private static final class Task implements Runnable {
+        final int key;
+        
+        Task(int key) {
+            this.key = key;
+        }
+        
+        @Override
+        public void run() {
+        }
+    }
+    
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // Several rounds, as one collection does not always settle the heap
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+    
+    private static void report(String name, int timers, long bytes, long scheduleNanos, long drainNanos, String drain) {
+        System.out.printf("  %-6s %6.1f MB  %5.1f bytes per timer  schedule %6.1f ns each  %s %6.1f ns each%n",
+                name, bytes / 1e6, bytes / (double) timers, scheduleNanos / (double) timers,
+                drain, drainNanos / (double) timers);
+    }
+    
+    static void measureWheel(int timers, long[] delays) {
+        long[] now = {0};
+        long before = usedHeap();
+        
+        long start = System.nanoTime();
+        TimingWheel wheel = new TimingWheel(() -> now[0], TICK_MS, SLOTS, delay -> { });
+        TimingWheel.Timeout[] timeouts = new TimingWheel.Timeout[timers];
+        for (int i = 0; i < timers; i++) {
+            timeouts[i] = wheel.schedule(new Task(i), delays[i]);
+        }
+        long scheduleNanos = System.nanoTime() - start;
+        
+        long bytes = usedHeap() - before;
+        
+        start = System.nanoTime();
+        for (int i = 0; i < timers; i++) {
+            wheel.cancel(timeouts[i]);
+        }
+        long cancelNanos = System.nanoTime() - start;
+        
+        if (wheel.size() != 0) throw new IllegalStateException(wheel.size() + " timers left on the wheel");
+        report("wheel", timers, bytes, scheduleNanos, cancelNanos, "cancel");
+    }
+    
+    static void measureHeap(int timers, long[] delays) {
+        long before = usedHeap();
+        
+        long start = System.nanoTime();
+        PriorityQueue<HeapTimer> heap = new PriorityQueue<>();
+        for (int i = 0; i < timers; i++) {
+            heap.add(new HeapTimer(new Task(i), delays[i], i));
+        }
+        long scheduleNanos = System.nanoTime() - start;
+        
+        long bytes = usedHeap() - before;
+        
+        // Removing a million by identity is quadratic; fire them in order instead
+        start = System.nanoTime();
+        while (!heap.isEmpty()) {
+            heap.poll().task.run();
+        }
+        long pollNanos = System.nanoTime() - start;
+        
+        report("heap", timers, bytes, scheduleNanos, pollNanos, "poll  ");
+    }
+    
+    public static void main(String[] args) {
+        int timers = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        
+        Random random = new Random(seed);
+        long[] delays = new long[timers];
+        for (int i = 0; i < timers; i++) {
+            delays[i] = 1 + random.nextInt(MAX_DELAY_MS);
+        }
+        
+        System.out.println(timers + " pending timers, delays up to " + MAX_DELAY_MS + " ms, wheel of "
+                + SLOTS + " slots of " + TICK_MS + " ms");
+        // A first pass of each warms up the JIT; the second is reported
+        for (int round = 0; round < 2; round++) {
+            if (round == 1) System.out.println("measured:");
+            measureWheel(timers, delays);
+            measureHeap(timers, delays);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.meshnetwork.mesh.sim;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Nodes placed uniformly at random in a square, linked wherever the radio
+ * model gives a usable signal. Shadowing is drawn once per link and is the
+ * same in both directions.
+ */
+public class Topology {
+    
+    public final List<SimNode> nodes = new ArrayList<>();
+    public final double sideMeters;
+    
+    public Topology(int nodeCount, double sideMeters, Simulator sim, Random random) {
+        this.sideMeters = sideMeters;
+        for (int i = 0; i < nodeCount; i++) {
+            nodes.add(new SimNode(i, random.nextDouble() * sideMeters, random.nextDouble() * sideMeters, sim, random));
+        }
+        connect(random);
+    }
+    
+    private void connect(Random random) {
+        // Bucket nodes into cells one radio range wide so only nearby pairs are compared
+        double range = RadioModel.maxRangeMeters();
+        int cells = Math.max(1, (int) Math.ceil(sideMeters / range));
+        List<List<SimNode>> grid = new ArrayList<>();
+        for (int i = 0; i < cells * cells; i++) {
+            grid.add(new ArrayList<>());
+        }
+        for (SimNode node : nodes) {
+            grid.get(cellOf(node.y, range, cells) * cells + cellOf(node.x, range, cells)).add(node);
+        }
+        
+        for (SimNode a : nodes) {
+            int cx = cellOf(a.x, range, cells);
+            int cy = cellOf(a.y, range, cells);
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    int x = cx + dx;
+                    int y = cy + dy;
+                    if (x < 0 || y < 0 || x >= cells || y >= cells) continue;
+                    for (SimNode b : grid.get(y * cells + x)) {
+                        if (b.id <= a.id) continue;
+                        link(a, b, random);
+                    }
+                }
+            }
+        }
+    }
+    
+    private static void link(SimNode a, SimNode b, Random random) {
+        double distance = Math.hypot(a.x - b.x, a.y - b.y);
+        double rssi = RadioModel.rssiAt(distance, random.nextGaussian() * RadioModel.SHADOWING_SIGMA_DB);
+        double p = RadioModel.deliveryProbability(rssi);
+        if (p <= 0) return;
+        int rounded = (int) Math.round(rssi);
+        a.links.add(new SimNode.Link(b, rounded, p));
+        b.links.add(new SimNode.Link(a, rounded, p));
+    }
+    
+    private static int cellOf(double coordinate, double range, int cells) {
+        return Math.min(cells - 1, (int) (coordinate / range));
+    }
+    
+    /**
+     * Nodes other than {@code source} reachable over any number of links
+     */
+    public int reachableFrom(SimNode source) {
+        boolean[] visited = new boolean[nodes.size()];
+        ArrayDeque<SimNode> queue = new ArrayDeque<>();
+        visited[source.id] = true;
+        queue.add(source);
+        int count = 0;
+        while (!queue.isEmpty()) {
+            for (SimNode.Link link : queue.poll().links) {
+                if (visited[link.to.id]) continue;
+                visited[link.to.id] = true;
+                queue.add(link.to);
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    public double meanDegree() {
+        long total = 0;
+        for (SimNode node : nodes) {
+            total += node.links.size();
+        }
+        return total / (double) nodes.size();
+    }
+}